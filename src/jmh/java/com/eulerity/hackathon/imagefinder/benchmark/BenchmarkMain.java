@@ -0,0 +1,35 @@
+package com.eulerity.hackathon.imagefinder.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks with the JMH command line options, always along with the allocation profiler
+ * ({@code -prof gc}), since allocation per operation is what the hot paths are tracked on
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions options = new CommandLineOptions(args);
+		if(options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+				|| options.shouldListProfilers() || options.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+		boolean gcProfiler = false;
+		for(ProfilerConfig profiler : options.getProfilers()) {
+			if(profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName())) gcProfiler = true;
+		}
+		if(!gcProfiler) builder.addProfiler(GCProfiler.class);
+		new Runner(builder.build()).run();
+	}
+}
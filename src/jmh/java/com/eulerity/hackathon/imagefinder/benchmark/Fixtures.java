@@ -0,0 +1,82 @@
+package com.eulerity.hackathon.imagefinder.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.eulerity.hackathon.imagefinder.extract.PageExtractor;
+
+/**
+ * HTML pages the benchmarks run over, under {@code src/jmh/resources/fixtures}, from a short blog post to a news
+ * portal with hundreds of links and images. They have the shape of real-world pages: navigation menus, responsive
+ * images, lazy loading, inline styles and scripts, JSON-LD and comments.
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param name Name of the fixture, without extension
+	 * @return Bytes of the page
+	 */
+	static byte[] load(String name) {
+		try(InputStream input = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".html")) {
+			if(input == null) throw new IllegalArgumentException("No fixture named " + name);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = input.read(buffer)) != -1) bytes.write(buffer, 0, read);
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read fixture " + name, e);
+		}
+	}
+
+	/**
+	 * @param name Name of the fixture
+	 * @return URL the fixture is crawled at
+	 */
+	static String urlOf(String name) {
+		return "https://www.example.com/" + name + "/";
+	}
+
+	/**
+	 * Extracts the links and image candidates of a page, unresolved
+	 * @param page Bytes of the page
+	 * @param links Receives the links
+	 * @param images Receives the image candidates
+	 */
+	static void extract(byte[] page, List<String> links, List<String> images) {
+		try {
+			PageExtractor.extract(new ByteArrayInputStream(page), "UTF-8", new PageExtractor.Handler() {
+				@Override
+				public void onLink(String url) {
+					links.add(url);
+				}
+
+				@Override
+				public void onImage(String url, PageExtractor.Source source) {
+					images.add(url);
+				}
+			});
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static List<String> links(byte[] page) {
+		List<String> links = new ArrayList<>();
+		extract(page, links, new ArrayList<>());
+		return links;
+	}
+
+	static List<String> images(byte[] page) {
+		List<String> images = new ArrayList<>();
+		extract(page, new ArrayList<>(), images);
+		return images;
+	}
+}
@@ -0,0 +1,116 @@
+package com.eulerity.hackathon.imagefinder.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eulerity.hackathon.imagefinder.extract.PageExtractor;
+import com.eulerity.hackathon.imagefinder.object.Image;
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
+import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
+
+/**
+ * Extraction of a page the way {@link ImageCrawlerService} processes it: the same-domain subpages it links to, and
+ * its images, resolved and categorized
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageExtractionBenchmark {
+
+	@Param({"blog-post", "product-listing", "news-portal"})
+	public String fixture;
+
+	private byte[] page;
+	private String pageUrl;
+	private CrawlEngine engine;
+	private ImageCrawlerService service;
+
+	@Setup
+	public void setUp() {
+		page = Fixtures.load(fixture);
+		pageUrl = Fixtures.urlOf(fixture);
+		engine = new CrawlEngine(1, 1, 1, 1, 1);
+		service = new ImageCrawlerService(engine.admit("benchmark"), true, 1);
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.shutdown();
+	}
+
+	/**
+	 * Tokenizing alone, the floor of the two benchmarks below
+	 */
+	@Benchmark
+	public int extract() throws IOException {
+		int[] count = new int[1];
+		PageExtractor.extract(new ByteArrayInputStream(page), "UTF-8", new PageExtractor.Handler() {
+			@Override
+			public void onLink(String url) {
+				count[0]++;
+			}
+
+			@Override
+			public void onImage(String url, PageExtractor.Source source) {
+				count[0]++;
+			}
+		});
+		return count[0];
+	}
+
+	@Benchmark
+	public List<String> subPageUrls() throws IOException {
+		ParsedUrl base = ParsedUrl.parse(pageUrl);
+		List<String> subPageUrls = new ArrayList<>();
+		PageExtractor.extract(new ByteArrayInputStream(page), "UTF-8", new PageExtractor.Handler() {
+			@Override
+			public void onLink(String link) {
+				String subPageUrl = service.resolveSubPage(base, link);
+				if(subPageUrl != null) subPageUrls.add(subPageUrl);
+			}
+
+			@Override
+			public void onImage(String url, PageExtractor.Source source) {
+			}
+		});
+		return subPageUrls;
+	}
+
+	@Benchmark
+	public List<Image> images() throws IOException {
+		ParsedUrl base = ParsedUrl.parse(pageUrl);
+		List<Image> images = new ArrayList<>();
+		PageExtractor.extract(new ByteArrayInputStream(page), "UTF-8", new PageExtractor.Handler() {
+			@Override
+			public void onLink(String link) {
+			}
+
+			@Override
+			public void onImage(String imageUrl, PageExtractor.Source source) {
+				Image image = service.resolveImage(base, imageUrl, source);
+				if(image != null) images.add(image);
+			}
+		});
+		return images;
+	}
+}
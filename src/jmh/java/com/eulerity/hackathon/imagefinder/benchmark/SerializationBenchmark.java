@@ -0,0 +1,80 @@
+package com.eulerity.hackathon.imagefinder.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+import com.eulerity.hackathon.imagefinder.result.PageResultWriter;
+import com.eulerity.hackathon.imagefinder.result.ResultStore;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
+import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Serialization of the result of a page, as streamed to the client once the page is completed: written from the
+ * columns of the result store, against Gson reflecting over an object per image
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	private static final Gson GSON = new GsonBuilder().create();
+
+	@Param({"blog-post", "product-listing", "news-portal"})
+	public String fixture;
+
+	private String pageUrl;
+	private Map<String, Object> pageObject;
+	private ResultStore results;
+	private ResultStore.Page resultPage;
+
+	@Setup
+	public void setUp() {
+		byte[] page = Fixtures.load(fixture);
+		pageUrl = Fixtures.urlOf(fixture);
+		ParsedUrl base = ParsedUrl.parse(pageUrl);
+		results = new ResultStore();
+		resultPage = results.openPage(pageUrl, 1);
+		List<Image> images = new ArrayList<>();
+		for(String candidate : Fixtures.images(page)) {
+			String url = UrlUtilities.resolveUrl(base, candidate, false);
+			if(url == null) continue;
+			Image image = Image.processImage(url);
+			if(resultPage.add(results.intern(url, image.getType()))) images.add(image);
+		}
+		pageObject = new LinkedHashMap<>();
+		pageObject.put("level", 1);
+		pageObject.put("images", images);
+	}
+
+	@Benchmark
+	public String gson() {
+		return GSON.toJson(Collections.singletonMap(pageUrl, pageObject));
+	}
+
+	@Benchmark
+	public String resultStore() {
+		return PageResultWriter.toJson(results, pageUrl, resultPage);
+	}
+}
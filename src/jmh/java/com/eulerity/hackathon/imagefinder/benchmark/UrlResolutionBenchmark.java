@@ -0,0 +1,145 @@
+package com.eulerity.hackathon.imagefinder.benchmark;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
+import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
+
+/**
+ * Resolution and classification of the links and images of one link heavy page, with the single pass
+ * {@link ParsedUrl} against the former {@link java.net.URL} based code, kept here as the baseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlResolutionBenchmark {
+
+	private static final String PAGE_URL = "https://www.example.com/catalog/shoes/running/?page=2";
+	private static final String[] IMAGE_FORMATS = {
+			".jpg", ".jpeg", ".png", ".gif", ".webp", ".svg", ".bmp", ".apng", ".avif", ".ico"
+	};
+
+	private String[] links;
+	private String[] images;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		List<String> linkList = new ArrayList<>();
+		List<String> imageList = new ArrayList<>();
+		for(int i = 0; i < 200; i++) {
+			switch (random.nextInt(6)) {
+				case 0: linkList.add("/product/" + i + "/"); break;
+				case 1: linkList.add("../trail/item-" + i + "?color=" + random.nextInt(9)); break;
+				case 2: linkList.add("https://www.example.com/brand/" + i); break;
+				case 3: linkList.add("https://partner" + i + ".example.net/offer"); break;
+				case 4: linkList.add("#review-" + i); break;
+				default: linkList.add("mailto:support" + i + "@example.com"); break;
+			}
+			switch (random.nextInt(4)) {
+				case 0: imageList.add("https://cdn.example.com/img/" + i + ".JPG?w=640&h=480"); break;
+				case 1: imageList.add("/static/thumbs/" + i + "_small.webp"); break;
+				case 2: imageList.add("assets/Logo-" + i + ".svg"); break;
+				default: imageList.add("//images.example.com/p/" + i + "/hero.png"); break;
+			}
+		}
+		links = linkList.toArray(new String[0]);
+		images = imageList.toArray(new String[0]);
+	}
+
+	@Benchmark
+	public void parsedUrl(Blackhole blackhole) {
+		ParsedUrl base = ParsedUrl.parse(PAGE_URL);
+		for(String link : links) {
+			blackhole.consume(UrlUtilities.resolveUrl(base, link, true));
+		}
+		for(String image : images) {
+			if(!UrlUtilities.isImageUrl(image)) continue;
+			String resolved = UrlUtilities.resolveUrl(base, image, false);
+			if(resolved != null) blackhole.consume(Image.processImage(resolved).getType());
+		}
+	}
+
+	@Benchmark
+	public void javaNetUrl(Blackhole blackhole) {
+		for(String link : links) {
+			blackhole.consume(legacyResolveUrl(PAGE_URL, link, true));
+		}
+		for(String image : images) {
+			if(!legacyIsImageUrl(image)) continue;
+			String resolved = legacyResolveUrl(PAGE_URL, image, false);
+			if(resolved != null) blackhole.consume(legacyType(resolved));
+		}
+	}
+
+	// The deprecated URL constructors are the baseline being measured, as the former code called them
+	@SuppressWarnings("deprecation")
+	private static String legacyResolveUrl(String baseUrl, String currentUrl, boolean assertSameDomain) {
+		try {
+			if(legacyIsAbsoluteUrl(currentUrl)) {
+				if(!legacyIsHttpOrHttps(currentUrl)) return null;
+				if(!assertSameDomain) return currentUrl;
+				return new URL(baseUrl).getHost().equalsIgnoreCase(new URL(currentUrl).getHost()) ? currentUrl : null;
+			}
+			return new URL(new URL(baseUrl), currentUrl).toString();
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static boolean legacyIsAbsoluteUrl(String url) {
+		try {
+			new URL(url);
+			return true;
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static boolean legacyIsHttpOrHttps(String url) {
+		try {
+			String protocol = new URL(url).getProtocol();
+			return protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https");
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
+
+	private static boolean legacyIsImageUrl(String url) {
+		for(String ext : IMAGE_FORMATS) {
+			if(url.contains(ext)) return true;
+		}
+		return false;
+	}
+
+	private static Image.Type legacyType(String imageUrl) {
+		if(imageUrl.toLowerCase().contains("favicon") || imageUrl.toLowerCase().contains(".ico")) return Image.Type.FAVICON;
+		if(imageUrl.toLowerCase().contains("logo")) return Image.Type.LOGO;
+		if(imageUrl.toLowerCase().contains(".gif")) return Image.Type.GIF;
+		if(imageUrl.toLowerCase().contains(".svg")) return Image.Type.SVG;
+		return Image.Type.IMAGE;
+	}
+}
@@ -0,0 +1,92 @@
+package com.eulerity.hackathon.imagefinder.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
+import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
+
+/**
+ * URL utilities over every link and image candidate of a page, one call per URL
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlUtilitiesBenchmark {
+
+	@Param({"blog-post", "product-listing", "news-portal"})
+	public String fixture;
+
+	private String pageUrl;
+	private String[] links;
+	private String[] imageCandidates;
+	// Resolved and kept by the crawl, for the utilities taking absolute URLs
+	private String[] subPageUrls;
+	private String[] imageUrls;
+
+	@Setup
+	public void setUp() {
+		byte[] page = Fixtures.load(fixture);
+		pageUrl = Fixtures.urlOf(fixture);
+		links = Fixtures.links(page).toArray(new String[0]);
+		imageCandidates = Fixtures.images(page).toArray(new String[0]);
+
+		ParsedUrl base = ParsedUrl.parse(pageUrl);
+		List<String> resolved = new ArrayList<>();
+		for(String link : links) {
+			String url = UrlUtilities.resolveUrl(base, link, true);
+			if(url != null) resolved.add(url);
+		}
+		subPageUrls = resolved.toArray(new String[0]);
+		resolved.clear();
+		for(String candidate : imageCandidates) {
+			String url = UrlUtilities.resolveUrl(base, candidate, false);
+			if(url != null) resolved.add(url);
+		}
+		imageUrls = resolved.toArray(new String[0]);
+	}
+
+	@Benchmark
+	public void resolveUrl(Blackhole blackhole) {
+		ParsedUrl base = ParsedUrl.parse(pageUrl);
+		for(String link : links) blackhole.consume(UrlUtilities.resolveUrl(base, link, true));
+	}
+
+	@Benchmark
+	public void normalizeUrl(Blackhole blackhole) {
+		for(String url : subPageUrls) blackhole.consume(UrlUtilities.normalizeUrl(url));
+	}
+
+	@Benchmark
+	public void canonicalizeUrl(Blackhole blackhole) {
+		for(String url : subPageUrls) blackhole.consume(UrlUtilities.canonicalizeUrl(url));
+	}
+
+	@Benchmark
+	public void isImageUrl(Blackhole blackhole) {
+		for(String candidate : imageCandidates) blackhole.consume(UrlUtilities.isImageUrl(candidate));
+	}
+
+	@Benchmark
+	public void processImage(Blackhole blackhole) {
+		for(String url : imageUrls) blackhole.consume(Image.processImage(url));
+	}
+}
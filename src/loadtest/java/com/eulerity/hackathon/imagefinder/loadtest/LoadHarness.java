@@ -0,0 +1,373 @@
+package com.eulerity.hackathon.imagefinder.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import com.eulerity.hackathon.imagefinder.ImageFinder;
+import com.eulerity.hackathon.imagefinder.listener.CrawlEngineListener;
+import com.eulerity.hackathon.imagefinder.output.ResultSink;
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
+import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
+
+/**
+ * Crawls a {@link SyntheticSite} end to end and reports the throughput of the crawler, the time to the first result
+ * of each crawl, and the peak heap and thread counts of the JVM along the way.<br>
+ * Crawls are started either on {@link ImageCrawlerService} directly ({@code mode=service}), or through the
+ * {@link ImageFinder} servlet hosted by an embedded Jetty and read back over HTTP as JSON lines
+ * ({@code mode=servlet}).<br>
+ * Arguments are {@code name=value} pairs, see {@link #DEFAULTS}. Arguments starting with {@code crawler.} override
+ * the application properties, e.g. {@code crawler.rateLimit.delay.minimum=10}. The page cache and the crawl store
+ * are disabled unless set otherwise, so that every crawl fetches the whole site.
+ */
+public final class LoadHarness {
+
+	static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+	static {
+		DEFAULTS.put("pages", "500");             // pages of the site
+		DEFAULTS.put("fanOut", "8");              // links per page
+		DEFAULTS.put("images", "10");             // images per page
+		DEFAULTS.put("latency", "20");            // median response delay, in milliseconds
+		DEFAULTS.put("latencySigma", "0.5");      // spread of the log-normal response delays
+		DEFAULTS.put("rate429", "0");             // share of the page requests answered with 429
+		DEFAULTS.put("rate5xx", "0");             // share of the page requests answered with a 5xx
+		DEFAULTS.put("sitemap", "false");         // publish sitemaps and crawl from them
+		DEFAULTS.put("mode", "service");          // service or servlet
+		DEFAULTS.put("crawls", "8");              // crawls in total
+		DEFAULTS.put("concurrency", "4");         // crawls running at the same time
+		DEFAULTS.put("depth", "16");              // depth of each crawl
+		DEFAULTS.put("hosts", "1");               // loopback addresses 127.0.0.1 to 127.0.0.n the crawls take turns on
+		DEFAULTS.put("timeout", "600");           // seconds to wait for all crawls
+	}
+
+	private LoadHarness() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+		for(String arg : args) {
+			int equals = arg.indexOf('=');
+			if(equals <= 0) throw new IllegalArgumentException("Expected name=value, got: " + arg);
+			String name = arg.substring(0, equals);
+			String value = arg.substring(equals + 1);
+			if(name.startsWith("crawler.")) System.setProperty(name, value);
+			else if(options.containsKey(name)) options.put(name, value);
+			else throw new IllegalArgumentException("Unknown option: " + name + ", expected one of " + DEFAULTS.keySet());
+		}
+		// Set before the application properties are first read
+		System.setProperty("crawler.cache.enabled", System.getProperty("crawler.cache.enabled", "false"));
+		System.setProperty("crawler.store.enabled", System.getProperty("crawler.store.enabled", "false"));
+		System.setProperty("crawler.engine.maxJobsPerClient",
+				System.getProperty("crawler.engine.maxJobsPerClient", options.get("concurrency")));
+		System.setProperty("crawler.sitemap.enabled", System.getProperty("crawler.sitemap.enabled", options.get("sitemap")));
+
+		SyntheticSite site = new SyntheticSite(Integer.parseInt(options.get("pages")),
+				Integer.parseInt(options.get("fanOut")), Integer.parseInt(options.get("images")),
+				Double.parseDouble(options.get("latency")), Double.parseDouble(options.get("latencySigma")),
+				Double.parseDouble(options.get("rate429")), Double.parseDouble(options.get("rate5xx")),
+				Boolean.parseBoolean(options.get("sitemap")));
+		int sitePort = site.start();
+		try {
+			Report report = run(options, sitePort);
+			report.print(options, site);
+		} finally {
+			site.stop();
+		}
+		System.exit(0);
+	}
+
+	private static Report run(Map<String, String> options, int sitePort) throws Exception {
+		String mode = options.get("mode");
+		int crawls = Integer.parseInt(options.get("crawls"));
+		int concurrency = Integer.parseInt(options.get("concurrency"));
+		int depth = Integer.parseInt(options.get("depth"));
+		int hosts = Math.max(1, Integer.parseInt(options.get("hosts")));
+		long timeout = Long.parseLong(options.get("timeout"));
+
+		Crawler crawler;
+		if(mode.equals("service")) crawler = new ServiceCrawler(depth);
+		else if(mode.equals("servlet")) crawler = new ServletCrawler(depth);
+		else throw new IllegalArgumentException("Unknown mode: " + mode + ", expected service or servlet");
+
+		Report report = new Report(crawls);
+		Sampler sampler = new Sampler();
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency, runnable -> {
+			Thread thread = new Thread(runnable, "load-client");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Semaphore running = new Semaphore(concurrency);
+		CountDownLatch done = new CountDownLatch(crawls);
+		try {
+			sampler.start();
+			long start = System.nanoTime();
+			for(int i = 0; i < crawls; i++) {
+				String url = "http://127.0.0." + (1 + i % hosts) + ":" + sitePort + "/";
+				int crawl = i;
+				running.acquire();
+				clients.execute(() -> {
+					try {
+						crawler.crawl(url, report.results(crawl));
+					} catch (Exception e) {
+						report.failures.incrementAndGet();
+						System.err.println("Crawl of " + url + " failed: " + e);
+					} finally {
+						running.release();
+						done.countDown();
+					}
+				});
+			}
+			if(!done.await(timeout, TimeUnit.SECONDS)) System.err.println("Timed out waiting for the crawls");
+			report.elapsedNanos = System.nanoTime() - start;
+		} finally {
+			sampler.stop();
+			clients.shutdownNow();
+			crawler.close();
+		}
+		report.peakHeapBytes = sampler.peakHeapBytes.get();
+		report.peakThreads = sampler.peakThreads();
+		return report;
+	}
+
+	/**
+	 * Results of one crawl, as they arrive
+	 */
+	static final class CrawlResults {
+		private final long start = System.nanoTime();
+		private final AtomicLong firstResultNanos = new AtomicLong(-1);
+		private final LongAdder pages = new LongAdder();
+
+		void onResult() {
+			if(firstResultNanos.get() < 0) firstResultNanos.compareAndSet(-1, System.nanoTime() - start);
+			pages.increment();
+		}
+	}
+
+	private interface Crawler {
+		/**
+		 * Crawls the site from the URL, and returns once the crawl is complete
+		 */
+		void crawl(String url, CrawlResults results) throws Exception;
+
+		void close() throws Exception;
+	}
+
+	/**
+	 * Crawls on {@link ImageCrawlerService}, the way the servlet starts them, with results taken as fast as they come
+	 */
+	private static final class ServiceCrawler implements Crawler {
+		private final int depth;
+		private final CrawlEngine engine = new CrawlEngine();
+		private final AtomicInteger clientSequence = new AtomicInteger(0);
+
+		ServiceCrawler(int depth) {
+			this.depth = depth;
+		}
+
+		@Override
+		public void crawl(String url, CrawlResults results) throws InterruptedException {
+			CrawlEngine.Job job = engine.admit("load-client-" + clientSequence.incrementAndGet());
+			CountDownLatch closed = new CountDownLatch(1);
+			new ImageCrawlerService(job, true, depth).init(UrlUtilities.normalizeUrl(url), new ResultSink() {
+				@Override
+				public void publish(String json) {
+					results.onResult();
+				}
+
+				@Override
+				public boolean isBackedUp() {
+					return false;
+				}
+
+				@Override
+				public boolean isAborted() {
+					return false;
+				}
+
+				@Override
+				public void setOnDrained(Runnable onDrained) {
+				}
+
+				@Override
+				public void close() {
+					closed.countDown();
+				}
+			});
+			closed.await();
+		}
+
+		@Override
+		public void close() {
+			engine.shutdown();
+		}
+	}
+
+	/**
+	 * Crawls through the {@link ImageFinder} servlet, each one over its own connection read as JSON lines
+	 */
+	private static final class ServletCrawler implements Crawler {
+		private final int depth;
+		private final Server server = new Server();
+		private final int port;
+
+		ServletCrawler(int depth) throws Exception {
+			this.depth = depth;
+			ServletContextHandler context = new ServletContextHandler();
+			context.addEventListener(new CrawlEngineListener());
+			ServletHolder holder = new ServletHolder(new ImageFinder());
+			holder.setAsyncSupported(true);
+			context.addServlet(holder, "/main");
+			server.setHandler(context);
+			ServerConnector connector = new ServerConnector(server);
+			connector.setHost("127.0.0.1");
+			connector.setPort(0);
+			server.addConnector(connector);
+			server.start();
+			port = connector.getLocalPort();
+		}
+
+		@Override
+		public void crawl(String url, CrawlResults results) throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) URI.create("http://127.0.0.1:" + port + "/main").toURL().openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			String form = "url=" + URLEncoder.encode(url, "UTF-8") + "&recursive=true&recursiveLevels=" + depth;
+			try(OutputStream body = connection.getOutputStream()) {
+				body.write(form.getBytes(StandardCharsets.UTF_8));
+			}
+			if(connection.getResponseCode() != 200) {
+				throw new IOException("HTTP " + connection.getResponseCode() + " from the servlet");
+			}
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+					StandardCharsets.UTF_8))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					if(!line.isEmpty()) results.onResult();
+				}
+			}
+		}
+
+		@Override
+		public void close() throws Exception {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Samples the heap in use, since the peak usage of the memory pools ignores what the collector frees in between
+	 */
+	private static final class Sampler {
+		private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		private final AtomicLong peakHeapBytes = new AtomicLong(0);
+		private volatile boolean running;
+		private Thread thread;
+
+		void start() {
+			threads.resetPeakThreadCount();
+			running = true;
+			thread = new Thread(() -> {
+				while(running) {
+					peakHeapBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}, "load-sampler");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void stop() throws InterruptedException {
+			running = false;
+			thread.join();
+		}
+
+		int peakThreads() {
+			return threads.getPeakThreadCount();
+		}
+	}
+
+	private static final class Report {
+		private final CrawlResults[] crawls;
+		private final AtomicInteger failures = new AtomicInteger(0);
+		private long elapsedNanos;
+		private long peakHeapBytes;
+		private int peakThreads;
+
+		Report(int crawls) {
+			this.crawls = new CrawlResults[crawls];
+		}
+
+		CrawlResults results(int crawl) {
+			CrawlResults results = new CrawlResults();
+			crawls[crawl] = results;
+			return results;
+		}
+
+		void print(Map<String, String> options, SyntheticSite site) {
+			long pages = 0;
+			long[] firstResults = new long[crawls.length];
+			int started = 0;
+			for(CrawlResults results : crawls) {
+				if(results == null) continue;
+				pages += results.pages.sum();
+				if(results.firstResultNanos.get() >= 0) firstResults[started++] = results.firstResultNanos.get();
+			}
+			firstResults = Arrays.copyOf(firstResults, started);
+			Arrays.sort(firstResults);
+			double seconds = elapsedNanos / 1e9;
+
+			System.out.println();
+			System.out.println("Options              : " + options);
+			System.out.printf("Site responses       : %d pages, %d sitemaps, %d images, %d x 429, %d x 5xx%n",
+					site.getPageRequests().sum(), site.getSitemapRequests().sum(), site.getImageRequests().sum(),
+					site.getTooManyRequests().sum(), site.getServerErrors().sum());
+			System.out.printf("Crawls               : %d completed, %d failed, %d without results%n",
+					crawls.length - failures.get(), failures.get(), crawls.length - started);
+			System.out.printf("Pages crawled        : %d in %.2f s%n", pages, seconds);
+			System.out.printf("Pages/sec            : %.1f%n", pages / seconds);
+			System.out.printf("First result p50/p99 : %.1f / %.1f ms%n",
+					percentile(firstResults, 50) / 1e6, percentile(firstResults, 99) / 1e6);
+			System.out.printf("Peak heap            : %.1f MB%n", peakHeapBytes / (1024.0 * 1024.0));
+			System.out.printf("Peak threads         : %d%n", peakThreads);
+		}
+
+		/**
+		 * Nearest-rank percentile
+		 */
+		private static long percentile(long[] sorted, int percent) {
+			if(sorted.length == 0) return 0;
+			int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+			return sorted[Math.max(0, rank - 1)];
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package com.eulerity.hackathon.imagefinder.loadtest;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import lombok.Getter;
+
+/**
+ * Website generated on the fly, served by an embedded Jetty, for the crawler to be measured against without any
+ * real site. Page {@code i} lives at {@code /page/i/} ({@code /} for page 0) and links to the pages
+ * {@code i * fanOut + 1} to {@code i * fanOut + fanOut}, wrapping around past the last page, so that the whole site
+ * is reachable from the root and the deeper pages link back to pages already seen. Every page shows the site's logo
+ * and its own images.<br>
+ * Responses are delayed along a log-normal distribution, without holding a server thread, and pages fail with
+ * {@code 429 Too Many Requests} or a {@code 5xx} at the configured rates. {@code robots.txt} is always served at
+ * once and allows everything.<br>
+ * The site can also publish sitemaps: {@code robots.txt} then lists {@code /sitemap-index.xml}, which lists gzipped
+ * sitemaps of {@value #PAGES_PER_SITEMAP} pages each, every page along with its images.
+ */
+public class SyntheticSite {
+
+	private static final byte[] ROBOTS = "User-agent: *\nAllow: /\n".getBytes(StandardCharsets.US_ASCII);
+	private static final int[] SERVER_ERRORS = {500, 502, 503};
+	private static final int PAGES_PER_SITEMAP = 1000;
+
+	private final int pages;
+	private final int fanOut;
+	private final int imagesPerPage;
+	private final double latencyMedianMillis;
+	private final double latencySigma;
+	private final double rate429;
+	private final double rate5xx;
+	private final boolean sitemaps;
+
+	private final byte[] image;
+	private final Server server;
+	private final ScheduledExecutorService delays;
+
+	// Served responses, for the report
+	@Getter
+	private final LongAdder pageRequests = new LongAdder();
+	@Getter
+	private final LongAdder imageRequests = new LongAdder();
+	@Getter
+	private final LongAdder tooManyRequests = new LongAdder();
+	@Getter
+	private final LongAdder serverErrors = new LongAdder();
+	@Getter
+	private final LongAdder sitemapRequests = new LongAdder();
+
+	/**
+	 * @param pages Number of pages of the site
+	 * @param fanOut Number of links of each page
+	 * @param imagesPerPage Number of images of each page, the site's logo included
+	 * @param latencyMedianMillis Median delay of a response
+	 * @param latencySigma Spread of the delays, the standard deviation of their logarithm, {@code 0} for a fixed
+	 * delay
+	 * @param rate429 Share of the page requests answered with {@code 429}
+	 * @param rate5xx Share of the page requests answered with a {@code 5xx}
+	 * @param sitemaps {@code true} to publish sitemaps of the pages and their images
+	 */
+	public SyntheticSite(int pages, int fanOut, int imagesPerPage, double latencyMedianMillis, double latencySigma,
+			double rate429, double rate5xx, boolean sitemaps) {
+		this.pages = Math.max(1, pages);
+		this.fanOut = Math.max(0, fanOut);
+		this.imagesPerPage = Math.max(0, imagesPerPage);
+		this.latencyMedianMillis = Math.max(0, latencyMedianMillis);
+		this.latencySigma = Math.max(0, latencySigma);
+		this.rate429 = rate429;
+		this.rate5xx = rate5xx;
+		this.sitemaps = sitemaps;
+		this.image = createImage();
+
+		AtomicInteger threadNumber = new AtomicInteger(0);
+		this.delays = Executors.newScheduledThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "site-delay-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = new Server();
+		ServletContextHandler context = new ServletContextHandler();
+		ServletHolder holder = new ServletHolder(new SiteServlet());
+		holder.setAsyncSupported(true);
+		context.addServlet(holder, "/*");
+		server.setHandler(context);
+	}
+
+	/**
+	 * Starts serving the site on an ephemeral port of every interface
+	 * @return Port the site is served on
+	 */
+	public int start() throws Exception {
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(0);
+		server.addConnector(connector);
+		server.start();
+		return connector.getLocalPort();
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+		delays.shutdownNow();
+	}
+
+	/**
+	 * @param pageIndex Index of the page, from {@code 0} to {@code pages - 1}
+	 * @return Path of the page
+	 */
+	static String pagePath(int pageIndex) {
+		return pageIndex == 0 ? "/" : "/page/" + pageIndex + "/";
+	}
+
+	/**
+	 * The HTML of a page, the same on every request
+	 * @param pageIndex Index of the page
+	 * @return Bytes of the page
+	 */
+	byte[] page(int pageIndex) {
+		// Filler text of varying length, so that pages are not all the same size
+		Random random = new Random(pageIndex);
+		StringBuilder html = new StringBuilder(2048);
+		html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Page ").append(pageIndex)
+				.append("</title></head>\n<body>\n<header><img src=\"/img/logo.png\" alt=\"logo\"></header>\n<nav>\n");
+		for(int k = 1; k <= fanOut; k++) {
+			int target = (int) (((long) pageIndex * fanOut + k) % pages);
+			html.append("<a href=\"").append(pagePath(target)).append("\">Page ").append(target).append("</a>\n");
+		}
+		html.append("</nav>\n<main>\n");
+		for(int k = 1; k < imagesPerPage; k++) {
+			html.append("<figure><img src=\"/img/").append(pageIndex).append('-').append(k)
+					.append(".png\" alt=\"\"><figcaption>");
+			int words = 5 + random.nextInt(30);
+			for(int w = 0; w < words; w++) html.append("lorem ");
+			html.append("</figcaption></figure>\n");
+		}
+		html.append("</main>\n</body></html>\n");
+		return html.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The sitemap index of the site
+	 * @param origin Scheme, host and port the site is requested at
+	 * @return Bytes of the index
+	 */
+	byte[] sitemapIndex(String origin) {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+		for(int i = 0; i * PAGES_PER_SITEMAP < pages; i++) {
+			xml.append("<sitemap><loc>").append(origin).append("/sitemap-").append(i).append(".xml.gz</loc></sitemap>\n");
+		}
+		xml.append("</sitemapindex>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A gzipped sitemap listing pages of the site with their images
+	 * @param origin Scheme, host and port the site is requested at
+	 * @param sitemapIndex Index of the sitemap
+	 * @return Bytes of the sitemap, {@code null} if there is no such sitemap
+	 */
+	byte[] sitemap(String origin, int sitemapIndex) {
+		int first = sitemapIndex * PAGES_PER_SITEMAP;
+		if(sitemapIndex < 0 || first >= pages) return null;
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\" "
+				+ "xmlns:image=\"http://www.google.com/schemas/sitemap-image/1.1\">\n");
+		for(int pageIndex = first; pageIndex < Math.min(pages, first + PAGES_PER_SITEMAP); pageIndex++) {
+			xml.append("<url><loc>").append(origin).append(pagePath(pageIndex)).append("</loc>");
+			xml.append("<image:image><image:loc>").append(origin).append("/img/logo.png</image:loc></image:image>");
+			for(int k = 1; k < imagesPerPage; k++) {
+				xml.append("<image:image><image:loc>").append(origin).append("/img/").append(pageIndex).append('-')
+						.append(k).append(".png</image:loc></image:image>");
+			}
+			xml.append("</url>\n");
+		}
+		xml.append("</urlset>\n");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param path Path of the request
+	 * @return Index of the page at the path, {@code -1} if there is no such page
+	 */
+	int pageIndex(String path) {
+		if(path.equals("/")) return 0;
+		if(!path.startsWith("/page/")) return -1;
+		int end = path.endsWith("/") ? path.length() - 1 : path.length();
+		try {
+			int pageIndex = Integer.parseInt(path.substring("/page/".length(), end));
+			return (pageIndex > 0 && pageIndex < pages) ? pageIndex : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private long delayMillis() {
+		if(latencyMedianMillis == 0) return 0;
+		double gaussian = (latencySigma == 0) ? 0 : ThreadLocalRandom.current().nextGaussian();
+		return Math.round(latencyMedianMillis * Math.exp(latencySigma * gaussian));
+	}
+
+	private static byte[] createImage() {
+		BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(new Color(0x3b7dd8));
+		graphics.fillRect(0, 0, 64, 48);
+		graphics.setColor(Color.WHITE);
+		graphics.fillOval(16, 8, 32, 32);
+		graphics.dispose();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			ImageIO.write(image, "png", bytes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private class SiteServlet extends HttpServlet {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+			String path = req.getRequestURI();
+			String origin = req.getScheme() + "://" + req.getHeader("Host");
+			if(path.equals("/robots.txt")) {
+				byte[] robots = !sitemaps ? ROBOTS : (new String(ROBOTS, StandardCharsets.US_ASCII)
+						+ "Sitemap: " + origin + "/sitemap-index.xml\n").getBytes(StandardCharsets.US_ASCII);
+				write(resp, 200, "text/plain", robots);
+				return;
+			}
+			if(sitemaps && path.startsWith("/sitemap-")) {
+				sitemapRequests.increment();
+				if(path.equals("/sitemap-index.xml")) {
+					write(resp, 200, "application/xml", sitemapIndex(origin));
+					return;
+				}
+				byte[] sitemap = null;
+				if(path.endsWith(".xml.gz")) {
+					try {
+						String index = path.substring("/sitemap-".length(), path.length() - ".xml.gz".length());
+						sitemap = sitemap(origin, Integer.parseInt(index));
+					} catch (NumberFormatException e) {
+						// No such sitemap
+					}
+				}
+				write(resp, (sitemap == null) ? 404 : 200, "application/gzip", (sitemap == null) ? new byte[0] : sitemap);
+				return;
+			}
+
+			int status = 200;
+			String contentType;
+			byte[] body;
+			int pageIndex = pageIndex(path);
+			if(pageIndex >= 0) {
+				pageRequests.increment();
+				double draw = ThreadLocalRandom.current().nextDouble();
+				if(draw < rate429) {
+					tooManyRequests.increment();
+					status = 429;
+				}
+				else if(draw < rate429 + rate5xx) {
+					serverErrors.increment();
+					status = SERVER_ERRORS[ThreadLocalRandom.current().nextInt(SERVER_ERRORS.length)];
+				}
+				contentType = "text/html; charset=utf-8";
+				body = (status == 200) ? page(pageIndex) : new byte[0];
+			}
+			else if(path.startsWith("/img/") && path.endsWith(".png")) {
+				imageRequests.increment();
+				contentType = "image/png";
+				body = image;
+			}
+			else {
+				write(resp, 404, "text/plain", new byte[0]);
+				return;
+			}
+
+			long delay = delayMillis();
+			if(delay == 0) {
+				write(resp, status, contentType, body);
+				return;
+			}
+			int delayedStatus = status;
+			AsyncContext context = req.startAsync();
+			context.setTimeout(0);
+			delays.schedule(() -> {
+				try {
+					write((HttpServletResponse) context.getResponse(), delayedStatus, contentType, body);
+				} catch (IOException e) {
+					// The crawler gave up on the request
+				} finally {
+					context.complete();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+			doGet(req, resp);
+		}
+
+		private void write(HttpServletResponse resp, int status, String contentType, byte[] body) throws IOException {
+			resp.setStatus(status);
+			resp.setContentType(contentType);
+			if(status == 429) resp.setHeader("Retry-After", "1");
+			resp.setContentLength(body.length);
+			resp.getOutputStream().write(body);
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package com.eulerity.hackathon.imagefinder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.eulerity.hackathon.imagefinder.batch.BatchJob;
+import com.eulerity.hackathon.imagefinder.batch.BatchRegistry;
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import com.eulerity.hackathon.imagefinder.listener.CrawlEngineListener;
+import com.eulerity.hackathon.imagefinder.object.BatchRequest;
+import com.eulerity.hackathon.imagefinder.object.BatchStatus;
+import com.eulerity.hackathon.imagefinder.output.ResultFormat;
+import com.eulerity.hackathon.imagefinder.output.ResultStream;
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
+import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Batch crawl API, for crawling many seeds without holding a connection open per seed:
+ * <ul>
+ *     <li>{@code POST /batch} submits the seeds, as a JSON {@link BatchRequest} or as repeated {@code url}
+ *     parameters, and answers {@code 202 Accepted} with the status of the new job</li>
+ *     <li>{@code GET /batch/{jobId}} polls the status of the job</li>
+ *     <li>{@code GET /batch/{jobId}/results} streams the results of the job, from the {@code from}-th on, until it is
+ *     complete, as SSE or JSON lines like {@link ImageFinder}</li>
+ *     <li>{@code DELETE /batch/{jobId}} cancels the job</li>
+ * </ul>
+ */
+@WebServlet(
+    name = "BatchImageFinder",
+    urlPatterns = {"/batch", "/batch/*"},
+    asyncSupported = true
+)
+@Slf4j
+public class BatchImageFinder extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	protected static final Gson GSON = new GsonBuilder().create();
+
+	private static final String RESULTS = "/results";
+
+	@Override
+	protected final void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		if(req.getPathInfo() != null && !req.getPathInfo().equals("/")) {
+			writeError(resp, HttpServletResponse.SC_NOT_FOUND, "Unknown path: " + req.getPathInfo());
+			return;
+		}
+
+		BatchRequest batchRequest;
+		try {
+			batchRequest = readRequest(req);
+		} catch (JsonParseException e) {
+			writeError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid batch request: " + e.getMessage());
+			return;
+		}
+
+		CrawlEngine engine = getCrawlEngine();
+		BatchRegistry batchRegistry = engine.getBatchRegistry();
+
+		Set<String> seeds = new LinkedHashSet<>();
+		List<String> rejectedUrls = new ArrayList<>();
+		if(batchRequest.getUrls() != null) {
+			for(String url : batchRequest.getUrls()) {
+				if(UrlUtilities.isValidURL(url)) seeds.add(UrlUtilities.normalizeUrl(url));
+				else rejectedUrls.add(url);
+			}
+		}
+		if(seeds.isEmpty()) {
+			writeError(resp, HttpServletResponse.SC_BAD_REQUEST, "No valid URL"); // 400 Bad Request
+			return;
+		}
+		if(seeds.size() > batchRegistry.getMaxSeeds()) {
+			writeError(resp, HttpServletResponse.SC_BAD_REQUEST, "Too many seeds, at most " + batchRegistry.getMaxSeeds());
+			return;
+		}
+
+		log.info("Got batch request with {} seeds, {} rejected\n- recursive: {}\n recursiveLevels: {}", seeds.size(),
+				rejectedUrls.size(), batchRequest.isRecursive(), batchRequest.getRecursiveLevels());
+
+		CrawlEngine.Job job;
+		try {
+			job = engine.admit(req.getRemoteAddr());
+		} catch (CrawlRejectedException e) {
+			log.warn("Rejected batch of {} seeds | {}", seeds.size(), e.getMessage());
+			resp.setHeader("Retry-After", String.valueOf(engine.getRetryAfterSeconds()));
+			writeError(resp, e.getStatusCode(), e.getMessage()); // 429 Too Many Requests or 503 Service Unavailable
+			return;
+		}
+
+		ImageCrawlerService imageCrawlerService;
+		if(batchRequest.isRecursive()) {
+			imageCrawlerService = new ImageCrawlerService(job, true, batchRequest.getRecursiveLevels());
+		}
+		else {
+			imageCrawlerService = new ImageCrawlerService(job, false);
+		}
+
+		BatchJob batchJob = batchRegistry.create(seeds.size());
+		if(engine.getClusterNode() != null) engine.getClusterNode().coordinate(imageCrawlerService, batchJob);
+		try {
+			imageCrawlerService.init(seeds, batchJob);
+		} catch (RuntimeException e) {
+			batchRegistry.remove(batchJob.getJobId());
+			job.release();
+			throw e;
+		}
+
+		resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+		resp.setHeader("Location", req.getContextPath() + req.getServletPath() + "/" + batchJob.getJobId());
+		writeJson(resp, BatchStatus.of(batchJob, rejectedUrls));
+	}
+
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String pathInfo = req.getPathInfo();
+		boolean results = pathInfo != null && pathInfo.endsWith(RESULTS);
+		BatchJob batchJob = findJob(resp, results ? pathInfo.substring(0, pathInfo.length() - RESULTS.length()) : pathInfo);
+		if(batchJob == null) return;
+
+		if(!results) {
+			writeJson(resp, BatchStatus.of(batchJob, null));
+			return;
+		}
+
+		int from;
+		try {
+			from = Integer.parseInt(req.getParameter("from"));
+		} catch (Exception e) {
+			from = 0;
+		}
+
+		ResultFormat format = ResultFormat.negotiate(req.getHeader("Accept"), req.isAsyncSupported());
+		resp.setContentType(format.getContentType());
+		if(!format.isBinary()) resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		resp.setHeader("Connection", "keep-alive");
+
+		ResultStream output;
+		if(req.isAsyncSupported()) {
+			AsyncContext asyncContext = req.startAsync();
+			try {
+				output = new ResultStream(asyncContext, format);
+			} catch (IOException | IllegalStateException e) {
+				asyncContext.complete();
+				throw e;
+			}
+		}
+		else {
+			output = new ResultStream(resp.getWriter(), format);
+		}
+		output.setWriteLatency(getCrawlEngine().getMetrics().getResultWriteLatency());
+
+		batchJob.attach(output, from);
+
+		if(!req.isAsyncSupported()) output.drain();
+	}
+
+	@Override
+	protected final void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		BatchJob batchJob = findJob(resp, req.getPathInfo());
+		if(batchJob == null) return;
+		batchJob.cancel();
+		resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+		writeJson(resp, BatchStatus.of(batchJob, null));
+	}
+
+	/**
+	 * Reads the seeds and options of a batch, from a JSON body or from the request parameters
+	 */
+	private BatchRequest readRequest(HttpServletRequest req) throws IOException {
+		String contentType = req.getContentType();
+		if(contentType != null && contentType.contains("application/json")) {
+			BatchRequest batchRequest = GSON.fromJson(req.getReader(), BatchRequest.class);
+			return (batchRequest == null) ? new BatchRequest() : batchRequest;
+		}
+
+		String[] urls = req.getParameterValues("url");
+		int recursiveLevels;
+		try {
+			recursiveLevels = Integer.parseInt(req.getParameter("recursiveLevels"));
+		} catch (Exception e) {
+			recursiveLevels = 0;
+		}
+		return new BatchRequest((urls == null) ? null : Arrays.asList(urls),
+				"true".equals(req.getParameter("recursive")), recursiveLevels);
+	}
+
+	/**
+	 * Looks the job of the path up, writing a 404 response if there is none
+	 * @param resp Response
+	 * @param path Path info of the request, {@code /jobId}
+	 * @return {@code BatchJob}, or {@code null} if the response has been written
+	 */
+	private BatchJob findJob(HttpServletResponse resp, String path) throws IOException {
+		String jobId = (path == null || path.length() < 2) ? null : path.substring(1);
+		try {
+			return getCrawlEngine().getBatchRegistry().get(jobId);
+		} catch (CrawlRejectedException e) {
+			writeError(resp, e.getStatusCode(), e.getMessage());
+			return null;
+		}
+	}
+
+	private void writeJson(HttpServletResponse resp, Object body) throws IOException {
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		PrintWriter writer = resp.getWriter();
+		writer.write(GSON.toJson(body));
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Writes an error response
+	 * @param resp Response
+	 * @param statusCode HTTP status code
+	 * @param message Error message
+	 */
+	private void writeError(HttpServletResponse resp, int statusCode, String message) throws IOException {
+		resp.setStatus(statusCode);
+		PrintWriter writer = resp.getWriter();
+		writer.write("error: " + message);
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * The crawl engine started by {@link CrawlEngineListener}, or the lazily started shared one when the servlet
+	 * runs outside a container
+	 * @return Application scoped {@code CrawlEngine}
+	 */
+	private CrawlEngine getCrawlEngine() {
+		if(getServletConfig() != null) {
+			Object engine = getServletContext().getAttribute(CrawlEngineListener.ENGINE_ATTRIBUTE);
+			if(engine instanceof CrawlEngine) return (CrawlEngine) engine;
+		}
+		return CrawlEngine.getInstance();
+	}
+}
@@ -2,13 +2,24 @@ package com.eulerity.hackathon.imagefinder;
 
 import java.io.IOException;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.eulerity.hackathon.imagefinder.cluster.ClusterNode;
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import com.eulerity.hackathon.imagefinder.listener.CrawlEngineListener;
+import com.eulerity.hackathon.imagefinder.output.EventLog;
+import com.eulerity.hackathon.imagefinder.output.EventRegistry;
+import com.eulerity.hackathon.imagefinder.output.ResultFormat;
+import com.eulerity.hackathon.imagefinder.output.ResultStream;
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
 import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+import com.eulerity.hackathon.imagefinder.store.CrawlLog;
+import com.eulerity.hackathon.imagefinder.store.CrawlStore;
 import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -18,7 +29,8 @@ import java.io.PrintWriter;
 
 @WebServlet(
     name = "ImageFinder",
-    urlPatterns = {"/main"}
+    urlPatterns = {"/main"},
+    asyncSupported = true
 )
 @Slf4j
 public class ImageFinder extends HttpServlet{
@@ -26,6 +38,11 @@ public class ImageFinder extends HttpServlet{
 
 	protected static final Gson GSON = new GsonBuilder().create();
 
+	// Response header carrying the ID to reconnect to, resume or read the crawl again with
+	public static final String CRAWL_ID_HEADER = "X-Crawl-Id";
+	// Request header of a reconnecting SSE client, the number of the last event it got
+	public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
 	//This is just a test array
 	public static final String[] testImages = {
 			"https://images.pexels.com/photos/545063/pexels-photo-545063.jpeg?auto=compress&format=tiny",
@@ -36,8 +53,35 @@ public class ImageFinder extends HttpServlet{
 
 	@Override
 	protected final void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-		resp.setContentType("text/event-stream");
-		resp.setCharacterEncoding("UTF-8");
+		stream(req, resp);
+	}
+
+	/**
+	 * Reconnects to a crawl, as {@code EventSource} does with a {@code GET}. Crawls are only started with a
+	 * {@code POST}.
+	 */
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String crawlId = req.getParameter("crawlId");
+		if(crawlId == null || crawlId.isEmpty()) {
+			writeError(resp, HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Crawls are started with POST");
+			return;
+		}
+		stream(req, resp);
+	}
+
+	/**
+	 * Streams a new crawl, or an earlier one given by its {@code crawlId}.<br>
+	 * Server-sent events clients get typed and numbered events; one reconnecting to a crawl still running, or over
+	 * lately, with the {@code Last-Event-ID} of the last event it got carries on from there, nothing being crawled
+	 * again. Other clients get the result of each page as a JSON line, or as a CBOR item if they accept
+	 * {@code application/cbor}.
+	 */
+	private void stream(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		// Browsers ask for server-sent events, other clients get one JSON object per line, or CBOR items if they ask so
+		ResultFormat format = ResultFormat.negotiate(req.getHeader("Accept"), req.isAsyncSupported());
+		resp.setContentType(format.getContentType());
+		if(!format.isBinary()) resp.setCharacterEncoding("UTF-8");
 		resp.setHeader("Cache-Control", "no-cache");
 		resp.setHeader("Connection", "keep-alive");
 
@@ -46,8 +90,7 @@ public class ImageFinder extends HttpServlet{
 		String url = req.getParameter("url");
 		String recursive = req.getParameter("recursive");
 		String recursiveLevels = req.getParameter("recursiveLevels");
-
-		PrintWriter writer = resp.getWriter();
+		String crawlId = req.getParameter("crawlId");
 
 		boolean isRecursive = recursive != null && recursive.equals("true");
 		int recursiveLevelsInt;
@@ -57,24 +100,172 @@ public class ImageFinder extends HttpServlet{
 			recursiveLevelsInt = 0;
 		}
 
-        log.info("Got request of:{} with query params\n- url: {}\n- recursive: {}\n recursiveLevels: {}", path, url, recursive, recursiveLevels);
+		long lastEventId = parseLastEventId(req);
 
-		if(UrlUtilities.isValidURL(url)) {
-			ImageCrawlerService imageCrawlerService;
-			if(isRecursive) {
-				imageCrawlerService = new ImageCrawlerService(true, recursiveLevelsInt);
+        log.info("Got request of:{} with query params\n- url: {}\n- recursive: {}\n recursiveLevels: {}\n crawlId: {}", path, url, recursive, recursiveLevels, crawlId);
+
+		CrawlEngine engine = getCrawlEngine();
+		CrawlStore crawlStore = engine.getCrawlStore();
+		EventRegistry eventRegistry = engine.getEventRegistry();
+		ClusterNode clusterNode = engine.getClusterNode();
+
+		// A crawl running or over lately is streamed again from its events, those a reconnecting client missed
+		EventLog events = eventRegistry.get(crawlId);
+		if(events != null && (lastEventId > 0 || events.isRetained(lastEventId))) {
+			if(!events.isRetained(lastEventId)) {
+				writeError(resp, HttpServletResponse.SC_GONE, "Events of crawl " + crawlId + " after " + lastEventId + " are no longer kept");
+				return;
 			}
-			else {
-				imageCrawlerService = new ImageCrawlerService(false);
+			resp.setHeader(CRAWL_ID_HEADER, crawlId);
+			ResultStream output = openStream(req, resp, format);
+			events.attach(output, lastEventId);
+			if(!req.isAsyncSupported()) output.drain();
+			return;
+		}
+
+		// A crawl ID resumes an interrupted crawl, or reads a finished one again, with its original parameters
+		CrawlLog.Replay replay = null;
+		if(crawlId != null && !crawlId.isEmpty()) {
+			try {
+				replay = crawlStore.replay(crawlId);
+			} catch (CrawlRejectedException e) {
+				writeError(resp, e.getStatusCode(), e.getMessage());
+				return;
+			}
+			if(replay.getUrl() == null) {
+				writeError(resp, HttpServletResponse.SC_NOT_FOUND, "Unknown crawl: " + crawlId);
+				return;
 			}
+			url = replay.getUrl();
+			isRecursive = replay.isRecursive();
+			recursiveLevelsInt = replay.getDepth();
+		}
+		else if(!UrlUtilities.isValidURL(url)) {
+			writeError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid URL"); // 400 Bad Request
+			return;
+		}
+
+		CrawlEngine.Job job;
+		try {
+			job = engine.admit(req.getRemoteAddr());
+		} catch (CrawlRejectedException e) {
+			log.warn("Rejected crawl of: {} | {}", url, e.getMessage());
+			resp.setHeader("Retry-After", String.valueOf(engine.getRetryAfterSeconds()));
+			writeError(resp, e.getStatusCode(), e.getMessage()); // 429 Too Many Requests or 503 Service Unavailable
+			return;
+		}
+
+		ImageCrawlerService imageCrawlerService;
+		if(isRecursive) {
+			imageCrawlerService = new ImageCrawlerService(job, true, recursiveLevelsInt);
+		}
+		else {
+			imageCrawlerService = new ImageCrawlerService(job, false);
+		}
+
+		CrawlLog crawlLog;
+		if(replay == null) {
 			url = UrlUtilities.normalizeUrl(url);
-			imageCrawlerService.init(url, writer);
+			// A crawl spread over a cluster is not persisted, no single node sees all of its pages
+			crawlLog = (clusterNode == null) ? crawlStore.create(url, isRecursive, recursiveLevelsInt) : null;
 		}
-		else{
-			resp.setStatus(HttpServletResponse.SC_BAD_REQUEST); // 400 Bad Request
-			writer.write("error: Invalid URL");
-			writer.flush();
-			writer.close();
+		else {
+			try {
+				// A finished crawl is only read, nothing is appended to its log
+				crawlLog = replay.isComplete() ? null : crawlStore.reopen(crawlId, replay);
+			} catch (CrawlRejectedException e) {
+				job.release();
+				writeError(resp, e.getStatusCode(), e.getMessage());
+				return;
+			}
+		}
+
+		// Every crawl gets an ID to reconnect to it with, a persisted one can also be resumed or read again
+		events = eventRegistry.create((replay != null) ? crawlId : (crawlLog != null) ? crawlLog.getCrawlId() : null);
+		resp.setHeader(CRAWL_ID_HEADER, events.getCrawlId());
+
+		// The container thread is released while the crawl waits on the network, results are written
+		// without blocking as they arrive
+		ResultStream output;
+		try {
+			output = openStream(req, resp, format);
+		} catch (IOException | IllegalStateException e) {
+			if(crawlLog != null) crawlLog.close();
+			eventRegistry.remove(events.getCrawlId());
+			job.release();
+			throw e;
+		}
+		events.attach(output, 0);
+
+		// A resumed crawl is finished by this node alone
+		if(clusterNode != null && replay == null) clusterNode.coordinate(imageCrawlerService, events);
+
+		if(replay == null) imageCrawlerService.init(url, events, crawlLog);
+		else imageCrawlerService.resume(replay, events, crawlLog);
+
+		if(!req.isAsyncSupported()) output.drain();
+	}
+
+	/**
+	 * Opens the stream of the response, written without blocking if the request is asynchronous
+	 * @return Stream to the client, to be drained by the calling thread unless the request is asynchronous
+	 */
+	private ResultStream openStream(HttpServletRequest req, HttpServletResponse resp, ResultFormat format) throws IOException {
+		ResultStream output;
+		if(req.isAsyncSupported()) {
+			AsyncContext asyncContext = req.startAsync();
+			try {
+				output = new ResultStream(asyncContext, format);
+			} catch (IOException | IllegalStateException e) {
+				asyncContext.complete();
+				throw e;
+			}
+		}
+		else {
+			output = new ResultStream(resp.getWriter(), format);
+		}
+		output.setWriteLatency(getCrawlEngine().getMetrics().getResultWriteLatency());
+		return output;
+	}
+
+	/**
+	 * @return Number of the last event a reconnecting client got, from its {@code Last-Event-ID} header or
+	 * {@code lastEventId} parameter, {@code 0} if none
+	 */
+	private static long parseLastEventId(HttpServletRequest req) {
+		String lastEventId = req.getHeader(LAST_EVENT_ID_HEADER);
+		if(lastEventId == null) lastEventId = req.getParameter("lastEventId");
+		try {
+			return (lastEventId == null) ? 0 : Math.max(0, Long.parseLong(lastEventId.trim()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes an error response
+	 * @param resp Response
+	 * @param statusCode HTTP status code
+	 * @param message Error message
+	 */
+	private void writeError(HttpServletResponse resp, int statusCode, String message) throws IOException {
+		resp.setStatus(statusCode);
+		PrintWriter writer = resp.getWriter();
+		writer.write("error: " + message);
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * The crawl engine started by {@link CrawlEngineListener}, or the lazily started shared one when the servlet
+	 * runs outside a container
+	 * @return Application scoped {@code CrawlEngine}
+	 */
+	private CrawlEngine getCrawlEngine() {
+		if(getServletConfig() != null) {
+			Object engine = getServletContext().getAttribute(CrawlEngineListener.ENGINE_ATTRIBUTE);
+			if(engine instanceof CrawlEngine) return (CrawlEngine) engine;
 		}
+		return CrawlEngine.getInstance();
 	}
 }
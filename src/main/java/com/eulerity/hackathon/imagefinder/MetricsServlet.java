@@ -0,0 +1,169 @@
+package com.eulerity.hackathon.imagefinder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.listener.CrawlEngineListener;
+import com.eulerity.hackathon.imagefinder.metrics.CrawlMetrics;
+import com.eulerity.hackathon.imagefinder.metrics.JobMetrics;
+import com.eulerity.hackathon.imagefinder.metrics.PrometheusWriter;
+import com.eulerity.hackathon.imagefinder.ratelimit.HostState;
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
+
+/**
+ * Metrics of the crawl engine in the Prometheus text format, on {@code GET /metrics}: the engine's workers and
+ * queues, counters and histograms of all crawls since it started, the politeness state and fetch latencies of the
+ * busiest {@code crawler.metrics.maxHosts} hosts, and the progress of every running crawl job.<br>
+ * Everything is read from the recorders on each scrape, the crawl itself does no more than add to them.
+ */
+@WebServlet(
+    name = "MetricsServlet",
+    urlPatterns = {"/metrics"}
+)
+public class MetricsServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private static final double MICROS_PER_SECOND = 1e6;
+
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String body = export(getCrawlEngine(), ConfigLoader.get("crawler.metrics.maxHosts", 500));
+		resp.setContentType(PrometheusWriter.CONTENT_TYPE);
+		resp.setHeader("Cache-Control", "no-cache");
+		PrintWriter writer = resp.getWriter();
+		writer.write(body);
+		writer.flush();
+	}
+
+	/**
+	 * @param engine Crawl engine to be exported
+	 * @param maxHosts Number of hosts exported, those sent the most fetches
+	 * @return Metrics of the engine in the Prometheus text format
+	 */
+	static String export(CrawlEngine engine, int maxHosts) {
+		PrometheusWriter out = new PrometheusWriter();
+		CrawlMetrics metrics = engine.getMetrics();
+
+		out.single("imagefinder_workers", "gauge", "Workers of the crawl engine", engine.getWorkerCount());
+		out.single("imagefinder_workers_busy", "gauge", "Workers running a crawl task", engine.getBusyWorkers());
+		out.single("imagefinder_tasks_queued", "gauge", "Crawl tasks waiting for a worker", engine.getQueuedTaskCount());
+		out.single("imagefinder_jobs_active", "gauge", "Crawl jobs admitted and running", engine.getActiveJobCount());
+		out.single("imagefinder_jobs_completed_total", "counter", "Crawl jobs completed", metrics.getJobsCompleted().sum());
+		out.single("imagefinder_fetches_total", "counter", "Page fetches sent, retries aside", metrics.getFetches().sum());
+		out.single("imagefinder_fetch_failures_total", "counter", "Page fetches failed once retries are exhausted",
+				metrics.getFetchFailures().sum());
+		out.single("imagefinder_downloaded_bytes_total", "counter", "Bytes of the page bodies downloaded",
+				metrics.getBytesDownloaded().sum());
+		out.family("imagefinder_page_cache_total", "counter", "Pages looked up in the page cache, by result")
+				.sample("imagefinder_page_cache_total", metrics.getCacheHits().sum(), "result", "hit")
+				.sample("imagefinder_page_cache_total", metrics.getCacheRevalidations().sum(), "result", "revalidated")
+				.sample("imagefinder_page_cache_total", metrics.getCacheMisses().sum(), "result", "miss");
+		out.single("imagefinder_page_cache_hit_ratio", "gauge", "Share of the pages found in the page cache",
+				metrics.getCacheHitRatio());
+		out.single("imagefinder_pages_completed_total", "counter", "Page results streamed", metrics.getPagesCompleted().sum());
+		out.single("imagefinder_images_found_total", "counter", "Images found on the pages", metrics.getImagesFound().sum());
+		out.family("imagefinder_parse_seconds", "histogram", "Time to extract the links and images of a fetched page")
+				.histogram("imagefinder_parse_seconds", metrics.getParseTime(), MICROS_PER_SECOND);
+		out.family("imagefinder_images_per_page", "histogram", "Images found on a page")
+				.histogram("imagefinder_images_per_page", metrics.getImagesPerPage(), 1);
+		out.family("imagefinder_result_write_seconds", "histogram",
+				"Time a page result waits between being published and being written to the client")
+				.histogram("imagefinder_result_write_seconds", metrics.getResultWriteLatency(), MICROS_PER_SECOND);
+
+		writeHosts(out, engine, maxHosts);
+		writeJobs(out, engine);
+		return out.toString();
+	}
+
+	private static void writeHosts(PrometheusWriter out, CrawlEngine engine, int maxHosts) {
+		List<HostState> hosts = new ArrayList<>(engine.getPolitenessScheduler().getHosts());
+		if(hosts.size() > maxHosts) {
+			hosts.sort(Comparator.comparingLong((HostState host) -> host.getFetchTimes().getCount()).reversed());
+			hosts = hosts.subList(0, Math.max(0, maxHosts));
+		}
+
+		out.family("imagefinder_host_delay_seconds", "gauge", "Current adaptive delay between two requests to a host");
+		for(HostState host : hosts) out.sample("imagefinder_host_delay_seconds", host.getRequestDelay() / 1000.0, "host", host.getHost());
+		out.family("imagefinder_host_in_flight", "gauge", "Fetches of a host in flight");
+		for(HostState host : hosts) out.sample("imagefinder_host_in_flight", host.getInFlight(), "host", host.getHost());
+		out.family("imagefinder_host_pending", "gauge", "Fetches of a host waiting for their turn");
+		for(HostState host : hosts) out.sample("imagefinder_host_pending", host.getPendingCount(), "host", host.getHost());
+		out.family("imagefinder_host_downloaded_bytes_total", "counter", "Bytes of the bodies downloaded from a host");
+		for(HostState host : hosts) {
+			out.sample("imagefinder_host_downloaded_bytes_total", host.getBytesDownloaded().sum(), "host", host.getHost());
+		}
+		out.family("imagefinder_host_fetch_errors_total", "counter", "Fetches of a host failed without a response");
+		for(HostState host : hosts) {
+			out.sample("imagefinder_host_fetch_errors_total", host.getFetchErrors().sum(), "host", host.getHost());
+		}
+		out.family("imagefinder_host_fetch_seconds", "histogram", "Response time of the fetches and probes of a host");
+		for(HostState host : hosts) {
+			out.histogram("imagefinder_host_fetch_seconds", host.getFetchTimes(), MICROS_PER_SECOND, "host", host.getHost());
+		}
+	}
+
+	private static void writeJobs(PrometheusWriter out, CrawlEngine engine) {
+		List<CrawlEngine.Job> jobs = engine.getActiveJobs();
+		jobs.sort(Comparator.comparingInt(CrawlEngine.Job::getId));
+
+		out.family("imagefinder_crawl_queued_pages", "gauge", "Pages of a running crawl waiting in its frontier");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_queued_pages", job.getMetrics().getQueuedPages(), "crawl", String.valueOf(job.getId()));
+		}
+		out.family("imagefinder_crawl_fetches_in_flight", "gauge", "Pages of a running crawl being fetched");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_fetches_in_flight", job.getMetrics().getFetchesInFlight(), "crawl", String.valueOf(job.getId()));
+		}
+		out.family("imagefinder_crawl_fetches_total", "counter", "Page fetches sent by a running crawl");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_fetches_total", job.getMetrics().getFetches().sum(), "crawl", String.valueOf(job.getId()));
+		}
+		out.family("imagefinder_crawl_fetch_failures_total", "counter", "Page fetches of a running crawl failed");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_fetch_failures_total", job.getMetrics().getFetchFailures().sum(), "crawl", String.valueOf(job.getId()));
+		}
+		out.family("imagefinder_crawl_downloaded_bytes_total", "counter", "Bytes of the page bodies downloaded by a running crawl");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_downloaded_bytes_total", job.getMetrics().getBytesDownloaded().sum(), "crawl", String.valueOf(job.getId()));
+		}
+		out.family("imagefinder_crawl_page_cache_total", "counter", "Pages of a running crawl looked up in the page cache, by result");
+		for(CrawlEngine.Job job : jobs) {
+			JobMetrics metrics = job.getMetrics();
+			String crawl = String.valueOf(job.getId());
+			out.sample("imagefinder_crawl_page_cache_total", metrics.getCacheHits().sum(), "crawl", crawl, "result", "hit")
+					.sample("imagefinder_crawl_page_cache_total", metrics.getCacheRevalidations().sum(), "crawl", crawl, "result", "revalidated")
+					.sample("imagefinder_crawl_page_cache_total", metrics.getCacheMisses().sum(), "crawl", crawl, "result", "miss");
+		}
+		out.family("imagefinder_crawl_pages_completed_total", "counter", "Page results streamed by a running crawl");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_pages_completed_total", job.getMetrics().getPagesCompleted().sum(), "crawl", String.valueOf(job.getId()));
+		}
+		out.family("imagefinder_crawl_images_found_total", "counter", "Images found by a running crawl");
+		for(CrawlEngine.Job job : jobs) {
+			out.sample("imagefinder_crawl_images_found_total", job.getMetrics().getImagesFound().sum(), "crawl", String.valueOf(job.getId()));
+		}
+	}
+
+	/**
+	 * The crawl engine started by {@link CrawlEngineListener}, or the lazily started shared one when the servlet
+	 * runs outside a container
+	 * @return Application scoped {@code CrawlEngine}
+	 */
+	private CrawlEngine getCrawlEngine() {
+		if(getServletConfig() != null) {
+			Object engine = getServletContext().getAttribute(CrawlEngineListener.ENGINE_ATTRIBUTE);
+			if(engine instanceof CrawlEngine) return (CrawlEngine) engine;
+		}
+		return CrawlEngine.getInstance();
+	}
+}
@@ -0,0 +1,156 @@
+package com.eulerity.hackathon.imagefinder.batch;
+
+import com.eulerity.hackathon.imagefinder.output.ResultSink;
+import com.eulerity.hackathon.imagefinder.output.ResultStream;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Crawl of many seeds running detached from any request.<br>
+ * The results of all seeds are kept in memory for the lifetime of the job, so that clients can poll its status, and
+ * attach a stream of its results from any point at any time, while it runs and after it is complete. Each attached
+ * stream follows the results at its own pace.
+ */
+@Slf4j
+public class BatchJob implements ResultSink {
+
+    public enum State { RUNNING, COMPLETE, CANCELLED }
+
+    @Getter
+    private final String jobId;
+    @Getter
+    private final int seedCount;
+    @Getter
+    private final long createdAt = System.currentTimeMillis();
+    @Getter
+    private volatile long completedAt = 0;
+
+    private final List<String> results = Collections.synchronizedList(new ArrayList<>());
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+    private volatile boolean cancelled = false;
+    @Setter
+    private volatile Runnable onDrained = () -> { };
+
+    public BatchJob(String jobId, int seedCount) {
+        this.jobId = jobId;
+        this.seedCount = seedCount;
+    }
+
+    @Override
+    public void publish(String json) {
+        results.add(json);
+        for(Subscriber subscriber : subscribers) subscriber.pump();
+    }
+
+    /**
+     * Results are buffered on the heap, the crawl never waits on a client
+     */
+    @Override
+    public boolean isBackedUp() {
+        return false;
+    }
+
+    @Override
+    public boolean isAborted() {
+        return cancelled;
+    }
+
+    @Override
+    public void close() {
+        completedAt = System.currentTimeMillis();
+        closed = true;
+        for(Subscriber subscriber : subscribers) subscriber.pump();
+        log.info("Batch job {} {} with {} pages", jobId, cancelled ? "cancelled" : "complete", results.size());
+    }
+
+    /**
+     * Drops the pages not crawled yet. The job completes once the pages in flight are done.
+     */
+    public void cancel() {
+        if(closed) return;
+        cancelled = true;
+        onDrained.run();
+    }
+
+    /**
+     * Streams the results of the job to a client, from the given result on, and closes the stream once the job is
+     * complete and the client has all of them
+     * @param stream Stream to the client
+     * @param from Number of results the client already has
+     */
+    public void attach(ResultStream stream, int from) {
+        Subscriber subscriber = new Subscriber(stream, Math.max(0, from));
+        stream.setOnDrained(subscriber::pump);
+        subscribers.add(subscriber);
+        subscriber.pump();
+    }
+
+    /**
+     * @return State of the job
+     */
+    public State getState() {
+        if(!closed) return State.RUNNING;
+        return cancelled ? State.CANCELLED : State.COMPLETE;
+    }
+
+    /**
+     * @return Number of pages completed so far
+     */
+    public int getPagesCompleted() {
+        return results.size();
+    }
+
+    /**
+     * @return {@code true} once the job is over and nobody is streaming its results
+     */
+    public boolean isIdle() {
+        return closed && subscribers.isEmpty();
+    }
+
+    /**
+     * Stream of the results to one client
+     */
+    private class Subscriber {
+        private final ResultStream stream;
+        // Guarded by this
+        private int cursor;
+        private boolean done = false;
+
+        private Subscriber(ResultStream stream, int cursor) {
+            this.stream = stream;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Hands the next results to the stream for as long as it keeps up
+         */
+        private synchronized void pump() {
+            if(done) return;
+            if(stream.isAborted()) {
+                finish();
+                return;
+            }
+            // Read before the results, so that none published meanwhile is missed
+            boolean complete = closed;
+            while(cursor < results.size() && !stream.isBackedUp()) {
+                stream.publish(results.get(cursor++));
+            }
+            if(complete && cursor >= results.size()) {
+                stream.close();
+                finish();
+            }
+        }
+
+        private void finish() {
+            done = true;
+            subscribers.remove(this);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.eulerity.hackathon.imagefinder.batch;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import lombok.Getter;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch jobs of the application, by job ID.<br>
+ * A job is kept for {@code crawler.batch.retention.minutes} after it is complete, for clients to collect its
+ * results, and dropped afterwards unless a client is still streaming them.
+ */
+public class BatchRegistry {
+
+    @Getter
+    private final int maxSeeds;
+    private final long retentionMillis;
+    private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+
+    public BatchRegistry() {
+        this(ConfigLoader.get("crawler.batch.maxSeeds", 10000), ConfigLoader.get("crawler.batch.retention.minutes", 60));
+    }
+
+    public BatchRegistry(int maxSeeds, int retentionMinutes) {
+        this.maxSeeds = maxSeeds;
+        this.retentionMillis = TimeUnit.MINUTES.toMillis(retentionMinutes);
+    }
+
+    /**
+     * Registers a new batch job
+     * @param seedCount Number of seeds of the job
+     * @return {@code BatchJob} with a new job ID
+     */
+    public BatchJob create(int seedCount) {
+        evictExpired();
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), seedCount);
+        jobs.put(job.getJobId(), job);
+        return job;
+    }
+
+    /**
+     * @param jobId ID of the job
+     * @return {@code BatchJob} of the ID
+     * @throws CrawlRejectedException with status 404 if the job is unknown or expired
+     */
+    public BatchJob get(String jobId) {
+        BatchJob job = (jobId == null) ? null : jobs.get(jobId);
+        if(job == null) {
+            throw new CrawlRejectedException(HttpServletResponse.SC_NOT_FOUND, "Unknown batch job: " + jobId);
+        }
+        return job;
+    }
+
+    /**
+     * Forgets a job that could not be started
+     * @param jobId ID of the job
+     */
+    public void remove(String jobId) {
+        jobs.remove(jobId);
+    }
+
+    /**
+     * @return Number of jobs kept
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        Iterator<BatchJob> iterator = jobs.values().iterator();
+        while(iterator.hasNext()) {
+            BatchJob job = iterator.next();
+            if(job.isIdle() && job.getCompletedAt() < cutoff) iterator.remove();
+        }
+    }
+}
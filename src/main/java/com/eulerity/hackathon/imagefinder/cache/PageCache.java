@@ -0,0 +1,98 @@
+package com.eulerity.hackathon.imagefinder.cache;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.CachedPage;
+import lombok.Getter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of extracted pages shared by all crawl requests, keyed by canonical URL.<br>
+ * Pages younger than {@code crawler.cache.ttl.seconds} are served from memory without a fetch. Older pages are
+ * kept for a conditional refetch: a {@code 304 Not Modified} answer refreshes them without downloading or parsing
+ * the page again. The cache is bounded by the estimated bytes of its pages, and evicts the least recently used
+ * ones first.
+ */
+public class PageCache {
+
+    @Getter
+    private final long ttlMillis;
+    private final long maxBytes;
+
+    // Access ordered, guarded by this
+    private final LinkedHashMap<String, CachedPage> pages = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0;
+
+    public PageCache() {
+        this(ConfigLoader.get("crawler.cache.enabled", true) ? ConfigLoader.get("crawler.cache.maxBytes", 64 * 1024 * 1024) : 0,
+                ConfigLoader.get("crawler.cache.ttl.seconds", 600) * 1000L);
+    }
+
+    public PageCache(long maxBytes, long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param url Canonical URL of the page
+     * @return Cached page, fresh or not, or {@code null} if absent
+     */
+    public synchronized CachedPage get(String url) {
+        return pages.get(url);
+    }
+
+    /**
+     * Stores the page, evicting the least recently used pages as long as the cache is over its size
+     * @param page Extracted page
+     */
+    public void put(CachedPage page) {
+        long pageBytes = page.estimateBytes();
+        if(pageBytes > maxBytes) return;
+        synchronized (this) {
+            CachedPage previous = pages.put(page.getUrl(), page);
+            if(previous != null) bytes -= previous.estimateBytes();
+            bytes += pageBytes;
+
+            Iterator<Map.Entry<String, CachedPage>> eldest = pages.entrySet().iterator();
+            while(bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().estimateBytes();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @param page Cached page
+     * @return {@code true} if the page can be used without asking the server
+     */
+    public boolean isFresh(CachedPage page) {
+        return page.isFresh(System.currentTimeMillis(), ttlMillis);
+    }
+
+    /**
+     * Marks the page as confirmed unchanged by the server
+     * @param page Cached page
+     * @return Page stored as of now
+     */
+    public CachedPage revalidate(CachedPage page) {
+        CachedPage revalidated = page.revalidated(System.currentTimeMillis());
+        put(revalidated);
+        return revalidated;
+    }
+
+    /**
+     * @return Number of pages in the cache
+     */
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    /**
+     * @return Estimated bytes taken by the cached pages
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
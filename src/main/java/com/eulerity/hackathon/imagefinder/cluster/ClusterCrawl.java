@@ -0,0 +1,230 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import com.eulerity.hackathon.imagefinder.output.ResultSink;
+import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Share of one crawl on one node of the cluster.<br>
+ * The node a client sent the crawl to coordinates it: it streams the results to the client, and the other nodes
+ * join the crawl once they are handed pages of their hosts. Pages of other nodes' hosts, and the results of a
+ * participating node, are sent in batches of {@code crawler.cluster.batch.maxUrls}, or after
+ * {@code crawler.cluster.batch.maxDelay.millis}.<br>
+ * Completion is detected the Dijkstra-Scholten way: every page and result sent stays outstanding until its receiver
+ * acknowledges it with {@code DONE}. A node takes part on behalf of the node whose batch woke it up, and only
+ * acknowledges that batch once it is idle itself, with no local task and nothing outstanding; any other batch is
+ * acknowledged at once. The coordinator being idle thus means the whole cluster is, and it ends the crawl on every
+ * node.
+ */
+@Slf4j
+public class ClusterCrawl implements ResultSink {
+
+    @Getter
+    private final String crawlId;
+    private final String coordinatorId;
+    private final ClusterNode node;
+    private final ImageCrawlerService service;
+    // Stream to the client on the coordinator, null on a participant
+    private final ResultSink output;
+
+    // Guarded by this
+    private final Map<String, List<ClusterMessage.Page>> pendingPages = new HashMap<>();
+    private final List<String> pendingResults = new ArrayList<>();
+    private long outstanding = 0;
+    private String parentId;
+    private int parentCount = 0;
+    private boolean flushScheduled = false;
+    private boolean ended = false;
+    private boolean abortSent = false;
+
+    private volatile boolean aborted = false;
+    @Setter
+    private volatile Runnable onDrained = () -> { };
+
+    ClusterCrawl(ClusterNode node, String crawlId, String coordinatorId, ImageCrawlerService service, ResultSink output) {
+        this.node = node;
+        this.crawlId = crawlId;
+        this.coordinatorId = coordinatorId;
+        this.service = service;
+        this.output = output;
+    }
+
+    /**
+     * @return {@code true} if this node streams the results of the crawl to the client
+     */
+    public boolean isCoordinator() {
+        return output != null;
+    }
+
+    /**
+     * @param url Canonical URL
+     * @return {@code true} if the URL's host belongs to this node
+     */
+    public boolean isLocal(String url) {
+        return node.isLocal(url);
+    }
+
+    /**
+     * Hands a page over to the node owning its host
+     * @param url Canonical URL of the page
+     * @param depth Depth of the page
+     * @param parentImageCount Number of images on the page that linked to it
+     */
+    public synchronized void forward(String url, int depth, int parentImageCount) {
+        if(ended) return;
+        outstanding++;
+        List<ClusterMessage.Page> pages = pendingPages.computeIfAbsent(node.ownerOf(url), owner -> new ArrayList<>());
+        pages.add(new ClusterMessage.Page(url, depth, parentImageCount));
+        if(pages.size() >= node.getMaxBatchUrls()) flush();
+        else scheduleFlush();
+    }
+
+    /**
+     * Sends the result of a page of a participant to the coordinator
+     */
+    @Override
+    public synchronized void publish(String json) {
+        if(ended) return;
+        outstanding++;
+        pendingResults.add(json);
+        if(pendingResults.size() >= node.getMaxBatchUrls()) flush();
+        else scheduleFlush();
+    }
+
+    /**
+     * Results are held until the next batch, the crawl never waits on the coordinator
+     */
+    @Override
+    public boolean isBackedUp() {
+        return false;
+    }
+
+    @Override
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * The results are complete once acknowledged, nothing is left to close
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Called by the crawl service once it has no task left
+     */
+    public synchronized void localIdle() {
+        checkIdle();
+    }
+
+    /**
+     * Takes a batch of pages handed over by another node
+     */
+    synchronized void onCrawl(ClusterMessage message) {
+        List<ClusterMessage.Page> pages = message.getPages();
+        boolean engaging = !isCoordinator() && parentId == null;
+        if(engaging) {
+            parentId = message.getFrom();
+            parentCount = pages.size();
+        }
+        service.crawlForwarded(pages);
+        if(!engaging) node.send(message.getFrom(), ClusterMessage.done(crawlId, node.getNodeId(), pages.size()));
+        checkIdle();
+    }
+
+    /**
+     * Streams a batch of results of a participant to the client, and acknowledges it
+     */
+    void onResults(ClusterMessage message) {
+        for(String json : message.getResults()) output.publish(json);
+        node.send(message.getFrom(), ClusterMessage.done(crawlId, node.getNodeId(), message.getResults().size()));
+        if(output.isAborted()) {
+            synchronized (this) {
+                if(abortSent) return;
+                abortSent = true;
+            }
+            log.info("Client of crawl {} went away, aborting it on the cluster", crawlId);
+            node.broadcast(ClusterMessage.of(ClusterMessage.Type.ABORT, crawlId, node.getNodeId()));
+        }
+    }
+
+    /**
+     * Counts pages or results acknowledged by their receiver
+     */
+    synchronized void onDone(int count) {
+        outstanding -= count;
+        checkIdle();
+    }
+
+    /**
+     * Drops the pages of the crawl not fetched yet, its client has gone away
+     */
+    void onAbort() {
+        aborted = true;
+        onDrained.run();
+    }
+
+    /**
+     * Releases the share of this node once the coordinator has found the crawl complete
+     */
+    void onEnd() {
+        synchronized (this) {
+            if(ended) return;
+            ended = true;
+        }
+        node.remove(crawlId);
+        service.completeJob();
+    }
+
+    /**
+     * Acknowledges the batch this node took part for, or ends the crawl on the coordinator, once nothing is left
+     * to do here
+     */
+    private void checkIdle() {
+        if(ended || !service.isIdle() || outstanding > 0) return;
+        if(isCoordinator()) {
+            ended = true;
+            node.remove(crawlId);
+            node.broadcast(ClusterMessage.of(ClusterMessage.Type.END, crawlId, node.getNodeId()));
+            service.completeJob();
+        }
+        else if(parentId != null) {
+            node.send(parentId, ClusterMessage.done(crawlId, node.getNodeId(), parentCount));
+            parentId = null;
+            parentCount = 0;
+        }
+    }
+
+    private void scheduleFlush() {
+        if(flushScheduled) return;
+        flushScheduled = true;
+        node.getFlusher().schedule(this::flushNow, node.getMaxBatchDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flushNow() {
+        flush();
+    }
+
+    /**
+     * Sends the pending pages to their owners, and the pending results to the coordinator
+     */
+    private void flush() {
+        flushScheduled = false;
+        for(Map.Entry<String, List<ClusterMessage.Page>> pages : pendingPages.entrySet()) {
+            if(pages.getValue().isEmpty()) continue;
+            node.send(pages.getKey(), ClusterMessage.crawl(crawlId, node.getNodeId(), coordinatorId,
+                    service.isRecursive(), service.getPermissibleDepth(), new ArrayList<>(pages.getValue())));
+            pages.getValue().clear();
+        }
+        if(!pendingResults.isEmpty()) {
+            node.send(coordinatorId, ClusterMessage.results(crawlId, node.getNodeId(), new ArrayList<>(pendingResults)));
+            pendingResults.clear();
+        }
+    }
+}
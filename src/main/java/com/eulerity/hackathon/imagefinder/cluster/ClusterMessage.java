@@ -0,0 +1,172 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message exchanged by the nodes of a cluster about one crawl:
+ * <ul>
+ *     <li>{@code CRAWL} hands a batch of pages over to the node owning their host</li>
+ *     <li>{@code RESULTS} sends a batch of page results to the node streaming them to the client</li>
+ *     <li>{@code DONE} acknowledges a number of pages or results, see {@link ClusterCrawl}</li>
+ *     <li>{@code END} tells the nodes the crawl is complete, {@code ABORT} that its client has gone away</li>
+ * </ul>
+ */
+@Getter
+public class ClusterMessage {
+
+    public enum Type { CRAWL, RESULTS, DONE, END, ABORT }
+
+    private final Type type;
+    private final String crawlId;
+    private final String from;
+
+    // CRAWL
+    private String coordinatorId;
+    private boolean recursive;
+    private int permissibleDepth;
+    private List<Page> pages = Collections.emptyList();
+    // RESULTS
+    private List<String> results = Collections.emptyList();
+    // DONE
+    private int count;
+
+    private ClusterMessage(Type type, String crawlId, String from) {
+        this.type = type;
+        this.crawlId = crawlId;
+        this.from = from;
+    }
+
+    public static ClusterMessage crawl(String crawlId, String from, String coordinatorId, boolean recursive,
+                                       int permissibleDepth, List<Page> pages) {
+        ClusterMessage message = new ClusterMessage(Type.CRAWL, crawlId, from);
+        message.coordinatorId = coordinatorId;
+        message.recursive = recursive;
+        message.permissibleDepth = permissibleDepth;
+        message.pages = pages;
+        return message;
+    }
+
+    public static ClusterMessage results(String crawlId, String from, List<String> results) {
+        ClusterMessage message = new ClusterMessage(Type.RESULTS, crawlId, from);
+        message.results = results;
+        return message;
+    }
+
+    public static ClusterMessage done(String crawlId, String from, int count) {
+        ClusterMessage message = new ClusterMessage(Type.DONE, crawlId, from);
+        message.count = count;
+        return message;
+    }
+
+    public static ClusterMessage of(Type type, String crawlId, String from) {
+        return new ClusterMessage(type, crawlId, from);
+    }
+
+    /**
+     * @return Number of pages or results the message carries, which its receiver acknowledges
+     */
+    public int getItemCount() {
+        return pages.size() + results.size();
+    }
+
+    /**
+     * @return Message serialized as bytes, without a length prefix
+     */
+    public byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type.ordinal());
+        out.writeUTF(crawlId);
+        out.writeUTF(from);
+        switch (type) {
+            case CRAWL:
+                out.writeUTF(coordinatorId);
+                out.writeBoolean(recursive);
+                out.writeInt(permissibleDepth);
+                out.writeInt(pages.size());
+                for(Page page : pages) {
+                    out.writeInt(page.getDepth());
+                    out.writeInt(page.getParentImageCount());
+                    out.writeUTF(page.getUrl());
+                }
+                break;
+            case RESULTS:
+                out.writeInt(results.size());
+                for(String json : results) {
+                    // Results may be longer than writeUTF allows
+                    byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+                break;
+            case DONE:
+                out.writeInt(count);
+                break;
+            default:
+                break;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes Message serialized by {@link #encode()}
+     * @return Message read back
+     */
+    public static ClusterMessage decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        Type type = Type.values()[in.readByte()];
+        ClusterMessage message = new ClusterMessage(type, in.readUTF(), in.readUTF());
+        switch (type) {
+            case CRAWL:
+                message.coordinatorId = in.readUTF();
+                message.recursive = in.readBoolean();
+                message.permissibleDepth = in.readInt();
+                int pageCount = in.readInt();
+                message.pages = new ArrayList<>(pageCount);
+                for(int i = 0; i < pageCount; i++) {
+                    int depth = in.readInt();
+                    int parentImageCount = in.readInt();
+                    message.pages.add(new Page(in.readUTF(), depth, parentImageCount));
+                }
+                break;
+            case RESULTS:
+                int resultCount = in.readInt();
+                message.results = new ArrayList<>(resultCount);
+                for(int i = 0; i < resultCount; i++) {
+                    byte[] utf8 = new byte[in.readInt()];
+                    in.readFully(utf8);
+                    message.results.add(new String(utf8, StandardCharsets.UTF_8));
+                }
+                break;
+            case DONE:
+                message.count = in.readInt();
+                break;
+            default:
+                break;
+        }
+        return message;
+    }
+
+    /**
+     * Page handed over to the node owning its host
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Page {
+        private final String url;
+        private final int depth;
+        private final int parentImageCount;
+    }
+}
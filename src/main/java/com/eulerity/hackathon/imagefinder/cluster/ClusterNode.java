@@ -0,0 +1,224 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import com.eulerity.hackathon.imagefinder.output.ResultSink;
+import com.eulerity.hackathon.imagefinder.ratelimit.PolitenessScheduler;
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
+import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * This node's membership of a crawl cluster, enabled with {@code crawler.cluster.enabled}.<br>
+ * {@code crawler.cluster.nodes} lists every node as {@code id@host:port}, and {@code crawler.cluster.nodeId} names
+ * this one. Hosts are partitioned across the nodes by a {@link HashRing} on the same host name the
+ * {@link PolitenessScheduler} keys on, so each host is fetched, and rate limited, by exactly one node. A crawl
+ * started on any node runs on the nodes owning its hosts, and all results are streamed by the node it started on.
+ * Several nodes can run on one machine, with their own ports and node IDs given as system properties.
+ */
+@Slf4j
+public class ClusterNode implements ClusterTransport.Handler {
+
+    @Getter
+    private final String nodeId;
+    private final Map<String, InetSocketAddress> addresses;
+    private final HashRing ring;
+    private final CrawlEngine engine;
+    private final ClusterTransport transport;
+    // Crawls this node coordinates or takes part in, by crawl ID
+    private final Map<String, ClusterCrawl> crawls = new ConcurrentHashMap<>();
+
+    @Getter(AccessLevel.PACKAGE)
+    private final int maxBatchUrls;
+    @Getter(AccessLevel.PACKAGE)
+    private final long maxBatchDelayMillis;
+    @Getter(AccessLevel.PACKAGE)
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ClusterNode(String nodeId, Map<String, InetSocketAddress> addresses, int virtualNodes, int maxBatchUrls,
+                       long maxBatchDelayMillis, int connectTimeoutMillis, int maxMessageBytes, CrawlEngine engine) {
+        if(!addresses.containsKey(nodeId)) throw new IllegalArgumentException("Node " + nodeId + " is not in the cluster");
+        this.nodeId = nodeId;
+        this.addresses = addresses;
+        this.ring = new HashRing(addresses.keySet(), virtualNodes);
+        this.maxBatchUrls = maxBatchUrls;
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+        this.engine = engine;
+        this.transport = new ClusterTransport(nodeId, addresses, connectTimeoutMillis, maxMessageBytes, this);
+    }
+
+    /**
+     * Creates and starts the cluster node configured in the application properties
+     * @param engine Crawl engine the node's crawls run on
+     * @return {@code ClusterNode}, or {@code null} if the cluster mode is disabled
+     */
+    public static ClusterNode create(CrawlEngine engine) {
+        if(!ConfigLoader.get("crawler.cluster.enabled", false)) return null;
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        for(String node : ConfigLoader.get("crawler.cluster.nodes", "").split(",")) {
+            node = node.trim();
+            int at = node.indexOf('@');
+            int colon = node.lastIndexOf(':');
+            if(at <= 0 || colon < at) throw new IllegalArgumentException("Invalid cluster node, expected id@host:port: " + node);
+            addresses.put(node.substring(0, at), InetSocketAddress.createUnresolved(node.substring(at + 1, colon),
+                    Integer.parseInt(node.substring(colon + 1))));
+        }
+        ClusterNode clusterNode = new ClusterNode(ConfigLoader.get("crawler.cluster.nodeId", ""), addresses,
+                ConfigLoader.get("crawler.cluster.virtualNodes", 128),
+                ConfigLoader.get("crawler.cluster.batch.maxUrls", 256),
+                ConfigLoader.get("crawler.cluster.batch.maxDelay.millis", 50),
+                ConfigLoader.get("crawler.cluster.connectTimeout.millis", 5000),
+                ConfigLoader.get("crawler.cluster.maxMessageBytes", 16 * 1024 * 1024), engine);
+        try {
+            clusterNode.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start cluster node " + clusterNode.nodeId, e);
+        }
+        return clusterNode;
+    }
+
+    /**
+     * Starts listening for the other nodes
+     * @throws IOException If this node's address cannot be bound
+     */
+    public void start() throws IOException {
+        transport.start();
+        log.info("Cluster node {} started, cluster of {} nodes: {}", nodeId, addresses.size(), addresses.keySet());
+    }
+
+    /**
+     * Stops talking to the other nodes
+     */
+    public void stop() {
+        transport.stop();
+        flusher.shutdownNow();
+    }
+
+    /**
+     * Makes this node the coordinator of a new crawl
+     * @param service Crawl service of the crawl, not started yet
+     * @param output Stream of the results to the client
+     * @return {@code ClusterCrawl} the service is to hand pages of other nodes to
+     */
+    public ClusterCrawl coordinate(ImageCrawlerService service, ResultSink output) {
+        ClusterCrawl crawl = new ClusterCrawl(this, UUID.randomUUID().toString(), nodeId, service, output);
+        crawls.put(crawl.getCrawlId(), crawl);
+        service.setCluster(crawl);
+        return crawl;
+    }
+
+    /**
+     * @param url URL
+     * @return {@code true} if the URL's host belongs to this node
+     */
+    public boolean isLocal(String url) {
+        return nodeId.equals(ownerOf(url));
+    }
+
+    /**
+     * @param url URL
+     * @return ID of the node owning the URL's host
+     */
+    public String ownerOf(String url) {
+        return ring.ownerOf(PolitenessScheduler.hostOf(url));
+    }
+
+    @Override
+    public void onMessage(ClusterMessage message) {
+        ClusterCrawl crawl = crawls.get(message.getCrawlId());
+        switch (message.getType()) {
+            case CRAWL:
+                if(crawl == null) crawl = join(message);
+                if(crawl == null) {
+                    // Not taken, the pages are dropped rather than holding the crawl up
+                    send(message.getFrom(), ClusterMessage.done(message.getCrawlId(), nodeId, message.getItemCount()));
+                    return;
+                }
+                crawl.onCrawl(message);
+                break;
+            case RESULTS:
+                if(crawl == null || !crawl.isCoordinator()) {
+                    send(message.getFrom(), ClusterMessage.done(message.getCrawlId(), nodeId, message.getItemCount()));
+                    return;
+                }
+                crawl.onResults(message);
+                break;
+            case DONE:
+                if(crawl != null) crawl.onDone(message.getCount());
+                break;
+            case ABORT:
+                if(crawl != null) crawl.onAbort();
+                break;
+            case END:
+                if(crawl != null) crawl.onEnd();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onUndeliverable(String peerId, ClusterMessage message) {
+        log.error("Cluster node {} unreachable, dropping {} message of crawl {} with {} items", peerId,
+                message.getType(), message.getCrawlId(), message.getItemCount());
+        ClusterCrawl crawl = crawls.get(message.getCrawlId());
+        // Pages and results that cannot be delivered are given up on, so that the crawl still completes
+        if(crawl != null && message.getItemCount() > 0) crawl.onDone(message.getItemCount());
+    }
+
+    /**
+     * Takes part in a crawl coordinated by another node, with a job of the local crawl engine
+     * @return {@code ClusterCrawl} of this node's share, or {@code null} if the engine has no room for it
+     */
+    private synchronized ClusterCrawl join(ClusterMessage message) {
+        ClusterCrawl crawl = crawls.get(message.getCrawlId());
+        if(crawl != null) return crawl;
+        CrawlEngine.Job job;
+        try {
+            // Every crawl is its own client, the limit per client is up to the coordinator
+            job = engine.admit("cluster:" + message.getCrawlId());
+        } catch (CrawlRejectedException e) {
+            log.warn("Rejected share of crawl {} from {} | {}", message.getCrawlId(), message.getFrom(), e.getMessage());
+            return null;
+        }
+        ImageCrawlerService service = new ImageCrawlerService(job, message.isRecursive(), message.getPermissibleDepth());
+        crawl = new ClusterCrawl(this, message.getCrawlId(), message.getCoordinatorId(), service, null);
+        service.setCluster(crawl);
+        service.join(crawl);
+        crawls.put(crawl.getCrawlId(), crawl);
+        log.info("Joined crawl {} coordinated by {}", crawl.getCrawlId(), message.getCoordinatorId());
+        return crawl;
+    }
+
+    void send(String peerId, ClusterMessage message) {
+        transport.send(peerId, message);
+    }
+
+    /**
+     * Sends the message to every other node
+     */
+    void broadcast(ClusterMessage message) {
+        for(String peerId : addresses.keySet()) {
+            if(!peerId.equals(nodeId)) transport.send(peerId, message);
+        }
+    }
+
+    void remove(String crawlId) {
+        crawls.remove(crawlId);
+    }
+}
@@ -0,0 +1,231 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plain socket transport between the nodes of a cluster.<br>
+ * Every node listens on its own address and reads length prefixed {@link ClusterMessage}s from its peers, one thread
+ * per inbound connection. Outbound messages are queued per peer and written by a thread of that peer, so that
+ * sending never blocks the caller on the network. A peer that cannot be reached after a few attempts gets its
+ * message reported as undeliverable.<br>
+ * A message is at most {@code maxMessageBytes} long, a connection announcing a longer one is dropped before
+ * anything is allocated for it.
+ */
+@Slf4j
+public class ClusterTransport {
+
+    private static final int SEND_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /**
+     * Receiver of the messages of a node
+     */
+    public interface Handler {
+
+        /**
+         * Called on the reader thread of the connection the message arrived on
+         */
+        void onMessage(ClusterMessage message);
+
+        /**
+         * Called on the writer thread of the peer, once the message has been given up on
+         */
+        void onUndeliverable(String nodeId, ClusterMessage message);
+    }
+
+    private final String nodeId;
+    private final Map<String, InetSocketAddress> addresses;
+    private final int connectTimeoutMillis;
+    private final int maxMessageBytes;
+    private final Handler handler;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running = false;
+
+    /**
+     * @param nodeId ID of this node
+     * @param addresses Address of every node of the cluster by node ID, including this one
+     * @param connectTimeoutMillis Timeout of a connection to a peer
+     * @param maxMessageBytes Largest encoded message sent or accepted
+     * @param handler Receiver of the messages of this node
+     */
+    public ClusterTransport(String nodeId, Map<String, InetSocketAddress> addresses, int connectTimeoutMillis,
+                            int maxMessageBytes, Handler handler) {
+        this.nodeId = nodeId;
+        this.addresses = addresses;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.maxMessageBytes = maxMessageBytes;
+        this.handler = handler;
+    }
+
+    /**
+     * Starts listening on the address of this node
+     * @throws IOException If the address cannot be bound
+     */
+    public void start() throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(addresses.get(nodeId).getPort()));
+        serverSocket = socket;
+        running = true;
+        daemon("cluster-acceptor", this::accept).start();
+        log.info("Cluster node {} listening on port {}", nodeId, socket.getLocalPort());
+    }
+
+    /**
+     * Queues a message to a peer
+     * @param peerId ID of the receiving node
+     * @param message Message
+     */
+    public void send(String peerId, ClusterMessage message) {
+        if(!running) return;
+        peers.computeIfAbsent(peerId, Peer::new).queue.add(message);
+    }
+
+    /**
+     * Closes the listening socket and the connections to the peers
+     */
+    public void stop() {
+        running = false;
+        try {
+            if(serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            log.error("Failed to close the cluster socket\nException: {}", e.getMessage());
+        }
+        for(Peer peer : peers.values()) peer.close();
+    }
+
+    private void accept() {
+        while(running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                daemon("cluster-reader", () -> read(socket)).start();
+            } catch (IOException e) {
+                if(running) log.error("Failed to accept a cluster connection\nException: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while(running) {
+                int length = in.readInt();
+                if(length < 0 || length > maxMessageBytes) {
+                    log.warn("Dropping cluster connection from {}: message of {} bytes", socket.getRemoteSocketAddress(), length);
+                    return;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                ClusterMessage message = ClusterMessage.decode(bytes);
+                try {
+                    handler.onMessage(message);
+                } catch (RuntimeException e) {
+                    log.error("Failed to handle {} message of crawl {}\nException: {}", message.getType(), message.getCrawlId(), e.getMessage());
+                }
+            }
+        } catch (EOFException e) {
+            // Peer closed the connection
+        } catch (IOException e) {
+            if(running) log.warn("Cluster connection from {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        }
+    }
+
+    private static Thread daemon(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Outbound connection to one peer, with its queue of messages
+     */
+    private class Peer {
+        private final String peerId;
+        private final BlockingQueue<ClusterMessage> queue = new LinkedBlockingQueue<>();
+        private Socket socket;
+        private DataOutputStream out;
+
+        private Peer(String peerId) {
+            this.peerId = peerId;
+            daemon("cluster-writer-" + peerId, this::write).start();
+        }
+
+        private void write() {
+            while(running) {
+                ClusterMessage message;
+                try {
+                    message = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if(message == null) continue;
+                if(!deliver(message)) handler.onUndeliverable(peerId, message);
+            }
+        }
+
+        private boolean deliver(ClusterMessage message) {
+            byte[] bytes;
+            try {
+                bytes = message.encode();
+            } catch (IOException e) {
+                log.error("Failed to encode {} message of crawl {}\nException: {}", message.getType(), message.getCrawlId(), e.getMessage());
+                return false;
+            }
+            if(bytes.length > maxMessageBytes) {
+                log.error("Not sending {} message of crawl {}: {} bytes", message.getType(), message.getCrawlId(), bytes.length);
+                return false;
+            }
+            for(int attempt = 1; attempt <= SEND_ATTEMPTS && running; attempt++) {
+                try {
+                    if(out == null) connect();
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    // Messages queued meanwhile go out in the same flush
+                    if(queue.isEmpty()) out.flush();
+                    return true;
+                } catch (IOException e) {
+                    log.warn("Failed to send to cluster node {}, attempt {}: {}", peerId, attempt, e.getMessage());
+                    close();
+                    try {
+                        Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void connect() throws IOException {
+            InetSocketAddress address = addresses.get(peerId);
+            if(address == null) throw new IOException("Unknown cluster node: " + peerId);
+            Socket connection = new Socket();
+            connection.setTcpNoDelay(true);
+            connection.connect(new InetSocketAddress(address.getHostString(), address.getPort()), connectTimeoutMillis);
+            socket = connection;
+            out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        }
+
+        private void close() {
+            try {
+                if(socket != null) socket.close();
+            } catch (IOException e) {
+                // Connection is dropped either way
+            }
+            socket = null;
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import com.eulerity.hackathon.imagefinder.frontier.VisitedSet;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning each host to one node of the cluster.<br>
+ * Every node is placed on the ring at {@code virtualNodes} points, and a host belongs to the node at the first point
+ * following the host's hash. Every node builds the same ring from the same node list, so all of them agree on the
+ * owner of a host without talking to each other, and adding or removing a node only moves the hosts of its own
+ * arcs.
+ */
+public class HashRing {
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * @param nodeIds IDs of all the nodes of the cluster
+     * @param virtualNodes Number of points of each node on the ring
+     */
+    public HashRing(Collection<String> nodeIds, int virtualNodes) {
+        if(nodeIds.isEmpty()) throw new IllegalArgumentException("Hash ring needs at least one node");
+        for(String nodeId : nodeIds) {
+            for(int i = 0; i < virtualNodes; i++) points.put(hash(nodeId + "#" + i), nodeId);
+        }
+    }
+
+    /**
+     * @param host Host name, in lower case
+     * @return ID of the node owning the host
+     */
+    public String ownerOf(String host) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(host));
+        return (point == null) ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * FNV-1a fingerprint run through the MurmurHash3 finalizer, which spreads near identical names like
+     * {@code node#1} and {@code node#2} over the whole ring
+     */
+    private static long hash(String value) {
+        long hash = VisitedSet.fingerprint(value);
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -16,6 +16,10 @@ public class ConfigLoader {
         } catch (IOException e) {
             throw new RuntimeException("Failed to load application.properties", e);
         }
+        // System properties take precedence, e.g. to run several cluster nodes from one checkout
+        for(String name : System.getProperties().stringPropertyNames()) {
+            if(name.startsWith("crawler.")) properties.setProperty(name, System.getProperty(name));
+        }
     }
 
     /**
@@ -40,4 +44,26 @@ public class ConfigLoader {
             return defaultValue;
         }
     }
+
+    /**
+     * A string value of the key if exists in the application properties
+     * @param key
+     * @param defaultValue
+     * @return {@code value} of the key if exists, otherwise {@code defaultValue}
+     */
+    public static String get(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return (value == null) ? defaultValue : value.trim();
+    }
+
+    /**
+     * A boolean value of the key if exists in the application properties
+     * @param key
+     * @param defaultValue
+     * @return {@code boolean} value of the key if exists, otherwise {@code defaultValue}
+     */
+    public static boolean get(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return (value == null) ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
 }
@@ -0,0 +1,85 @@
+package com.eulerity.hackathon.imagefinder.dedup;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Burkhard-Keller tree of 64 bit perceptual hashes under the Hamming distance, each hash standing for a cluster
+ * of near-duplicate images.<br>
+ * The children of a node are keyed by their distance to it, so the triangle inequality prunes every subtree that
+ * cannot hold a hash within the searched distance. Not thread safe.
+ */
+public class BkTree {
+
+    private Node root;
+    private int size = 0;
+
+    /**
+     * Adds the hash of a new cluster
+     * @param hash Perceptual hash of the cluster's first image
+     * @param clusterId ID of the cluster
+     */
+    public void add(long hash, String clusterId) {
+        size++;
+        if(root == null) {
+            root = new Node(hash, clusterId);
+            return;
+        }
+        Node node = root;
+        while(true) {
+            int distance = PerceptualHash.distance(node.hash, hash);
+            Node child = node.children.get(distance);
+            if(child == null) {
+                node.children.put(distance, new Node(hash, clusterId));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * @param hash Perceptual hash of an image
+     * @param maxDistance Largest number of differing bits of a near-duplicate
+     * @return ID of the cluster closest to the hash within {@code maxDistance}, or {@code null} if there is none
+     */
+    public String nearest(long hash, int maxDistance) {
+        if(root == null) return null;
+        Node best = null;
+        int bestDistance = maxDistance + 1;
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.push(root);
+        while(!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            int distance = PerceptualHash.distance(node.hash, hash);
+            if(distance < bestDistance) {
+                best = node;
+                bestDistance = distance;
+            }
+            // Only children between distance - bestDistance and distance + bestDistance can be closer
+            for(Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                if(Math.abs(child.getKey() - distance) < bestDistance) nodes.push(child.getValue());
+            }
+        }
+        return (best == null) ? null : best.clusterId;
+    }
+
+    /**
+     * @return Number of clusters in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    private static class Node {
+        private final long hash;
+        private final String clusterId;
+        private final Map<Integer, Node> children = new HashMap<>(4);
+
+        private Node(long hash, String clusterId) {
+            this.hash = hash;
+            this.clusterId = clusterId;
+        }
+    }
+}
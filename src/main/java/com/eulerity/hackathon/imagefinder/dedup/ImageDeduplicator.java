@@ -0,0 +1,184 @@
+package com.eulerity.hackathon.imagefinder.dedup;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.ratelimit.PolitenessScheduler;
+import com.eulerity.hackathon.imagefinder.result.ResultStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Near-duplicate detection stage of a crawl job, enabled with {@code crawler.dedup.enabled}.<br>
+ * The images of a page are fetched in full, through the {@link PolitenessScheduler} like pages, unless the
+ * {@link ImageHasher} knows them already, and hashed on its pool. Images within {@code crawler.dedup.maxDistance}
+ * bits of a cluster of the job join it, others start a new one, found in a {@link BkTree}. Every image is given the
+ * ID of its cluster, the hash of the cluster's first image, so that the copies of an image served under different
+ * URLs can be told apart downstream. At most {@code crawler.dedup.maxInFlightPerJob} images of a job are fetched at
+ * once, apart from its page fetches.
+ */
+@Slf4j
+public class ImageDeduplicator {
+
+    private final PolitenessScheduler politenessScheduler;
+    private final ImageHasher hasher;
+    private final int maxDistance;
+    private final int maxInFlight;
+    private final int maxPerPage;
+
+    private final Queue<PendingImage> pendingImages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger fetchesInFlight = new AtomicInteger(0);
+    // Cluster of every image URL of the job, completed with null if the image could not be hashed
+    private final ConcurrentMap<String, CompletableFuture<String>> clusters = new ConcurrentHashMap<>();
+    // Guarded by itself
+    private final BkTree tree = new BkTree();
+
+    public ImageDeduplicator(PolitenessScheduler politenessScheduler, ImageHasher hasher) {
+        this(politenessScheduler, hasher, ConfigLoader.get("crawler.dedup.maxDistance", 6),
+                ConfigLoader.get("crawler.dedup.maxInFlightPerJob", 4),
+                ConfigLoader.get("crawler.dedup.maxPerPage", 64));
+    }
+
+    public ImageDeduplicator(PolitenessScheduler politenessScheduler, ImageHasher hasher, int maxDistance,
+                             int maxInFlight, int maxPerPage) {
+        this.politenessScheduler = politenessScheduler;
+        this.hasher = hasher;
+        this.maxDistance = maxDistance;
+        this.maxInFlight = maxInFlight;
+        this.maxPerPage = maxPerPage;
+    }
+
+    /**
+     * @return {@code true} if the near-duplicate detection stage is enabled in the application properties
+     */
+    public static boolean isEnabled() {
+        return ConfigLoader.get("crawler.dedup.enabled", false);
+    }
+
+    /**
+     * Gives the images of a page the ID of their cluster of near-duplicates
+     * @param results Results of the crawl
+     * @param images IDs of the images of the page, each one listed once
+     * @param onComplete Called once every image of the page is clustered, on a fetcher or hashing thread
+     */
+    public void deduplicate(ResultStore results, int[] images, Runnable onComplete) {
+        int count = Math.min(images.length, maxPerPage);
+        if(count == 0) {
+            onComplete.run();
+            return;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(count);
+        for(int i = 0; i < count; i++) {
+            int image = images[i];
+            clusterOf(results.getImageUrl(image)).whenComplete((clusterId, error) -> {
+                results.setClusterId(image, clusterId);
+                if(remaining.decrementAndGet() == 0) onComplete.run();
+            });
+        }
+    }
+
+    /**
+     * Drops the images not fetched yet, they are left without a cluster
+     */
+    public void cancel() {
+        PendingImage pendingImage;
+        while((pendingImage = pendingImages.poll()) != null) pendingImage.hash.complete(null);
+    }
+
+    /**
+     * @return Number of clusters found so far
+     */
+    public int getClusterCount() {
+        synchronized (tree) {
+            return tree.size();
+        }
+    }
+
+    private CompletableFuture<String> clusterOf(String imageUrl) {
+        CompletableFuture<String> cluster = clusters.get(imageUrl);
+        if(cluster != null) return cluster;
+        CompletableFuture<Long> hash = new CompletableFuture<>();
+        CompletableFuture<String> created = hash.thenApply(this::assign);
+        cluster = clusters.putIfAbsent(imageUrl, created);
+        if(cluster != null) return cluster;
+
+        if(hasher.isCached(imageUrl)) {
+            hash.complete(hasher.getCached(imageUrl));
+        }
+        else {
+            pendingImages.add(new PendingImage(imageUrl, hash));
+            startFetches();
+        }
+        return created;
+    }
+
+    /**
+     * @param hash Perceptual hash of an image, {@code null} if it could not be hashed
+     * @return ID of the cluster of the image, {@code null} if it has none
+     */
+    private String assign(Long hash) {
+        if(hash == null) return null;
+        synchronized (tree) {
+            String clusterId = tree.nearest(hash, maxDistance);
+            if(clusterId != null) return clusterId;
+            clusterId = String.format("%016x", hash);
+            tree.add(hash, clusterId);
+            return clusterId;
+        }
+    }
+
+    /**
+     * Starts fetching pending images while the job has slots left
+     */
+    private void startFetches() {
+        while(!pendingImages.isEmpty()) {
+            int inFlight = fetchesInFlight.get();
+            if(inFlight >= maxInFlight) return;
+            if(!fetchesInFlight.compareAndSet(inFlight, inFlight + 1)) continue;
+
+            PendingImage pendingImage = pendingImages.poll();
+            if(pendingImage == null) {
+                fetchesInFlight.decrementAndGet();
+                continue;
+            }
+            politenessScheduler.fetch(pendingImage.imageUrl).whenComplete((result, error) -> {
+                fetchesInFlight.decrementAndGet();
+                startFetches();
+                hash(pendingImage, result, error);
+            });
+        }
+    }
+
+    private void hash(PendingImage pendingImage, FetchResult result, Throwable error) {
+        if(error != null) {
+            log.info("Failed to fetch image: {} | {}", pendingImage.imageUrl, error.getMessage());
+            pendingImage.hash.complete(null);
+            return;
+        }
+        if(!result.isSuccessful()) {
+            log.info("Failed to fetch image: {} | status: {}", pendingImage.imageUrl, result.getStatus());
+            pendingImage.hash.complete(null);
+            return;
+        }
+        hasher.hash(pendingImage.imageUrl, result.getBody()).whenComplete((hash, hashError) -> pendingImage.hash.complete(hash));
+    }
+
+    /**
+     * Image waiting for a fetch slot of the job
+     */
+    private static class PendingImage {
+        private final String imageUrl;
+        private final CompletableFuture<Long> hash;
+
+        private PendingImage(String imageUrl, CompletableFuture<Long> hash) {
+            this.imageUrl = imageUrl;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.eulerity.hackathon.imagefinder.dedup;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Perceptual hashing shared by all crawl requests.<br>
+ * Decoding images is CPU heavy, so it runs on its own pool of {@code crawler.dedup.threads} threads with at most
+ * {@code crawler.dedup.maxQueued} images waiting, rather than on the crawl workers parsing pages. Hashes are cached
+ * by image URL, up to {@code crawler.dedup.cache.maxEntries} least recently used ones, so an image met again by
+ * any crawl is neither fetched nor decoded again.
+ */
+@Slf4j
+public class ImageHasher {
+
+    // Cached for images that could not be decoded, so that they are not fetched again either. Flat images hash to 0
+    // as well, they carry nothing to tell their copies apart and are left out of clustering too.
+    private static final long UNDECODABLE = 0L;
+
+    private final ThreadPoolExecutor pool;
+    private final int maxEntries;
+    // Access ordered, guarded by this
+    private final LinkedHashMap<String, Long> hashes = new LinkedHashMap<>(256, 0.75f, true);
+
+    public ImageHasher() {
+        this(ConfigLoader.get("crawler.dedup.threads", 2),
+                ConfigLoader.get("crawler.dedup.maxQueued", 256),
+                ConfigLoader.get("crawler.dedup.cache.maxEntries", 100000));
+    }
+
+    public ImageHasher(int threads, int maxQueued, int maxEntries) {
+        this.maxEntries = maxEntries;
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        // Threads are only started once the first image is hashed
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued), runnable -> {
+            Thread thread = new Thread(runnable, "image-hasher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param imageUrl URL of the image
+     * @return {@code true} if the image was hashed already, or found not to be decodable
+     */
+    public synchronized boolean isCached(String imageUrl) {
+        return hashes.containsKey(imageUrl);
+    }
+
+    /**
+     * @param imageUrl URL of the image
+     * @return Cached hash of the image, or {@code null} if it is not cached or could not be decoded
+     */
+    public synchronized Long getCached(String imageUrl) {
+        Long hash = hashes.get(imageUrl);
+        return (hash == null || hash == UNDECODABLE) ? null : hash;
+    }
+
+    /**
+     * Decodes and hashes the image on the hashing pool, and caches its hash
+     * @param imageUrl URL of the image
+     * @param data Bytes of the image file
+     * @return Hash of the image, completed with {@code null} if it cannot be decoded or is flat, or if the pool is full
+     */
+    public CompletableFuture<Long> hash(String imageUrl, byte[] data) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                Long hash = null;
+                try {
+                    hash = PerceptualHash.of(data);
+                    if(hash != null && hash == UNDECODABLE) hash = null;
+                } finally {
+                    cache(imageUrl, hash);
+                    future.complete(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Image hashing pool is full, skipped: {}", imageUrl);
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * Stops the hashing pool, images waiting to be hashed are dropped
+     */
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    private synchronized void cache(String imageUrl, Long hash) {
+        hashes.put(imageUrl, (hash == null) ? UNDECODABLE : hash);
+        if(hashes.size() > maxEntries) {
+            hashes.remove(hashes.keySet().iterator().next());
+        }
+    }
+}
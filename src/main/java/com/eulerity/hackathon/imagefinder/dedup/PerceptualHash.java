@@ -0,0 +1,87 @@
+package com.eulerity.hackathon.imagefinder.dedup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Difference hash (dHash) of an image: the image is shrunk to 9x8 grey levels, and each of the 64 bits tells
+ * whether a pixel is brighter than its right neighbour. Resized, recompressed or slightly retouched copies of an
+ * image keep most of their bits, so near-duplicates are a few bits apart in Hamming distance.<br>
+ * Images are decoded with {@link ImageIO}, which reads PNG, JPEG, GIF and BMP without native code.
+ */
+public final class PerceptualHash {
+
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * @param data Bytes of the image file
+     * @return dHash of the image, or {@code null} if it cannot be decoded
+     */
+    public static Long of(byte[] data) {
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(data));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return (image == null) ? null : dHash(image);
+    }
+
+    /**
+     * @param image Decoded image
+     * @return dHash of the image
+     */
+    public static long dHash(BufferedImage image) {
+        double[] grey = shrink(image);
+        long hash = 0;
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH - 1; x++) {
+                hash <<= 1;
+                if(grey[y * WIDTH + x] > grey[y * WIDTH + x + 1]) hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return Number of bits the two hashes differ by
+     */
+    public static int distance(long hash, long other) {
+        return Long.bitCount(hash ^ other);
+    }
+
+    /**
+     * Averages the luminance of the pixels falling in each cell of a 9x8 grid, so that the hash does not depend on
+     * the size of the image
+     */
+    private static double[] shrink(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[] sums = new double[WIDTH * HEIGHT];
+        int[] counts = new int[WIDTH * HEIGHT];
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellY = y * HEIGHT / height;
+            for(int x = 0; x < width; x++) {
+                int argb = row[x];
+                int cell = cellY * WIDTH + x * WIDTH / width;
+                // Transparent pixels count as white, like a browser draws them on a blank page
+                double alpha = ((argb >>> 24) & 0xff) / 255.0;
+                double luminance = 0.299 * ((argb >> 16) & 0xff) + 0.587 * ((argb >> 8) & 0xff) + 0.114 * (argb & 0xff);
+                sums[cell] += alpha * luminance + (1 - alpha) * 255;
+                counts[cell]++;
+            }
+        }
+        for(int cell = 0; cell < sums.length; cell++) {
+            if(counts[cell] > 0) sums[cell] /= counts[cell];
+        }
+        return sums;
+    }
+}
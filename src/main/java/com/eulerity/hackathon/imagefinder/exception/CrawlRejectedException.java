@@ -0,0 +1,17 @@
+package com.eulerity.hackathon.imagefinder.exception;
+
+import lombok.Getter;
+
+/**
+ * Thrown when the crawl engine refuses to admit a new crawl job
+ */
+@Getter
+public class CrawlRejectedException extends RuntimeException {
+
+    private final int statusCode;
+
+    public CrawlRejectedException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+}
@@ -0,0 +1,11 @@
+package com.eulerity.hackathon.imagefinder.exception;
+
+/**
+ * Thrown when the robots.txt of a host does not allow the crawler to fetch a URL
+ */
+public class RobotsDisallowedException extends RuntimeException {
+
+    public RobotsDisallowedException(String url) {
+        super("Disallowed by robots.txt: " + url);
+    }
+}
@@ -0,0 +1,499 @@
+package com.eulerity.hackathon.imagefinder.extract;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Single pass extractor of the links and image candidates of an HTML page.<br>
+ * The page is read as a stream of characters by a small tokenizer which only looks at tags and attributes, and
+ * reports what it finds to a {@link Handler} as it goes, without building a DOM. Only the attributes of interest
+ * are turned into strings, comments and scripts are skipped, and style blocks are scanned for {@code url(...)}.
+ */
+public class PageExtractor {
+
+    /**
+     * Where an image candidate was found on the page
+     */
+    public enum Source {
+        // src of an img
+        IMG,
+        // srcset of an img
+        SRCSET,
+        // src or srcset of a source within a picture
+        PICTURE,
+        // href of a link
+        LINK,
+        // og:image meta
+        OPEN_GRAPH,
+        // url(...) in a style attribute or block
+        CSS,
+        // image:loc listed for the page by a sitemap
+        SITEMAP
+    }
+
+    /**
+     * Receives the URLs found on the page, unresolved and in document order
+     */
+    public interface Handler {
+        void onLink(String url);
+
+        void onImage(String url, Source source);
+    }
+
+    private static final int BUFFER_CHARS = 8192;
+    private static final int SNIFF_BYTES = 1024;
+
+    private final Reader reader;
+    private final Handler handler;
+    private final char[] buffer = new char[BUFFER_CHARS];
+    private int position = 0;
+    private int limit = 0;
+
+    // Reused for every tag
+    private final StringBuilder tagName = new StringBuilder(16);
+    private final StringBuilder attributeName = new StringBuilder(16);
+    private final StringBuilder attributeValue = new StringBuilder(128);
+    private final StringBuilder rawText = new StringBuilder();
+    // Attributes of interest of the current tag
+    private String href;
+    private String src;
+    private String srcset;
+    private String content;
+    private String property;
+    private String style;
+    private int pictureDepth = 0;
+
+    private PageExtractor(Reader reader, Handler handler) {
+        this.reader = reader;
+        this.handler = handler;
+    }
+
+    /**
+     * Extracts the links and images of the page
+     * @param input Body of the page
+     * @param charset Charset declared by the response, {@code null} to detect it from the page
+     * @param handler Receiver of the URLs
+     * @throws IOException If the stream cannot be read
+     */
+    public static void extract(InputStream input, String charset, Handler handler) throws IOException {
+        BufferedInputStream bufferedInput = new BufferedInputStream(input, BUFFER_CHARS);
+        Charset detected = detectCharset(bufferedInput, charset);
+        new PageExtractor(new InputStreamReader(bufferedInput, detected), handler).run();
+    }
+
+    /**
+     * Picks the charset from the byte order mark, the response, or a {@code charset=} near the start of the page,
+     * in that order, and falls back to UTF-8
+     */
+    static Charset detectCharset(BufferedInputStream input, String declared) throws IOException {
+        input.mark(SNIFF_BYTES);
+        byte[] head = new byte[SNIFF_BYTES];
+        int length = 0;
+        int read;
+        while(length < SNIFF_BYTES && (read = input.read(head, length, SNIFF_BYTES - length)) > 0) length += read;
+        input.reset();
+
+        if(length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if(length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) return StandardCharsets.UTF_16BE;
+        if(length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) return StandardCharsets.UTF_16LE;
+
+        Charset charset = forName(declared);
+        if(charset != null) return charset;
+
+        String text = new String(head, 0, length, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        int index = text.indexOf("charset=");
+        if(index >= 0) {
+            int start = index + "charset=".length();
+            while(start < text.length() && (text.charAt(start) == '"' || text.charAt(start) == '\'')) start++;
+            int end = start;
+            while(end < text.length() && isCharsetNameChar(text.charAt(end))) end++;
+            charset = forName(text.substring(start, end));
+            if(charset != null) return charset;
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Charset forName(String name) {
+        if(name == null || name.isEmpty()) return null;
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isCharsetNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == ':' || c == '.';
+    }
+
+    private void run() throws IOException {
+        int c;
+        while((c = next()) != -1) {
+            if(c == '<') readTag();
+        }
+    }
+
+    /**
+     * Reads the markup following a {@code <}
+     */
+    private void readTag() throws IOException {
+        int c = next();
+        if(c == '!') {
+            c = next();
+            if(c == '-' && next() == '-') skipComment();
+            else skipPast('>');
+            return;
+        }
+        if(c == '?') {
+            skipPast('>');
+            return;
+        }
+        boolean endTag = c == '/';
+        if(endTag) c = next();
+        if(!isLetter(c)) {
+            // A lone '<' in text
+            if(c != -1) back();
+            return;
+        }
+
+        tagName.setLength(0);
+        while(c != -1 && !isWhitespace(c) && c != '>' && c != '/') {
+            tagName.append(toLowerCase(c));
+            c = next();
+        }
+        if(endTag) {
+            if(is(tagName, "picture") && pictureDepth > 0) pictureDepth--;
+            if(c != '>') skipPast('>');
+            return;
+        }
+        if(c != -1) back();
+        if(!readAttributes()) return;
+
+        emitTag();
+        if(is(tagName, "script")) skipRawText("script", false);
+        else if(is(tagName, "style")) {
+            skipRawText("style", true);
+            scanCss(rawText, 0, rawText.length());
+        }
+    }
+
+    /**
+     * Reads the attributes of a start tag up to its {@code >}, keeping the values of interest
+     * @return {@code false} if the stream ended within the tag
+     */
+    private boolean readAttributes() throws IOException {
+        href = src = srcset = content = property = style = null;
+        while(true) {
+            int c = skipWhitespace();
+            if(c == -1) return false;
+            if(c == '>') return true;
+            if(c == '/') continue;
+
+            attributeName.setLength(0);
+            while(c != -1 && !isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+                attributeName.append(toLowerCase(c));
+                c = next();
+            }
+            if(isWhitespace(c)) c = skipWhitespace();
+            if(c != '=') {
+                if(c == -1) return false;
+                back();
+                continue;
+            }
+
+            c = skipWhitespace();
+            attributeValue.setLength(0);
+            if(c == '"' || c == '\'') {
+                int quote = c;
+                while((c = next()) != -1 && c != quote) attributeValue.append((char) c);
+                if(c == -1) return false;
+            }
+            else {
+                while(c != -1 && !isWhitespace(c) && c != '>') {
+                    attributeValue.append((char) c);
+                    c = next();
+                }
+                if(c == -1) return false;
+                back();
+            }
+            keepAttribute();
+        }
+    }
+
+    /**
+     * Stores the value of the current attribute if the extractor needs it
+     */
+    private void keepAttribute() {
+        if(is(attributeName, "href")) href = attributeValueString();
+        else if(is(attributeName, "src")) src = attributeValueString();
+        else if(is(attributeName, "srcset")) srcset = attributeValueString();
+        else if(is(attributeName, "content")) content = attributeValueString();
+        else if(is(attributeName, "property") || is(attributeName, "name")) property = attributeValueString();
+        else if(is(attributeName, "style")) style = attributeValueString();
+    }
+
+    private String attributeValueString() {
+        return decodeEntities(attributeValue).trim();
+    }
+
+    /**
+     * Reports the URLs of the start tag just read
+     */
+    private void emitTag() {
+        if(is(tagName, "a")) {
+            if(href != null) handler.onLink(href);
+        }
+        else if(is(tagName, "img")) {
+            if(src != null) handler.onImage(src, Source.IMG);
+            if(srcset != null) emitSrcset(srcset, Source.SRCSET);
+        }
+        else if(is(tagName, "picture")) {
+            pictureDepth++;
+        }
+        else if(is(tagName, "source")) {
+            if(pictureDepth > 0) {
+                if(src != null) handler.onImage(src, Source.PICTURE);
+                if(srcset != null) emitSrcset(srcset, Source.PICTURE);
+            }
+        }
+        else if(is(tagName, "link")) {
+            if(href != null) handler.onImage(href, Source.LINK);
+        }
+        else if(is(tagName, "meta")) {
+            if(content != null && property != null && isOpenGraphImage(property)) {
+                handler.onImage(content, Source.OPEN_GRAPH);
+            }
+        }
+        if(style != null) scanCss(style, 0, style.length());
+    }
+
+    private static boolean isOpenGraphImage(String property) {
+        String name = property.toLowerCase(Locale.ROOT);
+        return name.equals("og:image") || name.equals("og:image:url") || name.equals("og:image:secure_url");
+    }
+
+    /**
+     * Reports each candidate URL of a {@code srcset}, dropping the width and density descriptors
+     */
+    private void emitSrcset(String value, Source source) {
+        int length = value.length();
+        int index = 0;
+        while(index < length) {
+            while(index < length && (isWhitespace(value.charAt(index)) || value.charAt(index) == ',')) index++;
+            if(index >= length) return;
+            int start = index;
+            while(index < length && !isWhitespace(value.charAt(index))) index++;
+            int end = index;
+            // A comma right after the URL ends the candidate, one within it belongs to the URL
+            boolean candidateEnded = false;
+            while(end > start && value.charAt(end - 1) == ',') {
+                end--;
+                candidateEnded = true;
+            }
+            if(end > start) handler.onImage(value.substring(start, end), source);
+            if(!candidateEnded) {
+                int parentheses = 0;
+                while(index < length) {
+                    char c = value.charAt(index);
+                    if(c == '(') parentheses++;
+                    else if(c == ')' && parentheses > 0) parentheses--;
+                    else if(c == ',' && parentheses == 0) break;
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the {@code url(...)} references of a piece of CSS
+     */
+    private void scanCss(CharSequence css, int from, int to) {
+        int index = from;
+        while(index + 4 <= to) {
+            if(toLowerCase(css.charAt(index)) != 'u' || toLowerCase(css.charAt(index + 1)) != 'r'
+                    || toLowerCase(css.charAt(index + 2)) != 'l' || css.charAt(index + 3) != '(') {
+                index++;
+                continue;
+            }
+            index += 4;
+            while(index < to && isWhitespace(css.charAt(index))) index++;
+            char quote = (index < to && (css.charAt(index) == '"' || css.charAt(index) == '\'')) ? css.charAt(index) : 0;
+            if(quote != 0) index++;
+            int start = index;
+            while(index < to && css.charAt(index) != (quote != 0 ? quote : ')')) index++;
+            String url = css.subSequence(start, index).toString().trim();
+            if(!url.isEmpty()) handler.onImage(url, Source.CSS);
+        }
+    }
+
+    /**
+     * Skips the contents of a script or style element up to its end tag
+     * @param name Name of the element
+     * @param keep {@code true} to keep the contents in {@code rawText}
+     */
+    private void skipRawText(String name, boolean keep) throws IOException {
+        rawText.setLength(0);
+        int c;
+        while((c = next()) != -1) {
+            if(keep) rawText.append((char) c);
+            if(c != '<') continue;
+
+            // Whatever part of the end tag is read goes to the kept text, and is taken back once it is complete
+            int tagStart = rawText.length() - 1;
+            c = next();
+            if(c == '/') {
+                if(keep) rawText.append('/');
+                int matched = 0;
+                while(matched < name.length() && (c = next()) != -1 && toLowerCase(c) == name.charAt(matched)) {
+                    if(keep) rawText.append((char) c);
+                    matched++;
+                }
+                if(matched == name.length()) {
+                    c = next();
+                    if(c == -1 || c == '>' || c == '/' || isWhitespace(c)) {
+                        if(keep) rawText.setLength(tagStart);
+                        if(c != -1 && c != '>') skipPast('>');
+                        return;
+                    }
+                }
+            }
+            if(c == -1) return;
+            back();
+        }
+    }
+
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while((c = next()) != -1) {
+            if(c == '>' && dashes >= 2) return;
+            dashes = (c == '-') ? dashes + 1 : 0;
+        }
+    }
+
+    private void skipPast(char terminator) throws IOException {
+        int c;
+        while((c = next()) != -1 && c != terminator) {
+            // Skipped
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while(isWhitespace(c));
+        return c;
+    }
+
+    private int next() throws IOException {
+        if(position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if(limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Steps back over the last character returned by {@link #next()}
+     */
+    private void back() {
+        position--;
+    }
+
+    /**
+     * Decodes the character references of an attribute value
+     */
+    static String decodeEntities(CharSequence value) {
+        int ampersand = -1;
+        for(int i = 0; i < value.length(); i++) {
+            if(value.charAt(i) == '&') {
+                ampersand = i;
+                break;
+            }
+        }
+        if(ampersand < 0) return value.toString();
+
+        StringBuilder decoded = new StringBuilder(value.length());
+        decoded.append(value, 0, ampersand);
+        int index = ampersand;
+        while(index < value.length()) {
+            char c = value.charAt(index);
+            int semicolon = (c == '&') ? indexOf(value, ';', index, 10) : -1;
+            if(semicolon < 0) {
+                decoded.append(c);
+                index++;
+                continue;
+            }
+            String entity = value.subSequence(index + 1, semicolon).toString();
+            int codePoint = -1;
+            if(entity.startsWith("#x") || entity.startsWith("#X")) codePoint = parseCodePoint(entity.substring(2), 16);
+            else if(entity.startsWith("#")) codePoint = parseCodePoint(entity.substring(1), 10);
+            else if(entity.equals("amp")) codePoint = '&';
+            else if(entity.equals("quot")) codePoint = '"';
+            else if(entity.equals("apos")) codePoint = '\'';
+            else if(entity.equals("lt")) codePoint = '<';
+            else if(entity.equals("gt")) codePoint = '>';
+            else if(entity.equals("nbsp")) codePoint = ' ';
+
+            if(codePoint < 0) {
+                decoded.append(c);
+                index++;
+            }
+            else {
+                decoded.appendCodePoint(codePoint);
+                index = semicolon + 1;
+            }
+        }
+        return decoded.toString();
+    }
+
+    private static int indexOf(CharSequence value, char c, int from, int maxDistance) {
+        int end = Math.min(value.length(), from + maxDistance + 1);
+        for(int i = from + 1; i < end; i++) {
+            if(value.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static int parseCodePoint(String digits, int radix) {
+        try {
+            int codePoint = Integer.parseInt(digits, radix);
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean is(StringBuilder builder, String name) {
+        if(builder.length() != name.length()) return false;
+        for(int i = 0; i < name.length(); i++) {
+            if(builder.charAt(i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static char toLowerCase(int c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : (char) c;
+    }
+}
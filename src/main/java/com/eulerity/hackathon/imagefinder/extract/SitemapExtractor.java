@@ -0,0 +1,163 @@
+package com.eulerity.hackathon.imagefinder.extract;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming extractor of the URLs listed by a sitemap or a sitemap index.<br>
+ * The XML is read with StAX, one event at a time and without building a DOM, and a gzipped sitemap is inflated as
+ * it is read. Pages are reported along with the images the image extension lists for them, so that a crawler can
+ * take those as the page's images without fetching it. DTDs and external entities are not resolved.
+ */
+public class SitemapExtractor {
+
+    // Namespace of the image:image entries of a page
+    private static final String IMAGE_NAMESPACE = "http://www.google.com/schemas/sitemap-image/1.1";
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Receives the URLs listed, as written and in document order
+     */
+    public interface Handler {
+        /**
+         * @param url Sitemap listed by a sitemap index
+         */
+        void onSitemap(String url);
+
+        /**
+         * @param url Page listed by a sitemap
+         * @param imageUrls Images listed for the page, empty if none
+         */
+        void onPage(String url, List<String> imageUrls);
+    }
+
+    private SitemapExtractor() {
+    }
+
+    /**
+     * Extracts the sitemaps or pages listed
+     * @param input Body of the sitemap, gzipped or not
+     * @param maxBytes Number of bytes of XML read at most, once inflated
+     * @param handler Receiver of the URLs
+     * @throws IOException If the sitemap cannot be read, is not well-formed, or is larger than {@code maxBytes}
+     */
+    public static void extract(InputStream input, long maxBytes, Handler handler) throws IOException {
+        BufferedInputStream bufferedInput = new BufferedInputStream(input);
+        bufferedInput.mark(2);
+        boolean gzipped = bufferedInput.read() == 0x1f && bufferedInput.read() == 0x8b;
+        bufferedInput.reset();
+        InputStream xml = new BoundedInputStream(gzipped ? new GZIPInputStream(bufferedInput) : bufferedInput, maxBytes);
+
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(xml);
+            read(reader, handler);
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed sitemap: " + e.getMessage(), e);
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // Nothing was left to read
+                }
+            }
+        }
+    }
+
+    private static void read(XMLStreamReader reader, Handler handler) throws XMLStreamException {
+        boolean inSitemap = false;
+        boolean inImage = false;
+        String pageUrl = null;
+        List<String> imageUrls = new ArrayList<>();
+        while(reader.hasNext()) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                boolean image = IMAGE_NAMESPACE.equals(reader.getNamespaceURI());
+                switch (reader.getLocalName()) {
+                    case "sitemap":
+                        inSitemap = true;
+                        break;
+                    case "image":
+                        if(image) inImage = true;
+                        break;
+                    case "loc":
+                        String loc = reader.getElementText().trim();
+                        if(loc.isEmpty()) break;
+                        if(inImage) imageUrls.add(loc);
+                        else if(inSitemap) handler.onSitemap(loc);
+                        else pageUrl = loc;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "sitemap":
+                        inSitemap = false;
+                        break;
+                    case "image":
+                        if(IMAGE_NAMESPACE.equals(reader.getNamespaceURI())) inImage = false;
+                        break;
+                    case "url":
+                        if(pageUrl != null) handler.onPage(pageUrl, imageUrls);
+                        pageUrl = null;
+                        imageUrls = new ArrayList<>();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Fails once more than a given number of bytes were read, so that a small gzipped body cannot inflate without
+     * bound
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count = 0;
+
+        private BoundedInputStream(InputStream input, long maxBytes) {
+            super(input);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = super.read(bytes, offset, length);
+            if(read > 0) count(read);
+            return read;
+        }
+
+        private void count(int read) throws IOException {
+            count += read;
+            if(count > maxBytes) throw new IOException("Sitemap larger than " + maxBytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Probabilistic visited set for very large crawls: blocked Bloom filters outside the Java heap.<br>
+ * The set starts with a filter sized for {@code crawler.visited.expectedUrls} and adds a filter {@value #GROWTH}
+ * times larger each time the newest one is full, until the filters add up to
+ * {@code crawler.visited.bloom.expectedUrls}, the last one then taking every further URL. A one page crawl thus
+ * takes a few kilobytes, and a 5M page crawl at 16 bits per URL 13 MB whatever the length of its URLs.<br>
+ * All the bits of a URL live in one 64 byte block of a filter, so a lookup touches a single cache line per filter,
+ * and the block's lock makes the check-and-set atomic. A URL is new unless one of the filters holds it, so the
+ * false positive rates of the filters add up: every filter but the last one takes twice the bits per URL, so that
+ * the rate stays the one of the newest filter, under 0.1% at 16 bits per URL, for twice the memory at most.<br>
+ * Direct buffers and mappings are only released once the garbage collector collects them: {@link #close()} closes
+ * and deletes the backing files at once, but their mappings, like direct buffers, stay until the next GC.
+ */
+@Slf4j
+public class BloomVisitedSet implements VisitedSet {
+
+    private static final int BLOCK_BYTES = 64;
+    private static final int BLOCK_BITS = BLOCK_BYTES * 8;
+    // Bits of a position in a block, and positions taken from each 64-bit hash
+    private static final int POSITION_BITS = Integer.numberOfTrailingZeros(BLOCK_BITS);
+    private static final int POSITIONS_PER_HASH = Long.SIZE / POSITION_BITS;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int GROWTH = 4;
+
+    private final int maxUrls;
+    private final int bitsPerUrl;
+    private final int hashCount;
+    private final boolean memoryMapped;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLong size = new AtomicLong(0);
+
+    // Held shared by a check-and-set, so that no filter is added between the check of the older filters and the
+    // set in the newest one
+    private final ReentrantReadWriteLock growthLock = new ReentrantReadWriteLock();
+    // Filters in the order they were added, the last one taking new URLs
+    private volatile Filter[] filters;
+    private volatile boolean closed = false;
+
+    /**
+     * @param initialUrls Number of URLs the first filter is sized for
+     * @param maxUrls Number of URLs all the filters together are sized for
+     * @param bitsPerUrl Bits of the filters per expected URL
+     * @param memoryMapped {@code true} to back the filters with memory mapped temporary files, {@code false} for
+     * direct buffers
+     */
+    public BloomVisitedSet(int initialUrls, int maxUrls, int bitsPerUrl, boolean memoryMapped) {
+        this.maxUrls = Math.max(1, maxUrls);
+        this.bitsPerUrl = Math.max(1, bitsPerUrl);
+        this.hashCount = Math.max(1, Math.min(16, (int) Math.round(this.bitsPerUrl * Math.log(2))));
+        this.memoryMapped = memoryMapped;
+        for(int i = 0; i < LOCK_STRIPES; i++) locks[i] = new Object();
+        this.filters = new Filter[] {newFilter(Math.max(1, Math.min(initialUrls, this.maxUrls)), 0)};
+    }
+
+    @Override
+    public boolean add(String canonicalUrl) {
+        // The block and the bits in the block come from independent hashes: the low bits of the FNV fingerprint
+        // are too alike across similar URLs to place the bits
+        long hash = mix(VisitedSet.fingerprint(canonicalUrl));
+        long bitHash = mix(hash ^ 0x9e3779b97f4a7c15L);
+        Filter newest;
+        growthLock.readLock().lock();
+        try {
+            Filter[] current = filters;
+            for(int i = 0; i < current.length - 1; i++) {
+                if(current[i].contains(hash, bitHash)) return false;
+            }
+            newest = current[current.length - 1];
+            if(!newest.add(hash, bitHash)) return false;
+        } finally {
+            growthLock.readLock().unlock();
+        }
+        size.incrementAndGet();
+        if(newest.count.incrementAndGet() == newest.urls) grow(newest);
+        return true;
+    }
+
+    /**
+     * @param canonicalUrl Canonical URL
+     * @return {@code true} if one of the filters holds the URL, or a URL whose bits match it
+     */
+    public boolean contains(String canonicalUrl) {
+        long hash = mix(VisitedSet.fingerprint(canonicalUrl));
+        long bitHash = mix(hash ^ 0x9e3779b97f4a7c15L);
+        for(Filter filter : filters) {
+            if(filter.contains(hash, bitHash)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for(Filter filter : filters) bytes += filter.bits.capacity();
+        return bytes;
+    }
+
+    /**
+     * @return Number of filters the set is made of
+     */
+    int getFilterCount() {
+        return filters.length;
+    }
+
+    @Override
+    public void close() {
+        growthLock.writeLock().lock();
+        try {
+            closed = true;
+            for(Filter filter : filters) filter.close();
+        } finally {
+            growthLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a filter once the newest one is full, unless the filters already add up to the maximum
+     */
+    private void grow(Filter full) {
+        growthLock.writeLock().lock();
+        try {
+            Filter[] current = filters;
+            if(closed || current[current.length - 1] != full) return;
+            long sizedFor = 0;
+            for(Filter filter : current) sizedFor += filter.urls;
+            long urls = Math.min((long) full.urls * GROWTH, maxUrls - sizedFor);
+            if(urls <= 0) return;
+
+            Filter[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = newFilter((int) urls, sizedFor);
+            filters = grown;
+        } finally {
+            growthLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param urls Number of URLs of the filter
+     * @param sizedFor Number of URLs of the filters before it
+     */
+    private Filter newFilter(int urls, long sizedFor) {
+        boolean last = sizedFor + urls >= maxUrls;
+        return new Filter(urls, last ? bitsPerUrl : 2 * bitsPerUrl);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads the bits of the value over the whole word
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Blocked Bloom filter sized for a number of URLs
+     */
+    private final class Filter {
+        private final int urls;
+        private final ByteBuffer bits;
+        private final long blockCount;
+        private final AtomicLong count = new AtomicLong(0);
+
+        // Backing file when memory mapped
+        private final File file;
+        private final FileChannel channel;
+
+        private Filter(int urls, int bitsPerUrl) {
+            this.urls = urls;
+            long totalBytes = Math.max(BLOCK_BYTES, (long) urls * bitsPerUrl / 8);
+            totalBytes = Math.min(totalBytes, Integer.MAX_VALUE - BLOCK_BYTES);
+            this.blockCount = (totalBytes + BLOCK_BYTES - 1) / BLOCK_BYTES;
+            int capacity = (int) (blockCount * BLOCK_BYTES);
+
+            if(memoryMapped) {
+                try {
+                    file = File.createTempFile("visited-", ".bloom");
+                    file.deleteOnExit();
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    bits = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to map the visited set file", e);
+                }
+            }
+            else {
+                file = null;
+                channel = null;
+                bits = ByteBuffer.allocateDirect(capacity);
+            }
+            log.info("Bloom visited set filter of {} bytes for {} URLs, {} hashes, {}", capacity, urls, hashCount,
+                    memoryMapped ? "memory mapped" : "direct");
+        }
+
+        /**
+         * Sets the bits of the URL, at positions drawn {@value #POSITION_BITS} bits at a time from the bit hash:
+         * double hashing within a block repeats the same patterns too often, tripling the false positive rate
+         * @return {@code false} if they were all set already
+         */
+        private boolean add(long hash, long bitHash) {
+            int block = (int) Math.floorMod(hash >>> 1, blockCount);
+            int blockOffset = block * BLOCK_BYTES;
+
+            synchronized (locks[block & (LOCK_STRIPES - 1)]) {
+                boolean present = true;
+                long positions = bitHash;
+                for(int i = 0; i < hashCount; i++) {
+                    if(i > 0 && i % POSITIONS_PER_HASH == 0) positions = mix(bitHash + i);
+                    int bit = (int) positions & (BLOCK_BITS - 1);
+                    positions >>>= POSITION_BITS;
+                    int wordOffset = blockOffset + (bit >>> 6) * Long.BYTES;
+                    long word = bits.getLong(wordOffset);
+                    long mask = 1L << (bit & 63);
+                    if((word & mask) == 0) {
+                        present = false;
+                        bits.putLong(wordOffset, word | mask);
+                    }
+                }
+                return !present;
+            }
+        }
+
+        /**
+         * @return {@code true} if every bit of the URL is set, read without a lock once a newer filter is added
+         */
+        private boolean contains(long hash, long bitHash) {
+            int blockOffset = (int) Math.floorMod(hash >>> 1, blockCount) * BLOCK_BYTES;
+            long positions = bitHash;
+            for(int i = 0; i < hashCount; i++) {
+                if(i > 0 && i % POSITIONS_PER_HASH == 0) positions = mix(bitHash + i);
+                int bit = (int) positions & (BLOCK_BITS - 1);
+                positions >>>= POSITION_BITS;
+                if((bits.getLong(blockOffset + (bit >>> 6) * Long.BYTES) & (1L << (bit & 63))) == 0) return false;
+            }
+            return true;
+        }
+
+        private void close() {
+            if(channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Failed to close the visited set file\nException: {}", e.getMessage());
+            }
+            if(!file.delete()) {
+                log.error("Failed to delete the visited set file: {}", file);
+            }
+        }
+    }
+}
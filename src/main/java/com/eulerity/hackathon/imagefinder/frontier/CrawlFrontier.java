@@ -0,0 +1,239 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Pages of a crawl waiting to be fetched.<br>
+ * Each host has its own queue ordered by the crawl's {@link PagePriority}. Hosts take turns: the next page comes
+ * from the host whose best page scores lowest, and among equal hosts from the one served least recently, so that a
+ * host with a large site cannot starve the others. At most {@code maxInMemory} pages are held on the heap; pages
+ * queued beyond that are spilled to a temporary file, and read back in queue order once the frontier has drained
+ * to half of its size, where they are ordered again with the pages in memory.
+ */
+@Slf4j
+public class CrawlFrontier implements Closeable {
+
+    private final PagePriority priority;
+    private final int maxInMemory;
+
+    // Guarded by this
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    private final PriorityQueue<HostQueue> readyHosts = new PriorityQueue<>(
+            Comparator.comparingLong(HostQueue::headScore).thenComparingLong(host -> host.lastServed));
+    private int inMemory = 0;
+    private long sequence = 0;
+    private long serveSequence = 0;
+
+    // Spilled pages, guarded by this
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long spillReadPosition = 0;
+    private long spillWritePosition = 0;
+    private int spilled = 0;
+    private boolean closed = false;
+
+    /**
+     * @param priority Order of the pages of a host
+     * @param maxInMemory Number of pages held on the heap before the frontier spills to disk
+     */
+    public CrawlFrontier(PagePriority priority, int maxInMemory) {
+        this.priority = priority;
+        this.maxInMemory = Math.max(2, maxInMemory);
+    }
+
+    /**
+     * Queues a page
+     * @param url Canonical URL of the page
+     * @param depth Depth of the page
+     * @param parentImageCount Number of images on the page that linked to it, {@code 0} for a root page
+     */
+    public synchronized void offer(String url, int depth, int parentImageCount) {
+        if(closed) return;
+        Entry entry = new Entry(url, depth, priority.score(url, depth, parentImageCount), sequence++);
+        if(inMemory >= maxInMemory && spill(entry)) return;
+        add(entry);
+    }
+
+    /**
+     * Takes the next page to fetch
+     * @return Next page, or {@code null} if the frontier is empty
+     */
+    public synchronized Entry poll() {
+        if(spilled > 0 && inMemory <= maxInMemory / 2) reload(maxInMemory / 2);
+        HostQueue host = readyHosts.poll();
+        if(host == null) return null;
+        Entry entry = host.entries.poll();
+        inMemory--;
+        host.lastServed = ++serveSequence;
+        if(host.entries.isEmpty()) hosts.remove(host.host);
+        else readyHosts.add(host);
+        return entry;
+    }
+
+    /**
+     * @return Number of queued pages, in memory and spilled
+     */
+    public synchronized int size() {
+        return inMemory + spilled;
+    }
+
+    /**
+     * @return {@code true} if no page is queued
+     */
+    public synchronized boolean isEmpty() {
+        return inMemory + spilled == 0;
+    }
+
+    /**
+     * @return Number of pages spilled to disk and not read back yet
+     */
+    public synchronized int getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Drops the queued pages and deletes the spill file
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        hosts.clear();
+        readyHosts.clear();
+        inMemory = 0;
+        spilled = 0;
+        if(spill == null) return;
+        try {
+            spill.close();
+        } catch (IOException e) {
+            log.error("Failed to close the frontier spill file\nException: {}", e.getMessage());
+        }
+        if(!spillFile.delete()) {
+            log.error("Failed to delete the frontier spill file: {}", spillFile);
+        }
+        spill = null;
+    }
+
+    private void add(Entry entry) {
+        HostQueue host = hosts.computeIfAbsent(entry.host, HostQueue::new);
+        boolean idle = host.entries.isEmpty();
+        // The host's place depends on its best page
+        boolean improved = !idle && entry.compareTo(host.entries.peek()) < 0;
+        if(improved) readyHosts.remove(host);
+        host.entries.add(entry);
+        inMemory++;
+        if(idle || improved) readyHosts.add(host);
+    }
+
+    /**
+     * Appends the page to the spill file
+     * @return {@code false} if the file failed, in which case the page is kept in memory
+     */
+    private boolean spill(Entry entry) {
+        try {
+            if(spill == null) {
+                spillFile = File.createTempFile("frontier-", ".spill");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+                log.info("Frontier over {} pages, spilling to: {}", maxInMemory, spillFile);
+            }
+            spill.seek(spillWritePosition);
+            spill.writeLong(entry.score);
+            spill.writeInt(entry.depth);
+            spill.writeUTF(entry.url);
+            spillWritePosition = spill.getFilePointer();
+            spilled++;
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to spill the frontier, keeping the page in memory: {}\nException: {}", entry.url, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads spilled pages back into memory, in the order they were spilled
+     */
+    private void reload(int count) {
+        try {
+            spill.seek(spillReadPosition);
+            for(int i = 0; i < count && spilled > 0; i++) {
+                long score = spill.readLong();
+                int depth = spill.readInt();
+                String url = spill.readUTF();
+                spilled--;
+                add(new Entry(url, depth, score, sequence++));
+            }
+            spillReadPosition = spill.getFilePointer();
+            if(spilled == 0) {
+                // Everything was read back, the file is written again from its start
+                spillReadPosition = 0;
+                spillWritePosition = 0;
+                spill.setLength(0);
+            }
+        } catch (IOException e) {
+            log.error("Failed to read the frontier spill file, dropping {} pages\nException: {}", spilled, e.getMessage());
+            spilled = 0;
+        }
+    }
+
+    /**
+     * Host part of the URL, the unit pages take turns by
+     */
+    static String hostOf(String url) {
+        int start = url.indexOf("://");
+        start = (start < 0) ? 0 : start + 3;
+        int end = start;
+        while(end < url.length()) {
+            char c = url.charAt(end);
+            if(c == '/' || c == '?' || c == '#') break;
+            end++;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * Page waiting in the frontier
+     */
+    @Getter
+    public static class Entry implements Comparable<Entry> {
+        private final String url;
+        private final int depth;
+        private final long score;
+        private final long sequence;
+        private final String host;
+
+        Entry(String url, int depth, long score, long sequence) {
+            this.url = url;
+            this.depth = depth;
+            this.score = score;
+            this.sequence = sequence;
+            this.host = hostOf(url);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int compared = Long.compare(score, other.score);
+            return (compared != 0) ? compared : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Pages of one host, best first
+     */
+    private static class HostQueue {
+        private final String host;
+        private final PriorityQueue<Entry> entries = new PriorityQueue<>();
+        private long lastServed = 0;
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        private long headScore() {
+            return entries.peek().score;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import com.eulerity.hackathon.imagefinder.util.ConcurrentLongSet;
+
+/**
+ * Exact visited set keyed on a 64-bit fingerprint of the canonical URL.<br>
+ * An entry costs a slot of a primitive {@code long} table instead of a {@code String} and a map node, and
+ * {@link #add(String)} is an atomic check-and-insert, so each page is scheduled exactly once.
+ */
+public class ExactVisitedSet implements VisitedSet {
+
+    private final ConcurrentLongSet fingerprints;
+
+    public ExactVisitedSet(int expectedSize) {
+        this.fingerprints = new ConcurrentLongSet(expectedSize);
+    }
+
+    @Override
+    public boolean add(String canonicalUrl) {
+        return fingerprints.add(VisitedSet.fingerprint(canonicalUrl));
+    }
+
+    /**
+     * @param canonicalUrl URL in its canonical form
+     * @return {@code true} if the URL was visited
+     */
+    public boolean contains(String canonicalUrl) {
+        return fingerprints.contains(VisitedSet.fingerprint(canonicalUrl));
+    }
+
+    @Override
+    public long size() {
+        return fingerprints.size();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return fingerprints.getMemoryBytes();
+    }
+}
@@ -0,0 +1,57 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import com.eulerity.hackathon.imagefinder.cache.PageCache;
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.CachedPage;
+
+/**
+ * Order in which the {@link CrawlFrontier} hands out the pages of a host, lowest score first.<br>
+ * {@code crawler.frontier.priority} picks the policy: {@code depth} crawls level by level, {@code imageYield} goes
+ * for the pages linked from the most image-rich pages first, and {@code freshness} goes for the pages the cache
+ * knows least about first, never fetched or fetched longest ago. Ties are broken by depth, then in queue order.
+ */
+@FunctionalInterface
+public interface PagePriority {
+
+    /**
+     * Breadth first, level by level
+     */
+    PagePriority DEPTH = (url, depth, parentImageCount) -> depth;
+
+    /**
+     * Pages linked from pages with more images first, a page tends to link to pages like itself
+     */
+    PagePriority IMAGE_YIELD = (url, depth, parentImageCount) -> -(long) parentImageCount * 256 + depth;
+
+    /**
+     * @param url Canonical URL of the page
+     * @param depth Depth of the page
+     * @param parentImageCount Number of images on the page that linked to it, {@code 0} for a root page
+     * @return Score of the page, lower is crawled first
+     */
+    long score(String url, int depth, int parentImageCount);
+
+    /**
+     * Pages missing from the cache first, then the ones cached longest ago
+     * @param pageCache Cache of extracted pages
+     * @return {@code PagePriority} by freshness
+     */
+    static PagePriority freshness(PageCache pageCache) {
+        return (url, depth, parentImageCount) -> {
+            CachedPage cached = pageCache.get(url);
+            return (cached == null) ? depth : cached.getStoredAt() + depth;
+        };
+    }
+
+    /**
+     * Creates the priority configured in the application properties
+     * @param pageCache Cache of extracted pages, used by the {@code freshness} priority
+     * @return {@code PagePriority} for a new crawl
+     */
+    static PagePriority create(PageCache pageCache) {
+        String priority = ConfigLoader.get("crawler.frontier.priority", "depth");
+        if("imageYield".equalsIgnoreCase(priority)) return IMAGE_YIELD;
+        if("freshness".equalsIgnoreCase(priority)) return freshness(pageCache);
+        return DEPTH;
+    }
+}
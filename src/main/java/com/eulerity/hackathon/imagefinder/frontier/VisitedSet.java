@@ -0,0 +1,66 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+
+/**
+ * Set of the pages a crawl has already scheduled, keyed on their canonical URL.<br>
+ * {@code crawler.visited.mode} picks the implementation: {@code exact} keeps a 64-bit fingerprint per URL on the
+ * heap, {@code bloom} keeps Bloom filters off the heap, growing in steps with the crawl up to a fixed size.
+ */
+public interface VisitedSet {
+
+    /**
+     * Marks the URL as visited
+     * @param canonicalUrl URL in its canonical form
+     * @return {@code true} if this call visited the URL first, {@code false} if it was (or, for a probabilistic
+     * set, may have been) visited before
+     */
+    boolean add(String canonicalUrl);
+
+    /**
+     * @return Number of visited URLs
+     */
+    long size();
+
+    /**
+     * @return Number of bytes taken by the set
+     */
+    long getMemoryBytes();
+
+    /**
+     * Releases the memory or file backing the set
+     */
+    default void close() {
+    }
+
+    /**
+     * Creates the visited set configured in the application properties
+     * @return {@code VisitedSet} for a new crawl
+     */
+    static VisitedSet create() {
+        if("bloom".equalsIgnoreCase(ConfigLoader.get("crawler.visited.mode", "exact"))) {
+            return new BloomVisitedSet(ConfigLoader.get("crawler.visited.expectedUrls", 4096),
+                    ConfigLoader.get("crawler.visited.bloom.expectedUrls", 5000000),
+                    ConfigLoader.get("crawler.visited.bloom.bitsPerUrl", 16),
+                    "mmap".equalsIgnoreCase(ConfigLoader.get("crawler.visited.bloom.storage", "direct")));
+        }
+        return new ExactVisitedSet(ConfigLoader.get("crawler.visited.expectedUrls", 4096));
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the URL's characters
+     * @param url URL
+     * @return Fingerprint of the URL
+     */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            hash ^= (c & 0xff);
+            hash *= 0x100000001b3L;
+            hash ^= (c >>> 8);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
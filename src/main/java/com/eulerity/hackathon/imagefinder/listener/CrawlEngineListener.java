@@ -0,0 +1,29 @@
+package com.eulerity.hackathon.imagefinder.listener;
+
+import com.eulerity.hackathon.imagefinder.service.CrawlEngine;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Starts the shared {@link CrawlEngine} with the web application, and shuts it down along with it
+ */
+@WebListener
+@Slf4j
+public class CrawlEngineListener implements ServletContextListener {
+
+    public static final String ENGINE_ATTRIBUTE = CrawlEngine.class.getName();
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        event.getServletContext().setAttribute(ENGINE_ATTRIBUTE, CrawlEngine.getInstance());
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        event.getServletContext().removeAttribute(ENGINE_ATTRIBUTE);
+        CrawlEngine.shutdownInstance();
+    }
+}
@@ -0,0 +1,42 @@
+package com.eulerity.hackathon.imagefinder.metrics;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of all crawl jobs of an engine, since it started. Jobs record into their own {@link JobMetrics}, which
+ * adds to these as well.<br>
+ * The politeness state of each host, fetch latencies included, is kept by the host itself, see
+ * {@link com.eulerity.hackathon.imagefinder.ratelimit.HostState}.
+ */
+@Getter
+public class CrawlMetrics {
+
+    private final LongAdder jobsCompleted = new LongAdder();
+    // Fetches of pages sent, retries aside, and those which failed or got an error status in the end
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder fetchFailures = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    // Pages served fresh from the cache, revalidated with a 304, or fetched in full for lack of a usable entry
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheRevalidations = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder pagesCompleted = new LongAdder();
+    private final LongAdder imagesFound = new LongAdder();
+
+    // Extraction of the links and images of a fetched page
+    private final Histogram parseTime = Histogram.latency();
+    private final Histogram imagesPerPage = Histogram.counts();
+    // Time a page result waits between being published and being written to the client
+    private final Histogram resultWriteLatency = Histogram.latency();
+
+    /**
+     * @return Share of the pages found in the cache, fresh or revalidated, {@code 0} before any page
+     */
+    public double getCacheHitRatio() {
+        long hits = cacheHits.sum() + cacheRevalidations.sum();
+        long total = hits + cacheMisses.sum();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+}
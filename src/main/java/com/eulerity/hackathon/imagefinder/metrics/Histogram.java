@@ -0,0 +1,87 @@
+package com.eulerity.hackathon.imagefinder.metrics;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of values over fixed buckets, recorded from any number of threads without contention: every bucket and
+ * the sum are {@link LongAdder}s, so a record is a binary search and two uncontended increments.<br>
+ * Values are recorded in a base unit, microseconds for the latencies, and exported scaled to the unit of the metric.
+ */
+public class Histogram {
+
+    // Upper bounds of the latency buckets in microseconds, from 1 ms to 30 s
+    private static final long[] LATENCY_BOUNDS = {
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000
+    };
+    private static final long[] COUNT_BOUNDS = {0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    // Inclusive upper bounds of the buckets, the last bucket has none
+    @Getter
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(long... bounds) {
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+        this.buckets = new LongAdder[this.bounds.length + 1];
+        for(int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @return Histogram of durations recorded in microseconds, from 1 ms to 30 s
+     */
+    public static Histogram latency() {
+        return new Histogram(LATENCY_BOUNDS);
+    }
+
+    /**
+     * @return Histogram of small counts, from 0 to 1000
+     */
+    public static Histogram counts() {
+        return new Histogram(COUNT_BOUNDS);
+    }
+
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        buckets[(bucket < 0) ? -bucket - 1 : bucket].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} reading, in microseconds
+     * @param startNanos Reading taken when the measured operation started
+     */
+    public void recordSince(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @return Cumulative counts of the buckets, the last one being the total count. Buckets are read one after the
+     * other while records go on, so the counts are consistent with each other but not with {@link #getSum()}.
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : buckets) count += bucket.sum();
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+}
@@ -0,0 +1,133 @@
+package com.eulerity.hackathon.imagefinder.metrics;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of a single crawl job, added to the engine wide {@link CrawlMetrics} as they are recorded. Counters are
+ * {@link LongAdder}s, recorded by any worker or fetch callback of the job without contention.
+ */
+public class JobMetrics {
+
+    private final CrawlMetrics global;
+
+    @Getter
+    private final LongAdder fetches = new LongAdder();
+    @Getter
+    private final LongAdder fetchFailures = new LongAdder();
+    @Getter
+    private final LongAdder bytesDownloaded = new LongAdder();
+    @Getter
+    private final LongAdder cacheHits = new LongAdder();
+    @Getter
+    private final LongAdder cacheRevalidations = new LongAdder();
+    @Getter
+    private final LongAdder cacheMisses = new LongAdder();
+    @Getter
+    private final LongAdder pagesCompleted = new LongAdder();
+    @Getter
+    private final LongAdder imagesFound = new LongAdder();
+
+    // Bound by the crawl running the job, read when the metrics are exported
+    private volatile IntSupplier queuedPages = () -> 0;
+    private volatile IntSupplier fetchesInFlight = () -> 0;
+
+    public JobMetrics(CrawlMetrics global) {
+        this.global = global;
+    }
+
+    /**
+     * Binds the gauges of the job to the state of the crawl running it
+     * @param queuedPages Number of pages waiting in the crawl's frontier
+     * @param fetchesInFlight Number of pages being fetched
+     */
+    public void bind(IntSupplier queuedPages, IntSupplier fetchesInFlight) {
+        this.queuedPages = queuedPages;
+        this.fetchesInFlight = fetchesInFlight;
+    }
+
+    /**
+     * A page fetch is sent, its cached entry missing, stale or to be revalidated
+     */
+    public void fetchStarted() {
+        fetches.increment();
+        global.getFetches().increment();
+    }
+
+    /**
+     * A page fetch failed, or answered with an error status once retries are exhausted
+     */
+    public void fetchFailed() {
+        fetchFailures.increment();
+        global.getFetchFailures().increment();
+    }
+
+    /**
+     * A page fetch answered, whatever its status
+     * @param bytes Bytes of the body
+     */
+    public void fetchCompleted(long bytes) {
+        bytesDownloaded.add(bytes);
+        global.getBytesDownloaded().add(bytes);
+    }
+
+    /**
+     * A page is fetched in full, its cached entry missing or unusable
+     */
+    public void cacheMissed() {
+        cacheMisses.increment();
+        global.getCacheMisses().increment();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+        global.getCacheHits().increment();
+    }
+
+    public void cacheRevalidated() {
+        cacheRevalidations.increment();
+        global.getCacheRevalidations().increment();
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} reading taken before the page was parsed
+     */
+    public void pageParsed(long startNanos) {
+        global.getParseTime().recordSince(startNanos);
+    }
+
+    /**
+     * The images of a page are all collected
+     * @param images Number of images of the page
+     */
+    public void imagesCollected(int images) {
+        imagesFound.add(images);
+        global.getImagesFound().add(images);
+        global.getImagesPerPage().record(images);
+    }
+
+    /**
+     * The result of a page is streamed
+     */
+    public void pageCompleted() {
+        pagesCompleted.increment();
+        global.getPagesCompleted().increment();
+    }
+
+    /**
+     * The crawl of the job is complete
+     */
+    public void jobCompleted() {
+        global.getJobsCompleted().increment();
+    }
+
+    public int getQueuedPages() {
+        return queuedPages.getAsInt();
+    }
+
+    public int getFetchesInFlight() {
+        return fetchesInFlight.getAsInt();
+    }
+}
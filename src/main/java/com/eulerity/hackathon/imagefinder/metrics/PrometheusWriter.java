@@ -0,0 +1,117 @@
+package com.eulerity.hackathon.imagefinder.metrics;
+
+/**
+ * Writer of metrics in the Prometheus text exposition format, version 0.0.4: a {@code HELP} and {@code TYPE} line
+ * per family, then one line per sample.
+ */
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    /**
+     * Starts a family of samples sharing a name
+     * @param name Name of the metric
+     * @param type {@code counter}, {@code gauge} or {@code histogram}
+     * @param help Description of the metric
+     * @return This writer
+     */
+    public PrometheusWriter family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ');
+        for(int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            if(c == '\\') out.append("\\\\");
+            else if(c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+        out.append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Writes a family with a single unlabelled sample
+     */
+    public PrometheusWriter single(String name, String type, String help, double value) {
+        return family(name, type, help).sample(name, value);
+    }
+
+    /**
+     * Writes a sample
+     * @param name Name of the metric
+     * @param value Value of the sample
+     * @param labels Names and values of the labels, alternately
+     * @return This writer
+     */
+    public PrometheusWriter sample(String name, double value, String... labels) {
+        out.append(name);
+        if(labels.length > 0) {
+            out.append('{');
+            for(int i = 0; i + 1 < labels.length; i += 2) {
+                if(i > 0) out.append(',');
+                out.append(labels[i]).append("=\"");
+                appendLabelValue(labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        appendNumber(value);
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes the buckets, sum and count of a histogram, within a family started as {@code histogram}
+     * @param name Name of the metric
+     * @param histogram Histogram to be written
+     * @param scale Divisor turning the recorded values into the unit of the metric, e.g. {@code 1e6} for
+     * microseconds exported as seconds
+     * @param labels Names and values of the labels, alternately, added to those of the buckets
+     * @return This writer
+     */
+    public PrometheusWriter histogram(String name, Histogram histogram, double scale, String... labels) {
+        long[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCumulativeCounts();
+        String[] bucketLabels = new String[labels.length + 2];
+        System.arraycopy(labels, 0, bucketLabels, 0, labels.length);
+        bucketLabels[labels.length] = "le";
+        for(int i = 0; i < counts.length; i++) {
+            bucketLabels[labels.length + 1] = (i < bounds.length) ? formatNumber(bounds[i] / scale) : "+Inf";
+            sample(name + "_bucket", counts[i], bucketLabels);
+        }
+        sample(name + "_sum", histogram.getSum() / scale, labels);
+        sample(name + "_count", counts[counts.length - 1], labels);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void appendLabelValue(String value) {
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '\\') out.append("\\\\");
+            else if(c == '"') out.append("\\\"");
+            else if(c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+    }
+
+    private void appendNumber(double value) {
+        out.append(formatNumber(value));
+    }
+
+    /**
+     * @return Whole numbers without a fraction, others in the shortest form Java gives them
+     */
+    static String formatNumber(double value) {
+        if(Double.isNaN(value)) return "NaN";
+        if(Double.isInfinite(value)) return (value > 0) ? "+Inf" : "-Inf";
+        if(value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,20 @@
+package com.eulerity.hackathon.imagefinder.object;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Body of a batch crawl request: the seed URLs, and the crawl options applied to every one of them
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRequest {
+
+    private List<String> urls;
+    private boolean recursive;
+    private int recursiveLevels;
+}
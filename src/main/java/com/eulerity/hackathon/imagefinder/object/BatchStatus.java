@@ -0,0 +1,35 @@
+package com.eulerity.hackathon.imagefinder.object;
+
+import com.eulerity.hackathon.imagefinder.batch.BatchJob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Progress of a batch job, as polled by its client
+ */
+@Getter
+@AllArgsConstructor
+public class BatchStatus {
+
+    private String jobId;
+    private String state;
+    private int seeds;
+    private int pagesCompleted;
+    private long createdAt;
+    // Epoch milliseconds, 0 while the job runs
+    private long completedAt;
+    // Seeds refused as invalid URLs, only reported when the job is submitted
+    private List<String> rejectedUrls;
+
+    /**
+     * @param job Batch job
+     * @param rejectedUrls Seeds refused at submission, {@code null} once the job is running
+     * @return Current status of the job
+     */
+    public static BatchStatus of(BatchJob job, List<String> rejectedUrls) {
+        return new BatchStatus(job.getJobId(), job.getState().name().toLowerCase(), job.getSeedCount(),
+                job.getPagesCompleted(), job.getCreatedAt(), job.getCompletedAt(), rejectedUrls);
+    }
+}
@@ -0,0 +1,76 @@
+package com.eulerity.hackathon.imagefinder.object;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a crawl extracted from a page, kept across crawl requests: its images and the same-domain subpages it links
+ * to, along with the validators of the response for a conditional refetch
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class CachedPage {
+
+    private String url;
+    private List<Image> images;
+    // Resolved and normalized same-domain links, whatever the depth of the crawl that extracted them
+    private List<String> subPageUrls;
+    private String etag;
+    private String lastModified;
+    // Time the page was fetched or last revalidated, in epoch milliseconds
+    private long storedAt;
+
+    /**
+     * @param now Current time in epoch milliseconds
+     * @param ttlMillis Time to live of cached pages
+     * @return {@code true} if the page can be used without asking the server
+     */
+    public boolean isFresh(long now, long ttlMillis) {
+        return now - storedAt < ttlMillis;
+    }
+
+    /**
+     * @return {@code true} if the server gave a validator the page can be revalidated with
+     */
+    public boolean isRevalidatable() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * @return {@code If-None-Match} and {@code If-Modified-Since} headers of a conditional refetch
+     */
+    public Map<String, String> getConditionalHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        if(etag != null) headers.put("If-None-Match", etag);
+        if(lastModified != null) headers.put("If-Modified-Since", lastModified);
+        return headers;
+    }
+
+    /**
+     * @param now Time of the revalidation in epoch milliseconds
+     * @return Copy of the page stored at {@code now}
+     */
+    public CachedPage revalidated(long now) {
+        return new CachedPage(url, images, subPageUrls, etag, lastModified, now);
+    }
+
+    /**
+     * @return Rough number of heap bytes taken by the page
+     */
+    public long estimateBytes() {
+        long bytes = 96 + stringBytes(url) + stringBytes(etag) + stringBytes(lastModified);
+        for(Image image : images) bytes += 32 + stringBytes(image.getImageUrl());
+        for(String subPageUrl : subPageUrls) bytes += 8 + stringBytes(subPageUrl);
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return (value == null) ? 0 : 48 + 2L * value.length();
+    }
+}
@@ -0,0 +1,49 @@
+package com.eulerity.hackathon.imagefinder.object;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Map;
+
+/**
+ * Response of a fetch made by the asynchronous fetcher, with the body fully buffered
+ */
+@Getter
+@ToString(exclude = "body")
+@AllArgsConstructor
+public class FetchResult {
+
+    private String url;
+    private int status;
+    private String contentType;
+    private String charset;
+    private byte[] body;
+    private long elapsedMillis;
+    // Response headers, keyed by lower case header name
+    private Map<String, String> headers;
+
+    /**
+     * @return {@code true} for 2xx responses
+     */
+    public boolean isSuccessful() {
+        return status >= 200 && status < 300;
+    }
+
+    /**
+     * @return {@code true} if the body is a text or XML document that can be parsed for links and images
+     */
+    public boolean isParsable() {
+        if(contentType == null) return true;
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.startsWith("application/xml") || type.contains("+xml");
+    }
+
+    /**
+     * @param name Header name
+     * @return Value of the response header, or {@code null} if absent
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+}
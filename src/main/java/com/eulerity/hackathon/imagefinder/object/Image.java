@@ -1,16 +1,18 @@
 package com.eulerity.hackathon.imagefinder.object;
 
+import com.eulerity.hackathon.imagefinder.probe.ImageHeader;
+import com.eulerity.hackathon.imagefinder.util.KeywordMatcher;
 import lombok.*;
 
 import java.util.Objects;
 
 /**
- * Image class consisting of {@code imageUrl} and {@code type} of image
+ * Image class consisting of {@code imageUrl} and {@code type} of image, along with its real MIME type, dimensions
+ * and size once probed, and its cluster of near-duplicates once deduplicated
  */
 @Getter
 @Setter
 @ToString
-@AllArgsConstructor
 public class Image {
 
     public static enum Type{
@@ -18,7 +20,20 @@ public class Image {
         FAVICON,
         LOGO,
         SVG,
-        IMAGE
+        IMAGE;
+
+        private static final Type[] BY_CODE = values();
+
+        /**
+         * @return One byte code of the type, for compact storage
+         */
+        public byte code() {
+            return (byte) ordinal();
+        }
+
+        public static Type of(byte code) {
+            return BY_CODE[code];
+        }
     }
 
     @Override
@@ -34,8 +49,83 @@ public class Image {
         return Objects.hash(imageUrl);
     }
 
+    // Keywords categorizing an image by its URL, found in one scan whatever their case
+    private static final KeywordMatcher KEYWORDS = new KeywordMatcher(true, "favicon", ".ico", "logo", ".gif", ".svg");
+    private static final int FAVICON = 0b11;
+    private static final int LOGO = 0b100;
+    private static final int GIF = 0b1000;
+    private static final int SVG = 0b10000;
+
     private String imageUrl;
     private Type type;
+    // Known once the image is probed, left out of the JSON otherwise
+    private String mimeType;
+    private Integer width;
+    private Integer height;
+    private Long bytes;
+    // ID of the image's cluster of near-duplicates, left out of the JSON unless deduplicated
+    private String clusterId;
+
+    public Image(String imageUrl, Type type) {
+        this.imageUrl = imageUrl;
+        this.type = type;
+    }
+
+    /**
+     * Copies an image, so that a crawl can update it without changing the cached one
+     * @param image Image to be copied
+     */
+    public Image(Image image) {
+        this(image.imageUrl, image.type);
+        this.mimeType = image.mimeType;
+        this.width = image.width;
+        this.height = image.height;
+        this.bytes = image.bytes;
+        this.clusterId = image.clusterId;
+    }
+
+    /**
+     * Records what probing the image found out, and categorizes it again on that real data
+     * @param header Header of the image file
+     */
+    public void applyHeader(ImageHeader header) {
+        mimeType = header.getMimeType();
+        width = header.getWidth();
+        height = header.getHeight();
+        bytes = header.getBytes();
+        type = classify(imageUrl, type, header);
+    }
+
+    /**
+     * Categorizes an image again on what probing it found out
+     * @param imageUrl URL of the image
+     * @param type Type the image was given by its URL
+     * @param header Header of the image file
+     * @return Type of the image
+     */
+    public static Type classify(String imageUrl, Type type, ImageHeader header) {
+        String mimeType = header.getMimeType();
+        Integer width = header.getWidth();
+        if("image/gif".equals(mimeType)) {
+            return Type.GIF;
+        }
+        else if("image/svg+xml".equals(mimeType)) {
+            return Type.SVG;
+        }
+        else if("image/x-icon".equals(mimeType) || "image/vnd.microsoft.icon".equals(mimeType)
+                || (width != null && width.equals(header.getHeight()) && width <= 64)) {
+            // Icons are small squares, whatever their name
+            return Type.FAVICON;
+        }
+        else if((KEYWORDS.match(imageUrl) & LOGO) != 0) {
+            return Type.LOGO;
+        }
+        else if(mimeType != null) {
+            // The URL may have looked like a GIF or an icon, the file says otherwise
+            return Type.IMAGE;
+        }
+        return type;
+    }
 
     /**
      * Initializes and categorizes the Image object
@@ -43,23 +133,31 @@ public class Image {
      * @return {@code Image} object
      */
     public static Image processImage(String imageUrl) {
-        Image.Type imageObjectType;
-        if(imageUrl.toLowerCase().contains("favicon") || imageUrl.toLowerCase().contains(".ico")){
-            imageObjectType = Image.Type.FAVICON;
+        return new Image(imageUrl, typeOf(imageUrl));
+    }
+
+    /**
+     * Categorizes an image by its URL
+     * @param imageUrl
+     * @return Type of the image
+     */
+    public static Type typeOf(String imageUrl) {
+        int keywords = KEYWORDS.match(imageUrl);
+        if((keywords & FAVICON) != 0){
+            return Image.Type.FAVICON;
         }
-        else if(imageUrl.toLowerCase().contains("logo")){
-            imageObjectType = Image.Type.LOGO;
+        else if((keywords & LOGO) != 0){
+            return Image.Type.LOGO;
         }
-        else if(imageUrl.toLowerCase().contains(".gif")){
-            imageObjectType = Image.Type.GIF;
+        else if((keywords & GIF) != 0){
+            return Image.Type.GIF;
         }
-        else if(imageUrl.toLowerCase().contains(".svg")){
-            imageObjectType = Image.Type.SVG;
+        else if((keywords & SVG) != 0){
+            return Image.Type.SVG;
         }
         else{
-            imageObjectType = Image.Type.IMAGE;
+            return Image.Type.IMAGE;
         }
-        return new Image(imageUrl, imageObjectType);
     }
 
 }
@@ -0,0 +1,246 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+/**
+ * Transcodes a JSON result into a CBOR data item (RFC 8949) in one pass over its text, with no tree of objects in
+ * between.<br>
+ * Objects and arrays become maps and arrays of indefinite length, so that nothing is counted ahead; integers become
+ * CBOR integers, other numbers doubles. One instance per stream, its scratch buffer being reused.
+ */
+class CborTranscoder {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+    private static final int INDEFINITE_ARRAY = 0x9f;
+    private static final int INDEFINITE_MAP = 0xbf;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int DOUBLE = 0xfb;
+    private static final int BREAK = 0xff;
+
+    // Unescaped text of a string holding escapes
+    private final StringBuilder scratch = new StringBuilder(256);
+    private String json;
+    private int position;
+    private ResultBuffer out;
+
+    /**
+     * @param json JSON of a result
+     * @param out Buffer the CBOR item is appended to, left as it was if the JSON is malformed
+     * @throws IllegalArgumentException If the JSON is malformed
+     */
+    void transcode(String json, ResultBuffer out) {
+        int start = out.size();
+        this.json = json;
+        this.position = 0;
+        this.out = out;
+        try {
+            value();
+            skipWhitespace();
+            if(position != json.length()) throw malformed();
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            out.truncate(start);
+            throw (e instanceof IllegalArgumentException) ? (IllegalArgumentException) e : malformed();
+        } finally {
+            this.json = null;
+            this.out = null;
+        }
+    }
+
+    private void value() {
+        skipWhitespace();
+        char c = json.charAt(position);
+        switch(c) {
+            case '{': object(); break;
+            case '[': array(); break;
+            case '"': string(); break;
+            case 't': literal("true", TRUE); break;
+            case 'f': literal("false", FALSE); break;
+            case 'n': literal("null", NULL); break;
+            default:
+                if(c == '-' || c >= '0' && c <= '9') number();
+                else throw malformed();
+        }
+    }
+
+    private void object() {
+        out.write(INDEFINITE_MAP);
+        position++;
+        skipWhitespace();
+        if(json.charAt(position) == '}') {
+            position++;
+            out.write(BREAK);
+            return;
+        }
+        while(true) {
+            skipWhitespace();
+            if(json.charAt(position) != '"') throw malformed();
+            string();
+            skipWhitespace();
+            expect(':');
+            value();
+            skipWhitespace();
+            if(json.charAt(position) == ',') {
+                position++;
+                continue;
+            }
+            expect('}');
+            out.write(BREAK);
+            return;
+        }
+    }
+
+    private void array() {
+        out.write(INDEFINITE_ARRAY);
+        position++;
+        skipWhitespace();
+        if(json.charAt(position) == ']') {
+            position++;
+            out.write(BREAK);
+            return;
+        }
+        while(true) {
+            value();
+            skipWhitespace();
+            if(json.charAt(position) == ',') {
+                position++;
+                continue;
+            }
+            expect(']');
+            out.write(BREAK);
+            return;
+        }
+    }
+
+    private void string() {
+        int start = ++position;
+        while(true) {
+            char c = json.charAt(position);
+            if(c == '"') break;
+            if(c == '\\') {
+                unescapedString(start);
+                return;
+            }
+            position++;
+        }
+        head(MAJOR_TEXT, ResultBuffer.utf8Length(json, start, position));
+        out.writeUtf8(json, start, position);
+        position++;
+    }
+
+    /**
+     * Writes a string holding escapes, unescaped from its start on
+     */
+    private void unescapedString(int start) {
+        scratch.setLength(0);
+        scratch.append(json, start, position);
+        while(true) {
+            char c = json.charAt(position++);
+            if(c == '"') break;
+            if(c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            char escaped = json.charAt(position++);
+            switch(escaped) {
+                case '"': case '\\': case '/': scratch.append(escaped); break;
+                case 'b': scratch.append('\b'); break;
+                case 'f': scratch.append('\f'); break;
+                case 'n': scratch.append('\n'); break;
+                case 'r': scratch.append('\r'); break;
+                case 't': scratch.append('\t'); break;
+                case 'u':
+                    try {
+                        scratch.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw malformed();
+                    }
+                    position += 4;
+                    break;
+                default: throw malformed();
+            }
+        }
+        head(MAJOR_TEXT, ResultBuffer.utf8Length(scratch, 0, scratch.length()));
+        out.writeUtf8(scratch);
+    }
+
+    private void number() {
+        int start = position;
+        boolean integer = true;
+        while(position < json.length()) {
+            char c = json.charAt(position);
+            if(c == '.' || c == 'e' || c == 'E') integer = false;
+            else if(!(c >= '0' && c <= '9' || c == '-' || c == '+')) break;
+            position++;
+        }
+        String number = json.substring(start, position);
+        try {
+            if(integer) {
+                long value = Long.parseLong(number);
+                if(value >= 0) head(MAJOR_UNSIGNED, value);
+                else head(MAJOR_NEGATIVE, -1 - value);
+                return;
+            }
+        } catch (NumberFormatException e) {
+            // Beyond a long, written as a double
+        }
+        double value;
+        try {
+            value = Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw malformed();
+        }
+        out.write(DOUBLE);
+        out.writeBigEndian(Double.doubleToLongBits(value), 8);
+    }
+
+    private void literal(String literal, int item) {
+        if(!json.startsWith(literal, position)) throw malformed();
+        position += literal.length();
+        out.write(item);
+    }
+
+    /**
+     * Writes the initial byte of an item of the given major type, followed by its argument in as few bytes as fit
+     */
+    private void head(int major, long argument) {
+        int type = major << 5;
+        if(argument < 24) {
+            out.write(type | (int) argument);
+        }
+        else if(argument < 0x100) {
+            out.write(type | 24);
+            out.writeBigEndian(argument, 1);
+        }
+        else if(argument < 0x10000) {
+            out.write(type | 25);
+            out.writeBigEndian(argument, 2);
+        }
+        else if(argument < 0x100000000L) {
+            out.write(type | 26);
+            out.writeBigEndian(argument, 4);
+        }
+        else {
+            out.write(type | 27);
+            out.writeBigEndian(argument, 8);
+        }
+    }
+
+    private void expect(char c) {
+        if(json.charAt(position) != c) throw malformed();
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while(position < json.length()) {
+            char c = json.charAt(position);
+            if(c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            position++;
+        }
+    }
+
+    private IllegalArgumentException malformed() {
+        return new IllegalArgumentException("Malformed JSON result at " + position);
+    }
+}
@@ -0,0 +1,31 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Event of a crawl, numbered in the sequence of its crawl's {@link EventLog}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class CrawlEvent {
+
+    // A page is taken off the frontier, to be fetched or served from the cache
+    public static final String PAGE_STARTED = "page-started";
+    // A batch of images extracted from a page, before the page is probed or deduplicated
+    public static final String IMAGE_FOUND = "image-found";
+    // The complete result of a page, as published to every sink
+    public static final String PAGE_DONE = "page-done";
+    // Counters of the crawl, at most once per crawler.events.progressInterval.millis
+    public static final String CRAWL_PROGRESS = "crawl-progress";
+    // Last event of a crawl
+    public static final String CRAWL_DONE = "crawl-done";
+
+    // Sequence number, from 1
+    private final long id;
+    private final String type;
+    // Data serialized as one line of JSON
+    private final String json;
+}
@@ -0,0 +1,240 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Events of one crawl, numbered in sequence and kept for its clients to follow from any point.<br>
+ * Every page result and every other {@link CrawlEvent} of the crawl gets the next number. The last
+ * {@code maxRetained} events are kept, so that a client whose connection dropped can reconnect with the number of
+ * the last event it got, SSE's {@code Last-Event-ID}, and carry on from there while the crawl goes on, nothing being
+ * crawled again.<br>
+ * Each attached stream follows the events at its own pace. The crawl pauses its fetches while no client keeps up,
+ * whether they are slow or gone, and is aborted once no client has been attached for {@code detachedGraceMillis}.
+ */
+@Slf4j
+public class EventLog implements ResultSink {
+
+    // Aborts crawls left without a client once their grace period is over
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "event-log-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Getter
+    private final String crawlId;
+    private final int maxRetained;
+    private final long detachedGraceMillis;
+
+    // Ring of the last events, event n at index (n - 1) modulo its length, guarded by this
+    private CrawlEvent[] events;
+    private long lastId = 0;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // Set once the crawl was told to pause, so that it is resumed once a client keeps up again
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+    private volatile long detachedAt = System.currentTimeMillis();
+    private volatile boolean closed = false;
+    private volatile boolean aborted = false;
+    @Getter
+    private volatile long completedAt = 0;
+    @Setter
+    private volatile Runnable onDrained = () -> { };
+
+    public EventLog(String crawlId, int maxRetained, long detachedGraceMillis) {
+        this.crawlId = crawlId;
+        this.maxRetained = Math.max(1, maxRetained);
+        this.detachedGraceMillis = detachedGraceMillis;
+        this.events = new CrawlEvent[Math.min(64, this.maxRetained)];
+    }
+
+    @Override
+    public void publish(String json) {
+        publishEvent(CrawlEvent.PAGE_DONE, json);
+    }
+
+    @Override
+    public void publishEvent(String type, String json) {
+        synchronized (this) {
+            if(lastId == events.length && events.length < maxRetained) {
+                events = Arrays.copyOf(events, Math.min(events.length * 2, maxRetained));
+            }
+            lastId++;
+            events[(int) ((lastId - 1) % events.length)] = new CrawlEvent(lastId, type, json);
+        }
+        for(Subscriber subscriber : subscribers) subscriber.pump();
+    }
+
+    @Override
+    public boolean isTakingEvents() {
+        return true;
+    }
+
+    /**
+     * @return {@code true} unless a client keeps up with the events, the crawl then stops starting fetches
+     */
+    @Override
+    public boolean isBackedUp() {
+        if(aborted) return false;
+        for(Subscriber subscriber : subscribers) {
+            if(!subscriber.stream.isBackedUp()) return false;
+        }
+        paused.set(true);
+        return true;
+    }
+
+    @Override
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    @Override
+    public void close() {
+        completedAt = System.currentTimeMillis();
+        closed = true;
+        for(Subscriber subscriber : subscribers) subscriber.pump();
+    }
+
+    /**
+     * @param lastEventId Number of the last event the client got, {@code 0} if none
+     * @return {@code true} if every event after it is still kept
+     */
+    public synchronized boolean isRetained(long lastEventId) {
+        return lastEventId >= getFirstId() - 1 && lastEventId <= lastId;
+    }
+
+    /**
+     * Streams the events to a client from the given one on, and closes the stream once the crawl is over and the
+     * client has all of them. Events no longer kept are skipped.
+     * @param stream Stream to the client
+     * @param lastEventId Number of the last event the client got, {@code 0} if none
+     */
+    public void attach(ResultStream stream, long lastEventId) {
+        Subscriber subscriber = new Subscriber(stream, Math.max(0, lastEventId));
+        stream.setOnDrained(subscriber::pump);
+        subscribers.add(subscriber);
+        subscriber.pump();
+    }
+
+    /**
+     * @return {@code true} once the crawl is over and nobody is streaming its events
+     */
+    public boolean isIdle() {
+        return closed && subscribers.isEmpty();
+    }
+
+    /**
+     * @return Events after the given one, at most {@code max}
+     */
+    private synchronized List<CrawlEvent> eventsAfter(long id, int max) {
+        long from = Math.max(id + 1, getFirstId());
+        long to = Math.min(lastId, from + max - 1);
+        List<CrawlEvent> after = new ArrayList<>((int) Math.max(0, to - from + 1));
+        for(long next = from; next <= to; next++) after.add(events[(int) ((next - 1) % events.length)]);
+        return after;
+    }
+
+    /**
+     * @return Number of the oldest event kept
+     */
+    private long getFirstId() {
+        return Math.max(1, lastId - events.length + 1);
+    }
+
+    private synchronized long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Resumes the crawl once a client keeps up again after it was paused
+     */
+    private void resumeIfCaughtUp() {
+        if(paused.get() && !isBackedUp() && paused.compareAndSet(true, false)) onDrained.run();
+    }
+
+    /**
+     * Aborts the crawl unless a client attached within the grace period
+     */
+    private void scheduleAbort() {
+        detachedAt = System.currentTimeMillis();
+        try {
+            TIMER.schedule(() -> {
+                if(closed || aborted || !subscribers.isEmpty()) return;
+                if(System.currentTimeMillis() - detachedAt < detachedGraceMillis) return;
+                log.info("No client came back for crawl {}, dropping the rest of it", crawlId);
+                aborted = true;
+                onDrained.run();
+            }, detachedGraceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            aborted = true;
+            onDrained.run();
+        }
+    }
+
+    /**
+     * Stream of the events to one client
+     */
+    private class Subscriber {
+        // Events read from the log at once
+        private static final int PUMP_BATCH = 64;
+
+        private final ResultStream stream;
+        // Guarded by this
+        private long cursor;
+        private boolean done = false;
+
+        private Subscriber(ResultStream stream, long cursor) {
+            this.stream = stream;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Hands the next events to the stream for as long as it keeps up
+         */
+        private void pump() {
+            synchronized (this) {
+                if(done) return;
+                if(stream.isAborted()) {
+                    finish();
+                    return;
+                }
+                // Read before the events, so that none published meanwhile is missed
+                boolean complete = closed;
+                List<CrawlEvent> next;
+                while(!stream.isBackedUp() && !(next = eventsAfter(cursor, PUMP_BATCH)).isEmpty()) {
+                    // The stream's queue is never filled up, publishing does not wait on the client
+                    for(CrawlEvent event : next) {
+                        if(stream.isBackedUp()) break;
+                        stream.publish(event);
+                        cursor = event.getId();
+                    }
+                }
+                if(complete && cursor >= getLastId()) {
+                    stream.close();
+                    finish();
+                    return;
+                }
+            }
+            resumeIfCaughtUp();
+        }
+
+        private void finish() {
+            done = true;
+            subscribers.remove(this);
+            if(subscribers.isEmpty() && !closed) scheduleAbort();
+            else resumeIfCaughtUp();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event logs of the crawls streamed to clients, by crawl ID.<br>
+ * A log is kept while its crawl runs, and for {@code crawler.events.retention.seconds} after it is over, for a
+ * client to reconnect and read the events it missed; it is dropped afterwards unless a client is still streaming it.
+ */
+public class EventRegistry {
+
+    private final int maxRetained;
+    private final long detachedGraceMillis;
+    private final long retentionMillis;
+    private final Map<String, EventLog> logs = new ConcurrentHashMap<>();
+
+    public EventRegistry() {
+        this(ConfigLoader.get("crawler.events.maxRetained", 4096),
+                ConfigLoader.get("crawler.events.detachedGrace.seconds", 30),
+                ConfigLoader.get("crawler.events.retention.seconds", 300));
+    }
+
+    public EventRegistry(int maxRetained, int detachedGraceSeconds, int retentionSeconds) {
+        this.maxRetained = maxRetained;
+        this.detachedGraceMillis = TimeUnit.SECONDS.toMillis(detachedGraceSeconds);
+        this.retentionMillis = TimeUnit.SECONDS.toMillis(retentionSeconds);
+    }
+
+    /**
+     * Registers the event log of a new crawl, replacing the one of an earlier run of the same crawl
+     * @param crawlId ID of the crawl, {@code null} for a new ID
+     * @return {@code EventLog} of the crawl
+     */
+    public EventLog create(String crawlId) {
+        evictExpired();
+        EventLog eventLog = new EventLog((crawlId == null) ? UUID.randomUUID().toString() : crawlId, maxRetained,
+                detachedGraceMillis);
+        logs.put(eventLog.getCrawlId(), eventLog);
+        return eventLog;
+    }
+
+    /**
+     * @param crawlId ID of the crawl
+     * @return {@code EventLog} of the crawl, {@code null} if it is unknown or expired
+     */
+    public EventLog get(String crawlId) {
+        return (crawlId == null) ? null : logs.get(crawlId);
+    }
+
+    /**
+     * Forgets a log whose crawl could not be started
+     * @param crawlId ID of the crawl
+     */
+    public void remove(String crawlId) {
+        logs.remove(crawlId);
+    }
+
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        Iterator<EventLog> iterator = logs.values().iterator();
+        while(iterator.hasNext()) {
+            EventLog eventLog = iterator.next();
+            if(eventLog.isIdle() && eventLog.getCompletedAt() < cutoff) iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bytes of a batch of results, reused from one batch to the next. Text is encoded into it as UTF-8 as it is
+ * appended, without a String or byte array of its own.
+ */
+class ResultBuffer {
+
+    private byte[] bytes;
+    private int size = 0;
+
+    ResultBuffer(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drops the bytes from the given length on
+     */
+    void truncate(int length) {
+        size = Math.min(size, length);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    void write(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Appends the big-endian bytes of a value
+     * @param count Number of its low bytes to append
+     */
+    void writeBigEndian(long value, int count) {
+        ensureCapacity(count);
+        for(int shift = 8 * (count - 1); shift >= 0; shift -= 8) bytes[size++] = (byte) (value >>> shift);
+    }
+
+    void writeUtf8(CharSequence text) {
+        writeUtf8(text, 0, text.length());
+    }
+
+    /**
+     * Appends characters encoded as UTF-8, an unpaired surrogate as {@code ?} as {@link String#getBytes} does
+     */
+    void writeUtf8(CharSequence text, int start, int end) {
+        ensureCapacity(end - start);
+        for(int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if(c < 0x80) {
+                // Room was made for one byte per character
+                bytes[size++] = (byte) c;
+                continue;
+            }
+            ensureCapacity(3 + end - i);
+            if(c < 0x800) {
+                bytes[size++] = (byte) (0xc0 | c >> 6);
+                bytes[size++] = (byte) (0x80 | c & 0x3f);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[size++] = (byte) (0xf0 | codePoint >> 18);
+                bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                bytes[size++] = (byte) (0x80 | codePoint & 0x3f);
+            }
+            else if(Character.isSurrogate(c)) {
+                bytes[size++] = '?';
+            }
+            else {
+                bytes[size++] = (byte) (0xe0 | c >> 12);
+                bytes[size++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[size++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    /**
+     * @return Number of bytes the characters take in UTF-8
+     */
+    static int utf8Length(CharSequence text, int start, int end) {
+        int length = end - start;
+        for(int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if(c < 0x80) continue;
+            if(c < 0x800) length++;
+            else if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 2;
+                i++;
+            }
+            else if(!Character.isSurrogate(c)) length += 2;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the bytes out. The output may keep the array until the write completes, the buffer is then not to be
+     * appended to before.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+
+    private void ensureCapacity(int extra) {
+        if(size + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+    }
+}
@@ -0,0 +1,38 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import lombok.Getter;
+
+/**
+ * Formats the results of a crawl are streamed in, chosen by the client through {@code Accept}
+ */
+public enum ResultFormat {
+    // One JSON object per line, page results only
+    JSON_LINES("application/x-ndjson", false),
+    // Server-sent events, typed and numbered
+    EVENT_STREAM("text/event-stream", false),
+    // Sequence of CBOR items, one per page result, for machine clients to decode without parsing text
+    CBOR_SEQUENCE("application/cbor-seq", true);
+
+    @Getter
+    private final String contentType;
+    @Getter
+    private final boolean binary;
+
+    ResultFormat(String contentType, boolean binary) {
+        this.contentType = contentType;
+        this.binary = binary;
+    }
+
+    /**
+     * @param accept {@code Accept} header of the request, {@code null} if none
+     * @param binaryAllowed {@code false} if the response can only be written as text
+     * @return Format asked for, JSON lines by default
+     */
+    public static ResultFormat negotiate(String accept, boolean binaryAllowed) {
+        if(accept == null) return JSON_LINES;
+        if(accept.contains(EVENT_STREAM.contentType)) return EVENT_STREAM;
+        // application/cbor as well as application/cbor-seq
+        if(binaryAllowed && accept.contains("application/cbor")) return CBOR_SEQUENCE;
+        return JSON_LINES;
+    }
+}
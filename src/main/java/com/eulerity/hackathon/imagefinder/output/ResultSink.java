@@ -0,0 +1,49 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+/**
+ * Destination of the results of a crawl job: a client connection, or a batch job buffering them for later clients
+ */
+public interface ResultSink {
+
+    /**
+     * Takes the result of a page
+     * @param json Result of the page serialized as one line of JSON
+     */
+    void publish(String json);
+
+    /**
+     * Takes an event of the crawl other than a page result, sinks keeping only the results ignore it
+     * @param type Type of the event, one of those of {@link CrawlEvent}
+     * @param json Data of the event serialized as one line of JSON
+     */
+    default void publishEvent(String type, String json) {
+    }
+
+    /**
+     * @return {@code true} if the sink takes the events of {@link #publishEvent}, so that they are worth building
+     */
+    default boolean isTakingEvents() {
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the results are not taken as fast as they come, and the job should stop starting
+     * fetches
+     */
+    boolean isBackedUp();
+
+    /**
+     * @return {@code true} if nobody wants the results anymore, and the rest of the crawl can be dropped
+     */
+    boolean isAborted();
+
+    /**
+     * @param onDrained Called once the sink has caught up after being backed up, or once it is aborted
+     */
+    void setOnDrained(Runnable onDrained);
+
+    /**
+     * Marks the end of the results
+     */
+    void close();
+}
@@ -0,0 +1,410 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.metrics.Histogram;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Output stage of a crawl job.<br>
+ * Crawl workers publish the serialized result of each page into a bounded queue and go back to crawling. A single
+ * writer at a time drains the queue and writes the results to the client in batches, in the stream's
+ * {@link ResultFormat}, once a batch is large or old enough. A batch is encoded into a byte buffer the stream reuses.
+ * Numbered {@link CrawlEvent}s are written as SSE messages of their own, with their {@code id} and {@code event}
+ * type; JSON lines and CBOR clients only get their page results.<br>
+ * When the client reads slower than the crawl produces, the queue fills up past its high watermark, and the job is
+ * expected to stop starting fetches until it has drained.<br>
+ * A stream over an {@link AsyncContext} writes without blocking: batches are written from a shared timer thread or
+ * from the container's {@link WriteListener} callbacks, and no thread waits on a slow client. A stream over a
+ * {@link PrintWriter} is drained by the thread calling {@link #drain()}.
+ */
+@Slf4j
+public class ResultStream implements ResultSink {
+
+    // Published by close() to wake a blocking drain up
+    private static final Result END = new Result(null, null);
+    // Writes batches of the non-blocking streams, never blocks
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "result-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final boolean eventStream;
+    private final BlockingQueue<Result> queue;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int maxBatchBytes;
+    private final long maxBatchDelay;
+    // Batch being written, only touched by the thread writing
+    private final ResultBuffer batch;
+    // Null unless the format is CBOR
+    private final CborTranscoder cbor;
+
+    private final AtomicBoolean backedUp = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+    private volatile boolean aborted = false;
+    // Called once the queue has drained below its low watermark, or once the client has gone away
+    @Setter
+    private volatile Runnable onDrained = () -> { };
+    // Time each result waits between being published and being written, not recorded if null
+    @Setter
+    private volatile Histogram writeLatency;
+
+    // Blocking output
+    private final PrintWriter writer;
+
+    // Non-blocking output
+    private final AsyncContext context;
+    private final ServletOutputStream outputStream;
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    /**
+     * Stream drained by a thread calling {@link #drain()}
+     * @param writer Writer of the response
+     * @param format Format of the results, text only
+     */
+    public ResultStream(PrintWriter writer, ResultFormat format) {
+        if(format.isBinary()) throw new IllegalArgumentException("Cannot write " + format + " to a PrintWriter");
+        this.eventStream = format == ResultFormat.EVENT_STREAM;
+        this.writer = writer;
+        this.context = null;
+        this.outputStream = null;
+        int capacity = Math.max(2, ConfigLoader.get("crawler.output.maxQueuedPages", 128));
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.highWatermark = capacity / 2;
+        this.lowWatermark = capacity / 4;
+        this.maxBatchBytes = ConfigLoader.get("crawler.output.batch.maxBytes", 16384);
+        this.maxBatchDelay = ConfigLoader.get("crawler.output.batch.maxDelay.millis", 100);
+        this.batch = new ResultBuffer(maxBatchBytes + 1024);
+        this.cbor = format.isBinary() ? new CborTranscoder() : null;
+    }
+
+    /**
+     * Stream writing to the response of an asynchronous request without blocking, and completing the request once
+     * closed
+     * @param context Context of the started asynchronous request
+     * @param format Format of the results
+     * @throws IOException If the output stream of the response cannot be obtained
+     */
+    public ResultStream(AsyncContext context, ResultFormat format) throws IOException {
+        this.eventStream = format == ResultFormat.EVENT_STREAM;
+        this.writer = null;
+        this.context = context;
+        int capacity = Math.max(2, ConfigLoader.get("crawler.output.maxQueuedPages", 128));
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.highWatermark = capacity / 2;
+        this.lowWatermark = capacity / 4;
+        this.maxBatchBytes = ConfigLoader.get("crawler.output.batch.maxBytes", 16384);
+        this.maxBatchDelay = ConfigLoader.get("crawler.output.batch.maxDelay.millis", 100);
+        this.batch = new ResultBuffer(maxBatchBytes + 1024);
+        this.cbor = format.isBinary() ? new CborTranscoder() : null;
+
+        context.setTimeout(ConfigLoader.get("crawler.output.asyncTimeout.seconds", 600) * 1000L);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                // Nothing left to release
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                log.warn("Crawl response timed out, dropping the rest of the results");
+                abort();
+                complete();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                log.warn("Crawl response failed: {}", event.getThrowable() == null ? null : event.getThrowable().getMessage());
+                abort();
+                complete();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // Not restarted
+            }
+        });
+        this.outputStream = context.getResponse().getOutputStream();
+        outputStream.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() {
+                writeAvailable();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                log.warn("Client went away, dropping the rest of the results: {}", throwable.getMessage());
+                abort();
+                complete();
+            }
+        });
+    }
+
+    /**
+     * Queues the result of a page. Blocks only if the queue is full, which the job avoids by pausing its fetches
+     * while {@link #isBackedUp()}.
+     * @param json Result of the page serialized as one line of JSON
+     */
+    @Override
+    public void publish(String json) {
+        enqueue(new Result(json, null));
+    }
+
+    /**
+     * Queues an event of the crawl, like {@link #publish(String)}
+     * @param event Numbered event, dropped unless it is a page result or the client reads SSE
+     */
+    public void publish(CrawlEvent event) {
+        if(!eventStream && !CrawlEvent.PAGE_DONE.equals(event.getType())) return;
+        enqueue(new Result(event.getJson(), event));
+    }
+
+    private void enqueue(Result result) {
+        try {
+            while(!aborted && !queue.offer(result, maxBatchDelay, TimeUnit.MILLISECONDS)) {
+                // Queue full, wait for the client to catch up
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if(queue.size() >= highWatermark) backedUp.set(true);
+        if(context != null) scheduleWrite(queue.size() >= highWatermark ? 0 : maxBatchDelay);
+    }
+
+    /**
+     * @return {@code true} if the client is falling behind and the job should stop starting fetches
+     */
+    @Override
+    public boolean isBackedUp() {
+        return backedUp.get();
+    }
+
+    /**
+     * @return {@code true} if the client has gone away and the rest of the crawl can be dropped
+     */
+    @Override
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Marks the end of the results. The stream is completed once what is left has been written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if(context != null) {
+            flushScheduled.set(false);
+            scheduleWrite(0);
+        }
+        else {
+            queue.offer(END);
+        }
+    }
+
+    /**
+     * Writes the published results to the client until the stream is closed, then closes the writer.<br>
+     * Must be called by a single thread, on a stream over a {@link PrintWriter}.
+     */
+    public void drain() {
+        batch.clear();
+        List<Result> pagesInBatch = new ArrayList<>();
+        long batchStart = 0;
+        try {
+            while(true) {
+                long wait = pagesInBatch.isEmpty() ? maxBatchDelay : batchStart + maxBatchDelay - System.currentTimeMillis();
+                Result page = (wait > 0) ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                if(page != null && page != END && !aborted) {
+                    if(pagesInBatch.isEmpty()) batchStart = System.currentTimeMillis();
+                    appendPage(page);
+                    pagesInBatch.add(page);
+                }
+                resumeIfDrained();
+
+                boolean done = closed && queue.isEmpty();
+                if(!pagesInBatch.isEmpty() && (done || page == null || batch.size() >= maxBatchBytes
+                        || System.currentTimeMillis() - batchStart >= maxBatchDelay)) {
+                    endEvent();
+                    writer.write(batch.toString());
+                    writer.flush();
+                    recordWritten(pagesInBatch);
+                    if(writer.checkError()) {
+                        log.warn("Client went away, dropping the rest of the results");
+                        abort();
+                    }
+                    batch.clear();
+                    pagesInBatch.clear();
+                }
+                if(done) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the queued results on the timer once the delay has elapsed, unless a write is already scheduled
+     */
+    private void scheduleWrite(long delayMillis) {
+        if(!flushScheduled.compareAndSet(false, true)) return;
+        try {
+            TIMER.schedule(this::writeAvailable, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            abort();
+            complete();
+        }
+    }
+
+    /**
+     * Writes batches for as long as the output stream accepts them without blocking. The container calls back
+     * {@link WriteListener#onWritePossible()} once it can take more.
+     */
+    private void writeAvailable() {
+        flushScheduled.set(false);
+        writePending.set(true);
+        // Only one thread writes at a time, a call arriving meanwhile makes it go around once more
+        while(writePending.get() && writing.compareAndSet(false, true)) {
+            writePending.set(false);
+            try {
+                writeBatches();
+            } catch (Exception e) {
+                log.warn("Failed to write results, dropping the rest: {}", e.getMessage());
+                abort();
+                complete();
+            } finally {
+                writing.set(false);
+            }
+        }
+    }
+
+    private void writeBatches() throws IOException {
+        List<Result> pagesInBatch = new ArrayList<>();
+        // The container may hold on to the batch's bytes until it is ready again, only then is the batch reused
+        while(!aborted && outputStream.isReady()) {
+            batch.clear();
+            Result page;
+            while(batch.size() < maxBatchBytes && (page = queue.poll()) != null) {
+                appendPage(page);
+                pagesInBatch.add(page);
+            }
+            resumeIfDrained();
+            if(batch.size() == 0) break;
+
+            endEvent();
+            batch.writeTo(outputStream);
+            recordWritten(pagesInBatch);
+            pagesInBatch.clear();
+        }
+        if(closed && queue.isEmpty() && (aborted || outputStream.isReady())) complete();
+    }
+
+    /**
+     * Appends a result to the batch: results without a number are coalesced into the {@code data:} lines of one SSE
+     * event, numbered events are messages of their own, and a CBOR client gets each result as an item of the sequence
+     */
+    private void appendPage(Result page) {
+        if(cbor != null) {
+            try {
+                cbor.transcode(page.json, batch);
+            } catch (IllegalArgumentException e) {
+                log.warn("Dropping a result that is not valid JSON: {}", e.getMessage());
+            }
+            return;
+        }
+        if(eventStream && page.event != null) {
+            endEvent();
+            batch.writeUtf8("id: ");
+            batch.writeUtf8(Long.toString(page.event.getId()));
+            batch.writeUtf8("\nevent: ");
+            batch.writeUtf8(page.event.getType());
+            batch.writeUtf8("\ndata: ");
+            batch.writeUtf8(page.json);
+            batch.writeUtf8("\n\n");
+            return;
+        }
+        if(eventStream) batch.writeUtf8("data: ");
+        batch.writeUtf8(page.json);
+        batch.write('\n');
+    }
+
+    /**
+     * Ends the SSE event of the coalesced results of the batch, if one is open
+     */
+    private void endEvent() {
+        // Every result ends its line, an event is ended by an empty one
+        int length = batch.size();
+        if(eventStream && length > 1 && batch.byteAt(length - 2) != '\n') batch.write('\n');
+    }
+
+    private void recordWritten(List<Result> pages) {
+        Histogram histogram = writeLatency;
+        if(histogram == null) return;
+        for(Result page : pages) histogram.recordSince(page.publishedAt);
+    }
+
+    private void resumeIfDrained() {
+        if(backedUp.get() && queue.size() <= lowWatermark && backedUp.compareAndSet(true, false)) {
+            onDrained.run();
+        }
+    }
+
+    /**
+     * Completes the asynchronous request, once
+     */
+    private void complete() {
+        if(context == null || !closed && !aborted || !completed.compareAndSet(false, true)) return;
+        try {
+            context.complete();
+        } catch (IllegalStateException e) {
+            log.debug("Crawl response already completed: {}", e.getMessage());
+        }
+    }
+
+    private void abort() {
+        aborted = true;
+        queue.clear();
+        backedUp.set(false);
+        onDrained.run();
+    }
+
+    /**
+     * Result of a page waiting to be written
+     */
+    private static final class Result {
+        final String json;
+        // Null for a result published without a number
+        final CrawlEvent event;
+        final long publishedAt = System.nanoTime();
+
+        Result(String json, CrawlEvent event) {
+            this.json = json;
+            this.event = event;
+        }
+    }
+}
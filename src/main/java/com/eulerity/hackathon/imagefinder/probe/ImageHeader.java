@@ -0,0 +1,142 @@
+package com.eulerity.hackathon.imagefinder.probe;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What the first bytes of an image file tell about it: its real MIME type and dimensions.<br>
+ * PNG, GIF, JPEG, WebP, BMP and ICO are recognized by their signature, and their dimensions read from their header;
+ * SVG is recognized by its root element, and has no intrinsic dimensions.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ImageHeader {
+
+    private final String mimeType;
+    // Null if unknown
+    private final Integer width;
+    private final Integer height;
+    // Size of the whole file, null if unknown
+    private final Long bytes;
+
+    /**
+     * Parses the header of an image file
+     * @param data First bytes of the file, may be empty
+     * @param totalBytes Size of the whole file, or {@code -1} if unknown
+     * @param contentType MIME type sent by the server, used when the bytes are not recognized
+     * @return {@code ImageHeader}, or {@code null} if nothing is known about the image
+     */
+    public static ImageHeader parse(byte[] data, long totalBytes, String contentType) {
+        Long bytes = (totalBytes < 0) ? null : totalBytes;
+        int length = data.length;
+
+        // PNG: signature, then the IHDR chunk with big endian width and height
+        if(length >= 24 && (data[0] & 0xff) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return new ImageHeader("image/png", int32BE(data, 16), int32BE(data, 20), bytes);
+        }
+        // GIF: GIF87a or GIF89a, then the little endian logical screen size
+        if(length >= 10 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F' && data[3] == '8') {
+            return new ImageHeader("image/gif", int16LE(data, 6), int16LE(data, 8), bytes);
+        }
+        // JPEG: SOI, then markers up to the start of frame holding the dimensions
+        if(length >= 4 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8) {
+            return parseJpeg(data, bytes);
+        }
+        // WebP: RIFF container with a VP8, VP8L or VP8X chunk
+        if(length >= 16 && startsWith(data, 0, "RIFF") && startsWith(data, 8, "WEBP")) {
+            return parseWebp(data, bytes);
+        }
+        // BMP: BITMAPINFOHEADER with signed little endian dimensions, negative height for top-down bitmaps
+        if(length >= 26 && data[0] == 'B' && data[1] == 'M') {
+            return new ImageHeader("image/bmp", int32LE(data, 18), Math.abs(int32LE(data, 22)), bytes);
+        }
+        // ICO: reserved zero, type 1, then the first image entry where 0 stands for 256
+        if(length >= 8 && data[0] == 0 && data[1] == 0 && data[2] == 1 && data[3] == 0) {
+            int width = data[6] & 0xff;
+            int height = data[7] & 0xff;
+            return new ImageHeader("image/x-icon", (width == 0) ? 256 : width, (height == 0) ? 256 : height, bytes);
+        }
+        if(isSvg(data)) {
+            return new ImageHeader("image/svg+xml", null, null, bytes);
+        }
+
+        String mimeType = (contentType == null) ? null : contentType.split(";", 2)[0].trim().toLowerCase();
+        if(mimeType != null && !mimeType.startsWith("image/")) mimeType = null;
+        if(mimeType == null && bytes == null) return null;
+        return new ImageHeader(mimeType, null, null, bytes);
+    }
+
+    private static ImageHeader parseJpeg(byte[] data, Long bytes) {
+        int offset = 2;
+        while(offset + 9 < data.length) {
+            if((data[offset] & 0xff) != 0xff) {
+                offset++;
+                continue;
+            }
+            int marker = data[offset + 1] & 0xff;
+            // Fill bytes, and markers without a length
+            if(marker == 0xff || marker == 0x01 || (marker >= 0xd0 && marker <= 0xd8)) {
+                offset++;
+                continue;
+            }
+            boolean startOfFrame = marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+            if(startOfFrame) {
+                return new ImageHeader("image/jpeg", int16BE(data, offset + 7), int16BE(data, offset + 5), bytes);
+            }
+            offset += 2 + int16BE(data, offset + 2);
+        }
+        // Start of frame is past the bytes read, behind large metadata segments
+        return new ImageHeader("image/jpeg", null, null, bytes);
+    }
+
+    private static ImageHeader parseWebp(byte[] data, Long bytes) {
+        if(startsWith(data, 12, "VP8 ") && data.length >= 30) {
+            return new ImageHeader("image/webp", int16LE(data, 26) & 0x3fff, int16LE(data, 28) & 0x3fff, bytes);
+        }
+        if(startsWith(data, 12, "VP8L") && data.length >= 25) {
+            int bits = int32LE(data, 21);
+            return new ImageHeader("image/webp", (bits & 0x3fff) + 1, ((bits >>> 14) & 0x3fff) + 1, bytes);
+        }
+        if(startsWith(data, 12, "VP8X") && data.length >= 30) {
+            return new ImageHeader("image/webp", int24LE(data, 24) + 1, int24LE(data, 27) + 1, bytes);
+        }
+        return new ImageHeader("image/webp", null, null, bytes);
+    }
+
+    private static boolean isSvg(byte[] data) {
+        String head = new String(data, 0, Math.min(data.length, 512), StandardCharsets.ISO_8859_1).trim().toLowerCase();
+        return head.startsWith("<svg") || ((head.startsWith("<?xml") || head.startsWith("<!doctype")) && head.contains("<svg"));
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String ascii) {
+        if(offset + ascii.length() > data.length) return false;
+        for(int i = 0; i < ascii.length(); i++) {
+            if(data[offset + i] != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int int16BE(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static int int32BE(byte[] data, int offset) {
+        return (int16BE(data, offset) << 16) | int16BE(data, offset + 2);
+    }
+
+    private static int int16LE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8);
+    }
+
+    private static int int24LE(byte[] data, int offset) {
+        return int16LE(data, offset) | ((data[offset + 2] & 0xff) << 16);
+    }
+
+    private static int int32LE(byte[] data, int offset) {
+        return int16LE(data, offset) | (int16LE(data, offset + 2) << 16);
+    }
+}
@@ -0,0 +1,168 @@
+package com.eulerity.hackathon.imagefinder.probe;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.ratelimit.PolitenessScheduler;
+import com.eulerity.hackathon.imagefinder.result.ResultStore;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Probing stage of a crawl job, enabled with {@code crawler.probe.enabled}.<br>
+ * The images of a page are probed as a batch once the page is extracted: a ranged {@code GET} of their first
+ * {@code crawler.probe.maxBytes} bytes, or a {@code HEAD} with {@code crawler.probe.method = head}, reveals their
+ * real MIME type, dimensions and size. Probes go through the {@link PolitenessScheduler} like page fetches, so they
+ * respect each host's delay and robots.txt. At most {@code crawler.probe.maxInFlightPerJob} probes of a job are in
+ * flight, apart from its page fetches, and at most {@code crawler.probe.maxPerPage} images of a page are probed, so
+ * probing cannot take over the crawl. An image found on several pages is probed once per job.
+ */
+@Slf4j
+public class ImageProber {
+
+    private final PolitenessScheduler politenessScheduler;
+    private final boolean head;
+    private final int maxBytes;
+    private final int maxInFlight;
+    private final int maxPerPage;
+
+    private final Queue<PendingProbe> pendingProbes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger probesInFlight = new AtomicInteger(0);
+    // Probe of every image URL of the job, completed with null if nothing could be learned
+    private final ConcurrentMap<String, CompletableFuture<ImageHeader>> probes = new ConcurrentHashMap<>();
+
+    public ImageProber(PolitenessScheduler politenessScheduler) {
+        this(politenessScheduler, "head".equalsIgnoreCase(ConfigLoader.get("crawler.probe.method", "range")),
+                ConfigLoader.get("crawler.probe.maxBytes", 1024),
+                ConfigLoader.get("crawler.probe.maxInFlightPerJob", 8),
+                ConfigLoader.get("crawler.probe.maxPerPage", 64));
+    }
+
+    public ImageProber(PolitenessScheduler politenessScheduler, boolean head, int maxBytes, int maxInFlight, int maxPerPage) {
+        this.politenessScheduler = politenessScheduler;
+        this.head = head;
+        this.maxBytes = maxBytes;
+        this.maxInFlight = maxInFlight;
+        this.maxPerPage = maxPerPage;
+    }
+
+    /**
+     * @return {@code true} if the probing stage is enabled in the application properties
+     */
+    public static boolean isEnabled() {
+        return ConfigLoader.get("crawler.probe.enabled", false);
+    }
+
+    /**
+     * Probes the images of a page, updating them with what their header tells
+     * @param results Results of the crawl
+     * @param images IDs of the images of the page, each one listed once
+     * @param onComplete Called once every probe of the page has completed, on a fetcher thread
+     */
+    public void probe(ResultStore results, int[] images, Runnable onComplete) {
+        int count = Math.min(images.length, maxPerPage);
+        if(count == 0) {
+            onComplete.run();
+            return;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(count);
+        for(int i = 0; i < count; i++) {
+            int image = images[i];
+            probeOf(results.getImageUrl(image)).whenComplete((header, error) -> {
+                if(header != null) results.applyHeader(image, header);
+                if(remaining.decrementAndGet() == 0) onComplete.run();
+            });
+        }
+    }
+
+    /**
+     * Drops the probes not started yet, they complete with nothing learned
+     */
+    public void cancel() {
+        PendingProbe pendingProbe;
+        while((pendingProbe = pendingProbes.poll()) != null) pendingProbe.future.complete(null);
+    }
+
+    private CompletableFuture<ImageHeader> probeOf(String imageUrl) {
+        CompletableFuture<ImageHeader> future = probes.get(imageUrl);
+        if(future != null) return future;
+        CompletableFuture<ImageHeader> created = new CompletableFuture<>();
+        future = probes.putIfAbsent(imageUrl, created);
+        if(future != null) return future;
+
+        pendingProbes.add(new PendingProbe(imageUrl, created));
+        startProbes();
+        return created;
+    }
+
+    /**
+     * Starts pending probes while the job has probe slots left
+     */
+    private void startProbes() {
+        while(!pendingProbes.isEmpty()) {
+            int inFlight = probesInFlight.get();
+            if(inFlight >= maxInFlight) return;
+            if(!probesInFlight.compareAndSet(inFlight, inFlight + 1)) continue;
+
+            PendingProbe pendingProbe = pendingProbes.poll();
+            if(pendingProbe == null) {
+                probesInFlight.decrementAndGet();
+                continue;
+            }
+            politenessScheduler.probe(pendingProbe.imageUrl, head, maxBytes).whenComplete((result, error) -> {
+                probesInFlight.decrementAndGet();
+                startProbes();
+                pendingProbe.future.complete(readHeader(pendingProbe.imageUrl, result, error));
+            });
+        }
+    }
+
+    private ImageHeader readHeader(String imageUrl, FetchResult result, Throwable error) {
+        if(error != null) {
+            log.info("Failed to probe image: {} | {}", imageUrl, error.getMessage());
+            return null;
+        }
+        if(!result.isSuccessful()) {
+            log.info("Failed to probe image: {} | status: {}", imageUrl, result.getStatus());
+            return null;
+        }
+        return ImageHeader.parse(result.getBody(), totalBytes(result), result.getContentType());
+    }
+
+    /**
+     * @return Size of the whole file, from {@code Content-Range} for a partial response, or {@code Content-Length}
+     * otherwise, {@code -1} if unknown
+     */
+    static long totalBytes(FetchResult result) {
+        try {
+            String contentRange = result.getHeader("Content-Range");
+            if(result.getStatus() == 206 && contentRange != null) {
+                String total = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+                return total.equals("*") ? -1 : Long.parseLong(total);
+            }
+            String contentLength = result.getHeader("Content-Length");
+            return (contentLength == null) ? -1 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Probe waiting for a slot of the job
+     */
+    private static class PendingProbe {
+        private final String imageUrl;
+        private final CompletableFuture<ImageHeader> future;
+
+        private PendingProbe(String imageUrl, CompletableFuture<ImageHeader> future) {
+            this.imageUrl = imageUrl;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import com.eulerity.hackathon.imagefinder.metrics.Histogram;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Politeness state of a single host: its pending fetches, and an AIMD controller for the delay between two
+ * requests to it.<br>
+ * The delay shrinks additively while the host answers steadily, and grows multiplicatively when the host slows
+ * down or pushes back, independent of every other host being crawled.
+ */
+public class HostState implements Delayed {
+
+    @Getter
+    private final String host;
+    private volatile long minDelay;
+    private final long maxDelay;
+    private final long delayStep;
+
+    private final AtomicLong delay;
+    private final ResponseTimeEstimator responseTimes;
+
+    // Metrics of every fetch and probe sent to this host, retries included
+    @Getter
+    private final Histogram fetchTimes = Histogram.latency();
+    @Getter
+    private final LongAdder bytesDownloaded = new LongAdder();
+    @Getter
+    private final LongAdder fetchErrors = new LongAdder();
+
+    // Guarded by this
+    final Queue<PolitenessScheduler.PendingFetch> pending = new ArrayDeque<>();
+    int inFlight = 0;
+    boolean queued = false;
+    long nextAllowedAt = 0;
+    // Time the host was last given a fetch or completed one
+    long lastActiveAt = PolitenessScheduler.now();
+    // Dropped by the scheduler once idle, a fetch offered to it goes to the host's new state
+    boolean evicted = false;
+    // Fixed while the host sits in the ready queue
+    volatile long eligibleAt = 0;
+
+    HostState(String host, long minDelay, long maxDelay, long delayStep, double responseTimeWeight) {
+        this.host = host;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.delayStep = delayStep;
+        this.delay = new AtomicLong(minDelay);
+        this.responseTimes = new ResponseTimeEstimator(responseTimeWeight);
+    }
+
+    /**
+     * Additive decrease of the delay on a steady response, or a mild increase when the response time spikes
+     * @param responseTime Response time of the fetch in milliseconds
+     */
+    void onResponse(long responseTime) {
+        double previousAverage = responseTimes.record(responseTime);
+        if(previousAverage > 0 && responseTime > 2 * previousAverage) {
+            delay.updateAndGet(current -> Math.min(maxDelay, current + Math.max(delayStep, current / 2)));
+        }
+        else {
+            delay.updateAndGet(current -> Math.max(minDelay, current - delayStep));
+        }
+    }
+
+    /**
+     * Records a fetch of this host in its metrics
+     * @param startNanos {@link System#nanoTime()} reading taken when the fetch was sent
+     * @param bodyBytes Bytes of the body received, or a negative value if the fetch failed without a response
+     */
+    void recordFetch(long startNanos, long bodyBytes) {
+        if(bodyBytes < 0) {
+            fetchErrors.increment();
+            return;
+        }
+        fetchTimes.recordSince(startNanos);
+        bytesDownloaded.add(bodyBytes);
+    }
+
+    /**
+     * Multiplicative increase of the delay when the host pushes back
+     */
+    void onOverload() {
+        delay.updateAndGet(current -> Math.min(maxDelay, current * 2));
+    }
+
+    /**
+     * Raises the delay floor of this host to its robots.txt crawl delay
+     * @param crawlDelay Crawl delay in milliseconds, or a negative value if the host has none
+     */
+    void applyCrawlDelay(long crawlDelay) {
+        if(crawlDelay <= minDelay) return;
+        long floor = Math.min(maxDelay, crawlDelay);
+        minDelay = floor;
+        delay.updateAndGet(current -> Math.max(floor, current));
+    }
+
+    /**
+     * @return Current delay between two requests to this host in milliseconds
+     */
+    public long getRequestDelay() {
+        return delay.get();
+    }
+
+    /**
+     * @return {@code true} if nothing is pending nor in flight, and the host has been idle since the given time.
+     * Must be called holding the lock.
+     */
+    boolean isIdleSince(long time) {
+        return inFlight == 0 && pending.isEmpty() && !queued && lastActiveAt < time && nextAllowedAt < time;
+    }
+
+    /**
+     * @return Moving average of the response times of this host in milliseconds
+     */
+    public double getAverageResponseTime() {
+        return responseTimes.getAverage();
+    }
+
+    /**
+     * @return Number of fetches of this host in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return Number of fetches of this host waiting for their turn
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(eligibleAt - PolitenessScheduler.now(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        return Long.compare(eligibleAt, ((HostState) other).eligibleAt);
+    }
+}
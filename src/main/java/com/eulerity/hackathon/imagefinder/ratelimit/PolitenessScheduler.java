@@ -0,0 +1,379 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.exception.RobotsDisallowedException;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.service.AsyncFetcher;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.MalformedURLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Per-host politeness scheduler in front of the {@link AsyncFetcher}.<br>
+ * Every host has its own queue of pending fetches and its own AIMD controlled delay ({@link HostState}). Hosts
+ * with pending fetches wait in a ready queue ordered by the time their next request is allowed, and a single
+ * dispatcher thread starts the fetch of whichever host becomes eligible first. Fast hosts therefore run at full
+ * speed, while a host answering with 429 or 503 only slows down its own queue.<br>
+ * Failed fetches are retried as the {@link RetryPolicy} decides, and robots.txt disallow rules and crawl delays
+ * are applied before a fetch is queued.<br>
+ * Redirects are followed here, up to {@value #MAX_REDIRECTS} hops: the target is scheduled as a fetch of its own,
+ * so it goes through the robots.txt rules and the delay of its host, and the fetch completes with the response
+ * of the last hop, whose URL is the one the body was read from.<br>
+ * A host with nothing pending nor in flight for {@code crawler.rateLimit.host.idle.seconds} is dropped by the
+ * dispatcher, so that a long running server does not keep the state of every host it ever crawled. A host seen
+ * again starts over from the minimum delay.
+ */
+@Slf4j
+public class PolitenessScheduler {
+
+    static final int MAX_REDIRECTS = 5;
+
+    private final AsyncFetcher fetcher;
+    private final long minDelay;
+    private final long maxDelay;
+    private final long delayStep;
+    private final double responseTimeWeight;
+    private final int maxInFlightPerHost;
+    private final long hostIdleMillis;
+
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    private final RobotsCache robotsCache;
+
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final DelayQueue<HostState> readyHosts = new DelayQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public PolitenessScheduler(AsyncFetcher fetcher) {
+        this(fetcher, TimeUnit.SECONDS.toMillis(ConfigLoader.get("crawler.rateLimit.host.idle.seconds", 600)));
+    }
+
+    PolitenessScheduler(AsyncFetcher fetcher, long hostIdleMillis) {
+        this.fetcher = fetcher;
+        this.hostIdleMillis = hostIdleMillis;
+        this.minDelay = ConfigLoader.get("crawler.rateLimit.delay.minimum", 50);
+        this.maxDelay = ConfigLoader.get("crawler.rateLimit.delay.maximum", 17500);
+        this.delayStep = ConfigLoader.get("crawler.rateLimit.delay.step", 25);
+        this.responseTimeWeight = ConfigLoader.get("crawler.rateLimit.responseTime.weightPercent", 20) / 100.0;
+        this.maxInFlightPerHost = ConfigLoader.get("crawler.rateLimit.host.maxInFlight", 8);
+        this.robotsCache = ConfigLoader.get("crawler.robots.enabled", true) ? new RobotsCache(fetcher) : null;
+
+        dispatcher = new Thread(this::dispatch, "politeness-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Queues a fetch of the URL behind the other pending fetches of its host, once robots.txt allows it
+     * @param url URL to be fetched
+     * @return {@code CompletableFuture} completed with the final response once the host's turn came and the fetch
+     * finished, retries included, or exceptionally with {@link RobotsDisallowedException} if robots.txt forbids it,
+     * or with {@link MalformedURLException} if the URL is not an absolute HTTP or HTTPS URL
+     */
+    public CompletableFuture<FetchResult> fetch(String url) {
+        return fetch(url, Collections.emptyMap());
+    }
+
+    /**
+     * Queues a fetch of the URL with extra request headers, like the validators of a conditional request
+     * @param url URL to be fetched
+     * @param requestHeaders Headers added to every attempt of the fetch
+     * @return {@code CompletableFuture} completed with the final response, as {@link #fetch(String)}
+     */
+    public CompletableFuture<FetchResult> fetch(String url, Map<String, String> requestHeaders) {
+        return schedule(new PendingFetch(url, requestHeaders, new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues a probe of the URL, reading only the first bytes of its body, or only its headers. Probes take their
+     * turn with the fetches of their host, and count towards its delay.
+     * @param url URL to be probed
+     * @param head {@code true} to send a {@code HEAD} request, {@code false} for a ranged {@code GET}
+     * @param maxBytes Number of bytes of the body to read
+     * @return {@code CompletableFuture} completed with the final response, as {@link #fetch(String)}
+     */
+    public CompletableFuture<FetchResult> probe(String url, boolean head, int maxBytes) {
+        PendingFetch pendingFetch = new PendingFetch(url, Collections.emptyMap(), new CompletableFuture<>());
+        pendingFetch.head = head;
+        pendingFetch.probeBytes = head ? 0 : Math.max(1, maxBytes);
+        return schedule(pendingFetch);
+    }
+
+    /**
+     * @param url Any URL of the origin
+     * @return {@code CompletableFuture} completed with the robots.txt rules of the URL's origin, allowing everything
+     * if robots.txt is not honoured
+     */
+    public CompletableFuture<RobotsRules> rulesFor(String url) {
+        return (robotsCache == null) ? CompletableFuture.completedFuture(RobotsRules.ALLOW_ALL) : robotsCache.rulesFor(url);
+    }
+
+    /**
+     * Queues the fetch behind the other pending fetches of its host, once robots.txt allows it. The URL is parsed
+     * once here, retries reuse the host found for it.
+     */
+    private CompletableFuture<FetchResult> schedule(PendingFetch pendingFetch) {
+        String url = pendingFetch.url;
+        if(!running) {
+            return failed(new RejectedExecutionException("Politeness scheduler is stopped"));
+        }
+        ParsedUrl parsed = ParsedUrl.parse(url);
+        // Rejected rather than sharing the politeness state of an unknown host
+        if(parsed == null || !parsed.isHttpOrHttps()) {
+            return failed(new MalformedURLException("Not an absolute HTTP URL: " + url));
+        }
+        HostState host = hostState(hostOf(parsed));
+        if(robotsCache == null) {
+            return offer(host, pendingFetch);
+        }
+        return robotsCache.rulesFor(parsed).thenCompose(rules -> {
+            if(!rules.isAllowed(parsed.getPathAndQuery())) {
+                return failed(new RobotsDisallowedException(url));
+            }
+            host.applyCrawlDelay(rules.getCrawlDelay());
+            return offer(host, pendingFetch);
+        });
+    }
+
+    private static CompletableFuture<FetchResult> failed(Throwable error) {
+        CompletableFuture<FetchResult> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private HostState hostState(String name) {
+        return hosts.computeIfAbsent(name, key -> new HostState(key, minDelay, maxDelay, delayStep, responseTimeWeight));
+    }
+
+    /**
+     * Adds the fetch to the host's queue, putting the host in the ready queue if it can take another fetch. A host
+     * evicted meanwhile is replaced by its new state.
+     */
+    private CompletableFuture<FetchResult> offer(HostState host, PendingFetch pendingFetch) {
+        while(true) {
+            synchronized (host) {
+                if(!host.evicted) {
+                    host.pending.add(pendingFetch);
+                    host.lastActiveAt = now();
+                    if(!host.queued && host.inFlight < maxInFlightPerHost) {
+                        enqueue(host, Math.max(now(), host.nextAllowedAt));
+                    }
+                    return pendingFetch.future;
+                }
+            }
+            host = hostState(host.getHost());
+        }
+    }
+
+    /**
+     * Dispatcher loop, starts one fetch each time a host becomes eligible
+     */
+    private void dispatch() {
+        long sweepInterval = Math.max(1, Math.min(hostIdleMillis / 2, TimeUnit.MINUTES.toMillis(1)));
+        long nextSweepAt = now() + sweepInterval;
+        while(running) {
+            HostState host;
+            try {
+                host = readyHosts.poll(sweepInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(now() >= nextSweepAt) {
+                evictIdleHosts();
+                nextSweepAt = now() + sweepInterval;
+            }
+            if(host == null) continue;
+
+            PendingFetch next;
+            synchronized (host) {
+                host.queued = false;
+                long now = now();
+                if(host.nextAllowedAt > now) {
+                    // The host backed off while it was waiting in the ready queue
+                    enqueue(host, host.nextAllowedAt);
+                    continue;
+                }
+                if(host.inFlight >= maxInFlightPerHost || host.pending.isEmpty()) continue;
+
+                next = host.pending.poll();
+                host.inFlight++;
+                host.nextAllowedAt = now + host.getRequestDelay();
+                if(!host.pending.isEmpty() && host.inFlight < maxInFlightPerHost) {
+                    enqueue(host, host.nextAllowedAt);
+                }
+            }
+            launch(host, next);
+        }
+    }
+
+    private void launch(HostState host, PendingFetch pendingFetch) {
+        pendingFetch.attempt++;
+        long startNanos = System.nanoTime();
+        CompletableFuture<FetchResult> response = (pendingFetch.probeBytes > 0 || pendingFetch.head)
+                ? fetcher.probe(pendingFetch.url, pendingFetch.head, pendingFetch.probeBytes)
+                : fetcher.fetch(pendingFetch.url, 0, pendingFetch.requestHeaders);
+        response.whenComplete((result, error) -> {
+            host.recordFetch(startNanos, (result == null) ? -1 : (result.getBody() == null) ? 0 : result.getBody().length);
+            boolean pushBack = result != null && RetryPolicy.isPushBack(result.getStatus());
+            if(pushBack) {
+                host.onOverload();
+            }
+            else if(result != null) {
+                // Any other answer, 404 and 5xx included, says nothing about the host being overloaded
+                host.onResponse(result.getElapsedMillis());
+            }
+            synchronized (host) {
+                host.inFlight--;
+                host.lastActiveAt = now();
+                if(pushBack) {
+                    long pause = Math.max(host.getRequestDelay(), Math.min(maxDelay, RetryPolicy.getRetryAfter(result)));
+                    host.nextAllowedAt = Math.max(host.nextAllowedAt, now() + pause);
+                    log.info("Host {} pushed back with status {} | paused for: {}ms", host.getHost(), result.getStatus(), pause);
+                }
+                if(!host.queued && !host.pending.isEmpty()) {
+                    enqueue(host, Math.max(now(), host.nextAllowedAt));
+                }
+            }
+
+            long retryDelay = retryPolicy.retryDelay(result, error, pendingFetch.attempt);
+            if(retryDelay != RetryPolicy.NO_RETRY && running) {
+                log.info("Retrying: {} after {}ms | attempt: {} | {}", pendingFetch.url, retryDelay, pendingFetch.attempt + 1,
+                        (result != null) ? "status " + result.getStatus() : error.getMessage());
+                try {
+                    fetcher.schedule(() -> offer(host, pendingFetch), retryDelay);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    log.error("Failed to schedule retry of: {}\nException: {}", pendingFetch.url, e.getMessage());
+                }
+            }
+            String location = (result != null) ? redirectOf(pendingFetch, result) : null;
+            if(location != null) {
+                follow(pendingFetch, location);
+                return;
+            }
+            if(error != null) pendingFetch.future.completeExceptionally(error);
+            else pendingFetch.future.complete(result);
+        });
+    }
+
+    /**
+     * @return Absolute HTTP URL the response redirects to, or {@code null} if it is not a redirect to follow
+     */
+    private static String redirectOf(PendingFetch pendingFetch, FetchResult result) {
+        int status = result.getStatus();
+        if(status != 301 && status != 302 && status != 303 && status != 307 && status != 308) return null;
+        String location = result.getHeader("Location");
+        if(location == null || pendingFetch.redirects >= MAX_REDIRECTS) return null;
+        ParsedUrl parsed = ParsedUrl.parse(pendingFetch.url);
+        return (parsed == null) ? null : parsed.resolve(location);
+    }
+
+    /**
+     * Schedules the fetch of a redirect's target, completing the original fetch with its outcome. Conditional
+     * request headers are meant for the original URL and are not sent along.
+     */
+    private void follow(PendingFetch pendingFetch, String location) {
+        log.info("Redirected: {} -> {}", pendingFetch.url, location);
+        PendingFetch redirected = new PendingFetch(location, Collections.emptyMap(), new CompletableFuture<>());
+        redirected.head = pendingFetch.head;
+        redirected.probeBytes = pendingFetch.probeBytes;
+        redirected.redirects = pendingFetch.redirects + 1;
+        schedule(redirected).whenComplete((result, error) -> {
+            if(error != null) pendingFetch.future.completeExceptionally(error);
+            else pendingFetch.future.complete(result);
+        });
+    }
+
+    /**
+     * Drops the hosts idle for longer than {@code crawler.rateLimit.host.idle.seconds}
+     */
+    private void evictIdleHosts() {
+        long idleSince = now() - hostIdleMillis;
+        for(HostState host : hosts.values()) {
+            synchronized (host) {
+                if(!host.isIdleSince(idleSince)) continue;
+                host.evicted = true;
+                hosts.remove(host.getHost(), host);
+            }
+        }
+    }
+
+    /**
+     * Puts the host in the ready queue. Must be called holding the host's lock.
+     */
+    private void enqueue(HostState host, long eligibleAt) {
+        host.eligibleAt = eligibleAt;
+        host.queued = true;
+        readyHosts.offer(host);
+    }
+
+    /**
+     * @return Snapshot of the politeness state of every host seen so far
+     */
+    public Collection<HostState> getHosts() {
+        return Collections.unmodifiableCollection(hosts.values());
+    }
+
+    /**
+     * Stops dispatching, failing every fetch still waiting for its turn
+     */
+    public void stop() {
+        running = false;
+        dispatcher.interrupt();
+        for(HostState host : hosts.values()) {
+            synchronized (host) {
+                PendingFetch pendingFetch;
+                while((pendingFetch = host.pending.poll()) != null) {
+                    pendingFetch.future.completeExceptionally(new RejectedExecutionException("Politeness scheduler is stopped"));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param url URL
+     * @return Lower case host of the URL, or an empty string if it has none
+     */
+    public static String hostOf(String url) {
+        ParsedUrl parsed = ParsedUrl.parse(url);
+        return (parsed == null) ? "" : hostOf(parsed);
+    }
+
+    /**
+     * @param url Parsed URL
+     * @return Lower case host of the URL, the key of its politeness state
+     */
+    static String hostOf(ParsedUrl url) {
+        return url.getHost().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return Monotonic clock in milliseconds
+     */
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    static class PendingFetch {
+        final String url;
+        final Map<String, String> requestHeaders;
+        final CompletableFuture<FetchResult> future;
+        int attempt = 0;
+        // Redirects followed to reach this URL
+        int redirects = 0;
+
+        // Bytes of the body read by a probe, 0 for a full fetch
+        int probeBytes = 0;
+        boolean head = false;
+
+        PendingFetch(String url, Map<String, String> requestHeaders, CompletableFuture<FetchResult> future) {
+            this.url = url;
+            this.requestHeaders = requestHeaders;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free exponentially weighted moving average of response times.<br>
+ * The average is kept as the raw bits of a {@code double} inside an {@link AtomicLong} and updated with a CAS loop,
+ * so recording a sample never blocks the thread delivering the response.
+ */
+public class ResponseTimeEstimator {
+
+    private static final long UNSET = Double.doubleToRawLongBits(-1.0);
+
+    private final double weight;
+    private final AtomicLong averageBits = new AtomicLong(UNSET);
+
+    /**
+     * @param weight Weight of the newest sample, between 0 and 1
+     */
+    public ResponseTimeEstimator(double weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Folds a response time into the moving average
+     * @param responseTime Response time in milliseconds
+     * @return Moving average before this sample, or {@code -1} if this is the first sample
+     */
+    public double record(long responseTime) {
+        while(true) {
+            long currentBits = averageBits.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double next = (current < 0) ? responseTime : current + weight * (responseTime - current);
+            if(averageBits.compareAndSet(currentBits, Double.doubleToRawLongBits(next))) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * @return Current moving average in milliseconds, or {@code -1} if nothing was recorded yet
+     */
+    public double getAverage() {
+        return Double.longBitsToDouble(averageBits.get());
+    }
+}
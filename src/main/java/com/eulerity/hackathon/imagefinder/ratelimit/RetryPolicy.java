@@ -0,0 +1,113 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+
+import java.net.UnknownHostException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides what happens to a fetch that did not succeed.<br>
+ * 404, 410 and the other client errors are permanent: the URL is given up on at once, and the host is not slowed
+ * down for it. 429, 5xx responses, timeouts and dropped connections are retried with a jittered exponential
+ * backoff, or after the server's {@code Retry-After} when it sends one.
+ */
+public class RetryPolicy {
+
+    public static final long NO_RETRY = -1;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long maxRetryAfter;
+
+    public RetryPolicy() {
+        this(ConfigLoader.get("crawler.retry.maxAttempts", 3),
+                ConfigLoader.get("crawler.retry.baseDelay.millis", 1000),
+                ConfigLoader.get("crawler.retry.maxDelay.millis", 30000),
+                ConfigLoader.get("crawler.retry.maxRetryAfter.seconds", 120) * 1000L);
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, long maxRetryAfter) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    /**
+     * @param result Response of the fetch, {@code null} if it failed
+     * @param error Failure of the fetch, {@code null} if a response arrived
+     * @param attempt Number of attempts made so far, starting at 1
+     * @return Delay in milliseconds before the fetch is retried, or {@link #NO_RETRY} if it should not be
+     */
+    public long retryDelay(FetchResult result, Throwable error, int attempt) {
+        if(attempt >= maxAttempts) return NO_RETRY;
+
+        if(result != null) {
+            if(!isRetryable(result.getStatus())) return NO_RETRY;
+            long retryAfter = getRetryAfter(result);
+            if(retryAfter > maxRetryAfter) return NO_RETRY;
+            if(retryAfter >= 0) return retryAfter;
+            return backoff(attempt);
+        }
+        if(error instanceof UnknownHostException) return NO_RETRY;
+        return backoff(attempt);
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half is random
+     * @param attempt Number of attempts made so far, starting at 1
+     * @return Delay in milliseconds
+     */
+    long backoff(int attempt) {
+        long delay = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @param status HTTP status code
+     * @return {@code true} for client errors that will not change when retried, like 404 and 410
+     */
+    public static boolean isPermanent(int status) {
+        return status >= 400 && status < 500 && status != 408 && status != 425 && status != 429;
+    }
+
+    /**
+     * @param status HTTP status code
+     * @return {@code true} for server errors, timeouts and throttling, which may succeed on a later attempt
+     */
+    public static boolean isRetryable(int status) {
+        return status >= 500 || status == 408 || status == 425 || status == 429;
+    }
+
+    /**
+     * @param status HTTP status code
+     * @return {@code true} if the host explicitly asked the crawler to slow down
+     */
+    public static boolean isPushBack(int status) {
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * @param result Response carrying an optional {@code Retry-After} header
+     * @return Delay asked for by the server in milliseconds, or {@code -1} if absent or unreadable
+     */
+    public static long getRetryAfter(FetchResult result) {
+        String value = result.getHeader("Retry-After");
+        if(value == null || value.trim().isEmpty()) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            } catch (Exception ignored) {
+                return -1;
+            }
+        }
+    }
+}
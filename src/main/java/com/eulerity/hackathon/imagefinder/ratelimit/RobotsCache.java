@@ -0,0 +1,157 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.service.AsyncFetcher;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the robots.txt rules of every origin being crawled.<br>
+ * Each robots.txt is fetched once per {@code crawler.robots.ttl.minutes}, and every fetch of that origin waits
+ * on the same pending lookup. A missing or unreachable robots.txt allows everything. A server error disallows
+ * everything, as RFC 9309 asks, until it is looked up again after {@code crawler.robots.unavailable.retry.minutes}.<br>
+ * At most {@code crawler.robots.maxOrigins} origins are kept, the least recently used ones being dropped first,
+ * along with the expired ones ahead of them, so that a long running server does not keep every host it crawled.
+ */
+@Slf4j
+public class RobotsCache {
+
+    private final AsyncFetcher fetcher;
+    private final String userAgent;
+    private final long ttlMillis;
+    private final long unavailableRetryMillis;
+    private final int maxOrigins;
+
+    // Access ordered, guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    public RobotsCache(AsyncFetcher fetcher) {
+        this(fetcher, TimeUnit.MINUTES.toMillis(ConfigLoader.get("crawler.robots.ttl.minutes", 60)),
+                TimeUnit.MINUTES.toMillis(ConfigLoader.get("crawler.robots.unavailable.retry.minutes", 5)),
+                ConfigLoader.get("crawler.robots.maxOrigins", 10000));
+    }
+
+    public RobotsCache(AsyncFetcher fetcher, long ttlMillis, long unavailableRetryMillis, int maxOrigins) {
+        this.fetcher = fetcher;
+        // The group of the agent every request is sent as
+        this.userAgent = fetcher.getUserAgent();
+        this.ttlMillis = ttlMillis;
+        this.unavailableRetryMillis = unavailableRetryMillis;
+        this.maxOrigins = Math.max(1, maxOrigins);
+    }
+
+    /**
+     * @param url Any URL of the origin
+     * @return {@code CompletableFuture} completed with the robots.txt rules of the URL's origin, allowing
+     * everything if the URL can not be parsed
+     */
+    public CompletableFuture<RobotsRules> rulesFor(String url) {
+        ParsedUrl parsed = ParsedUrl.parse(url);
+        return (parsed == null) ? CompletableFuture.completedFuture(RobotsRules.ALLOW_ALL) : rulesFor(parsed);
+    }
+
+    /**
+     * @param url Any URL of the origin
+     * @return {@code CompletableFuture} completed with the robots.txt rules of the URL's origin
+     */
+    public CompletableFuture<RobotsRules> rulesFor(ParsedUrl url) {
+        String origin = url.getOrigin();
+        long now = PolitenessScheduler.now();
+        Entry entry;
+        boolean loading = false;
+        synchronized (this) {
+            entry = entries.get(origin);
+            if(entry == null || entry.expiresAt <= now) {
+                loading = true;
+                entry = new Entry(new CompletableFuture<>(), now + ttlMillis);
+                entries.put(origin, entry);
+                evict(now);
+            }
+        }
+        // Sent outside of the lock, the lookup may complete on this thread
+        if(loading) load(origin, entry);
+        return entry.rules;
+    }
+
+    /**
+     * @return Number of origins whose rules are kept
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops the least recently used origins while over the limit, and expired ones until a live one is reached.
+     * Must be called holding the lock.
+     */
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while(eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            if(entries.size() <= maxOrigins && entry.expiresAt > now) return;
+            eldest.remove();
+        }
+    }
+
+    private void load(String origin, Entry entry) {
+        fetchFollowingRedirects(origin + "/robots.txt", 0).handle((result, error) -> {
+            if(error == null && result.getStatus() >= 500) {
+                log.info("robots.txt unavailable for: {} | {} | disallowing the origin until retried", origin, result.getStatus());
+                synchronized (this) {
+                    entry.expiresAt = Math.min(entry.expiresAt, PolitenessScheduler.now() + unavailableRetryMillis);
+                }
+                return RobotsRules.DISALLOW_ALL;
+            }
+            if(error != null || !result.isSuccessful()) {
+                log.info("No robots.txt for: {} | {}", origin, (error != null) ? error.getMessage() : result.getStatus());
+                return RobotsRules.ALLOW_ALL;
+            }
+            Charset charset = StandardCharsets.UTF_8;
+            try {
+                if(result.getCharset() != null) charset = Charset.forName(result.getCharset());
+            } catch (Exception ignored) {
+                // Fall back to UTF-8 for unknown charsets
+            }
+            RobotsRules rules = RobotsRules.parse(new String(result.getBody(), charset), userAgent);
+            log.info("Loaded robots.txt for: {} | crawl delay: {}ms", origin, rules.getCrawlDelay());
+            return rules;
+        }).whenComplete((rules, error) -> {
+            if(error != null) entry.rules.complete(RobotsRules.ALLOW_ALL);
+            else entry.rules.complete(rules);
+        });
+    }
+
+    /**
+     * Fetches robots.txt, following up to {@value PolitenessScheduler#MAX_REDIRECTS} redirects as RFC 9309 asks.
+     * A redirect left after them is not a robots.txt, which then allows everything.
+     */
+    private CompletableFuture<FetchResult> fetchFollowingRedirects(String url, int redirects) {
+        return fetcher.fetch(url, 0).thenCompose(result -> {
+            String location = (result.getStatus() / 100 == 3) ? result.getHeader("Location") : null;
+            ParsedUrl parsed = (location == null || redirects >= PolitenessScheduler.MAX_REDIRECTS) ? null : ParsedUrl.parse(url);
+            String target = (parsed == null) ? null : parsed.resolve(location);
+            if(target == null) return CompletableFuture.completedFuture(result);
+            return fetchFollowingRedirects(target, redirects + 1);
+        });
+    }
+
+    private static class Entry {
+        private final CompletableFuture<RobotsRules> rules;
+        // Guarded by the cache
+        private long expiresAt;
+
+        private Entry(CompletableFuture<RobotsRules> rules, long expiresAt) {
+            this.rules = rules;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
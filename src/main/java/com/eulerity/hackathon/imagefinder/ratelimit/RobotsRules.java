@@ -0,0 +1,195 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rules of a robots.txt that apply to this crawler: allowed and disallowed path patterns, the crawl delay,
+ * and the sitemaps listed in the file
+ */
+public class RobotsRules {
+
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.emptyList(), -1, Collections.emptyList());
+    public static final RobotsRules DISALLOW_ALL = new RobotsRules(Collections.singletonList(new Rule("*", false)), -1,
+            Collections.emptyList());
+
+    private final List<Rule> rules;
+    // Crawl delay in milliseconds, -1 if none was given
+    @Getter
+    private final long crawlDelay;
+    @Getter
+    private final List<String> sitemaps;
+
+    private RobotsRules(List<Rule> rules, long crawlDelay, List<String> sitemaps) {
+        this.rules = rules;
+        this.crawlDelay = crawlDelay;
+        this.sitemaps = sitemaps;
+    }
+
+    /**
+     * Parses a robots.txt, keeping the group of the most specific user agent matching {@code userAgent},
+     * or the {@code *} group if none does
+     * @param content Body of the robots.txt
+     * @param userAgent Product token of this crawler
+     * @return {@code RobotsRules} applying to the crawler
+     */
+    public static RobotsRules parse(String content, String userAgent) {
+        String agent = userAgent.toLowerCase();
+        List<String> sitemaps = new ArrayList<>();
+        List<Group> groups = new ArrayList<>();
+        Group group = null;
+
+        for(String rawLine : content.split("\r\n|\r|\n")) {
+            int comment = rawLine.indexOf('#');
+            String line = ((comment >= 0) ? rawLine.substring(0, comment) : rawLine).trim();
+            int colon = line.indexOf(':');
+            if(colon <= 0) continue;
+            String field = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            switch (field) {
+                case "user-agent":
+                    // A user-agent line after the rules of a group starts a new group
+                    if(group == null || group.hasDirectives) {
+                        group = new Group();
+                        groups.add(group);
+                    }
+                    group.agents.add(value.toLowerCase());
+                    break;
+                case "allow":
+                case "disallow":
+                    if(group == null) break;
+                    group.hasDirectives = true;
+                    if(!value.isEmpty()) group.rules.add(new Rule(value, field.equals("allow")));
+                    break;
+                case "crawl-delay":
+                    if(group == null) break;
+                    group.hasDirectives = true;
+                    try {
+                        group.crawlDelay = (long) (Double.parseDouble(value) * 1000);
+                    } catch (NumberFormatException ignored) {
+                        // Malformed crawl delays are ignored
+                    }
+                    break;
+                case "sitemap":
+                    if(!value.isEmpty()) sitemaps.add(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Groups of the same specificity are merged
+        int bestMatch = -1;
+        List<Rule> rules = new ArrayList<>();
+        long crawlDelay = -1;
+        for(Group candidate : groups) {
+            int match = matchGroup(candidate.agents, agent);
+            if(match > bestMatch) {
+                bestMatch = match;
+                rules = new ArrayList<>(candidate.rules);
+                crawlDelay = candidate.crawlDelay;
+            }
+            else if(match == bestMatch && match >= 0) {
+                rules.addAll(candidate.rules);
+                if(crawlDelay < 0) crawlDelay = candidate.crawlDelay;
+            }
+        }
+        return new RobotsRules(rules, crawlDelay, sitemaps);
+    }
+
+    /**
+     * @return Length of the longest user agent of the group contained in the crawler's token, 0 if the group only
+     * matches through {@code *}, or -1 if it does not apply to the crawler at all
+     */
+    private static int matchGroup(List<String> groupAgents, String agent) {
+        int best = -1;
+        for(String groupAgent : groupAgents) {
+            if(groupAgent.equals("*")) best = Math.max(best, 0);
+            else if(!groupAgent.isEmpty() && agent.contains(groupAgent)) best = Math.max(best, groupAgent.length());
+        }
+        return best;
+    }
+
+    /**
+     * Checks the path against the rules. The longest matching pattern decides, and allow wins a tie.
+     * @param pathAndQuery Path of the URL including its query string
+     * @return {@code true} if the crawler may fetch the path
+     */
+    public boolean isAllowed(String pathAndQuery) {
+        String path = (pathAndQuery == null || pathAndQuery.isEmpty()) ? "/" : pathAndQuery;
+        Rule decidingRule = null;
+        for(Rule rule : rules) {
+            if(!rule.matches(path)) continue;
+            if(decidingRule == null || rule.pattern.length() > decidingRule.pattern.length()
+                    || (rule.pattern.length() == decidingRule.pattern.length() && rule.allow)) {
+                decidingRule = rule;
+            }
+        }
+        return decidingRule == null || decidingRule.allow;
+    }
+
+    /**
+     * User agents sharing a block of rules
+     */
+    private static class Group {
+        private final List<String> agents = new ArrayList<>();
+        private final List<Rule> rules = new ArrayList<>();
+        private long crawlDelay = -1;
+        private boolean hasDirectives = false;
+    }
+
+    /**
+     * Allow or disallow pattern, supporting the {@code *} wildcard and the {@code $} end anchor
+     */
+    private static class Rule {
+        private final String pattern;
+        private final boolean allow;
+
+        private Rule(String pattern, boolean allow) {
+            this.pattern = pattern;
+            this.allow = allow;
+        }
+
+        /**
+         * Matches in O(path x pattern) by only ever backtracking to the last {@code *} seen: whatever an earlier
+         * {@code *} could take instead, the last one can take as well. Without the end anchor, the pattern only
+         * has to match a prefix of the path.
+         */
+        private boolean matches(String path) {
+            boolean anchored = pattern.endsWith("$");
+            int patternEnd = anchored ? pattern.length() - 1 : pattern.length();
+            int pathIndex = 0;
+            int patternIndex = 0;
+            // Pattern index after the last *, and the path index it was last tried at
+            int starIndex = -1;
+            int starPathIndex = 0;
+            while(pathIndex < path.length()) {
+                if(patternIndex < patternEnd && pattern.charAt(patternIndex) == '*') {
+                    starIndex = ++patternIndex;
+                    starPathIndex = pathIndex;
+                }
+                else if(patternIndex < patternEnd && pattern.charAt(patternIndex) == path.charAt(pathIndex)) {
+                    patternIndex++;
+                    pathIndex++;
+                }
+                else if(patternIndex == patternEnd && !anchored) {
+                    return true;
+                }
+                else if(starIndex >= 0) {
+                    // Let the last * take one more character
+                    patternIndex = starIndex;
+                    pathIndex = ++starPathIndex;
+                }
+                else {
+                    return false;
+                }
+            }
+            while(patternIndex < patternEnd && pattern.charAt(patternIndex) == '*') patternIndex++;
+            return patternIndex == patternEnd;
+        }
+    }
+}
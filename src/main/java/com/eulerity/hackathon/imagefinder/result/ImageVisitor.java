@@ -0,0 +1,21 @@
+package com.eulerity.hackathon.imagefinder.result;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+
+/**
+ * Reader of the images of a {@link ResultStore}, given the columns of one image at a time
+ */
+@FunctionalInterface
+public interface ImageVisitor {
+
+    /**
+     * @param imageUrl URL of the image
+     * @param type Type of the image
+     * @param mimeType Real MIME type, {@code null} unless probed
+     * @param width Width in pixels, {@link ResultStore#UNKNOWN} unless probed
+     * @param height Height in pixels, {@link ResultStore#UNKNOWN} unless probed
+     * @param bytes Size of the file, {@link ResultStore#UNKNOWN} unless probed
+     * @param clusterId ID of the cluster of near-duplicates, {@code null} unless deduplicated
+     */
+    void visit(String imageUrl, Image.Type type, String mimeType, int width, int height, long bytes, String clusterId);
+}
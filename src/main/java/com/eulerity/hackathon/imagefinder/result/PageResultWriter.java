@@ -0,0 +1,129 @@
+package com.eulerity.hackathon.imagefinder.result;
+
+/**
+ * Serializes the result of a page as streamed to the client, {@code {"url":{"level":1,"images":[...]}}}, straight
+ * from the columns of the {@link ResultStore}.<br>
+ * The JSON is written by hand into a buffer each thread reuses, the String returned being its only copy. It is the
+ * one Gson writes for an object per image: fields in the same order, unknown ones left out, and HTML characters
+ * escaped.
+ */
+public class PageResultWriter {
+
+    // Buffer of each platform thread, dropped rather than kept once grown past this by a huge page
+    private static final ThreadLocal<StringBuilder> BUFFERS = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+    private static final int MAX_KEPT_CAPACITY = 256 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private PageResultWriter() {
+    }
+
+    /**
+     * @param results Results of the crawl
+     * @param url Canonical URL of the page
+     * @param page Page to be serialized, {@code null} for a page with no result
+     * @return JSON of the page's result
+     */
+    public static String toJson(ResultStore results, String url, ResultStore.Page page) {
+        // Gson leaves out a field with no value, and so the page's own
+        if(page == null) return "{}";
+        StringBuilder out = buffer();
+        out.append('{');
+        appendString(out, url);
+        out.append(":{\"level\":").append(page.getLevel()).append(",\"images\":");
+        appendImages(out, results, page.getImages(), 0);
+        out.append("}}");
+        return release(out);
+    }
+
+    /**
+     * Serializes images found on a page so far, {@code {"url":"...","images":[...]}}
+     * @param results Results of the crawl
+     * @param url Canonical URL of the page
+     * @param page Page the images are found on
+     * @param from Index of the first image of the page to be serialized
+     * @return JSON of the images
+     */
+    public static String imagesToJson(ResultStore results, String url, ResultStore.Page page, int from) {
+        StringBuilder out = buffer();
+        out.append("{\"url\":");
+        appendString(out, url);
+        out.append(",\"images\":");
+        appendImages(out, results, page.getImages(), from);
+        out.append('}');
+        return release(out);
+    }
+
+    /**
+     * Appends the images as a JSON array of objects, their unknown fields left out
+     */
+    private static void appendImages(StringBuilder out, ResultStore results, int[] images, int from) {
+        out.append('[');
+        ImageVisitor writer = (imageUrl, type, mimeType, width, height, bytes, clusterId) -> {
+            out.append("{\"imageUrl\":");
+            appendString(out, imageUrl);
+            out.append(",\"type\":\"").append(type.name()).append('"');
+            if(mimeType != null) {
+                out.append(",\"mimeType\":");
+                appendString(out, mimeType);
+            }
+            if(width != ResultStore.UNKNOWN) out.append(",\"width\":").append(width);
+            if(height != ResultStore.UNKNOWN) out.append(",\"height\":").append(height);
+            if(bytes != ResultStore.UNKNOWN) out.append(",\"bytes\":").append(bytes);
+            if(clusterId != null) {
+                out.append(",\"clusterId\":");
+                appendString(out, clusterId);
+            }
+            out.append("},");
+        };
+        for(int i = from; i < images.length; i++) results.visit(images[i], writer);
+        // Drops the comma after the last image
+        if(out.charAt(out.length() - 1) == ',') out.setLength(out.length() - 1);
+        out.append(']');
+    }
+
+    /**
+     * Appends a JSON string, escaped as Gson's HTML safe writer does
+     */
+    static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        int start = 0;
+        int length = value.length();
+        for(int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if(c >= 0x80 ? c != '\u2028' && c != '\u2029' : c >= 0x20 && !isEscapedAscii(c)) continue;
+            out.append(value, start, i);
+            switch(c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\f': out.append("\\f"); break;
+                default:
+                    out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xf])
+                            .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, length).append('"');
+    }
+
+    private static boolean isEscapedAscii(char c) {
+        return c == '"' || c == '\\' || c == '<' || c == '>' || c == '&' || c == '=' || c == '\'';
+    }
+
+    private static StringBuilder buffer() {
+        // A virtual thread runs a single task, nothing to reuse its buffer for
+        if(Thread.currentThread().isVirtual()) return new StringBuilder(4096);
+        StringBuilder buffer = BUFFERS.get();
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private static String release(StringBuilder buffer) {
+        String json = buffer.toString();
+        if(buffer.capacity() > MAX_KEPT_CAPACITY) BUFFERS.remove();
+        return json;
+    }
+}
@@ -0,0 +1,332 @@
+package com.eulerity.hackathon.imagefinder.result;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+import com.eulerity.hackathon.imagefinder.probe.ImageHeader;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Results of a crawl job, stored by column rather than as an object per image.<br>
+ * Every image URL of the crawl is interned once in a dictionary giving it an int ID, however many pages it appears
+ * on, and what is known of the image is kept in primitive columns: its type as a byte, its dimensions and size once
+ * probed, its cluster once deduplicated. A page is its level and an int array of the IDs of its images, kept until
+ * the page is streamed. Images are read through an {@link ImageVisitor}, without an object per image.<br>
+ * Interning holds the dictionary's lock for a hash probe. Columns are written and read under the lock of their
+ * chunk, so that an image probed on one thread is never seen half updated by a page serialized on another.
+ */
+public class ResultStore {
+
+    // Value of the dimensions and size of an image not probed
+    public static final int UNKNOWN = -1;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // Heap bytes of the columns of an image: type, MIME type, width, height, size and cluster
+    private static final int IMAGE_BYTES = 1 + 4 + 4 + 4 + 8 + 4 + 4;
+
+    // Dictionary of the image URLs, open addressing table of the IDs plus one, 0 marking an empty slot
+    private int[] table = new int[64];
+    private int imageCount;
+    // Chunks of the columns, never moved once allocated, so that an image's chunk is found without the lock
+    private volatile Chunk[] chunks = new Chunk[4];
+    // Pages of the crawl not streamed yet
+    private final ConcurrentMap<String, Page> pages = new ConcurrentHashMap<>();
+
+    /**
+     * Interns an image found on a page, categorized by its URL
+     * @param imageUrl Resolved URL of the image
+     * @param type Type of the image
+     * @return ID of the image, the same for every page it appears on
+     */
+    public int intern(String imageUrl, Image.Type type) {
+        int id = add(imageUrl, type);
+        return (id < 0) ? -1 - id : id;
+    }
+
+    /**
+     * Interns an image of a cached page, along with what an earlier crawl found out about it, unless the crawl
+     * already knows the image
+     * @param image Image kept by the page cache
+     * @param withCluster {@code false} to leave out the cluster found by the earlier crawl
+     * @return ID of the image
+     */
+    public int intern(Image image, boolean withCluster) {
+        int id = add(image.getImageUrl(), image.getType());
+        if(id >= 0) return id;
+        id = -1 - id;
+        Chunk chunk = chunkOf(id);
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (chunk) {
+            chunk.mimeTypes[i] = image.getMimeType();
+            chunk.widths[i] = (image.getWidth() == null) ? UNKNOWN : image.getWidth();
+            chunk.heights[i] = (image.getHeight() == null) ? UNKNOWN : image.getHeight();
+            chunk.bytes[i] = (image.getBytes() == null) ? UNKNOWN : image.getBytes();
+            if(withCluster) chunk.clusterIds[i] = image.getClusterId();
+        }
+        return id;
+    }
+
+    public String getImageUrl(int image) {
+        return chunkOf(image).urls[image & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Records what probing an image found out, and categorizes it again on that real data
+     * @param image ID of the image
+     * @param header Header of the image file
+     */
+    public void applyHeader(int image, ImageHeader header) {
+        Chunk chunk = chunkOf(image);
+        int i = image & (CHUNK_SIZE - 1);
+        synchronized (chunk) {
+            chunk.types[i] = Image.classify(chunk.urls[i], Image.Type.of(chunk.types[i]), header).code();
+            chunk.mimeTypes[i] = header.getMimeType();
+            chunk.widths[i] = (header.getWidth() == null) ? UNKNOWN : header.getWidth();
+            chunk.heights[i] = (header.getHeight() == null) ? UNKNOWN : header.getHeight();
+            chunk.bytes[i] = (header.getBytes() == null) ? UNKNOWN : header.getBytes();
+        }
+    }
+
+    /**
+     * @param image ID of the image
+     * @param clusterId ID of the image's cluster of near-duplicates, {@code null} if it has none
+     */
+    public void setClusterId(int image, String clusterId) {
+        Chunk chunk = chunkOf(image);
+        synchronized (chunk) {
+            chunk.clusterIds[image & (CHUNK_SIZE - 1)] = clusterId;
+        }
+    }
+
+    /**
+     * Reads an image, the visitor is called once its columns are read, outside of any lock
+     * @param image ID of the image
+     * @param visitor Visitor of the image
+     */
+    public void visit(int image, ImageVisitor visitor) {
+        Chunk chunk = chunkOf(image);
+        int i = image & (CHUNK_SIZE - 1);
+        Image.Type type;
+        String mimeType;
+        int width;
+        int height;
+        long bytes;
+        String clusterId;
+        synchronized (chunk) {
+            type = Image.Type.of(chunk.types[i]);
+            mimeType = chunk.mimeTypes[i];
+            width = chunk.widths[i];
+            height = chunk.heights[i];
+            bytes = chunk.bytes[i];
+            clusterId = chunk.clusterIds[i];
+        }
+        visitor.visit(chunk.urls[i], type, mimeType, width, height, bytes, clusterId);
+    }
+
+    /**
+     * Reads the images of a page in the order they were found
+     * @param page Page of the crawl
+     * @param visitor Visitor of the images
+     */
+    public void visit(Page page, ImageVisitor visitor) {
+        for(int image : page.getImages()) visit(image, visitor);
+    }
+
+    /**
+     * Builds the {@link Image} object of an image, for a page kept in the page cache beyond the crawl
+     * @param image ID of the image
+     * @return Copy of the image
+     */
+    public Image toImage(int image) {
+        Image[] copy = new Image[1];
+        visit(image, (imageUrl, type, mimeType, width, height, bytes, clusterId) -> {
+            copy[0] = new Image(imageUrl, type);
+            copy[0].setMimeType(mimeType);
+            copy[0].setWidth((width == UNKNOWN) ? null : width);
+            copy[0].setHeight((height == UNKNOWN) ? null : height);
+            copy[0].setBytes((bytes == UNKNOWN) ? null : bytes);
+            copy[0].setClusterId(clusterId);
+        });
+        return copy[0];
+    }
+
+    /**
+     * Starts collecting the images of a page
+     * @param url Canonical URL of the page
+     * @param level Depth of the page in the crawl
+     * @return The page
+     */
+    public Page openPage(String url, int level) {
+        Page page = new Page(level);
+        pages.put(url, page);
+        return page;
+    }
+
+    /**
+     * @return Page not streamed yet, {@code null} if none
+     */
+    public Page getPage(String url) {
+        return pages.get(url);
+    }
+
+    /**
+     * Drops a page once streamed, its images stay interned for the rest of the crawl
+     * @return The page, {@code null} if none
+     */
+    public Page removePage(String url) {
+        return pages.remove(url);
+    }
+
+    /**
+     * @return Number of distinct images interned
+     */
+    public synchronized int getImageCount() {
+        return imageCount;
+    }
+
+    /**
+     * @return Heap bytes taken by the dictionary and the columns, the URLs themselves aside
+     */
+    public synchronized long getMemoryBytes() {
+        long allocatedChunks = (imageCount + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+        return 4L * table.length + 4L * chunks.length + allocatedChunks * CHUNK_SIZE * IMAGE_BYTES;
+    }
+
+    /**
+     * Finds an image in the dictionary, adding it if absent
+     * @return ID of the image, or {@code -1 - ID} if it was just added
+     */
+    private synchronized int add(String imageUrl, Image.Type type) {
+        int mask = table.length - 1;
+        int slot = spread(imageUrl.hashCode()) & mask;
+        for(int entry; (entry = table[slot]) != 0; slot = (slot + 1) & mask) {
+            if(getImageUrl(entry - 1).equals(imageUrl)) return entry - 1;
+        }
+
+        int id = imageCount++;
+        int chunkIndex = id >>> CHUNK_BITS;
+        Chunk[] current = chunks;
+        if(chunkIndex == current.length) current = Arrays.copyOf(current, current.length * 2);
+        if(current[chunkIndex] == null) current[chunkIndex] = new Chunk();
+        Chunk chunk = current[chunkIndex];
+        int i = id & (CHUNK_SIZE - 1);
+        synchronized (chunk) {
+            chunk.urls[i] = imageUrl;
+            chunk.types[i] = type.code();
+            chunk.widths[i] = UNKNOWN;
+            chunk.heights[i] = UNKNOWN;
+            chunk.bytes[i] = UNKNOWN;
+        }
+        chunks = current;
+
+        table[slot] = id + 1;
+        if(imageCount * 2 > table.length) rehash();
+        return -1 - id;
+    }
+
+    private void rehash() {
+        int[] rehashed = new int[table.length * 2];
+        int mask = rehashed.length - 1;
+        for(int entry : table) {
+            if(entry == 0) continue;
+            int slot = spread(getImageUrl(entry - 1).hashCode()) & mask;
+            while(rehashed[slot] != 0) slot = (slot + 1) & mask;
+            rehashed[slot] = entry;
+        }
+        table = rehashed;
+    }
+
+    private Chunk chunkOf(int image) {
+        return chunks[image >>> CHUNK_BITS];
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9e3779b9;
+    }
+
+    /**
+     * Columns of {@value #CHUNK_SIZE} consecutive images
+     */
+    private static class Chunk {
+        private final String[] urls = new String[CHUNK_SIZE];
+        private final byte[] types = new byte[CHUNK_SIZE];
+        private final String[] mimeTypes = new String[CHUNK_SIZE];
+        private final int[] widths = new int[CHUNK_SIZE];
+        private final int[] heights = new int[CHUNK_SIZE];
+        private final long[] bytes = new long[CHUNK_SIZE];
+        private final String[] clusterIds = new String[CHUNK_SIZE];
+    }
+
+    /**
+     * Images of a page, each one listed once in the order it was first found
+     */
+    public static class Page {
+
+        private static final int[] NONE = new int[0];
+        // Pages with more images than this find duplicates through an index rather than a scan
+        private static final int SCAN_LIMIT = 16;
+
+        @Getter
+        private final int level;
+        private int[] images = NONE;
+        private int size;
+        // Open addressing set of the IDs plus one, built once the page outgrows a scan
+        private int[] index;
+
+        public Page(int level) {
+            this.level = level;
+        }
+
+        /**
+         * @param image ID of an image found on the page
+         * @return {@code false} if the page already lists it
+         */
+        public synchronized boolean add(int image) {
+            if(index == null) {
+                for(int i = 0; i < size; i++) {
+                    if(images[i] == image) return false;
+                }
+            }
+            else if(!indexAdd(index, image)) {
+                return false;
+            }
+
+            if(size == images.length) images = Arrays.copyOf(images, Math.max(8, size * 2));
+            images[size++] = image;
+            if(index != null && size * 2 > index.length) index = buildIndex(index.length * 2);
+            else if(index == null && size > SCAN_LIMIT) index = buildIndex(64);
+            return true;
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        /**
+         * @return IDs of the images of the page
+         */
+        public synchronized int[] getImages() {
+            return Arrays.copyOf(images, size);
+        }
+
+        private int[] buildIndex(int capacity) {
+            int[] built = new int[capacity];
+            for(int i = 0; i < size; i++) indexAdd(built, images[i]);
+            return built;
+        }
+
+        private static boolean indexAdd(int[] index, int image) {
+            int mask = index.length - 1;
+            for(int slot = spread(image) & mask; ; slot = (slot + 1) & mask) {
+                if(index[slot] == 0) {
+                    index[slot] = image + 1;
+                    return true;
+                }
+                if(index[slot] == image + 1) return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.eulerity.hackathon.imagefinder.service;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP fetcher shared by all crawl jobs.<br>
+ * Requests go through one NIO based {@link HttpClient} which keeps a pool of keep-alive connections per host,
+ * so a handful of selector and callback threads can keep thousands of fetches in flight. Delays before a fetch
+ * are scheduled on a timer instead of putting a thread to sleep.<br>
+ * Every request, robots.txt included, is sent with {@code crawler.fetch.userAgent} as its {@code User-Agent}, the
+ * product token robots.txt groups are matched against.<br>
+ * Redirects are not followed here: a redirect is returned like any other response, for the caller to fetch its
+ * {@code Location} as a request of its own, through robots.txt and the politeness delay of the target's host.
+ */
+@Slf4j
+public class AsyncFetcher {
+
+    private final HttpClient httpClient;
+    @Getter
+    private final String userAgent;
+    private final ScheduledExecutorService timer;
+    private final int maxBodyBytes;
+    private final long requestTimeoutMillis;
+
+    public AsyncFetcher() {
+        this.maxBodyBytes = ConfigLoader.get("crawler.fetch.maxBodyBytes", 4 * 1024 * 1024);
+        this.requestTimeoutMillis = ConfigLoader.get("crawler.fetch.timeout.millis", 30000);
+        this.userAgent = ConfigLoader.get("crawler.fetch.userAgent", "ImageFinder");
+
+        QueuedThreadPool callbackThreads = new QueuedThreadPool(ConfigLoader.get("crawler.fetch.ioThreads", 8),
+                ConfigLoader.get("crawler.fetch.ioThreads", 8));
+        callbackThreads.setName("fetch-io");
+        callbackThreads.setDaemon(true);
+
+        httpClient = new HttpClient(new SslContextFactory.Client());
+        httpClient.setExecutor(callbackThreads);
+        httpClient.setMaxConnectionsPerDestination(ConfigLoader.get("crawler.fetch.maxConnectionsPerHost", 16));
+        httpClient.setMaxRequestsQueuedPerDestination(ConfigLoader.get("crawler.fetch.maxQueuedPerHost", 4096));
+        httpClient.setIdleTimeout(ConfigLoader.get("crawler.fetch.keepAlive.millis", 30000));
+        httpClient.setConnectTimeout(ConfigLoader.get("crawler.fetch.connectTimeout.millis", 10000));
+        httpClient.setFollowRedirects(false);
+        httpClient.setUserAgentField(new HttpField(HttpHeader.USER_AGENT, userAgent));
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to start the HTTP client", e);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fetch-timer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fetches the URL once the delay has elapsed, without blocking the calling thread
+     * @param url URL to be fetched
+     * @param delayMillis Delay before the request is sent
+     * @return {@code CompletableFuture} completed with the buffered response, or exceptionally on I/O failure
+     */
+    public CompletableFuture<FetchResult> fetch(String url, long delayMillis) {
+        return fetch(url, delayMillis, Collections.emptyMap());
+    }
+
+    /**
+     * Fetches the URL with extra request headers once the delay has elapsed, without blocking the calling thread
+     * @param url URL to be fetched
+     * @param delayMillis Delay before the request is sent
+     * @param requestHeaders Headers added to the request, like the validators of a conditional request
+     * @return {@code CompletableFuture} completed with the buffered response, its body cut at
+     * {@code crawler.fetch.maxBodyBytes}, or exceptionally on I/O failure
+     */
+    public CompletableFuture<FetchResult> fetch(String url, long delayMillis, Map<String, String> requestHeaders) {
+        CompletableFuture<FetchResult> future = new CompletableFuture<>();
+        if(delayMillis <= 0) {
+            send(url, requestHeaders, future);
+        }
+        else {
+            try {
+                timer.schedule(() -> send(url, requestHeaders, future), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Fetches only the first bytes of the URL, without blocking the calling thread: a {@code GET} asking for a
+     * {@code Range}, read no further than {@code maxBytes} even if the server sends the whole file, or a
+     * {@code HEAD}
+     * @param url URL to be probed
+     * @param head {@code true} to send a {@code HEAD} request, {@code false} for a ranged {@code GET}
+     * @param maxBytes Number of bytes of the body to read
+     * @return {@code CompletableFuture} completed with the response and the bytes read, or exceptionally on I/O
+     * failure
+     */
+    public CompletableFuture<FetchResult> probe(String url, boolean head, int maxBytes) {
+        CompletableFuture<FetchResult> future = new CompletableFuture<>();
+        long startTime = System.currentTimeMillis();
+        Request request;
+        try {
+            request = httpClient.newRequest(url).timeout(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            if(head) request.method(HttpMethod.HEAD);
+            else request.header(HttpHeader.RANGE, "bytes=0-" + (maxBytes - 1));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        request.send(new BodyListener(url, head ? 0 : maxBytes, startTime, future));
+        return future;
+    }
+
+    /**
+     * Runs the task on the fetcher's timer once the delay has elapsed
+     * @param task Task to be run
+     * @param delayMillis Delay in milliseconds
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(String url, Map<String, String> requestHeaders, CompletableFuture<FetchResult> future) {
+        long startTime = System.currentTimeMillis();
+        Request request;
+        try {
+            request = httpClient.newRequest(url).timeout(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            for(Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                request.header(header.getKey(), header.getValue());
+            }
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        request.send(new BodyListener(url, maxBodyBytes, startTime, future));
+    }
+
+    /**
+     * Buffers the body of a response up to a number of bytes. Once they are read the rest of the body is not
+     * needed, the response is aborted and completes with what was received.
+     */
+    private static class BodyListener extends Response.Listener.Adapter {
+        private final String url;
+        private final int maxBytes;
+        private final long startTime;
+        private final CompletableFuture<FetchResult> future;
+        private byte[] buffer = new byte[0];
+        private int length = 0;
+        private boolean truncated = false;
+
+        private BodyListener(String url, int maxBytes, long startTime, CompletableFuture<FetchResult> future) {
+            this.url = url;
+            this.maxBytes = maxBytes;
+            this.startTime = startTime;
+            this.future = future;
+        }
+
+        @Override
+        public void onHeaders(Response response) {
+            long contentLength = response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString());
+            if(contentLength > 0) buffer = new byte[(int) Math.min(contentLength, maxBytes)];
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content) {
+            if(truncated) return;
+            int count = Math.min(content.remaining(), maxBytes - length);
+            if(length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(maxBytes, Math.max(length + count, 2L * buffer.length)));
+            }
+            content.get(buffer, length, count);
+            length += count;
+            // The body may be longer, its first bytes are all that is kept
+            if(length == maxBytes) {
+                truncated = true;
+                response.abort(new CancellationException("Body limit reached"));
+            }
+        }
+
+        @Override
+        public void onComplete(Result result) {
+            if(result.isFailed() && !truncated) {
+                future.completeExceptionally(result.getFailure());
+                return;
+            }
+            Response response = result.getResponse();
+            Map<String, String> headers = new HashMap<>();
+            for(HttpField field : response.getHeaders()) {
+                headers.put(field.getName().toLowerCase(), field.getValue());
+            }
+            String contentType = headers.get("content-type");
+            future.complete(new FetchResult(url, response.getStatus(), mediaTypeOf(contentType),
+                    charsetOf(contentType), Arrays.copyOf(buffer, length), System.currentTimeMillis() - startTime, headers));
+        }
+    }
+
+    /**
+     * @return Media type of a {@code Content-Type} header, without its parameters, or {@code null}
+     */
+    private static String mediaTypeOf(String contentType) {
+        return (contentType == null) ? null : contentType.split(";", 2)[0].trim();
+    }
+
+    /**
+     * @return {@code charset} parameter of a {@code Content-Type} header, or {@code null}
+     */
+    private static String charsetOf(String contentType) {
+        if(contentType == null) return null;
+        for(String parameter : contentType.split(";")) {
+            int equals = parameter.indexOf('=');
+            if(equals > 0 && parameter.substring(0, equals).trim().equalsIgnoreCase("charset")) {
+                return parameter.substring(equals + 1).trim().replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the HTTP client, closing all pooled connections
+     */
+    public void stop() {
+        timer.shutdownNow();
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            log.error("Failed to stop the HTTP client\nException: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.eulerity.hackathon.imagefinder.service;
+
+import com.eulerity.hackathon.imagefinder.batch.BatchRegistry;
+import com.eulerity.hackathon.imagefinder.cache.PageCache;
+import com.eulerity.hackathon.imagefinder.cluster.ClusterNode;
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.dedup.ImageHasher;
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import com.eulerity.hackathon.imagefinder.metrics.CrawlMetrics;
+import com.eulerity.hackathon.imagefinder.metrics.JobMetrics;
+import com.eulerity.hackathon.imagefinder.output.EventRegistry;
+import com.eulerity.hackathon.imagefinder.ratelimit.PolitenessScheduler;
+import com.eulerity.hackathon.imagefinder.store.CrawlStore;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Application scoped crawl engine shared by every crawl request.<br>
+ * All crawl jobs run their tasks on one bounded worker pool. Workers are handed out round-robin across the jobs
+ * having pending tasks, and every job is capped at {@code crawler.engine.jobConcurrency} tasks in flight, so one
+ * deep crawl can not starve the others. New jobs are only admitted while the engine has capacity for them.<br>
+ * With {@code crawler.executor=platform} the workers are a fixed pool of platform threads. With
+ * {@code crawler.executor=virtual} every task runs on a virtual thread of its own, and the worker count is only a
+ * limit on the tasks running at once, {@code crawler.executor.virtual.maxConcurrency}: a task blocking on the client
+ * or on the disk then parks its virtual thread rather than holding an OS thread.
+ */
+@Slf4j
+public class CrawlEngine {
+
+    private static volatile CrawlEngine instance;
+
+    @Getter
+    private final int workerCount;
+    private final int jobConcurrency;
+    private final int maxActiveJobs;
+    private final int maxJobsPerClient;
+    @Getter
+    private final int retryAfterSeconds;
+
+    private final ExecutorService workers;
+    @Getter
+    private final AsyncFetcher fetcher;
+    @Getter
+    private final PolitenessScheduler politenessScheduler;
+    @Getter
+    private final PageCache pageCache = new PageCache();
+    @Getter
+    private final CrawlStore crawlStore = new CrawlStore();
+    @Getter
+    private final BatchRegistry batchRegistry = new BatchRegistry();
+    @Getter
+    private final EventRegistry eventRegistry = new EventRegistry();
+    @Getter
+    private final ImageHasher imageHasher = new ImageHasher();
+    @Getter
+    private final CrawlMetrics metrics = new CrawlMetrics();
+    // Null unless the cluster mode is enabled
+    @Getter
+    private final ClusterNode clusterNode;
+
+    // Scheduling state, guarded by schedulingLock
+    private final ReentrantLock schedulingLock = new ReentrantLock();
+    private final Deque<Job> readyJobs = new ArrayDeque<>();
+    private final Set<Job> activeJobs = new HashSet<>();
+    private final Map<String, Integer> jobsPerClient = new HashMap<>();
+    private int busyWorkers = 0;
+    private boolean shutdown = false;
+
+    private final AtomicInteger jobSequence = new AtomicInteger(0);
+
+    public CrawlEngine() {
+        this(isVirtual() ? ConfigLoader.get("crawler.executor.virtual.maxConcurrency", 10000)
+                        : ConfigLoader.get("crawler.maxThreads", 8),
+                ConfigLoader.get("crawler.engine.jobConcurrency", 8),
+                ConfigLoader.get("crawler.engine.maxActiveJobs", 64),
+                ConfigLoader.get("crawler.engine.maxJobsPerClient", 4),
+                ConfigLoader.get("crawler.engine.retryAfter.seconds", 5));
+    }
+
+    public CrawlEngine(int workerCount, int jobConcurrency, int maxActiveJobs, int maxJobsPerClient, int retryAfterSeconds) {
+        this.workerCount = workerCount;
+        this.jobConcurrency = jobConcurrency;
+        this.maxActiveJobs = maxActiveJobs;
+        this.maxJobsPerClient = maxJobsPerClient;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        if(isVirtual()) {
+            // Bounded by the dispatcher, which starts no more than workerCount tasks at once
+            this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("crawl-worker-", 1).factory());
+        }
+        else {
+            AtomicInteger threadNumber = new AtomicInteger(0);
+            this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+                Thread thread = new Thread(runnable, "crawl-worker-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.fetcher = new AsyncFetcher();
+        this.politenessScheduler = new PolitenessScheduler(fetcher);
+        this.clusterNode = ClusterNode.create(this);
+        log.info("Crawl engine started with {} {} workers, {} tasks per job, {} active jobs", workerCount,
+                isVirtual() ? "virtual" : "platform", jobConcurrency, maxActiveJobs);
+    }
+
+    /**
+     * @return {@code true} if crawl tasks run on virtual threads
+     */
+    public static boolean isVirtual() {
+        return ConfigLoader.get("crawler.executor", "platform").equalsIgnoreCase("virtual");
+    }
+
+    /**
+     * The application wide engine, started on first use if the context listener has not started it yet
+     * @return {@code CrawlEngine} shared by all crawl requests
+     */
+    public static CrawlEngine getInstance() {
+        CrawlEngine engine = instance;
+        if(engine == null) {
+            synchronized (CrawlEngine.class) {
+                engine = instance;
+                if(engine == null) {
+                    engine = new CrawlEngine();
+                    instance = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Shuts down the application wide engine, if it was started
+     */
+    public static void shutdownInstance() {
+        CrawlEngine engine;
+        synchronized (CrawlEngine.class) {
+            engine = instance;
+            instance = null;
+        }
+        if(engine != null) engine.shutdown();
+    }
+
+    /**
+     * Admits a new crawl job if the engine has room for it
+     * @param clientId Identifier of the requesting client, used for the per-client job limit
+     * @return {@code Job} slot to submit the crawl's tasks against
+     * @throws CrawlRejectedException with status 429 when the client has too many running crawls,
+     * or 503 when the engine is saturated
+     */
+    public Job admit(String clientId) {
+        String client = (clientId == null) ? "unknown" : clientId;
+        schedulingLock.lock();
+        try {
+            if(shutdown) {
+                throw new CrawlRejectedException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Crawl engine is shutting down");
+            }
+            int clientJobs = jobsPerClient.getOrDefault(client, 0);
+            if(clientJobs >= maxJobsPerClient) {
+                throw new CrawlRejectedException(429, "Too many concurrent crawls for this client");
+            }
+            if(activeJobs.size() >= maxActiveJobs) {
+                throw new CrawlRejectedException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Crawl engine is saturated");
+            }
+            Job job = new Job(this, jobSequence.incrementAndGet(), client);
+            activeJobs.add(job);
+            jobsPerClient.put(client, clientJobs + 1);
+            log.info("Admitted crawl job {} for client {} | active jobs: {}", job.id, client, activeJobs.size());
+            return job;
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the slot of a finished job, dropping any task it still has queued
+     * @param job Job to be released
+     */
+    public void release(Job job) {
+        schedulingLock.lock();
+        try {
+            if(!activeJobs.remove(job)) return;
+            job.tasks.clear();
+            readyJobs.remove(job);
+            jobsPerClient.computeIfPresent(job.clientId, (client, count) -> (count <= 1) ? null : count - 1);
+            log.info("Released crawl job {} | active jobs: {}", job.id, activeJobs.size());
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a task of the job on the shared worker pool
+     * @param job Job the task belongs to
+     * @param task Task to be executed
+     */
+    public void submit(Job job, Runnable task) {
+        schedulingLock.lock();
+        try {
+            if(shutdown || !activeJobs.contains(job)) {
+                throw new RejectedExecutionException("Crawl job " + job.id + " is not active");
+            }
+            job.tasks.add(task);
+            if(!job.ready && job.inFlight < jobConcurrency) {
+                job.ready = true;
+                readyJobs.addLast(job);
+            }
+            dispatch();
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * Hands out idle workers to ready jobs in round-robin order. Must be called holding the scheduling lock.
+     */
+    private void dispatch() {
+        while(busyWorkers < workerCount && !readyJobs.isEmpty()) {
+            Job job = readyJobs.pollFirst();
+            Runnable task = job.tasks.poll();
+            if(task == null) {
+                job.ready = false;
+                continue;
+            }
+            job.inFlight++;
+            busyWorkers++;
+            if(!job.tasks.isEmpty() && job.inFlight < jobConcurrency) {
+                readyJobs.addLast(job);
+            }
+            else {
+                job.ready = false;
+            }
+            workers.execute(() -> runTask(job, task));
+        }
+    }
+
+    private void runTask(Job job, Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Crawl task of job {} failed\nException: {}", job.id, e.getMessage());
+        } finally {
+            schedulingLock.lock();
+            try {
+                job.inFlight--;
+                busyWorkers--;
+                if(!job.ready && !job.tasks.isEmpty() && activeJobs.contains(job)) {
+                    job.ready = true;
+                    readyJobs.addLast(job);
+                }
+                dispatch();
+            } finally {
+                schedulingLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting jobs and waits for the running tasks to complete
+     */
+    public void shutdown() {
+        schedulingLock.lock();
+        try {
+            shutdown = true;
+            for(Job job : activeJobs) job.tasks.clear();
+            readyJobs.clear();
+        } finally {
+            schedulingLock.unlock();
+        }
+
+        log.info("Crawl engine shut down initiated");
+        workers.shutdown();
+        try {
+            if(!workers.awaitTermination(ConfigLoader.get("crawler.timeOut.seconds", 60), TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if(clusterNode != null) clusterNode.stop();
+        politenessScheduler.stop();
+        fetcher.stop();
+        imageHasher.stop();
+        log.info("Crawl engine shut down complete");
+    }
+
+    /**
+     * @return Number of jobs currently admitted to the engine
+     */
+    public int getActiveJobCount() {
+        schedulingLock.lock();
+        try {
+            return activeJobs.size();
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * @return Snapshot of the jobs currently admitted to the engine
+     */
+    public List<Job> getActiveJobs() {
+        schedulingLock.lock();
+        try {
+            return new ArrayList<>(activeJobs);
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of workers running a task
+     */
+    public int getBusyWorkers() {
+        schedulingLock.lock();
+        try {
+            return busyWorkers;
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of tasks of all jobs waiting for a worker
+     */
+    public int getQueuedTaskCount() {
+        schedulingLock.lock();
+        try {
+            int queued = 0;
+            for(Job job : activeJobs) queued += job.tasks.size();
+            return queued;
+        } finally {
+            schedulingLock.unlock();
+        }
+    }
+
+    /**
+     * Scheduling slot of a single crawl job on the engine
+     */
+    public static final class Job {
+        private final CrawlEngine engine;
+        @Getter
+        private final int id;
+        @Getter
+        private final String clientId;
+        @Getter
+        private final JobMetrics metrics;
+
+        // Guarded by the engine's scheduling lock
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private int inFlight = 0;
+        private boolean ready = false;
+
+        private Job(CrawlEngine engine, int id, String clientId) {
+            this.engine = engine;
+            this.id = id;
+            this.clientId = clientId;
+            this.metrics = new JobMetrics(engine.metrics);
+        }
+
+        /**
+         * Queues a task of this job on the engine's worker pool
+         * @param task Task to be executed
+         */
+        public void submit(Runnable task) {
+            engine.submit(this, task);
+        }
+
+        /**
+         * @return Shared per-host politeness scheduler of the engine
+         */
+        public PolitenessScheduler getPolitenessScheduler() {
+            return engine.politenessScheduler;
+        }
+
+        /**
+         * @return Cache of extracted pages shared by all jobs
+         */
+        public PageCache getPageCache() {
+            return engine.pageCache;
+        }
+
+        /**
+         * @return Perceptual hashing pool and hash cache shared by all jobs
+         */
+        public ImageHasher getImageHasher() {
+            return engine.imageHasher;
+        }
+
+        /**
+         * Gives this job's slot back to the engine
+         */
+        public void release() {
+            engine.release(this);
+        }
+    }
+}
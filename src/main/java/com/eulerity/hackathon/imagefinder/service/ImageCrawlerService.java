@@ -1,22 +1,40 @@
 package com.eulerity.hackathon.imagefinder.service;
 
+import com.eulerity.hackathon.imagefinder.cache.PageCache;
+import com.eulerity.hackathon.imagefinder.cluster.ClusterCrawl;
+import com.eulerity.hackathon.imagefinder.cluster.ClusterMessage;
 import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.dedup.ImageDeduplicator;
+import com.eulerity.hackathon.imagefinder.exception.RobotsDisallowedException;
+import com.eulerity.hackathon.imagefinder.extract.PageExtractor;
+import com.eulerity.hackathon.imagefinder.extract.SitemapExtractor;
+import com.eulerity.hackathon.imagefinder.frontier.CrawlFrontier;
+import com.eulerity.hackathon.imagefinder.frontier.PagePriority;
+import com.eulerity.hackathon.imagefinder.frontier.VisitedSet;
+import com.eulerity.hackathon.imagefinder.metrics.JobMetrics;
+import com.eulerity.hackathon.imagefinder.object.CachedPage;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
 import com.eulerity.hackathon.imagefinder.object.Image;
-import com.eulerity.hackathon.imagefinder.object.LevelImagePair;
+import com.eulerity.hackathon.imagefinder.output.CrawlEvent;
+import com.eulerity.hackathon.imagefinder.output.ResultSink;
+import com.eulerity.hackathon.imagefinder.probe.ImageProber;
+import com.eulerity.hackathon.imagefinder.ratelimit.PolitenessScheduler;
+import com.eulerity.hackathon.imagefinder.result.PageResultWriter;
+import com.eulerity.hackathon.imagefinder.result.ResultStore;
+import com.eulerity.hackathon.imagefinder.store.CrawlLog;
+import com.eulerity.hackathon.imagefinder.util.ParsedUrl;
 import com.eulerity.hackathon.imagefinder.util.UrlUtilities;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.HttpStatusException;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
-import java.io.PrintWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class defines methods to recursively traverse pages, and subpages within
@@ -25,59 +43,180 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public class ImageCrawlerService {
 
-    protected static final Gson GSON = new GsonBuilder().create();
+    // Streaming mechanism, results are batched to the client by a single writer
+    ResultSink output;
+    // Persistence mechanism, the frontier and results are appended to the crawl's log, null if not persisted
+    private CrawlLog crawlLog;
+    // Distribution mechanism, pages of hosts owned by other nodes are handed over to them, null outside a cluster
+    @Setter
+    private ClusterCrawl cluster;
 
-    // Streaming mechanism
-    PrintWriter writer;
-
-    // Rate limiting mechanism
-    private final Object lock = new Object();
-    private static final int MAX_HISTORY_SIZE = 5;
-    private final Queue<Long> responseTimes = new LinkedList<>();
-    private final long minDelay = ConfigLoader.get("crawler.rateLimit.delay.minimum", 500);
-    private final long maxDelay = ConfigLoader.get("crawler.rateLimit.delay.maximum", 5000);
-    private volatile long adaptiveDelay = minDelay; // ms
-
-    // Concurrency mechanism
-    private ExecutorService executorService = Executors.newFixedThreadPool(ConfigLoader.get("crawler.maxThreads", 8));
-    // Object to store image objects for their respective webpage's URL
-    private ConcurrentMap<String, LevelImagePair> imageDb = new ConcurrentHashMap<>();
-    private final AtomicInteger activeTaskCounter = new AtomicInteger(0);
+    // Concurrency mechanism, pages are fetched asynchronously and parsed on the shared crawl engine
+    private final CrawlEngine.Job job;
+    // Pages waiting for a fetch slot, by priority and taking turns across hosts
+    private final CrawlFrontier frontier;
+    private final AtomicInteger fetchesInFlight = new AtomicInteger(0);
+    private final int maxFetchesInFlight = ConfigLoader.get("crawler.fetch.maxInFlightPerJob", 32);
+    // Probing mechanism, the images of a page are probed for their real type and size, null if disabled
+    private final ImageProber prober;
+    // Deduplication mechanism, the images of a page are clustered with their near-duplicates, null if disabled
+    private final ImageDeduplicator deduplicator;
+    // Images of the crawl interned once, and the images of each page until the page is streamed
+    private final ResultStore results = new ResultStore();
+    // Pages fetched and cacheable, put in the page cache once their images went through the stages
+    private final ConcurrentMap<String, CachedPage> uncachedPages = new ConcurrentHashMap<>();
+    // Pages already scheduled, so that each one is fetched exactly once
+    private final VisitedSet visitedUrls = VisitedSet.create();
+    // Completion mechanism, the job completes once every page queued has been streamed or dropped
+    private final TaskScope tasks = new TaskScope(this::onIdle);
 
     // Class parameters
+    @Getter
     private boolean recursive;
+    @Getter
     private int permissibleDepth;
 
-    // Feedback mechanism
-    private final AtomicInteger totalRequests = new AtomicInteger(0);
-    private final AtomicInteger failedRequests = new AtomicInteger(0);
+    // Feedback mechanism, the job's counters, exported along with the engine's
+    private final JobMetrics metrics;
+    // Event mechanism, images are published in batches as a page is extracted, and progress once an interval at most
+    private final int imageBatch = Math.max(1, ConfigLoader.get("crawler.events.imageBatch", 32));
+    private final long progressIntervalMillis = ConfigLoader.get("crawler.events.progressInterval.millis", 1000);
+    private final AtomicLong lastProgressAt = new AtomicLong(0);
+    // Discovery mechanism, a recursive crawl is seeded from the sitemaps of its site rather than the links of its
+    // pages, and pages whose images a sitemap lists are not fetched
+    private final boolean sitemapDiscovery = ConfigLoader.get("crawler.sitemap.enabled", false);
+    private final int maxSitemapBytes = ConfigLoader.get("crawler.sitemap.maxBytes", 50 * 1024 * 1024);
+    private final AtomicInteger sitemapsLeft = new AtomicInteger(ConfigLoader.get("crawler.sitemap.maxSitemaps", 64));
+    private final AtomicInteger sitemapPagesLeft = new AtomicInteger(ConfigLoader.get("crawler.sitemap.maxUrls", 50000));
+    // Hosts whose pages sitemaps listed, their links are not followed
+    private final Set<String> sitemapHosts = ConcurrentHashMap.newKeySet();
+    // Images listed by sitemaps for pages still on the frontier
+    private final ConcurrentMap<String, List<String>> listedImages = new ConcurrentHashMap<>();
+    private final AtomicInteger listedPagesServed = new AtomicInteger(0);
 
-    public ImageCrawlerService(boolean recursive) {
-        this.recursive = recursive;
-        this.permissibleDepth = ConfigLoader.get("crawler.defaultDepth", 0);
+    public ImageCrawlerService(CrawlEngine.Job job, boolean recursive) {
+        this(job, recursive, ConfigLoader.get("crawler.defaultDepth", 0));
     }
 
-    public ImageCrawlerService(boolean recursive, int permissibleDepth) {
+    public ImageCrawlerService(CrawlEngine.Job job, boolean recursive, int permissibleDepth) {
+        this.job = job;
         this.recursive = recursive;
         this.permissibleDepth = permissibleDepth;
+        this.frontier = new CrawlFrontier(PagePriority.create(job.getPageCache()),
+                ConfigLoader.get("crawler.frontier.maxInMemory", 10000));
+        this.prober = ImageProber.isEnabled() ? new ImageProber(job.getPolitenessScheduler()) : null;
+        this.deduplicator = ImageDeduplicator.isEnabled()
+                ? new ImageDeduplicator(job.getPolitenessScheduler(), job.getImageHasher()) : null;
+        this.metrics = job.getMetrics();
+        metrics.bind(frontier::size, fetchesInFlight::get);
     }
 
     /**
-     * Entry point for ImageCrawlerService class
+     * Entry point for ImageCrawlerService class.<br>
+     * Starts the crawl and returns at once. The results go to the stream, which is closed once the crawl is
+     * complete.
      *
      * @param url URL of the webpage to be crawled
+     * @param output Stream of the results to the client
      */
-    public void init(String url, PrintWriter writer){
-        this.writer = writer;
+    public void init(String url, ResultSink output){
+        init(url, output, null);
+    }
+
+    /**
+     * Entry point of a persisted crawl, starts the crawl and returns at once
+     *
+     * @param url URL of the webpage to be crawled
+     * @param output Stream of the results to the client
+     * @param crawlLog Log the frontier and results of the crawl are appended to, {@code null} if not persisted
+     */
+    public void init(String url, ResultSink output, CrawlLog crawlLog){
+        this.output = output;
+        this.crawlLog = crawlLog;
+        output.setOnDrained(this::startFetches);
         log.info("Crawl initiate request for: {}", url);
-        init(UrlUtilities.normalizeTrailingCharacters(url), 0);
+        // Held until the root page is queued, so that the job cannot complete before it starts
+        try(TaskScope.Task ignored = tasks.open()) {
+            seed(url);
+        }
+    }
 
-        synchronized (this) {
-            while (activeTaskCounter.get() > 0) {
-                try {
-                    this.wait();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+    /**
+     * Entry point of a batch crawl, starts the crawl of every seed and returns at once.<br>
+     * The seeds share the job's frontier and visited set, so a page reachable from several seeds is fetched once.
+     *
+     * @param urls URLs of the webpages to be crawled
+     * @param output Sink of the results of all seeds
+     */
+    public void init(Collection<String> urls, ResultSink output){
+        this.output = output;
+        output.setOnDrained(this::startFetches);
+        log.info("Batch crawl initiate request for {} seeds", urls.size());
+        try(TaskScope.Task ignored = tasks.open()) {
+            for(String url : urls) seed(url);
+        }
+    }
+
+    /**
+     * Entry point of a node taking part in a crawl coordinated by another node of the cluster. The crawl starts
+     * with the pages handed over by {@link #crawlForwarded(List)}.
+     *
+     * @param output Sink of the results, sent to the coordinator
+     */
+    public void join(ResultSink output){
+        this.output = output;
+        output.setOnDrained(this::startFetches);
+    }
+
+    /**
+     * Queues pages handed over by another node of the cluster, pages already visited here are skipped
+     * @param pages Pages whose host belongs to this node
+     */
+    public void crawlForwarded(List<ClusterMessage.Page> pages){
+        try(TaskScope.Task ignored = tasks.open()) {
+            for(ClusterMessage.Page page : pages) init(page.getUrl(), page.getDepth(), page.getParentImageCount());
+        }
+    }
+
+    /**
+     * Resumes a crawl from its log: the results recorded are streamed again, and only the pages queued but not
+     * completed are crawled. Starts the crawl and returns at once.
+     *
+     * @param replay State of the crawl read back from its log
+     * @param output Stream of the results to the client
+     * @param crawlLog Log of the crawl reopened for appending, {@code null} if the crawl is only read again
+     */
+    public void resume(CrawlLog.Replay replay, ResultSink output, CrawlLog crawlLog){
+        this.output = output;
+        this.crawlLog = crawlLog;
+        output.setOnDrained(this::startFetches);
+        log.info("Crawl resume request for: {} | completed pages: {}, queued pages: {}", replay.getUrl(),
+                replay.getResults().size(), replay.getQueued().size());
+        try(TaskScope.Task ignored = tasks.open()) {
+            for(String url : replay.getQueued().keySet()) visitedUrls.add(url);
+            for(String url : replay.getResults().keySet()) visitedUrls.add(url);
+
+            // Recorded results are streamed from a worker, since publishing blocks while the client catches up
+            TaskScope.Task replayed = tasks.open();
+            try {
+                job.submit(() -> {
+                    try {
+                        for(String json : replay.getResults().values()) output.publish(json);
+                    } finally {
+                        replayed.close();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.error("Crawl engine rejected the replay of: {}\nException: {}", replay.getUrl(), e.getMessage());
+                replayed.close();
+            }
+
+            if(!replay.isComplete()) {
+                for(Map.Entry<String, Integer> page : replay.getQueued().entrySet()) {
+                    if(replay.getResults().containsKey(page.getKey())) continue;
+                    results.openPage(page.getKey(), page.getValue());
+                    tasks.enter();
+                    crawl(page.getKey(), page.getValue());
                 }
             }
         }
@@ -89,158 +228,674 @@ public class ImageCrawlerService {
      * @param depth Current level of depth of this page
      */
     public void init(String url, int depth){
-        if(depth > permissibleDepth) return;
-        if(imageDb.containsKey(UrlUtilities.normalizeTrailingCharacters(url))) return;
+        init(url, depth, 0);
+    }
 
-        imageDb.put(url, new LevelImagePair(depth));
-        activeTaskCounter.incrementAndGet();
-        crawl(url, depth);
+    /**
+     * Queues a page found on another page
+     * @param url URL of the webpage to be crawled
+     * @param depth Current level of depth of this page
+     * @param parentImageCount Number of images on the page that linked to it
+     * @return {@code true} if the page is queued here, {@code false} if it is skipped or handed over to another node
+     */
+    private boolean init(String url, int depth, int parentImageCount){
+        // Nothing new is queued once the results are not wanted anymore
+        if(depth > permissibleDepth || output.isAborted()) return false;
+        String canonicalUrl = UrlUtilities.canonicalizeUrl(url);
+        if(canonicalUrl == null || !visitedUrls.add(canonicalUrl)) return false;
+        if(cluster != null && !cluster.isLocal(canonicalUrl)) {
+            cluster.forward(canonicalUrl, depth, parentImageCount);
+            return false;
+        }
+
+        if(crawlLog != null) crawlLog.appendQueued(canonicalUrl, depth);
+        results.openPage(canonicalUrl, depth);
+        tasks.enter();
+        crawl(canonicalUrl, depth, parentImageCount);
+        return true;
     }
 
     /**
-     * Crawls the current webpage for subpage URLs and images.<br>
-     * Repeats the above step for subpages within the current page, until {@code depth} variable is not exhausted.
-     * @param url URL of the page to be crawled
-     * @param depth Current level of depth of the webpage
+     * Starts the crawl of a seed, from the sitemaps of its site if sitemap discovery is on and the crawl goes deeper
+     * than the seed
      */
-    public void crawl(String url, int depth){
-        executorService.submit(() -> {
+    private void seed(String url) {
+        if(sitemapDiscovery && recursive && permissibleDepth > 0) discoverSitemaps(url);
+        else init(url, 0);
+    }
+
+    /**
+     * Reads the sitemaps of the seed's site, those its robots.txt lists or else {@code /sitemap.xml}, and queues the
+     * pages of the site they list as they are read. The seed is queued once they are all read, its links followed
+     * only if they listed no page.
+     */
+    private void discoverSitemaps(String url) {
+        String canonicalUrl = UrlUtilities.canonicalizeUrl(url);
+        ParsedUrl base = (canonicalUrl == null) ? null : ParsedUrl.parse(canonicalUrl);
+        if(base == null) {
+            init(url, 0);
+            return;
+        }
+        SitemapSeed seed = new SitemapSeed(url, base, tasks.open());
+        job.getPolitenessScheduler().rulesFor(canonicalUrl).whenComplete((rules, error) -> {
+            // A robots.txt that cannot be read lists no sitemap
             try {
-                long tempDelay = adaptiveDelay;
-                Thread.sleep(tempDelay);
-                log.info("After delay: {}ms | Crawling initiates for: {}, depth: {}", tempDelay, url, depth);
-
-                totalRequests.incrementAndGet();
-                long startTime = System.currentTimeMillis();
-                Document document = Jsoup.connect(url)
-                        .header("User-Agent", "Mozilla/5.0")
-                        .get();
-                long responseTime = System.currentTimeMillis() - startTime;
-
-                synchronized (lock) {
-                    long previousAverage = (!responseTimes.isEmpty())?(responseTimes.stream().mapToLong(Long::longValue).sum() / responseTimes.size()):0;
-                    if (responseTimes.size() >= MAX_HISTORY_SIZE) {
-                        responseTimes.poll();
+                List<String> sitemaps = (rules == null) ? Collections.emptyList() : rules.getSitemaps();
+                if(sitemaps.isEmpty()) fetchSitemap(seed, base.resolve("/sitemap.xml"));
+                for(String sitemap : sitemaps) fetchSitemap(seed, base.resolve(sitemap));
+            } finally {
+                sitemapRead(seed);
+            }
+        });
+    }
+
+    /**
+     * Fetches a sitemap and reads it on the crawl engine's workers, unless the crawl has read as many as it may
+     */
+    private void fetchSitemap(SitemapSeed seed, String sitemapUrl) {
+        if(sitemapUrl == null || output.isAborted() || sitemapsLeft.getAndDecrement() <= 0) return;
+        seed.pending.incrementAndGet();
+        log.info("Reading sitemap: {}", sitemapUrl);
+        job.getPolitenessScheduler().fetch(sitemapUrl).whenComplete((result, error) -> {
+            try {
+                job.submit(() -> {
+                    try {
+                        readSitemap(seed, sitemapUrl, result, error);
+                    } finally {
+                        sitemapRead(seed);
                     }
-                    responseTimes.add(responseTime);
-                    long currentAverage = responseTimes.stream().mapToLong(Long::longValue).sum() / responseTimes.size();
-                    double percentageChange = (previousAverage != 0)?((double) (currentAverage - previousAverage) / previousAverage ):0;
+                });
+            } catch (RejectedExecutionException e) {
+                log.error("Crawl engine rejected the sitemap: {}\nException: {}", sitemapUrl, e.getMessage());
+                sitemapRead(seed);
+            }
+        });
+    }
 
-                    adaptiveDelay = (long) ((double)adaptiveDelay * (1.0 + ((percentageChange>0)?percentageChange*3:percentageChange)));
-                    adaptiveDelay = Math.max(minDelay, Math.min(maxDelay, adaptiveDelay));
+    /**
+     * Follows the sitemaps a sitemap index lists, and queues the pages a sitemap lists
+     */
+    private void readSitemap(SitemapSeed seed, String sitemapUrl, FetchResult result, Throwable error) {
+        if(error != null || !result.isSuccessful()) {
+            log.info("No sitemap at: {} | {}", sitemapUrl, (error != null) ? error.getMessage() : result.getStatus());
+            return;
+        }
+        try {
+            SitemapExtractor.extract(new ByteArrayInputStream(result.getBody()), maxSitemapBytes, new SitemapExtractor.Handler() {
+                @Override
+                public void onSitemap(String url) {
+                    fetchSitemap(seed, url);
                 }
 
-                if(recursive && depth < permissibleDepth){
-                    List<String> subPageUrlsList = getSubPageUrls(document, url);
-                    for(String subPageUrl : subPageUrlsList){
-                        init(subPageUrl, depth+1);
-                    }
-                }
-                crawlImages(document, url);
-            } catch (HttpStatusException e) {
-                failedRequests.incrementAndGet();
-                log.error("Failed to process: {}\nStatus code: {}\nException: {}", url, e.getStatusCode(), e.getMessage());
-                // Exponential backoff on rejected requests
-                synchronized (lock) {
-                    adaptiveDelay = (long)Math.min(maxDelay, (double)adaptiveDelay*4);
+                @Override
+                public void onPage(String url, List<String> imageUrls) {
+                    sitemapPage(seed, url, imageUrls);
                 }
-            } catch (Exception e) {
-                log.error("Failed to process: {}\nException: {}", url, e.getMessage());
-            } finally {
-                Map<String, LevelImagePair> data = new HashMap<>();
-                data.put(url, imageDb.get(url));
-                String jsonResponse = GSON.toJson(data) + '\n';
-                writer.write(jsonResponse);
-                writer.flush();
-                if(activeTaskCounter.decrementAndGet() == 0){
-                    synchronized (ImageCrawlerService.this) {
-                        ImageCrawlerService.this.notifyAll();
-                    }
-                    executorShutdownService();
-                }
-            }
-        });
+            });
+        } catch (IOException e) {
+            log.error("Failed to read sitemap: {}\nException: {}", sitemapUrl, e.getMessage());
+        }
     }
 
     /**
-     * Gets the list of all the URLs within the current subpage, and is within the same domain of the baseUrl
-     * @param document HTML document of the page being crawled
-     * @param baseUrl URL of the page being crawled
-     * @return {@code List<String>}
+     * Queues a page listed by a sitemap, one level below the seed. Its images, if the sitemap lists them, are taken
+     * as its result once it comes off the frontier, in place of a fetch.
      */
-    public List<String> getSubPageUrls(Document document, String baseUrl){
-        List<String> subPageUrls = new ArrayList<>();
-        Elements links = document.select("a[href]");
-        for(Element link : links){
-            try {
-                String url = UrlUtilities.normalizeUrl(UrlUtilities.resolveUrl(baseUrl, link.attr("href"), true));
-                if(url != null) subPageUrls.add(url);
+    private void sitemapPage(SitemapSeed seed, String url, List<String> imageUrls) {
+        if(output.isAborted()) return;
+        String pageUrl = resolveSubPage(seed.base, url);
+        String canonicalUrl = (pageUrl == null) ? null : UrlUtilities.canonicalizeUrl(pageUrl);
+        if(canonicalUrl == null || sitemapPagesLeft.getAndDecrement() <= 0) return;
+        if(seed.pages.getAndIncrement() == 0) sitemapHosts.add(PolitenessScheduler.hostOf(seed.url));
+        sitemapHosts.add(PolitenessScheduler.hostOf(canonicalUrl));
+
+        if(!imageUrls.isEmpty()) listedImages.put(canonicalUrl, imageUrls);
+        if(!init(canonicalUrl, 1, imageUrls.size()) && !imageUrls.isEmpty()) listedImages.remove(canonicalUrl);
+    }
+
+    /**
+     * Counts a sitemap of the seed as read, and queues the seed once all of them are
+     */
+    private void sitemapRead(SitemapSeed seed) {
+        if(seed.pending.decrementAndGet() > 0) return;
+        log.info("Sitemaps of: {} listed {} pages", seed.url, seed.pages.get());
+        try(TaskScope.Task ignored = seed.discovery) {
+            init(seed.url, 0);
+        }
+    }
+
+    /**
+     * Queues the current webpage to be crawled for subpage URLs and images.<br>
+     * Repeats the above step for subpages within the current page, until {@code depth} variable is not exhausted.
+     * @param url URL of the page to be crawled
+     * @param depth Current level of depth of the webpage
+     */
+    public void crawl(String url, int depth){
+        crawl(url, depth, 0);
+    }
+
+    private void crawl(String url, int depth, int parentImageCount){
+        frontier.offer(url, depth, parentImageCount);
+        startFetches();
+    }
+
+    /**
+     * Takes pages off the frontier while the job has slots left, and the client keeps up with the results. A page
+     * cached fresh by an earlier crawl is served from the cache, in place of a fetch. Pending pages are dropped once
+     * the client has gone away.
+     */
+    private void startFetches() {
+        if(output.isAborted()) {
+            if(prober != null) prober.cancel();
+            if(deduplicator != null) deduplicator.cancel();
+            CrawlFrontier.Entry page;
+            while((page = frontier.poll()) != null) {
+                results.removePage(page.getUrl());
+                taskCompleted();
             }
-            catch(Exception e) {
-                log.error("Failed to resolve subpage url: {} | {}\nException: {}", baseUrl, link.attr("href"), e.getMessage());
+            return;
+        }
+        while(!frontier.isEmpty() && !output.isBackedUp()) {
+            int inFlight = fetchesInFlight.get();
+            if(inFlight >= maxFetchesInFlight) return;
+            if(!fetchesInFlight.compareAndSet(inFlight, inFlight + 1)) continue;
+
+            CrawlFrontier.Entry page = frontier.poll();
+            if(page == null) {
+                fetchesInFlight.decrementAndGet();
+                continue;
             }
+            List<String> imageUrls = listedImages.isEmpty() ? null : listedImages.remove(page.getUrl());
+            if(imageUrls != null) {
+                pageStarted(page.getUrl(), page.getDepth(), false);
+                serve(page.getUrl(), () -> processListed(page.getUrl(), imageUrls));
+                continue;
+            }
+            PageCache pageCache = job.getPageCache();
+            CachedPage cached = pageCache.get(page.getUrl());
+            boolean fresh = cached != null && pageCache.isFresh(cached);
+            pageStarted(page.getUrl(), page.getDepth(), fresh);
+            if(fresh) serveCached(page.getUrl(), page.getDepth(), cached);
+            else fetch(page.getUrl(), page.getDepth());
         }
-        return subPageUrls;
     }
 
     /**
-     * Adds {@link Image} objects of all the images on the page in the {@code imageDb}
-     * @param document HTML document of the page being crawled
-     * @param baseUrl URL of the page being crawled
+     * Hands a fresh cached page to the crawl engine's workers, holding the job's slot until it is processed
+     * @param url URL of the page to be crawled
+     * @param depth Current level of depth of the webpage
+     * @param cached Fresh page cached by an earlier crawl
      */
-    public void crawlImages(Document document, String baseUrl){
-        Elements images = document.select("img[src]");
-        Elements favicons = document.select("link[href]");
+    private void serveCached(String url, int depth, CachedPage cached) {
+        metrics.cacheHit();
+        serve(url, () -> processCached(url, depth, cached));
+    }
 
-        for(Element image : images){
-            String imageUrl = image.attr("src");
-            if(imageUrl.startsWith("data") || !UrlUtilities.isImageUrl(imageUrl)) continue;
+    /**
+     * Hands a page served without a fetch to the crawl engine's workers, holding the job's slot until it is processed
+     * @param url URL of the page to be crawled
+     * @param processing Processing of the page, completing it
+     */
+    private void serve(String url, Runnable processing) {
+        try {
+            job.submit(() -> {
+                try {
+                    processing.run();
+                } finally {
+                    fetchesInFlight.decrementAndGet();
+                    startFetches();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("Crawl engine rejected: {}\nException: {}", url, e.getMessage());
+            fetchesInFlight.decrementAndGet();
+            results.removePage(url);
+            taskCompleted();
+        }
+    }
+
+    /**
+     * Fetches the page asynchronously once its host's politeness delay allows it, and hands the response to the
+     * crawl engine's workers for parsing once all of its bytes have arrived. A page cached by an earlier crawl is
+     * fetched conditionally, with the validators of its cached response.
+     * @param url URL of the page to be crawled
+     * @param depth Current level of depth of the webpage
+     */
+    private void fetch(String url, int depth) {
+        log.info("Crawling initiates for: {}, depth: {}", url, depth);
+        metrics.fetchStarted();
+
+        CachedPage cached = job.getPageCache().get(url);
+        Map<String, String> requestHeaders = (cached != null && cached.isRevalidatable())
+                ? cached.getConditionalHeaders() : Collections.emptyMap();
+        job.getPolitenessScheduler().fetch(url, requestHeaders).whenComplete((result, error) -> {
+            if(result != null) metrics.fetchCompleted((result.getBody() == null) ? 0 : result.getBody().length);
+            fetchesInFlight.decrementAndGet();
+            startFetches();
             try {
-                imageUrl = UrlUtilities.resolveUrl(baseUrl, imageUrl, false);
-                if(imageUrl != null) {
-                    imageDb.get(baseUrl).add(Image.processImage(imageUrl));
+                job.submit(() -> process(url, depth, result, error, cached));
+            } catch (RejectedExecutionException e) {
+                log.error("Crawl engine rejected: {}\nException: {}", url, e.getMessage());
+                results.removePage(url);
+                taskCompleted();
+            }
+        });
+    }
+
+    /**
+     * Parses a fetched page, queues its subpages and collects its images
+     * @param url URL of the page being crawled
+     * @param depth Current level of depth of the webpage
+     * @param result Response of the page, {@code null} if the fetch failed
+     * @param error Failure of the fetch, {@code null} if it succeeded
+     * @param cached Page cached by an earlier crawl, {@code null} if none
+     */
+    private void process(String url, int depth, FetchResult result, Throwable error, CachedPage cached) {
+        boolean deferred = false;
+        try {
+            if(error != null) {
+                Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+                if(cause instanceof RobotsDisallowedException) {
+                    log.info("Skipped: {} | {}", url, cause.getMessage());
+                    return;
                 }
+                metrics.fetchFailed();
+                log.error("Failed to process: {}\nException: {}", url, cause.getMessage());
+                return;
             }
-            catch(Exception e) {
-                log.error("Failed to resolve image url: {} | {}\nException: {}", baseUrl, imageUrl, e.getMessage());
+            if(result.getStatus() == 304 && cached != null) {
+                metrics.cacheRevalidated();
+                deferred = enrichImages(url, addCachedPage(url, depth, job.getPageCache().revalidate(cached)), false);
+                return;
+            }
+            if(!result.isSuccessful()) {
+                metrics.fetchFailed();
+                log.error("Failed to process: {}\nStatus code: {}", url, result.getStatus());
+                return;
+            }
+            if(!result.isParsable()) {
+                log.error("Failed to process: {}\nUnsupported content type: {}", url, result.getContentType());
+                return;
             }
-        }
 
-        for(Element favicon : favicons){
-            String faviconUrl = favicon.attr("href");
-            if(!UrlUtilities.isImageUrl(faviconUrl)) continue;
-            try {
-                faviconUrl = UrlUtilities.resolveUrl(baseUrl, faviconUrl, false);
-                if(faviconUrl != null) {
-                    imageDb.get(baseUrl).add(Image.processImage(faviconUrl));
+            metrics.cacheMissed();
+            long parseStart = System.nanoTime();
+            // The body is the one of the last redirect, whose URL the page's links are relative to
+            if(!result.getUrl().equals(url) && !followsRedirect(url, result.getUrl(), depth)) return;
+            // Parsed once, every link and image of the page is resolved against it
+            ParsedUrl base = ParsedUrl.parse(result.getUrl());
+            if(base == null) {
+                log.error("Failed to process: {}\nNot an absolute URL", url);
+                return;
+            }
+            boolean followLinks = followsLinks(url, depth);
+            // Links are kept whatever the depth, so that a deeper crawl can expand the page from the cache
+            ResultStore.Page page = results.getPage(url);
+            List<String> subPageUrls = new ArrayList<>();
+            // Number of the page's images published so far
+            int[] published = {0};
+            PageExtractor.extract(new ByteArrayInputStream(result.getBody()), result.getCharset(), new PageExtractor.Handler() {
+                @Override
+                public void onLink(String link) {
+                    String subPageUrl = resolveSubPage(base, link);
+                    if(subPageUrl == null) return;
+                    subPageUrls.add(subPageUrl);
+                }
+
+                @Override
+                public void onImage(String imageUrl, PageExtractor.Source source) {
+                    String resolvedUrl = resolveImageUrl(base, imageUrl, source);
+                    if(resolvedUrl == null) return;
+                    if(page.add(results.intern(resolvedUrl, Image.typeOf(resolvedUrl)))
+                            && page.size() - published[0] >= imageBatch) {
+                        published[0] = imagesFound(url, page, published[0]);
+                    }
                 }
+            });
+            imagesFound(url, page, published[0]);
+            metrics.pageParsed(parseStart);
+            metrics.imagesCollected(page.size());
+            // Subpages are queued once the page's images are all known, for the frontier to rank them by it
+            if(followLinks) {
+                for(String subPageUrl : subPageUrls) init(subPageUrl, depth + 1, page.size());
             }
-            catch(Exception e) {
-                log.error("Failed to resolve image url: {} | {}\nException: {}", baseUrl, faviconUrl, e.getMessage());
+            if(isCacheable(result)) {
+                uncachedPages.put(url, new CachedPage(url, Collections.emptyList(), subPageUrls, result.getHeader("ETag"),
+                        result.getHeader("Last-Modified"), System.currentTimeMillis()));
             }
+            deferred = enrichImages(url, page, true);
+        } catch (Exception e) {
+            log.error("Failed to process: {}\nException: {}", url, e.getMessage());
+        } finally {
+            if(!deferred) pageCompleted(url);
         }
     }
 
     /**
-     * Gracefully shuts down the executor service once all tasks are completed
+     * Starts the probing and deduplication stages on the images of a page, which is streamed once they are done.
+     * The page's fetch slot is already free for the next page meanwhile.
+     * @param url URL of the page being crawled
+     * @param page Images of the page
+     * @param probe {@code false} for images of a cached page, probed by the crawl that fetched it
+     * @return {@code true} if the page is completed by the stages, {@code false} if they have nothing to do
      */
-    public void executorShutdownService(){
-        writer.close();
-        log.info("Total requests made: {}", totalRequests.get());
-        log.info("Failed requests: {}", failedRequests.get());
-        log.info("Success percentage: {}%", Math.ceil((((double)totalRequests.get()-failedRequests.get())*100)/(double)totalRequests.get()));
+    private boolean enrichImages(String url, ResultStore.Page page, boolean probe) {
+        boolean probing = probe && prober != null;
+        if(page.size() == 0 || (!probing && deduplicator == null) || output.isAborted()) return false;
 
-        log.info("Executor service shut down initiated");
-        executorService.shutdown();
+        int[] images = page.getImages();
+        Runnable deduplicate = (deduplicator == null) ? () -> imagesCompleted(url)
+                : () -> deduplicator.deduplicate(results, images, () -> imagesCompleted(url));
+        if(probing) prober.probe(results, images, deduplicate);
+        else deduplicate.run();
+        return true;
+    }
+
+    /**
+     * Hands a page whose images went through the stages back to the crawl engine's workers, for streaming its result
+     */
+    private void imagesCompleted(String url) {
         try {
-            if(!executorService.awaitTermination(ConfigLoader.get("crawler.timeOut.seconds", 60), TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-                log.info("Executor service shut down complete");
+            job.submit(() -> pageCompleted(url));
+        } catch (RejectedExecutionException e) {
+            log.error("Crawl engine rejected the result of: {}\nException: {}", url, e.getMessage());
+            pageCompleted(url);
+        }
+    }
+
+    /**
+     * Serves a page from the cache, without fetching it
+     * @param url URL of the page being crawled
+     * @param depth Current level of depth of the webpage
+     * @param cached Fresh page cached by an earlier crawl
+     */
+    private void processCached(String url, int depth, CachedPage cached) {
+        boolean deferred = false;
+        try {
+            deferred = enrichImages(url, addCachedPage(url, depth, cached), false);
+        } catch (Exception e) {
+            log.error("Failed to process: {}\nException: {}", url, e.getMessage());
+        } finally {
+            if(!deferred) pageCompleted(url);
+        }
+    }
+
+    /**
+     * Takes the images a sitemap lists for a page as its result, without fetching it
+     * @param url URL of the page being crawled
+     * @param imageUrls Images listed for the page
+     */
+    private void processListed(String url, List<String> imageUrls) {
+        boolean deferred = false;
+        try {
+            listedPagesServed.incrementAndGet();
+            ParsedUrl base = ParsedUrl.parse(url);
+            ResultStore.Page page = results.getPage(url);
+            for(String imageUrl : imageUrls) {
+                String resolvedUrl = (base == null) ? null : resolveImageUrl(base, imageUrl, PageExtractor.Source.SITEMAP);
+                if(resolvedUrl != null) page.add(results.intern(resolvedUrl, Image.typeOf(resolvedUrl)));
             }
-        } catch (InterruptedException e) {
-            executorService.shutdownNow();
-            log.info("Executor service shut down complete");
+            metrics.imagesCollected(page.size());
+            imagesFound(url, page, 0);
+            deferred = enrichImages(url, page, true);
+        } catch (Exception e) {
+            log.error("Failed to process: {}\nException: {}", url, e.getMessage());
+        } finally {
+            if(!deferred) pageCompleted(url);
         }
     }
 
+    /**
+     * @return {@code true} if the links of the page are to be followed, unless sitemaps listed the pages of its host
+     */
+    private boolean followsLinks(String url, int depth) {
+        return recursive && depth < permissibleDepth
+                && (sitemapHosts.isEmpty() || !sitemapHosts.contains(PolitenessScheduler.hostOf(url)));
+    }
+
+    /**
+     * A page redirected to another host belongs to that host, and is only crawled for a seed, whose site may have
+     * moved. A page redirected to one already visited is not crawled twice.
+     * @return {@code true} if the page is crawled from the redirect's target
+     */
+    private boolean followsRedirect(String url, String targetUrl, int depth) {
+        ParsedUrl page = ParsedUrl.parse(url);
+        if(depth > 0 && (page == null || !page.isSameHost(targetUrl))) {
+            log.info("Skipped: {} | redirected to another host: {}", url, targetUrl);
+            return false;
+        }
+        String canonicalUrl = UrlUtilities.canonicalizeUrl(UrlUtilities.normalizeUrl(targetUrl));
+        if(canonicalUrl == null || !visitedUrls.add(canonicalUrl)) {
+            log.info("Skipped: {} | redirected to a page already visited: {}", url, targetUrl);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collects the images of a cached page and queues its subpages
+     * @return Page the images are collected for
+     */
+    private ResultStore.Page addCachedPage(String url, int depth, CachedPage cached) {
+        ResultStore.Page page = results.getPage(url);
+        for(Image image : cached.getImages()) {
+            // Clusters are the crawl's own, unless it finds none
+            page.add(results.intern(image, deduplicator == null));
+        }
+        metrics.imagesCollected(page.size());
+        imagesFound(url, page, 0);
+        if(followsLinks(url, depth)) {
+            for(String subPageUrl : cached.getSubPageUrls()) init(subPageUrl, depth + 1, cached.getImages().size());
+        }
+        return page;
+    }
+
+    /**
+     * @param result Successful response of a page
+     * @return {@code true} unless the server asked for the page not to be kept in a shared cache
+     */
+    private static boolean isCacheable(FetchResult result) {
+        String cacheControl = result.getHeader("Cache-Control");
+        if(cacheControl == null) return true;
+        cacheControl = cacheControl.toLowerCase();
+        return !cacheControl.contains("no-store") && !cacheControl.contains("private");
+    }
+
+    /**
+     * Streams the result of the page to the client and completes its task. A fetched page goes to the page cache
+     * along with its images as the stages left them.
+     */
+    private void pageCompleted(String url) {
+        ResultStore.Page page = results.removePage(url);
+        CachedPage uncached = uncachedPages.remove(url);
+        if(uncached != null && page != null) {
+            List<Image> images = new ArrayList<>(page.size());
+            for(int image : page.getImages()) images.add(results.toImage(image));
+            job.getPageCache().put(new CachedPage(url, images, uncached.getSubPageUrls(), uncached.getEtag(),
+                    uncached.getLastModified(), uncached.getStoredAt()));
+        }
+        String json = PageResultWriter.toJson(results, url, page);
+        if(crawlLog != null) crawlLog.appendResult(url, json);
+        output.publish(json);
+        metrics.pageCompleted();
+        crawlProgress();
+        taskCompleted();
+    }
+
+    /**
+     * Publishes that a page is taken off the frontier
+     * @param cached {@code true} if the page is served from the cache
+     */
+    private void pageStarted(String url, int depth, boolean cached) {
+        if(!output.isTakingEvents()) return;
+        JsonObject data = new JsonObject();
+        data.addProperty("url", url);
+        data.addProperty("depth", depth);
+        data.addProperty("cached", cached);
+        output.publishEvent(CrawlEvent.PAGE_STARTED, data.toString());
+    }
+
+    /**
+     * Publishes the images of a page found since the last batch, as found before the stages
+     * @param from Number of the page's images already published
+     * @return Number of the page's images published
+     */
+    private int imagesFound(String url, ResultStore.Page page, int from) {
+        int size = page.size();
+        if(size > from && output.isTakingEvents()) {
+            output.publishEvent(CrawlEvent.IMAGE_FOUND, PageResultWriter.imagesToJson(results, url, page, from));
+        }
+        return size;
+    }
+
+    /**
+     * Publishes the counters of the crawl, unless they were published less than an interval ago
+     */
+    private void crawlProgress() {
+        if(!output.isTakingEvents()) return;
+        long now = System.currentTimeMillis();
+        long last = lastProgressAt.get();
+        if(now - last < progressIntervalMillis || !lastProgressAt.compareAndSet(last, now)) return;
+        output.publishEvent(CrawlEvent.CRAWL_PROGRESS, progress().toString());
+    }
+
+    /**
+     * @return Counters of the crawl
+     */
+    private JsonObject progress() {
+        JsonObject data = new JsonObject();
+        data.addProperty("pagesCompleted", metrics.getPagesCompleted().sum());
+        data.addProperty("pagesQueued", metrics.getQueuedPages());
+        data.addProperty("fetchesInFlight", metrics.getFetchesInFlight());
+        data.addProperty("imagesFound", metrics.getImagesFound().sum());
+        return data;
+    }
+
+    /**
+     * Marks the task of a page as completed
+     */
+    private void taskCompleted() {
+        tasks.exit();
+    }
+
+    /**
+     * Completes the job once no task is left
+     */
+    private void onIdle() {
+        // In a cluster, the crawl is complete once no node has anything left to do
+        if(cluster != null) cluster.localIdle();
+        else completeJob();
+    }
+
+    /**
+     * @return {@code true} if this node has no task of the crawl left
+     */
+    public boolean isIdle() {
+        return tasks.isIdle();
+    }
+
+    /**
+     * Resolves a link found on the page being crawled, keeping it only if it is within the same domain as the page
+     * @param base URL of the page being crawled
+     * @param link Link as written on the page
+     * @return Normalized URL of the subpage, or {@code null} if it is not to be crawled
+     */
+    public String resolveSubPage(ParsedUrl base, String link){
+        try {
+            return UrlUtilities.normalizeUrl(UrlUtilities.resolveUrl(base, link, true));
+        }
+        catch(Exception e) {
+            log.error("Failed to resolve subpage url: {} | {}\nException: {}", base, link, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the {@link Image} object of an image candidate of the page.<br>
+     * Candidates which may point at other resources, like {@code img src}, links and CSS, need an image
+     * extension, while {@code srcset}, picture sources and {@code og:image} are images by definition.
+     * @param base URL of the page being crawled
+     * @param imageUrl Image URL as written on the page
+     * @param source Where the candidate was found on the page
+     * @return {@code Image}, or {@code null} if the candidate is not an image
+     */
+    public Image resolveImage(ParsedUrl base, String imageUrl, PageExtractor.Source source){
+        String resolvedUrl = resolveImageUrl(base, imageUrl, source);
+        return (resolvedUrl == null) ? null : Image.processImage(resolvedUrl);
+    }
+
+    /**
+     * Resolves an image candidate of the page, as {@link #resolveImage} does without building its object
+     * @param base URL of the page being crawled
+     * @param imageUrl Image URL as written on the page
+     * @param source Where the candidate was found on the page
+     * @return Resolved URL of the image, or {@code null} if the candidate is not an image
+     */
+    public String resolveImageUrl(ParsedUrl base, String imageUrl, PageExtractor.Source source){
+        if(imageUrl.startsWith("data")) return null;
+        if((source == PageExtractor.Source.IMG || source == PageExtractor.Source.LINK
+                || source == PageExtractor.Source.CSS) && !UrlUtilities.isImageUrl(imageUrl)) return null;
+        try {
+            return UrlUtilities.resolveUrl(base, imageUrl, false);
+        }
+        catch(Exception e) {
+            log.error("Failed to resolve image url: {} | {}\nException: {}", base, imageUrl, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Closes the stream and gives the job's slot back to the crawl engine once all tasks are completed
+     */
+    public void completeJob(){
+        if(crawlLog != null) {
+            // A crawl whose client went away has pages left, it can be resumed later
+            if(!output.isAborted()) crawlLog.appendComplete();
+            crawlLog.close();
+        }
+        if(output.isTakingEvents()) {
+            JsonObject data = progress();
+            data.addProperty("aborted", output.isAborted());
+            output.publishEvent(CrawlEvent.CRAWL_DONE, data.toString());
+        }
+        output.close();
+        // Read before close, which releases the set's tables and files
+        long visitedPages = visitedUrls.size();
+        long visitedBytes = visitedUrls.getMemoryBytes();
+        visitedUrls.close();
+        frontier.close();
+        long totalRequests = metrics.getFetches().sum();
+        long failedRequests = metrics.getFetchFailures().sum();
+        log.info("Total requests made: {}", totalRequests);
+        log.info("Failed requests: {}", failedRequests);
+        if(totalRequests > 0) {
+            log.info("Success percentage: {}%", Math.ceil((((double)totalRequests-failedRequests)*100)/(double)totalRequests));
+        }
+        log.info("Visited set: {} pages in {} bytes", visitedPages, visitedBytes);
+        log.info("Result store: {} images in {} bytes", results.getImageCount(), results.getMemoryBytes());
+        log.info("Served from cache: {} | revalidated: {}", metrics.getCacheHits().sum(), metrics.getCacheRevalidations().sum());
+        if(sitemapDiscovery) log.info("Served from sitemaps: {}", listedPagesServed.get());
+        if(deduplicator != null) log.info("Clusters of near-duplicate images: {}", deduplicator.getClusterCount());
+
+        metrics.jobCompleted();
+        job.release();
+    }
+
+    /**
+     * Sitemap discovery of a seed, holding the job open until its sitemaps are all read
+     */
+    private static class SitemapSeed {
+        private final String url;
+        private final ParsedUrl base;
+        private final TaskScope.Task discovery;
+        // Robots.txt lookup and sitemaps being read
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicInteger pages = new AtomicInteger(0);
+
+        private SitemapSeed(String url, ParsedUrl base, TaskScope.Task discovery) {
+            this.url = url;
+            this.base = base;
+            this.discovery = discovery;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.eulerity.hackathon.imagefinder.service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Structured completion of the tasks of a crawl.<br>
+ * Every page queued, fetched, parsed or streamed is a task entered on the scope and exited once done, by whichever
+ * thread or callback finishes it, a platform worker, a virtual thread or an I/O callback alike. The scope calls back
+ * once no task is left, and again each time it becomes idle after new tasks entered it, as on a node of a cluster
+ * receiving pages later on.<br>
+ * A block of code starting several tasks is a task itself, opened in a try-with-resources, so that the scope can not
+ * become idle before the block has started all of them.
+ */
+public class TaskScope {
+
+    private final AtomicInteger openTasks = new AtomicInteger(0);
+    private final Runnable onIdle;
+
+    /**
+     * @param onIdle Called by the thread exiting the last open task
+     */
+    public TaskScope(Runnable onIdle) {
+        this.onIdle = onIdle;
+    }
+
+    /**
+     * Enters a task, to be exited exactly once with {@link #exit()}
+     */
+    public void enter() {
+        openTasks.incrementAndGet();
+    }
+
+    /**
+     * Exits a task, calling back if it was the last one open
+     */
+    public void exit() {
+        int left = openTasks.decrementAndGet();
+        if(left == 0) onIdle.run();
+        else if(left < 0) throw new IllegalStateException("Task exited more often than entered");
+    }
+
+    /**
+     * Enters a task exited when the returned handle is closed, once however many times it is closed
+     * @return Handle of the task, for a try-with-resources
+     */
+    public Task open() {
+        enter();
+        AtomicBoolean closed = new AtomicBoolean(false);
+        return () -> {
+            if(closed.compareAndSet(false, true)) exit();
+        };
+    }
+
+    /**
+     * @return {@code true} if no task is open
+     */
+    public boolean isIdle() {
+        return openTasks.get() == 0;
+    }
+
+    /**
+     * @return Number of tasks open
+     */
+    public int getOpenTasks() {
+        return openTasks.get();
+    }
+
+    /**
+     * Handle of a task opened with {@link #open()}
+     */
+    public interface Task extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
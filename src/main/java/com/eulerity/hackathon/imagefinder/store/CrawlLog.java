@@ -0,0 +1,190 @@
+package com.eulerity.hackathon.imagefinder.store;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only log of one crawl, written through memory mapped segments of its file.<br>
+ * Each record is its length, a type byte and a UTF-8 payload. The log holds the parameters of the crawl, every page
+ * queued with its depth, and the result of every page completed, so that an interrupted crawl can be resumed from
+ * its frontier, and a finished one read again, without fetching anything. Appends go to the page cache of the OS;
+ * a record cut short by a crash is detected and ignored on replay.
+ */
+@Slf4j
+public class CrawlLog implements Closeable {
+
+    static final byte META = 1;
+    static final byte QUEUED = 2;
+    static final byte RESULT = 3;
+    static final byte COMPLETE = 4;
+
+    @Getter
+    private final String crawlId;
+    private final FileChannel channel;
+    private final int segmentBytes;
+    private final Runnable onClose;
+
+    // Guarded by this
+    private MappedByteBuffer segment;
+    private long position;
+    private boolean failed = false;
+    private boolean closed = false;
+
+    CrawlLog(String crawlId, Path file, long position, int segmentBytes, Runnable onClose) throws IOException {
+        this.crawlId = crawlId;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.position = position;
+        this.segmentBytes = segmentBytes;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Records the parameters of the crawl, first thing in a new log
+     */
+    void appendMeta(String url, boolean recursive, int depth) {
+        append(META, url + '\n' + recursive + '\n' + depth);
+    }
+
+    /**
+     * Records a page added to the frontier
+     * @param url Canonical URL of the page
+     * @param depth Depth of the page
+     */
+    public void appendQueued(String url, int depth) {
+        append(QUEUED, depth + " " + url);
+    }
+
+    /**
+     * Records the result of a completed page
+     * @param url Canonical URL of the page
+     * @param json Result of the page as streamed to the client
+     */
+    public void appendResult(String url, String json) {
+        append(RESULT, url + '\n' + json);
+    }
+
+    /**
+     * Records that the crawl went through its whole frontier
+     */
+    public void appendComplete() {
+        append(COMPLETE, "");
+    }
+
+    private synchronized void append(byte type, String payload) {
+        if(failed || closed) return;
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = Integer.BYTES + 1 + bytes.length;
+        try {
+            if(segment == null || segment.remaining() < recordBytes) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(segmentBytes, recordBytes));
+            }
+        } catch (IOException e) {
+            failed = true;
+            log.error("Failed to extend crawl log: {}, the crawl is no longer persisted\nException: {}", crawlId, e.getMessage());
+            return;
+        }
+        segment.putInt(bytes.length + 1);
+        segment.put(type);
+        segment.put(bytes);
+        position += recordBytes;
+    }
+
+    /**
+     * Flushes the log to disk and trims the unused end of its last segment
+     */
+    @Override
+    public synchronized void close() {
+        if(closed) return;
+        closed = true;
+        try {
+            if(segment != null) segment.force();
+            segment = null;
+            channel.truncate(position);
+            channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close crawl log: {}\nException: {}", crawlId, e.getMessage());
+        } finally {
+            onClose.run();
+        }
+    }
+
+    /**
+     * Reads a log back
+     * @param file Log file
+     * @return State of the crawl as recorded, up to the first incomplete record
+     * @throws IOException If the file cannot be read
+     */
+    static Replay replay(Path file) throws IOException {
+        Replay replay = new Replay();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("Crawl log too large to replay: " + file);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            while(buffer.remaining() >= Integer.BYTES + 1) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                if(length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                byte type = buffer.get();
+                byte[] bytes = new byte[length - 1];
+                buffer.get(bytes);
+                replay.apply(type, new String(bytes, StandardCharsets.UTF_8));
+            }
+            replay.validLength = buffer.position();
+        }
+        return replay;
+    }
+
+    /**
+     * State of a crawl read back from its log
+     */
+    @Getter
+    public static class Replay {
+        private String url;
+        private boolean recursive;
+        private int depth;
+        private boolean complete = false;
+        // Canonical URL to depth of every page queued, in the order they were queued
+        private final Map<String, Integer> queued = new LinkedHashMap<>();
+        // Canonical URL to result of every page completed
+        private final Map<String, String> results = new LinkedHashMap<>();
+        private long validLength;
+
+        private void apply(byte type, String payload) {
+            switch (type) {
+                case META:
+                    String[] meta = payload.split("\n", 3);
+                    url = meta[0];
+                    recursive = Boolean.parseBoolean(meta[1]);
+                    depth = Integer.parseInt(meta[2]);
+                    break;
+                case QUEUED:
+                    int space = payload.indexOf(' ');
+                    queued.put(payload.substring(space + 1), Integer.parseInt(payload.substring(0, space)));
+                    break;
+                case RESULT:
+                    int newline = payload.indexOf('\n');
+                    results.put(payload.substring(0, newline), payload.substring(newline + 1));
+                    break;
+                case COMPLETE:
+                    complete = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
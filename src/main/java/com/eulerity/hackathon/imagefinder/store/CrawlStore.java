@@ -0,0 +1,149 @@
+package com.eulerity.hackathon.imagefinder.store;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Directory of crawl logs, one {@link CrawlLog} per crawl ID.<br>
+ * Logs outlive the request and the JVM, so that a client can resume an interrupted crawl or read a finished one
+ * again by its crawl ID. Logs older than {@code crawler.store.retention.hours} are deleted at startup.<br>
+ * Off unless {@code crawler.store.enabled} is set, the logs then going to {@code crawler.store.directory}, or to
+ * {@code imagefinder-crawl-store} in {@code java.io.tmpdir} if it is not set.
+ */
+@Slf4j
+public class CrawlStore {
+
+    private static final Pattern CRAWL_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+    private static final String EXTENSION = ".log";
+
+    @Getter
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+    // Crawls whose log is open for writing
+    private final Set<String> openCrawls = ConcurrentHashMap.newKeySet();
+
+    public CrawlStore() {
+        this(ConfigLoader.get("crawler.store.enabled", false),
+                directoryOf(ConfigLoader.get("crawler.store.directory", "")),
+                ConfigLoader.get("crawler.store.segmentBytes", 1024 * 1024),
+                ConfigLoader.get("crawler.store.retention.hours", 24));
+    }
+
+    public CrawlStore(boolean enabled, Path directory, int segmentBytes, int retentionHours) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        boolean ready = enabled;
+        if(enabled) {
+            try {
+                Files.createDirectories(directory);
+                deleteExpired(TimeUnit.HOURS.toMillis(retentionHours));
+            } catch (IOException e) {
+                log.error("Failed to open crawl store: {}, crawls will not be persisted\nException: {}", directory, e.getMessage());
+                ready = false;
+            }
+        }
+        this.enabled = ready;
+    }
+
+    /**
+     * Starts the log of a new crawl
+     * @param url URL the crawl starts from
+     * @param recursive Whether subpages are crawled
+     * @param depth Maximum depth of the crawl
+     * @return {@code CrawlLog} of the crawl, or {@code null} if the store is disabled or failing
+     */
+    public CrawlLog create(String url, boolean recursive, int depth) {
+        if(!enabled) return null;
+        String crawlId = UUID.randomUUID().toString();
+        openCrawls.add(crawlId);
+        try {
+            CrawlLog crawlLog = new CrawlLog(crawlId, fileOf(crawlId), 0, segmentBytes, () -> openCrawls.remove(crawlId));
+            crawlLog.appendMeta(url, recursive, depth);
+            return crawlLog;
+        } catch (IOException e) {
+            openCrawls.remove(crawlId);
+            log.error("Failed to create crawl log for: {}\nException: {}", url, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the log of an earlier crawl back
+     * @param crawlId ID of the crawl
+     * @return What the crawl recorded
+     * @throws CrawlRejectedException with status 404 if the crawl is unknown, or 409 if it is still running
+     */
+    public CrawlLog.Replay replay(String crawlId) {
+        if(!enabled || crawlId == null || !CRAWL_ID.matcher(crawlId).matches()) {
+            throw new CrawlRejectedException(HttpServletResponse.SC_NOT_FOUND, "Unknown crawl: " + crawlId);
+        }
+        if(openCrawls.contains(crawlId)) {
+            throw new CrawlRejectedException(HttpServletResponse.SC_CONFLICT, "Crawl is still running: " + crawlId);
+        }
+        try {
+            return CrawlLog.replay(fileOf(crawlId));
+        } catch (NoSuchFileException e) {
+            throw new CrawlRejectedException(HttpServletResponse.SC_NOT_FOUND, "Unknown crawl: " + crawlId);
+        } catch (IOException e) {
+            log.error("Failed to read crawl log: {}\nException: {}", crawlId, e.getMessage());
+            throw new CrawlRejectedException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to read crawl: " + crawlId);
+        }
+    }
+
+    /**
+     * Reopens the log of an interrupted crawl to carry on appending to it
+     * @param crawlId ID of the crawl
+     * @param replay State read back from the log
+     * @return {@code CrawlLog} of the crawl
+     * @throws CrawlRejectedException with status 409 if the crawl was resumed meanwhile
+     */
+    public CrawlLog reopen(String crawlId, CrawlLog.Replay replay) {
+        if(!openCrawls.add(crawlId)) {
+            throw new CrawlRejectedException(HttpServletResponse.SC_CONFLICT, "Crawl is still running: " + crawlId);
+        }
+        try {
+            return new CrawlLog(crawlId, fileOf(crawlId), replay.getValidLength(), segmentBytes, () -> openCrawls.remove(crawlId));
+        } catch (IOException e) {
+            openCrawls.remove(crawlId);
+            log.error("Failed to reopen crawl log: {}\nException: {}", crawlId, e.getMessage());
+            throw new CrawlRejectedException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to resume crawl: " + crawlId);
+        }
+    }
+
+    private Path fileOf(String crawlId) {
+        return directory.resolve(crawlId + EXTENSION);
+    }
+
+    private void deleteExpired(long retentionMillis) throws IOException {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for(Path file : logs) {
+                if(Files.getLastModifiedTime(file).toMillis() < cutoff) Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * @return Configured directory, or the crawl store directory in {@code java.io.tmpdir} if none is
+     */
+    private static Path directoryOf(String configured) {
+        if(!configured.isEmpty()) return Paths.get(configured);
+        return Paths.get(System.getProperty("java.io.tmpdir"), "imagefinder-crawl-store");
+    }
+}
@@ -0,0 +1,187 @@
+package com.eulerity.hackathon.imagefinder.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent set of {@code long} values stored in open addressing tables of primitive longs.<br>
+ * The set is split in stripes, each one a linear probing table. Adding a value is a single CAS on an empty slot,
+ * without locking. Only growing a stripe takes that stripe's lock: every slot is swapped to a {@code MOVED} marker
+ * while being copied, so a concurrent add either lands before the copy, or sees the marker and retries in the
+ * grown table. Values are never removed.
+ */
+public class ConcurrentLongSet {
+
+    private static final long EMPTY = 0L;
+    private static final long MOVED = Long.MIN_VALUE;
+    private static final int STRIPES = 64;
+    private static final double LOAD_FACTOR = 0.6;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    // The two values used as slot markers are tracked outside the tables
+    private final AtomicBoolean emptyValuePresent = new AtomicBoolean(false);
+    private final AtomicBoolean movedValuePresent = new AtomicBoolean(false);
+
+    /**
+     * @param expectedSize Number of values the set is expected to hold before it has to grow
+     */
+    public ConcurrentLongSet(int expectedSize) {
+        int capacity = 16;
+        while(capacity * LOAD_FACTOR * STRIPES < expectedSize && capacity < (1 << 29)) capacity <<= 1;
+        for(int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(new Table(capacity));
+    }
+
+    /**
+     * Atomically adds the value if absent
+     * @param value Value to be added
+     * @return {@code true} if the value was added by this call, {@code false} if it was already present
+     */
+    public boolean add(long value) {
+        if(value == EMPTY) return emptyValuePresent.compareAndSet(false, true);
+        if(value == MOVED) return movedValuePresent.compareAndSet(false, true);
+        long hash = mix(value);
+        Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+        while(true) {
+            Table table = stripe.table;
+            int index = (int) hash & table.mask;
+            int probes = 0;
+            boolean moved = false;
+            while(probes <= table.mask) {
+                long current = table.slots.get(index);
+                if(current == value) return false;
+                if(current == MOVED) {
+                    moved = true;
+                    break;
+                }
+                if(current == EMPTY) {
+                    if(table.slots.compareAndSet(index, EMPTY, value)) {
+                        if(table.size.incrementAndGet() > table.threshold) grow(stripe, table);
+                        return true;
+                    }
+                    // Lost the slot to a concurrent add, look at it again
+                    continue;
+                }
+                index = (index + 1) & table.mask;
+                probes++;
+            }
+            if(moved) awaitGrowth(stripe);
+            else grow(stripe, table);
+        }
+    }
+
+    /**
+     * @param value Value to be looked up
+     * @return {@code true} if the value is present
+     */
+    public boolean contains(long value) {
+        if(value == EMPTY) return emptyValuePresent.get();
+        if(value == MOVED) return movedValuePresent.get();
+        long hash = mix(value);
+        Stripe stripe = stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+
+        while(true) {
+            Table table = stripe.table;
+            int index = (int) hash & table.mask;
+            boolean moved = false;
+            for(int probes = 0; probes <= table.mask; probes++) {
+                long current = table.slots.get(index);
+                if(current == value) return true;
+                if(current == EMPTY) return false;
+                if(current == MOVED) {
+                    moved = true;
+                    break;
+                }
+                index = (index + 1) & table.mask;
+            }
+            if(!moved) return false;
+            awaitGrowth(stripe);
+        }
+    }
+
+    /**
+     * @return Number of values in the set
+     */
+    public long size() {
+        long size = (emptyValuePresent.get() ? 1 : 0) + (movedValuePresent.get() ? 1 : 0);
+        for(Stripe stripe : stripes) size += stripe.table.size.get();
+        return size;
+    }
+
+    /**
+     * @return Number of bytes taken by the slot tables
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for(Stripe stripe : stripes) bytes += (long) (stripe.table.mask + 1) * Long.BYTES;
+        return bytes;
+    }
+
+    /**
+     * Doubles the table of the stripe, unless another thread already did
+     */
+    private void grow(Stripe stripe, Table table) {
+        synchronized (stripe) {
+            if(stripe.table != table) return;
+            Table grown = new Table((table.mask + 1) << 1);
+            for(int i = 0; i <= table.mask; i++) {
+                long key = table.slots.getAndSet(i, MOVED);
+                if(key != EMPTY) grown.insertUnshared(key);
+            }
+            stripe.table = grown;
+        }
+    }
+
+    /**
+     * Blocks until the stripe's growth in progress is complete
+     */
+    private void awaitGrowth(Stripe stripe) {
+        synchronized (stripe) {
+            // Growth holds the stripe's lock until the new table is published
+        }
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads the bits of the value over the whole word
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static final class Stripe {
+        private volatile Table table;
+
+        private Stripe(Table table) {
+            this.table = table;
+        }
+    }
+
+    private static final class Table {
+        private final AtomicLongArray slots;
+        private final int mask;
+        private final int threshold;
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        private Table(int capacity) {
+            this.slots = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+
+        /**
+         * Adds a key to a table that is not yet visible to other threads
+         */
+        private void insertUnshared(long key) {
+            int index = (int) mix(key) & mask;
+            while(slots.get(index) != EMPTY) index = (index + 1) & mask;
+            slots.set(index, key);
+            size.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.eulerity.hackathon.imagefinder.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds which of up to 32 keywords occur in a string, in one scan and without allocating.<br>
+ * The keywords are stored in a trie of ASCII characters, walked from every position of the string; with
+ * {@code ignoreCase}, ASCII letters match in either case without lower casing the string first.
+ */
+public final class KeywordMatcher {
+
+    private static final int ALPHABET = 128;
+
+    private final boolean ignoreCase;
+    // Transitions of every trie node by character, 0 for none since the root is never a child
+    private final int[][] next;
+    // Keywords ending at every trie node, one bit per keyword
+    private final int[] matches;
+
+    public KeywordMatcher(boolean ignoreCase, String... keywords) {
+        if(keywords.length > 32) throw new IllegalArgumentException("At most 32 keywords, got " + keywords.length);
+        this.ignoreCase = ignoreCase;
+        List<int[]> nodes = new ArrayList<>();
+        List<Integer> nodeMatches = new ArrayList<>();
+        nodes.add(new int[ALPHABET]);
+        nodeMatches.add(0);
+        for(int keyword = 0; keyword < keywords.length; keyword++) {
+            int node = 0;
+            for(int i = 0; i < keywords[keyword].length(); i++) {
+                char c = fold(keywords[keyword].charAt(i));
+                if(c >= ALPHABET) throw new IllegalArgumentException("Keywords must be ASCII: " + keywords[keyword]);
+                if(nodes.get(node)[c] == 0) {
+                    nodes.get(node)[c] = nodes.size();
+                    nodes.add(new int[ALPHABET]);
+                    nodeMatches.add(0);
+                }
+                node = nodes.get(node)[c];
+            }
+            nodeMatches.set(node, nodeMatches.get(node) | (1 << keyword));
+        }
+        this.next = nodes.toArray(new int[0][]);
+        this.matches = new int[nodeMatches.size()];
+        for(int node = 0; node < matches.length; node++) matches[node] = nodeMatches.get(node);
+    }
+
+    /**
+     * @param text String to be searched
+     * @return Bit {@code i} set if the {@code i}-th keyword occurs in the string
+     */
+    public int match(String text) {
+        int found = 0;
+        int length = text.length();
+        for(int start = 0; start < length; start++) {
+            int node = 0;
+            for(int i = start; i < length; i++) {
+                char c = fold(text.charAt(i));
+                if(c >= ALPHABET) break;
+                node = next[node][c];
+                if(node == 0) break;
+                found |= matches[node];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param text String to be searched
+     * @return {@code true} if any keyword occurs in the string
+     */
+    public boolean matchesAny(String text) {
+        int length = text.length();
+        for(int start = 0; start < length; start++) {
+            int node = 0;
+            for(int i = start; i < length; i++) {
+                char c = fold(text.charAt(i));
+                if(c >= ALPHABET) break;
+                node = next[node][c];
+                if(node == 0) break;
+                if(matches[node] != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    private char fold(char c) {
+        return (ignoreCase && c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,283 @@
+package com.eulerity.hackathon.imagefinder.util;
+
+import java.util.Locale;
+
+/**
+ * Absolute URL parsed in a single pass, as offsets into the original string.<br>
+ * A page's URL is parsed once, and every link and image of the page is resolved against it without building a
+ * {@link java.net.URL}: references are classified by their first characters, and only the resolved URL is
+ * allocated. Immutable, so it can be shared by the threads processing a page.
+ */
+public final class ParsedUrl {
+
+    private final String url;
+    // Index of the ':' ending the scheme
+    private final int schemeEnd;
+    private final int hostStart;
+    private final int hostEnd;
+    // Start of the path, which may be empty, and of the query and fragment delimiters, or the end of the URL
+    private final int pathStart;
+    private final int queryStart;
+    private final int fragmentStart;
+    private final boolean http;
+
+    private ParsedUrl(String url, int schemeEnd, int hostStart, int hostEnd, int pathStart, int queryStart,
+                      int fragmentStart) {
+        this.url = url;
+        this.schemeEnd = schemeEnd;
+        this.hostStart = hostStart;
+        this.hostEnd = hostEnd;
+        this.pathStart = pathStart;
+        this.queryStart = queryStart;
+        this.fragmentStart = fragmentStart;
+        this.http = (schemeEnd == 4 && url.regionMatches(true, 0, "http", 0, 4))
+                || (schemeEnd == 5 && url.regionMatches(true, 0, "https", 0, 5));
+    }
+
+    /**
+     * @param url URL
+     * @return Parsed URL, or {@code null} if the URL is not absolute with an authority, like
+     * {@code scheme://host/path}
+     */
+    public static ParsedUrl parse(String url) {
+        if(url == null) return null;
+        int schemeEnd = schemeEnd(url, 0, url.length());
+        if(schemeEnd < 0 || !url.startsWith("//", schemeEnd + 1)) return null;
+
+        int length = url.length();
+        int pathStart = authorityEnd(url, schemeEnd + 3);
+        long host = hostBounds(url, schemeEnd + 3, pathStart);
+        int hostStart = (int) (host >>> 32);
+        int hostEnd = (int) host;
+        if(hostEnd <= hostStart) return null;
+
+        int queryStart = pathStart;
+        while(queryStart < length && url.charAt(queryStart) != '?' && url.charAt(queryStart) != '#') queryStart++;
+        int fragmentStart = queryStart;
+        while(fragmentStart < length && url.charAt(fragmentStart) != '#') fragmentStart++;
+        return new ParsedUrl(url, schemeEnd, hostStart, hostEnd, pathStart, queryStart, fragmentStart);
+    }
+
+    /**
+     * @return The URL as it was parsed
+     */
+    @Override
+    public String toString() {
+        return url;
+    }
+
+    /**
+     * @return {@code true} for {@code http} and {@code https} URLs
+     */
+    public boolean isHttpOrHttps() {
+        return http;
+    }
+
+    /**
+     * @return Host of the URL, as written
+     */
+    public String getHost() {
+        return url.substring(hostStart, hostEnd);
+    }
+
+    /**
+     * @return Lower case scheme and host of the URL, and its port if written, like {@code https://example.com:8443}
+     */
+    public String getOrigin() {
+        StringBuilder origin = new StringBuilder(pathStart);
+        origin.append(url, 0, schemeEnd).append("://").append(url, hostStart, hostEnd);
+        // The port follows the host, up to the path
+        if(hostEnd + 1 < pathStart) origin.append(url, hostEnd, pathStart);
+        return origin.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return Path and query of the URL, without the fragment, {@code /} for an empty path
+     */
+    public String getPathAndQuery() {
+        if(pathStart == fragmentStart) return "/";
+        if(pathStart == queryStart) return "/" + url.substring(queryStart, fragmentStart);
+        return url.substring(pathStart, fragmentStart);
+    }
+
+    /**
+     * @param other Parsed URL
+     * @return {@code true} if both URLs have the same host, ignoring case
+     */
+    public boolean isSameHost(ParsedUrl other) {
+        int length = hostEnd - hostStart;
+        return length == other.hostEnd - other.hostStart
+                && url.regionMatches(true, hostStart, other.url, other.hostStart, length);
+    }
+
+    /**
+     * @param absoluteUrl Absolute URL, as resolved by {@link #resolve(String)}
+     * @return {@code true} if the URL has the same host as this one, ignoring case
+     */
+    public boolean isSameHost(String absoluteUrl) {
+        int schemeEnd = schemeEnd(absoluteUrl, 0, absoluteUrl.length());
+        if(schemeEnd < 0 || !absoluteUrl.startsWith("//", schemeEnd + 1)) return false;
+        long host = hostBounds(absoluteUrl, schemeEnd + 3, authorityEnd(absoluteUrl, schemeEnd + 3));
+        int otherHostStart = (int) (host >>> 32);
+        int length = (int) host - otherHostStart;
+        return length == hostEnd - hostStart && absoluteUrl.regionMatches(true, otherHostStart, url, hostStart, length);
+    }
+
+    /**
+     * Resolves a reference found on the page at this URL, the way a browser does
+     * @param reference Absolute or relative URL, as written on the page
+     * @return Absolute URL, or {@code null} if the reference is not an {@code http} or {@code https} URL
+     */
+    public String resolve(String reference) {
+        int start = 0;
+        int end = reference.length();
+        // Like java.net.URL, surrounding control characters and spaces are not part of the reference
+        while(start < end && reference.charAt(start) <= ' ') start++;
+        while(end > start && reference.charAt(end - 1) <= ' ') end--;
+
+        int referenceSchemeEnd = schemeEnd(reference, start, end);
+        if(referenceSchemeEnd >= 0) {
+            int schemeLength = referenceSchemeEnd - start;
+            boolean httpReference = (schemeLength == 4 && reference.regionMatches(true, start, "http", 0, 4))
+                    || (schemeLength == 5 && reference.regionMatches(true, start, "https", 0, 5));
+            if(!httpReference || !reference.startsWith("//", referenceSchemeEnd + 1)) return null;
+            return reference.substring(start, end);
+        }
+        if(start == end) return url.substring(0, fragmentStart);
+
+        char first = reference.charAt(start);
+        if(first == '/' && start + 1 < end && reference.charAt(start + 1) == '/') {
+            // Network-path reference, taking the scheme of the page
+            return concat(url, 0, schemeEnd + 1, reference, start, end, false);
+        }
+        if(first == '/') {
+            return concat(url, 0, pathStart, reference, start, end, true);
+        }
+        if(first == '?') {
+            return concat(url, 0, queryStart, reference, start, end, false);
+        }
+        if(first == '#') {
+            return concat(url, 0, fragmentStart, reference, start, end, false);
+        }
+
+        // Relative path, merged with the directory of the page's path
+        int directoryEnd = url.lastIndexOf('/', queryStart - 1) + 1;
+        if(directoryEnd <= pathStart) {
+            StringBuilder resolved = new StringBuilder(pathStart + 1 + end - start);
+            resolved.append(url, 0, pathStart).append('/');
+            return appendPath(resolved, pathStart, reference, start, end);
+        }
+        StringBuilder resolved = new StringBuilder(directoryEnd + end - start);
+        resolved.append(url, 0, directoryEnd);
+        return appendPath(resolved, pathStart, reference, start, end);
+    }
+
+    /**
+     * Joins a prefix of the base URL and a reference, resolving the dot segments of a new path
+     */
+    private static String concat(String base, int baseStart, int baseEnd, String reference, int start, int end,
+                                 boolean path) {
+        StringBuilder resolved = new StringBuilder(baseEnd - baseStart + end - start);
+        resolved.append(base, baseStart, baseEnd);
+        if(!path) return resolved.append(reference, start, end).toString();
+        return appendPath(resolved, baseEnd, reference, start, end);
+    }
+
+    /**
+     * Appends the path of a reference, then resolves the dot segments of the whole path starting at
+     * {@code pathStart}, if it has any
+     */
+    private static String appendPath(StringBuilder resolved, int pathStart, String reference, int start, int end) {
+        resolved.append(reference, start, end);
+        int pathEnd = pathStart;
+        boolean dots = false;
+        while(pathEnd < resolved.length()) {
+            char c = resolved.charAt(pathEnd);
+            if(c == '?' || c == '#') break;
+            if(c == '.') dots = true;
+            pathEnd++;
+        }
+        if(dots) removeDotSegments(resolved, pathStart, pathEnd);
+        return resolved.toString();
+    }
+
+    /**
+     * Resolves the {@code .} and {@code ..} segments of the path between {@code pathStart} and {@code pathEnd} in
+     * place, like {@link UrlUtilities#removeDotSegments(String)}: segments are copied back over the ones removed
+     */
+    private static void removeDotSegments(StringBuilder url, int pathStart, int pathEnd) {
+        int read = pathStart;
+        int write = pathStart;
+        while(read < pathEnd) {
+            int segmentEnd = read + 1;
+            while(segmentEnd < pathEnd && url.charAt(segmentEnd) != '/') segmentEnd++;
+            int segmentLength = segmentEnd - read - 1;
+            boolean last = segmentEnd == pathEnd;
+            if(segmentLength == 1 && url.charAt(read + 1) == '.') {
+                if(last) url.setCharAt(write++, '/');
+            }
+            else if(segmentLength == 2 && url.charAt(read + 1) == '.' && url.charAt(read + 2) == '.') {
+                // Drops the last segment written, along with its slash
+                while(write > pathStart && url.charAt(write - 1) != '/') write--;
+                if(write > pathStart) write--;
+                if(last) url.setCharAt(write++, '/');
+            }
+            else {
+                for(int i = read; i < segmentEnd; i++) url.setCharAt(write++, url.charAt(i));
+            }
+            read = segmentEnd;
+        }
+        if(write == pathStart) url.setCharAt(write++, '/');
+        url.delete(write, pathEnd);
+    }
+
+    /**
+     * @return Index of the end of the authority starting at {@code authorityStart}, where the path starts
+     */
+    private static int authorityEnd(String url, int authorityStart) {
+        int end = authorityStart;
+        while(end < url.length()) {
+            char c = url.charAt(end);
+            if(c == '/' || c == '?' || c == '#' || c == '\\') break;
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return Start and end of the host in the authority, without user info nor port, packed as
+     * {@code start << 32 | end}
+     */
+    private static long hostBounds(String url, int authorityStart, int authorityEnd) {
+        int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+        if(hostStart < authorityStart) hostStart = authorityStart;
+        int hostEnd = authorityEnd;
+        // A colon after the closing bracket of an IPv6 address, if any, starts the port
+        for(int i = authorityEnd - 1; i >= hostStart; i--) {
+            char c = url.charAt(i);
+            if(c == ']') break;
+            if(c == ':') {
+                hostEnd = i;
+                break;
+            }
+        }
+        return ((long) hostStart << 32) | hostEnd;
+    }
+
+    /**
+     * @return Index of the {@code :} ending the scheme of the URL, or {@code -1} if it has none
+     */
+    private static int schemeEnd(String url, int start, int end) {
+        if(start >= end || !isAsciiLetter(url.charAt(start))) return -1;
+        for(int i = start + 1; i < end; i++) {
+            char c = url.charAt(i);
+            if(c == ':') return i;
+            if(!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') return -1;
+        }
+        return -1;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -3,7 +3,10 @@ package com.eulerity.hackathon.imagefinder.util;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.*;
 
 /**
  * URL Utilities class provides quick utility functions for URLs
@@ -14,6 +17,7 @@ public class UrlUtilities {
     public static String[] imageFormats = {
             ".jpg", ".jpeg", ".png", ".gif", ".webp", ".svg", ".bmp", ".apng", ".avif", ".ico"
     };
+    private static final KeywordMatcher IMAGE_FORMATS = new KeywordMatcher(false, imageFormats);
 
     /**
      * To make URLs consistent among different scenarios
@@ -51,18 +55,98 @@ public class UrlUtilities {
         return url;
     }
 
+    /**
+     * Reduces the URL to the canonical form used to recognise pages already visited: lower case scheme and host,
+     * no default port, no fragment, no dot segments in the path, and the query parameters sorted
+     * @param url Absolute URL
+     * @return Canonical URL, or {@code null} if the URL is not absolute
+     */
+    public static String canonicalizeUrl(String url) {
+        if(url == null) return null;
+        url = url.trim();
+        int schemeEnd = url.indexOf("://");
+        if(schemeEnd <= 0) return null;
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+
+        int authorityStart = schemeEnd + 3;
+        int fragment = url.indexOf('#', authorityStart);
+        int end = (fragment >= 0) ? fragment : url.length();
+        int authorityEnd = authorityStart;
+        while(authorityEnd < end && url.charAt(authorityEnd) != '/' && url.charAt(authorityEnd) != '?') authorityEnd++;
+
+        String authority = url.substring(authorityStart, authorityEnd);
+        int at = authority.lastIndexOf('@');
+        String userInfo = (at >= 0) ? authority.substring(0, at + 1) : "";
+        String host = authority.substring(at + 1);
+        String port = null;
+        int colon = host.lastIndexOf(':');
+        if(colon >= 0 && colon > host.lastIndexOf(']')) {
+            port = host.substring(colon + 1);
+            host = host.substring(0, colon);
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        if(host.endsWith(".")) host = host.substring(0, host.length() - 1);
+        if(host.isEmpty()) return null;
+        if(port != null && (port.isEmpty() || (scheme.equals("http") && port.equals("80"))
+                || (scheme.equals("https") && port.equals("443")))) {
+            port = null;
+        }
+
+        String pathAndQuery = url.substring(authorityEnd, end);
+        int queryStart = pathAndQuery.indexOf('?');
+        String path = (queryStart >= 0) ? pathAndQuery.substring(0, queryStart) : pathAndQuery;
+        String query = (queryStart >= 0) ? pathAndQuery.substring(queryStart + 1) : "";
+
+        StringBuilder canonical = new StringBuilder(url.length());
+        canonical.append(scheme).append("://").append(userInfo).append(host);
+        if(port != null) canonical.append(':').append(port);
+        canonical.append(removeDotSegments(path));
+        if(!query.isEmpty()) {
+            List<String> parameters = new ArrayList<>();
+            for(String parameter : query.split("&")) {
+                if(!parameter.isEmpty()) parameters.add(parameter);
+            }
+            Collections.sort(parameters);
+            if(!parameters.isEmpty()) canonical.append('?').append(String.join("&", parameters));
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Resolves the {@code .} and {@code ..} segments of a path
+     * @param path Path of a URL
+     * @return Path without dot segments, {@code /} for an empty path
+     */
+    static String removeDotSegments(String path) {
+        if(path.isEmpty()) return "/";
+        if(!path.contains(".")) return path;
+
+        String[] segments = path.split("/", -1);
+        Deque<String> output = new ArrayDeque<>();
+        for(int i = 1; i < segments.length; i++) {
+            String segment = segments[i];
+            boolean last = i == segments.length - 1;
+            if(segment.equals(".")) {
+                if(last) output.addLast("");
+            }
+            else if(segment.equals("..")) {
+                output.pollLast();
+                if(last) output.addLast("");
+            }
+            else {
+                output.addLast(segment);
+            }
+        }
+        return "/" + String.join("/", output);
+    }
+
     /**
      * Checks if the given url is absolute or not
      * @param url URL
      * @return {@code true} if absolute URL is supplied, otherwise false
      */
     public static boolean isAbsoluteUrl(String url) {
-        try {
-            new URL(url);
-            return true;
-        } catch (MalformedURLException e) {
-            return false;
-        }
+        return toUrl(url) != null;
     }
 
     /**
@@ -72,9 +156,9 @@ public class UrlUtilities {
      */
     public static boolean isHttpOrHttps(String url) {
         try {
-            String protocol = new URL(url).getProtocol();
-            return protocol.equalsIgnoreCase("http") || protocol.equalsIgnoreCase("https");
-        } catch (MalformedURLException e) {
+            String scheme = new URI(url).getScheme();
+            return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+        } catch (URISyntaxException e) {
             return false;
         }
     }
@@ -89,23 +173,23 @@ public class UrlUtilities {
      * @throws MalformedURLException Invalid URL Exception
      */
     public static String resolveUrl(String baseUrl, String currentUrl, boolean assertSameDomain) throws MalformedURLException {
+        ParsedUrl base = ParsedUrl.parse(baseUrl);
+        if(base == null) throw new MalformedURLException("Not an absolute URL: " + baseUrl);
+        return resolveUrl(base, currentUrl, assertSameDomain);
+    }
 
-        if(isAbsoluteUrl(currentUrl)) {
-            if(isHttpOrHttps(currentUrl)) {
-                if(assertSameDomain){
-                    return (isSameDomain(baseUrl, currentUrl)) ? currentUrl : null;
-                }
-                else{
-                    return currentUrl;
-                }
-            }
-            else {
-                return null;
-            }
-        }
-        else {
-            return new URL(new URL(baseUrl), currentUrl).toString();
-        }
+    /**
+     * Resolves a URL found on a page against the page's URL, parsed once for all the URLs of the page
+     * @param base The page on which the url is found
+     * @param currentUrl The url that is found
+     * @param assertSameDomain To check if url belongs to the same domain
+     * @return Fully formed {@code currentUrl}, or {@code null} if it is not an HTTP or HTTPS URL, or not in the same
+     * domain
+     */
+    public static String resolveUrl(ParsedUrl base, String currentUrl, boolean assertSameDomain) {
+        String resolvedUrl = base.resolve(currentUrl);
+        if(resolvedUrl == null) return null;
+        return (assertSameDomain && !base.isSameHost(resolvedUrl)) ? null : resolvedUrl;
     }
 
     /**
@@ -116,10 +200,12 @@ public class UrlUtilities {
      * @throws MalformedURLException
      */
     public static boolean isSameDomain(String url1, String url2) throws MalformedURLException {
-        URL base = new URL(url1);
-        URL current = new URL(url2);
+        ParsedUrl base = ParsedUrl.parse(url1);
+        if(base == null) throw new MalformedURLException("Not an absolute URL: " + url1);
+        ParsedUrl current = ParsedUrl.parse(url2);
+        if(current == null) throw new MalformedURLException("Not an absolute URL: " + url2);
 
-        return base.getHost().equalsIgnoreCase(current.getHost());
+        return base.isSameHost(current);
     }
 
     /**
@@ -129,13 +215,7 @@ public class UrlUtilities {
      */
     public static boolean isValidURL(String url) {
         if(url.trim().contains(" ")) return false;
-        try{
-            new URL(url);
-            return true;
-        }
-        catch (Exception e) {
-            return false;
-        }
+        return toUrl(url) != null;
     }
 
     /**
@@ -144,10 +224,18 @@ public class UrlUtilities {
      * @return {@code true} if it does, {@code false} otherwise
      */
     public static boolean isImageUrl(String url) {
-        for(String ext : imageFormats){
-            if(url.contains(ext)) return true;
+        return IMAGE_FORMATS.matchesAny(url);
+    }
+
+    /**
+     * @return Absolute URL of a known protocol, or {@code null} if the URL is not one
+     */
+    private static URL toUrl(String url) {
+        try {
+            return new URI(url).toURL();
+        } catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
+            return null;
         }
-        return false;
     }
 
 }
@@ -99,10 +99,17 @@ function enableForm() {
  * @param callback Function to handle response
  */
 function makeApiCall(url, method, obj, callback) {
-    let xhr = new XMLHttpRequest();
     let responseMap = {};
     let timeoutId;
-    let accumulatedResponse = '';
+    // Crawl streamed, and last event received of it, to reconnect from if the stream drops
+    let crawlId = null;
+    let lastEventId = null;
+    let reconnects = 0;
+    let crawlDone = false;
+    // Depth of each page started, and images found on it until its result arrives
+    let pageLevels = {};
+    let foundImages = {};
+    const loadingText = document.querySelector('#loading-container p');
     
     let logoSet = new Set();
     let gifSet = new Set();
@@ -188,62 +195,132 @@ function makeApiCall(url, method, obj, callback) {
         });
     }
     
-    document.getElementById('loading-container').style.display = 'block';
-    resetTimeout();
-    
-    xhr.open(method, url);
-    
-    xhr.onerror = function() {
-        clearTimeout(timeoutId);
-        alert('Network error occurred. Please check your connection and try again.');
-        enableForm();
-    };
-    
-    xhr.onreadystatechange = function() {
-        if (xhr.readyState === XMLHttpRequest.LOADING) {
-            try {
-                const newData = xhr.responseText.substring(accumulatedResponse.length);
-                accumulatedResponse = xhr.responseText;
-
-                if (newData.trim()) {
-                    const chunks = newData.split('\n');
-                    chunks.forEach(chunk => {
-                        if (chunk.trim()) {
-                            try {
-                                const data = JSON.parse(chunk);
-                                processSpecialImages(data);
-                                updateList(responseMap);
-                                resetTimeout();
-                            } catch (e) {
-                                // Skip incomplete chunks
+    /**
+     * Handles one event of the stream, a page's result unless typed otherwise
+     */
+    function processEvent(type, data) {
+        if (type === 'page-started') {
+            pageLevels[data.url] = data.depth;
+        } else if (type === 'image-found') {
+            // Images are previewed as found, the page's result then replaces them
+            foundImages[data.url] = (foundImages[data.url] || []).concat(data.images);
+            processSpecialImages({
+                [data.url]: { level: pageLevels[data.url], images: foundImages[data.url].slice() }
+            });
+        } else if (type === 'crawl-progress') {
+            loadingText.textContent = `Processing... ${data.pagesCompleted} pages crawled, ` +
+                `${data.pagesQueued} queued, ${data.imagesFound} images found`;
+        } else if (type === 'crawl-done') {
+            crawlDone = true;
+        } else {
+            Object.keys(data).forEach(pageUrl => {
+                delete foundImages[pageUrl];
+                delete responseMap[pageUrl];
+            });
+            processSpecialImages(data);
+        }
+    }
+
+    /**
+     * Reconnects to the crawl from the last event received, unless it is over or retried too often
+     * @return true if reconnecting
+     */
+    function reconnect() {
+        if (crawlDone || !crawlId || reconnects >= 3) {
+            return false;
+        }
+        reconnects++;
+        console.warn(`Stream of crawl ${crawlId} interrupted, reconnecting after event ${lastEventId}`);
+        connect(`/main?crawlId=${encodeURIComponent(crawlId)}`, 'POST', null);
+        return true;
+    }
+
+    function connect(requestUrl, requestMethod, body) {
+        let xhr = new XMLHttpRequest();
+        let accumulatedResponse = '';
+        let pendingEvents = '';
+
+        xhr.open(requestMethod, requestUrl);
+        xhr.setRequestHeader('Accept', 'text/event-stream');
+        if (lastEventId) {
+            xhr.setRequestHeader('Last-Event-ID', lastEventId);
+        }
+
+        xhr.onerror = function() {
+            if (reconnect()) {
+                return;
+            }
+            clearTimeout(timeoutId);
+            alert('Network error occurred. Please check your connection and try again.');
+            enableForm();
+        };
+
+        xhr.onreadystatechange = function() {
+            if (xhr.readyState === XMLHttpRequest.HEADERS_RECEIVED) {
+                crawlId = xhr.getResponseHeader('X-Crawl-Id') || crawlId;
+            } else if (xhr.readyState === XMLHttpRequest.LOADING) {
+                try {
+                    const newData = xhr.responseText.substring(accumulatedResponse.length);
+                    accumulatedResponse = xhr.responseText;
+
+                    // Events are typed and numbered, untyped ones carry a batch of pages, one JSON object per data line
+                    pendingEvents += newData;
+                    const events = pendingEvents.split('\n\n');
+                    pendingEvents = events.pop();
+                    events.forEach(event => {
+                        let type = null;
+                        event.split('\n').forEach(line => {
+                            if (line.startsWith('id: ')) {
+                                lastEventId = line.substring(4);
+                            } else if (line.startsWith('event: ')) {
+                                type = line.substring(7);
+                            } else if (line.startsWith('data: ')) {
+                                try {
+                                    processEvent(type, JSON.parse(line.substring(6)));
+                                } catch (e) {
+                                    console.error('Skipping malformed result:', e);
+                                }
                             }
-                        }
+                        });
                     });
+                    if (events.length > 0) {
+                        updateList(responseMap);
+                        resetTimeout();
+                    }
+                } catch (error) {
+                    console.error('Error processing response:', error);
+                    enableForm();
+                }
+            } else if (xhr.readyState === XMLHttpRequest.DONE) {
+                if (xhr.status === 200 && reconnect()) {
+                    return;
+                }
+                clearTimeout(timeoutId);
+                document.getElementById('loading-container').style.display = 'none';
+                loadingText.textContent = 'Processing...';
+
+                if (xhr.status !== 200) {
+                    let message = xhr.status + ":" + xhr.statusText + ":" + xhr.responseText;
+                    alert(message);
+                    enableForm();
+                    throw 'API call returned bad code: ' + xhr.status;
+                }
+                if (Object.keys(responseMap).length > 0) {
+                    document.getElementById('grab-more-button').style.display = 'block';
+                } else {
+                    alert('No images were found or the connection was interrupted.');
+                    enableForm();
                 }
-            } catch (error) {
-                console.error('Error processing response:', error);
-                enableForm();
-            }
-        } else if (xhr.readyState === XMLHttpRequest.DONE) {
-            clearTimeout(timeoutId);
-            document.getElementById('loading-container').style.display = 'none';
-            
-            if (xhr.status !== 200) {
-                let message = xhr.status + ":" + xhr.statusText + ":" + xhr.responseText;
-                alert(message);
-                enableForm();
-                throw 'API call returned bad code: ' + xhr.status;
-            }
-            if (Object.keys(responseMap).length > 0) {
-                document.getElementById('grab-more-button').style.display = 'block';
-            } else {
-                alert('No images were found or the connection was interrupted.');
-                enableForm();
             }
-        }
-    };
-    
-    xhr.send(obj ? obj instanceof FormData || obj.constructor == String ? obj : JSON.stringify(obj) : null);
+        };
+
+        xhr.send(body);
+    }
+
+    document.getElementById('loading-container').style.display = 'block';
+    resetTimeout();
+
+    connect(url, method, obj ? obj instanceof FormData || obj.constructor == String ? obj : JSON.stringify(obj) : null);
     
     window.responseMap = responseMap;
 }
@@ -0,0 +1,118 @@
+package com.eulerity.hackathon.imagefinder.batch;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+import com.eulerity.hackathon.imagefinder.output.ResultFormat;
+import com.eulerity.hackathon.imagefinder.output.ResultStream;
+
+public class BatchJobTest {
+
+	@Test
+	public void testLateClientGetsResultsFromCursor() {
+		BatchJob job = new BatchJob("job", 2);
+		job.publish("{\"a\":1}");
+		job.publish("{\"b\":2}");
+		Assert.assertEquals(BatchJob.State.RUNNING, job.getState());
+
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), ResultFormat.JSON_LINES);
+		job.attach(stream, 1);
+		job.publish("{\"c\":3}");
+		job.close();
+		stream.drain();
+
+		Assert.assertEquals("{\"b\":2}\n{\"c\":3}\n", sw.toString());
+		Assert.assertEquals(BatchJob.State.COMPLETE, job.getState());
+		Assert.assertEquals(3, job.getPagesCompleted());
+		Assert.assertTrue(job.isIdle());
+	}
+
+	@Test
+	public void testCancelAbortsCrawl() {
+		BatchJob job = new BatchJob("job", 1);
+		int[] drained = {0};
+		job.setOnDrained(() -> drained[0]++);
+		job.cancel();
+		Assert.assertTrue(job.isAborted());
+		Assert.assertEquals(1, drained[0]);
+
+		job.close();
+		Assert.assertEquals(BatchJob.State.CANCELLED, job.getState());
+	}
+
+	@Test
+	public void testSlowClientIsFedAsItDrains() {
+		BatchJob job = new BatchJob("job", 1);
+		for(int i = 0; i < 300; i++) job.publish("{\"page\":" + i + "}");
+		job.close();
+
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), ResultFormat.JSON_LINES);
+		// Stops at the stream's high watermark instead of blocking on its full queue
+		job.attach(stream, 0);
+		Assert.assertTrue(stream.isBackedUp());
+		Assert.assertFalse(job.isIdle());
+
+		stream.drain();
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 300; i++) expected.append("{\"page\":").append(i).append("}\n");
+		Assert.assertEquals(expected.toString(), sw.toString());
+		Assert.assertTrue(job.isIdle());
+	}
+
+	@Test
+	public void testCursorPastTheEndAndCancelAfterCompletion() {
+		BatchJob job = new BatchJob("job", 1);
+		job.publish("{\"a\":1}");
+		job.close();
+		job.cancel();
+		Assert.assertEquals(BatchJob.State.COMPLETE, job.getState());
+		Assert.assertFalse(job.isAborted());
+
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), ResultFormat.JSON_LINES);
+		job.attach(stream, 5);
+		stream.drain();
+		Assert.assertEquals("", sw.toString());
+		Assert.assertTrue(job.isIdle());
+	}
+
+	@Test
+	public void testRegistryForgetsUnknownAndExpiredJobs() throws InterruptedException {
+		BatchRegistry registry = new BatchRegistry(10, 0);
+		Assert.assertEquals(404, notFound(registry, "missing"));
+		Assert.assertEquals(404, notFound(registry, null));
+
+		BatchJob complete = registry.create(1);
+		BatchJob running = registry.create(1);
+		BatchJob streamed = registry.create(1);
+		Assert.assertSame(running, registry.get(running.getJobId()));
+		complete.close();
+		// A client still reading the results, too slow to have them all yet
+		for(int i = 0; i < 300; i++) streamed.publish("{}");
+		streamed.close();
+		streamed.attach(new ResultStream(new PrintWriter(new StringWriter()), ResultFormat.JSON_LINES), 0);
+		Thread.sleep(5);
+
+		// Only a job that is over, and that nobody streams, is dropped once its retention has passed
+		registry.create(1);
+		Assert.assertEquals(404, notFound(registry, complete.getJobId()));
+		Assert.assertSame(running, registry.get(running.getJobId()));
+		Assert.assertEquals(3, registry.size());
+	}
+
+	private static int notFound(BatchRegistry registry, String jobId) {
+		try {
+			registry.get(jobId);
+		} catch (CrawlRejectedException e) {
+			return e.getStatusCode();
+		}
+		Assert.fail("Job " + jobId + " should be unknown");
+		return 0;
+	}
+}
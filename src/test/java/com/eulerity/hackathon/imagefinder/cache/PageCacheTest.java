@@ -0,0 +1,99 @@
+package com.eulerity.hackathon.imagefinder.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.object.CachedPage;
+import com.eulerity.hackathon.imagefinder.object.Image;
+
+public class PageCacheTest {
+
+	private static CachedPage page(String url, long storedAt) {
+		return new CachedPage(url, Collections.singletonList(Image.processImage(url + "a.png")),
+				Collections.singletonList(url + "sub/"), "\"v1\"", null, storedAt);
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedPagesOverSize() {
+		long pageBytes = page("https://example.com/1/", 0).estimateBytes();
+		PageCache cache = new PageCache(pageBytes * 2, 60000);
+		cache.put(page("https://example.com/1/", 0));
+		cache.put(page("https://example.com/2/", 0));
+		cache.get("https://example.com/1/");
+		cache.put(page("https://example.com/3/", 0));
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNotNull(cache.get("https://example.com/1/"));
+		Assert.assertNull(cache.get("https://example.com/2/"));
+		Assert.assertTrue(cache.getBytes() <= pageBytes * 2);
+	}
+
+	@Test
+	public void testRevalidationRefreshesStalePage() {
+		PageCache cache = new PageCache(1 << 20, 60000);
+		CachedPage stale = page("https://example.com/", System.currentTimeMillis() - 120000);
+		cache.put(stale);
+		Assert.assertFalse(cache.isFresh(cache.get("https://example.com/")));
+		Assert.assertEquals("\"v1\"", stale.getConditionalHeaders().get("If-None-Match"));
+
+		cache.revalidate(stale);
+		Assert.assertTrue(cache.isFresh(cache.get("https://example.com/")));
+	}
+
+	@Test
+	public void testNotModifiedKeepsThePageAndChangedReplacesIt() {
+		PageCache cache = new PageCache(1 << 20, 60000);
+		long stale = System.currentTimeMillis() - 120000;
+		cache.put(page("https://example.com/", stale));
+
+		// 304: the images and links extracted earlier are served again, under the same validator
+		CachedPage revalidated = cache.revalidate(cache.get("https://example.com/"));
+		Assert.assertSame(revalidated, cache.get("https://example.com/"));
+		Assert.assertEquals("https://example.com/a.png", revalidated.getImages().get(0).getImageUrl());
+		Assert.assertEquals("\"v1\"", revalidated.getEtag());
+		Assert.assertTrue(revalidated.getStoredAt() > stale);
+
+		// 200: the page was parsed again and its new version replaces the old one
+		long bytes = cache.getBytes();
+		CachedPage changed = new CachedPage("https://example.com/",
+				Arrays.asList(Image.processImage("https://example.com/b.png"), Image.processImage("https://example.com/c.png")),
+				Collections.emptyList(), "\"v2\"", null, System.currentTimeMillis());
+		cache.put(changed);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals("\"v2\"", cache.get("https://example.com/").getConditionalHeaders().get("If-None-Match"));
+		Assert.assertEquals(bytes - revalidated.estimateBytes() + changed.estimateBytes(), cache.getBytes());
+	}
+
+	@Test
+	public void testPagesExpireAfterTheirTimeToLive() {
+		PageCache cache = new PageCache(1 << 20, 60000);
+		long now = System.currentTimeMillis();
+		Assert.assertTrue(cache.isFresh(page("https://example.com/", now - 59000)));
+		Assert.assertFalse(cache.isFresh(page("https://example.com/", now - 61000)));
+		CachedPage page = page("https://example.com/", 0);
+		Assert.assertTrue(page.isFresh(59999, 60000));
+		Assert.assertFalse(page.isFresh(60000, 60000));
+		// Without a time to live every page is revalidated
+		Assert.assertFalse(new PageCache(1 << 20, 0).isFresh(page("https://example.com/", now)));
+
+		// Expired pages stay for a conditional refetch, with whichever validators the server gave
+		Map<String, String> headers = new CachedPage("https://example.com/", Collections.emptyList(),
+				Collections.emptyList(), null, "Wed, 21 Oct 2015 07:28:00 GMT", 0).getConditionalHeaders();
+		Assert.assertEquals(Collections.singletonMap("If-Modified-Since", "Wed, 21 Oct 2015 07:28:00 GMT"), headers);
+		Assert.assertFalse(new CachedPage("https://example.com/", Collections.emptyList(), Collections.emptyList(),
+				null, null, 0).isRevalidatable());
+	}
+
+	@Test
+	public void testPageLargerThanTheCacheIsNotStored() {
+		CachedPage page = page("https://example.com/", 0);
+		PageCache cache = new PageCache(page.estimateBytes() - 1, 60000);
+		cache.put(page);
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getBytes());
+	}
+}
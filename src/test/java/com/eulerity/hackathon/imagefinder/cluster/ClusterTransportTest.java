@@ -0,0 +1,155 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.eulerity.hackathon.imagefinder.output.ResultSink;
+import com.eulerity.hackathon.imagefinder.service.ImageCrawlerService;
+
+public class ClusterTransportTest {
+
+	@Test
+	public void testForwardsPagesOfOtherNodesToTheirOwner() throws IOException {
+		try (ServerSocket peer = new ServerSocket(0)) {
+			peer.setSoTimeout(10000);
+			int port = freePort();
+			ClusterNode node = new ClusterNode("node1", addresses(port, peer.getLocalPort()), 128, 2, 50, 1000, 1 << 20, null);
+			ImageCrawlerService service = service();
+			node.start();
+			try {
+				ClusterCrawl crawl = node.coordinate(service, Mockito.mock(ResultSink.class));
+				String local = urlOwnedBy(node, "node1");
+				String remote = urlOwnedBy(node, "node2");
+				Assert.assertTrue(crawl.isLocal(local));
+				Assert.assertFalse(crawl.isLocal(remote));
+
+				// A full batch goes out at once
+				crawl.forward(remote, 1, 3);
+				crawl.forward(remote + "a/", 2, 0);
+				try (Socket connection = peer.accept()) {
+					connection.setSoTimeout(10000);
+					DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+					ClusterMessage message = read(in);
+					Assert.assertEquals(ClusterMessage.Type.CRAWL, message.getType());
+					Assert.assertEquals(crawl.getCrawlId(), message.getCrawlId());
+					Assert.assertEquals("node1", message.getFrom());
+					Assert.assertEquals("node1", message.getCoordinatorId());
+					Assert.assertEquals(2, message.getPages().size());
+					Assert.assertEquals(remote, message.getPages().get(0).getUrl());
+					Assert.assertEquals(3, message.getPages().get(0).getParentImageCount());
+
+					// Once the peer acknowledges both pages, the crawl is complete and the peer told so
+					send(port, ClusterMessage.done(crawl.getCrawlId(), "node2", 2));
+					Mockito.verify(service, Mockito.timeout(10000)).completeJob();
+					Assert.assertEquals(ClusterMessage.Type.END, read(in).getType());
+				}
+			} finally {
+				node.stop();
+			}
+		}
+	}
+
+	@Test
+	public void testGivesUpPagesOfAnUnreachableNode() throws IOException {
+		ClusterNode node = new ClusterNode("node1", addresses(freePort(), freePort()), 128, 256, 50, 1000, 1 << 20, null);
+		ImageCrawlerService service = service();
+		node.start();
+		try {
+			ClusterCrawl crawl = node.coordinate(service, Mockito.mock(ResultSink.class));
+			crawl.forward(urlOwnedBy(node, "node2"), 1, 0);
+
+			// The page is dropped after the send attempts, so that the crawl still completes
+			Mockito.verify(service, Mockito.timeout(15000)).completeJob();
+			Mockito.verify(service, Mockito.never()).crawlForwarded(Mockito.anyList());
+		} finally {
+			node.stop();
+		}
+	}
+
+	@Test
+	public void testDropsConnectionAnnouncingAnOversizedMessage() throws IOException {
+		ClusterTransport.Handler handler = Mockito.mock(ClusterTransport.Handler.class);
+		int port = freePort();
+		ClusterTransport transport = new ClusterTransport("node1", addresses(port, freePort()), 1000, 1024, handler);
+		transport.start();
+		try {
+			try (Socket socket = new Socket("localhost", port)) {
+				socket.setSoTimeout(10000);
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				out.writeInt(Integer.MAX_VALUE);
+				out.flush();
+				// Closed by the node rather than read into a 2GB buffer
+				Assert.assertEquals(-1, socket.getInputStream().read());
+			}
+
+			// Other connections are still served
+			ClusterMessage done = ClusterMessage.done("crawl", "node2", 1);
+			send(port, done);
+			Mockito.verify(handler, Mockito.timeout(10000)).onMessage(Mockito.any(ClusterMessage.class));
+			Mockito.verify(handler, Mockito.never()).onUndeliverable(Mockito.anyString(), Mockito.any());
+		} finally {
+			transport.stop();
+		}
+	}
+
+	private static ImageCrawlerService service() {
+		ImageCrawlerService service = Mockito.mock(ImageCrawlerService.class);
+		Mockito.when(service.isIdle()).thenReturn(true);
+		Mockito.when(service.isRecursive()).thenReturn(true);
+		Mockito.when(service.getPermissibleDepth()).thenReturn(2);
+		return service;
+	}
+
+	private static Map<String, InetSocketAddress> addresses(int port1, int port2) {
+		Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+		addresses.put("node1", InetSocketAddress.createUnresolved("localhost", port1));
+		addresses.put("node2", InetSocketAddress.createUnresolved("localhost", port2));
+		return addresses;
+	}
+
+	/**
+	 * @return Port nothing listens on, as far as the test goes
+	 */
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static String urlOwnedBy(ClusterNode node, String nodeId) {
+		for(int i = 0; ; i++) {
+			String url = "https://site" + i + ".example.com/";
+			if(node.ownerOf(url).equals(nodeId)) return url;
+		}
+	}
+
+	private static ClusterMessage read(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return ClusterMessage.decode(bytes);
+	}
+
+	/**
+	 * Sends a message to the node the way a peer does, over a connection of its own
+	 */
+	private static void send(int port, ClusterMessage message) throws IOException {
+		byte[] bytes = message.encode();
+		try (Socket socket = new Socket("localhost", port)) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.flush();
+		}
+	}
+}
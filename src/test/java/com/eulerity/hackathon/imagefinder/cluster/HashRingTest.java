@@ -0,0 +1,50 @@
+package com.eulerity.hackathon.imagefinder.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashRingTest {
+
+	@Test
+	public void testSpreadsHostsAndMovesFewOnResize() {
+		HashRing three = new HashRing(Arrays.asList("node1", "node2", "node3"), 128);
+		HashRing four = new HashRing(Arrays.asList("node1", "node2", "node3", "node4"), 128);
+
+		Map<String, Integer> hostsPerNode = new HashMap<>();
+		int moved = 0;
+		for(int i = 0; i < 3000; i++) {
+			String host = "site" + i + ".example.com";
+			String owner = three.ownerOf(host);
+			hostsPerNode.merge(owner, 1, Integer::sum);
+			String newOwner = four.ownerOf(host);
+			// A host only ever moves to the new node
+			if(!newOwner.equals(owner)) {
+				Assert.assertEquals("node4", newOwner);
+				moved++;
+			}
+		}
+		Assert.assertEquals(3, hostsPerNode.size());
+		for(int hosts : hostsPerNode.values()) Assert.assertTrue(hosts > 600);
+		Assert.assertTrue(moved > 300 && moved < 1200);
+	}
+
+	@Test
+	public void testMessageRoundTrip() throws Exception {
+		ClusterMessage crawl = ClusterMessage.decode(ClusterMessage.crawl("crawl", "node1", "node1", true, 2,
+				Collections.singletonList(new ClusterMessage.Page("https://example.com/a/", 1, 7))).encode());
+		Assert.assertEquals(ClusterMessage.Type.CRAWL, crawl.getType());
+		Assert.assertEquals(2, crawl.getPermissibleDepth());
+		Assert.assertEquals("https://example.com/a/", crawl.getPages().get(0).getUrl());
+		Assert.assertEquals(7, crawl.getPages().get(0).getParentImageCount());
+
+		ClusterMessage results = ClusterMessage.decode(ClusterMessage.results("crawl", "node2",
+				Collections.singletonList("{\"é\":1}")).encode());
+		Assert.assertEquals("{\"é\":1}", results.getResults().get(0));
+		Assert.assertEquals(1, results.getItemCount());
+	}
+}
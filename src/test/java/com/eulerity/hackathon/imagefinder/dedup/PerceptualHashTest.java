@@ -0,0 +1,71 @@
+package com.eulerity.hackathon.imagefinder.dedup;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PerceptualHashTest {
+
+	@Test
+	public void testResizedCopiesAreNearDuplicates() throws Exception {
+		BufferedImage original = drawScene(640, 480, 42);
+		long hash = PerceptualHash.of(encode(original, "png"));
+		long resized = PerceptualHash.of(encode(scale(original, 160, 120), "jpg"));
+		long other = PerceptualHash.of(encode(drawScene(640, 480, 7), "png"));
+
+		Assert.assertTrue(PerceptualHash.distance(hash, resized) <= 6);
+		Assert.assertTrue(PerceptualHash.distance(hash, other) > 10);
+		Assert.assertNull(PerceptualHash.of(new byte[] {1, 2, 3}));
+	}
+
+	@Test
+	public void testBkTreeFindsNearestCluster() {
+		BkTree tree = new BkTree();
+		tree.add(0xff00ff00ff00ff00L, "a");
+		tree.add(0x0f0f0f0f0f0f0f0fL, "b");
+		tree.add(0x123456789abcdef0L, "c");
+
+		Assert.assertEquals("a", tree.nearest(0xff00ff00ff00ff03L, 6));
+		Assert.assertEquals("b", tree.nearest(0x0f0f0f0f0f0f0f0fL, 0));
+		Assert.assertNull(tree.nearest(0x00ff00ff00ff00ffL, 6));
+		Assert.assertEquals(3, tree.size());
+	}
+
+	private static BufferedImage drawScene(int width, int height, long seed) {
+		Random random = new Random(seed);
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(new GradientPaint(0, 0, Color.WHITE, width, height, Color.DARK_GRAY));
+		graphics.fillRect(0, 0, width, height);
+		for(int i = 0; i < 12; i++) {
+			graphics.setColor(new Color(random.nextInt(0xffffff)));
+			graphics.fillOval(random.nextInt(width), random.nextInt(height), width / 3, height / 3);
+		}
+		graphics.dispose();
+		return image;
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = scaled.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		graphics.drawImage(image, 0, 0, width, height, null);
+		graphics.dispose();
+		return scaled;
+	}
+
+	private static byte[] encode(BufferedImage image, String format) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, format, bytes);
+		return bytes.toByteArray();
+	}
+}
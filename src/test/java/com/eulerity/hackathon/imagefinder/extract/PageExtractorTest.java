@@ -0,0 +1,175 @@
+package com.eulerity.hackathon.imagefinder.extract;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PageExtractorTest {
+
+	private static final String PAGE =
+			"<!DOCTYPE html>\n" +
+			"<html><head>\n" +
+			"<meta property=\"og:image\" content=\"https://cdn.example.com/cover\">\n" +
+			"<link rel=\"icon\" href=\"/favicon.ico\">\n" +
+			"<style>.hero { background: url('/img/hero.jpg') }</style>\n" +
+			"<script>var html = '<img src=\"/not-an-image.png\">';</script>\n" +
+			"</head><body>\n" +
+			"<!-- <a href=\"/commented\">hidden</a> -->\n" +
+			"<a href=\"/page?a=1&amp;b=2\">Page</a>\n" +
+			"<A HREF=/other>Other</A>\n" +
+			"<img src=\"/img/a.png\" srcset=\"/img/a-1x.png 1x, /img/a,2x.png 2x\">\n" +
+			"<picture><source srcset=\"/img/b.webp\"><img src=\"/img/b.png\"></picture>\n" +
+			"<video><source src=\"/movie.mp4\"></video>\n" +
+			"<div style=\"background-image:url(/img/c.gif)\"></div>\n" +
+			"</body></html>";
+
+	@Test
+	public void testExtractsLinksAndImagesInOnePass() throws IOException {
+		List<String> links = new ArrayList<>();
+		List<String> images = new ArrayList<>();
+		PageExtractor.extract(new ByteArrayInputStream(PAGE.getBytes(StandardCharsets.UTF_8)), null,
+				new PageExtractor.Handler() {
+					@Override
+					public void onLink(String url) {
+						links.add(url);
+					}
+
+					@Override
+					public void onImage(String url, PageExtractor.Source source) {
+						images.add(source + " " + url);
+					}
+				});
+
+		Assert.assertEquals(Arrays.asList("/page?a=1&b=2", "/other"), links);
+		Assert.assertEquals(Arrays.asList(
+				"OPEN_GRAPH https://cdn.example.com/cover",
+				"LINK /favicon.ico",
+				"CSS /img/hero.jpg",
+				"IMG /img/a.png",
+				"SRCSET /img/a-1x.png",
+				"SRCSET /img/a,2x.png",
+				"PICTURE /img/b.webp",
+				"IMG /img/b.png",
+				"CSS /img/c.gif"), images);
+	}
+
+	@Test
+	public void testCharsetSniffedFromMeta() throws IOException {
+		byte[] latin1 = "<html><head><meta charset=\"ISO-8859-1\"></head><img src=\"/caf\u00e9.png\"></html>"
+				.getBytes(StandardCharsets.ISO_8859_1);
+		Assert.assertEquals(Collections.singletonList("IMG /caf\u00e9.png"), extract(latin1, null));
+		byte[] windows = ("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1252\">" +
+				"<a href=\"/\u20ac\">Euro</a>").getBytes("windows-1252");
+		Assert.assertEquals(Collections.singletonList("A /\u20ac"), extract(windows, null));
+		// The charset of the response wins over the page's
+		byte[] utf8 = "<meta charset=\"ISO-8859-1\"><a href=\"/\u00e9\">".getBytes(StandardCharsets.UTF_8);
+		Assert.assertEquals(Collections.singletonList("A /\u00e9"), extract(utf8, "utf-8"));
+	}
+
+	@Test
+	public void testEntitiesDecodedInAttributes() throws IOException {
+		Assert.assertEquals(Arrays.asList("A /q?a=1&b=2&c=34", "IMG /a&b<c>\"d'.png", "A /x?y=&unknown;&z &amp"),
+				extract("<a href=\"/q?a=1&amp;b=2&#x26;c=&#51;&#x34;\">" +
+						"<img src='/a&amp;b&lt;c&gt;&quot;d&apos;.png'>" +
+						"<a href=\"/x?y=&unknown;&z &amp\">"));
+	}
+
+	@Test
+	public void testUnquotedAndValuelessAttributes() throws IOException {
+		Assert.assertEquals(Arrays.asList("A /download", "IMG /spaced.png", "IMG /bare.png", "A /last"),
+				extract("<a download href=/download>" +
+						"<img alt src = \"/spaced.png\" >" +
+						"<img ismap src=/bare.png hidden>" +
+						"<a\nhref=/last>"));
+	}
+
+	@Test
+	public void testTagCutOffAtEndOfStream() throws IOException {
+		Assert.assertEquals(Collections.singletonList("A /ok"), extract("<a href=\"/ok\">Ok</a><img src=\"/cut.png\""));
+		Assert.assertEquals(Collections.emptyList(), extract("<a href=\"/unterminated"));
+		Assert.assertEquals(Collections.emptyList(), extract("<img src=/unquoted.png"));
+		Assert.assertEquals(Collections.emptyList(), extract("<img alt"));
+	}
+
+	@Test
+	public void testTokensAcrossReadBoundaries() throws IOException {
+		byte[] page = PAGE.getBytes(StandardCharsets.UTF_8);
+		List<String> whole = extract(page, null);
+		// Every character read on its own
+		Assert.assertEquals(whole, extract(trickle(page), null));
+
+		// A tag ending up across the boundary of the extractor's own buffer
+		String tag = "<img src=\"/boundary.png\" srcset=\"/boundary-2x.png 2x\">";
+		for(int padding = 8192 - tag.length(); padding <= 8192; padding++) {
+			StringBuilder html = new StringBuilder();
+			for(int i = 0; i < padding; i++) html.append(' ');
+			html.append(tag);
+			Assert.assertEquals("Padding " + padding, Arrays.asList("IMG /boundary.png", "SRCSET /boundary-2x.png"),
+					extract(html.toString()));
+		}
+	}
+
+	@Test
+	public void testRawTextKeepsLessThanSigns() throws IOException {
+		Assert.assertEquals(Collections.singletonList("A /after"),
+				extract("<script>if(a<b && c</scr) { x = \"<a href='/inside'></div>\"; }</SCRIPT ><a href=\"/after\">"));
+		Assert.assertEquals(Arrays.asList("CSS /img</st.png", "CSS /img</style.png", "IMG /after.png"),
+				extract("<style>.a { background: url(/img</st.png) } .b { background: url(/img</style.png) }</STYLE>" +
+						"<img src=/after.png>"));
+		// A script left open runs to the end of the page
+		Assert.assertEquals(Collections.emptyList(), extract("<script>var a = '</scr"));
+	}
+
+	private static List<String> extract(String html) throws IOException {
+		return extract(html.getBytes(StandardCharsets.UTF_8), null);
+	}
+
+	private static List<String> extract(byte[] page, String charset) throws IOException {
+		return extract(new ByteArrayInputStream(page), charset);
+	}
+
+	/**
+	 * @return Links as {@code A url} and images as {@code SOURCE url}, in the order they were reported
+	 */
+	private static List<String> extract(InputStream input, String charset) throws IOException {
+		List<String> found = new ArrayList<>();
+		PageExtractor.extract(input, charset, new PageExtractor.Handler() {
+			@Override
+			public void onLink(String url) {
+				found.add("A " + url);
+			}
+
+			@Override
+			public void onImage(String url, PageExtractor.Source source) {
+				found.add(source + " " + url);
+			}
+		});
+		return found;
+	}
+
+	/**
+	 * @return Stream handing out a single byte per read
+	 */
+	private static InputStream trickle(byte[] bytes) {
+		return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				return super.read(buffer, offset, Math.min(length, 1));
+			}
+
+			@Override
+			public int available() {
+				return 0;
+			}
+		};
+	}
+}
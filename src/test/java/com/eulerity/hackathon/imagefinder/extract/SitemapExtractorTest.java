@@ -0,0 +1,73 @@
+package com.eulerity.hackathon.imagefinder.extract;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SitemapExtractorTest {
+
+	private static List<String> extract(byte[] sitemap, long maxBytes) throws IOException {
+		List<String> found = new ArrayList<>();
+		SitemapExtractor.extract(new ByteArrayInputStream(sitemap), maxBytes, new SitemapExtractor.Handler() {
+			@Override
+			public void onSitemap(String url) {
+				found.add("sitemap " + url);
+			}
+
+			@Override
+			public void onPage(String url, List<String> imageUrls) {
+				found.add("page " + url + " " + imageUrls);
+			}
+		});
+		return found;
+	}
+
+	@Test
+	public void testReadsPagesAndTheirImagesFromAGzippedSitemap() throws IOException {
+		String sitemap = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n"
+				+ "        xmlns:image=\"http://www.google.com/schemas/sitemap-image/1.1\">\n"
+				+ "  <url><loc>https://example.com/a</loc><lastmod>2024-01-01</lastmod>\n"
+				+ "    <image:image><image:loc>https://example.com/a.jpg</image:loc></image:image>\n"
+				+ "    <image:image><image:loc> https://example.com/b.png?w=1&amp;h=2 </image:loc></image:image>\n"
+				+ "  </url>\n"
+				+ "  <url><loc>https://example.com/b</loc></url>\n"
+				+ "</urlset>\n";
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try(GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+			gzip.write(sitemap.getBytes(StandardCharsets.UTF_8));
+		}
+
+		List<String> expected = new ArrayList<>();
+		expected.add("page https://example.com/a [https://example.com/a.jpg, https://example.com/b.png?w=1&h=2]");
+		expected.add("page https://example.com/b []");
+		Assert.assertEquals(expected, extract(gzipped.toByteArray(), 1 << 20));
+		Assert.assertEquals(expected, extract(sitemap.getBytes(StandardCharsets.UTF_8), 1 << 20));
+	}
+
+	@Test
+	public void testReadsSitemapIndexesWithinTheirSize() throws IOException {
+		byte[] index = ("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">"
+				+ "<sitemap><loc>https://example.com/pages.xml.gz</loc></sitemap>"
+				+ "<sitemap><loc>https://example.com/products.xml</loc></sitemap>"
+				+ "</sitemapindex>").getBytes(StandardCharsets.UTF_8);
+
+		List<String> expected = new ArrayList<>();
+		expected.add("sitemap https://example.com/pages.xml.gz");
+		expected.add("sitemap https://example.com/products.xml");
+		Assert.assertEquals(expected, extract(index, index.length));
+		try {
+			extract(index, index.length - 1);
+			Assert.fail("Sitemap read past its size limit");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CrawlFrontierTest {
+
+	private static List<String> drain(CrawlFrontier frontier) {
+		List<String> urls = new ArrayList<>();
+		CrawlFrontier.Entry entry;
+		while((entry = frontier.poll()) != null) urls.add(entry.getUrl());
+		return urls;
+	}
+
+	@Test
+	public void testHostsTakeTurnsLevelByLevel() {
+		CrawlFrontier frontier = new CrawlFrontier(PagePriority.DEPTH, 100);
+		frontier.offer("https://a.com/2", 2, 0);
+		frontier.offer("https://a.com/1", 1, 0);
+		frontier.offer("https://a.com/1b", 1, 0);
+		frontier.offer("https://b.com/1", 1, 0);
+
+		Assert.assertEquals(4, frontier.size());
+		List<String> urls = drain(frontier);
+		Assert.assertEquals("https://a.com/2", urls.get(3));
+		Assert.assertNotEquals(CrawlFrontier.hostOf(urls.get(0)), CrawlFrontier.hostOf(urls.get(1)));
+		Assert.assertTrue(frontier.isEmpty());
+	}
+
+	@Test
+	public void testImageRichParentsFirst() {
+		CrawlFrontier frontier = new CrawlFrontier(PagePriority.IMAGE_YIELD, 100);
+		frontier.offer("https://a.com/few", 1, 1);
+		frontier.offer("https://a.com/many", 1, 20);
+		frontier.offer("https://a.com/none", 1, 0);
+
+		Assert.assertEquals("https://a.com/many", frontier.poll().getUrl());
+		Assert.assertEquals("https://a.com/few", frontier.poll().getUrl());
+	}
+
+	@Test
+	public void testSpillsOverMemoryBoundAndReadsBack() {
+		CrawlFrontier frontier = new CrawlFrontier(PagePriority.DEPTH, 4);
+		for(int i = 0; i < 20; i++) frontier.offer("https://a.com/" + i, i % 3, 0);
+
+		Assert.assertEquals(20, frontier.size());
+		Assert.assertEquals(16, frontier.getSpilled());
+		List<String> urls = drain(frontier);
+		Assert.assertEquals(20, urls.size());
+		Assert.assertEquals(20, urls.stream().distinct().count());
+		Assert.assertEquals(0, frontier.getSpilled());
+		frontier.close();
+	}
+}
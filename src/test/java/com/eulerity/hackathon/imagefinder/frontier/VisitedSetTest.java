@@ -0,0 +1,137 @@
+package com.eulerity.hackathon.imagefinder.frontier;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.util.ConcurrentLongSet;
+
+public class VisitedSetTest {
+
+	@Test
+	public void testAddAndContainsAcrossResize() {
+		ConcurrentLongSet set = new ConcurrentLongSet(16);
+		long initialBytes = set.getMemoryBytes();
+		long[] values = {0, Long.MIN_VALUE, -1, Long.MAX_VALUE};
+		for(long value : values) Assert.assertTrue(set.add(value));
+		for(long value = 1; value <= 200000; value++) Assert.assertTrue(set.add(value * 0x9e3779b97f4a7c15L));
+
+		Assert.assertTrue(set.getMemoryBytes() > initialBytes);
+		Assert.assertEquals(200000 + values.length, set.size());
+		for(long value : values) {
+			Assert.assertTrue(set.contains(value));
+			Assert.assertFalse(set.add(value));
+		}
+		for(long value = 1; value <= 200000; value++) Assert.assertTrue(set.contains(value * 0x9e3779b97f4a7c15L));
+		Assert.assertFalse(set.contains(200001 * 0x9e3779b97f4a7c15L));
+
+		ExactVisitedSet visited = new ExactVisitedSet(16);
+		for(int i = 0; i < 10000; i++) Assert.assertTrue(visited.add("https://example.com/page/" + i));
+		for(int i = 0; i < 10000; i++) Assert.assertTrue(visited.contains("https://example.com/page/" + i));
+		Assert.assertFalse(visited.add("https://example.com/page/0"));
+		Assert.assertFalse(visited.contains("https://example.com/page/10000"));
+	}
+
+	@Test
+	public void testConcurrentAddsOfTheSameUrlHaveOneWinner() throws InterruptedException {
+		int urls = 20000;
+		AtomicIntegerArray exactWins = race(new ExactVisitedSet(16), urls);
+		for(int i = 0; i < urls; i++) Assert.assertEquals("Winners of URL " + i, 1, exactWins.get(i));
+
+		// Grows from its first filter while the threads race, a URL may only lose to a false positive
+		BloomVisitedSet bloom = new BloomVisitedSet(256, 1000000, 16, false);
+		AtomicIntegerArray bloomWins = race(bloom, urls);
+		int won = 0;
+		for(int i = 0; i < urls; i++) {
+			Assert.assertTrue("Winners of URL " + i, bloomWins.get(i) <= 1);
+			won += bloomWins.get(i);
+		}
+		Assert.assertTrue(bloom.getFilterCount() > 1);
+		Assert.assertEquals(won, bloom.size());
+		Assert.assertTrue(won > urls * 0.995);
+		bloom.close();
+	}
+
+	@Test
+	public void testBloomFalsePositiveRateMatchesBitsPerUrl() {
+		for(int bitsPerUrl : new int[] {8, 16}) {
+			int urls = 100000;
+			BloomVisitedSet single = new BloomVisitedSet(urls, urls, bitsPerUrl, false);
+			double measured = falsePositiveRate(single, urls);
+			// Rate of a classic Bloom filter at its optimal hash count, blocking costs a little more
+			int hashCount = (int) Math.round(bitsPerUrl * Math.log(2));
+			double expected = Math.pow(1 - Math.exp(-(double) hashCount / bitsPerUrl), hashCount);
+			Assert.assertTrue(bitsPerUrl + " bits: " + measured + " against " + expected, measured < 2 * expected);
+			Assert.assertEquals(1, single.getFilterCount());
+			single.close();
+		}
+
+		// Grown in steps from a small filter, the older filters take twice the bits to keep their rates negligible
+		BloomVisitedSet grown = new BloomVisitedSet(64, 100000, 16, false);
+		double measured = falsePositiveRate(grown, 100000);
+		Assert.assertTrue("Grown: " + measured, measured < 0.002);
+		Assert.assertTrue(grown.getFilterCount() > 1);
+		Assert.assertTrue(grown.getMemoryBytes() <= 2 * 100000 * 16 / 8 + 64 * grown.getFilterCount());
+		grown.close();
+	}
+
+	@Test
+	public void testMemoryMappedFilesDeletedOnClose() {
+		File directory = new File(System.getProperty("java.io.tmpdir"));
+		int before = countFilterFiles(directory);
+		BloomVisitedSet mapped = new BloomVisitedSet(16, 4096, 16, true);
+		for(int i = 0; i < 1000; i++) mapped.add("https://example.com/" + i);
+		Assert.assertEquals(before + mapped.getFilterCount(), countFilterFiles(directory));
+
+		mapped.close();
+		Assert.assertEquals(before, countFilterFiles(directory));
+	}
+
+	/**
+	 * Adds the URLs from 8 threads at once, each thread in its own order
+	 * @return Number of threads whose add returned {@code true}, per URL
+	 */
+	private static AtomicIntegerArray race(VisitedSet set, int urls) throws InterruptedException {
+		AtomicIntegerArray wins = new AtomicIntegerArray(urls);
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for(int thread = 0; thread < 8; thread++) {
+			int offset = thread * (urls / 8);
+			executor.submit(() -> {
+				start.await();
+				for(int i = 0; i < urls; i++) {
+					int url = (offset + i) % urls;
+					if(set.add("https://example.com/race/" + url)) wins.incrementAndGet(url);
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		return wins;
+	}
+
+	/**
+	 * Fills the set with as many URLs as it is sized for, then counts the other URLs it claims to hold
+	 */
+	private static double falsePositiveRate(BloomVisitedSet set, int urls) {
+		for(int i = 0; i < urls; i++) set.add("https://example.com/visited/" + i);
+		int falsePositives = 0;
+		for(int i = 0; i < urls; i++) {
+			if(set.contains("https://example.org/other/" + i)) falsePositives++;
+		}
+		return (double) falsePositives / urls;
+	}
+
+	private static int countFilterFiles(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name.startsWith("visited-") && name.endsWith(".bloom"));
+		return (files == null) ? 0 : files.length;
+	}
+}
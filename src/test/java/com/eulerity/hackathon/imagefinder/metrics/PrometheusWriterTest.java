@@ -0,0 +1,36 @@
+package com.eulerity.hackathon.imagefinder.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrometheusWriterTest {
+
+	@Test
+	public void testHistogramBucketsAreCumulative() {
+		Histogram histogram = new Histogram(10, 100);
+		histogram.record(5);
+		histogram.record(10);
+		histogram.record(50);
+		histogram.record(1000);
+
+		String text = new PrometheusWriter()
+				.family("fetch_seconds", "histogram", "Fetch time")
+				.histogram("fetch_seconds", histogram, 1000, "host", "example.com")
+				.toString();
+
+		Assert.assertEquals("# HELP fetch_seconds Fetch time\n"
+				+ "# TYPE fetch_seconds histogram\n"
+				+ "fetch_seconds_bucket{host=\"example.com\",le=\"0.01\"} 2\n"
+				+ "fetch_seconds_bucket{host=\"example.com\",le=\"0.1\"} 3\n"
+				+ "fetch_seconds_bucket{host=\"example.com\",le=\"+Inf\"} 4\n"
+				+ "fetch_seconds_sum{host=\"example.com\"} 1.065\n"
+				+ "fetch_seconds_count{host=\"example.com\"} 4\n", text);
+	}
+
+	@Test
+	public void testEscapesLabelValues() {
+		String text = new PrometheusWriter().sample("pages", 3, "host", "a\"b\\c").toString();
+
+		Assert.assertEquals("pages{host=\"a\\\"b\\\\c\"} 3\n", text);
+	}
+}
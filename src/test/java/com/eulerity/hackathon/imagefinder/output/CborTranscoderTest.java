@@ -0,0 +1,65 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CborTranscoderTest {
+
+	private static String hex(ResultBuffer buffer) {
+		StringBuilder hex = new StringBuilder();
+		for(int i = 0; i < buffer.size(); i++) hex.append(String.format("%02x", buffer.byteAt(i)));
+		return hex.toString();
+	}
+
+	@Test
+	public void testTranscodesJsonItems() {
+		ResultBuffer buffer = new ResultBuffer(16);
+		new CborTranscoder().transcode("{\"a\": [1, -300, \"é\", true, null, 1.5], \"b\":\"q\\u00e9\\n\"}", buffer);
+
+		Assert.assertEquals("bf" + "6161" + "9f" + "01" + "39012b" + "62c3a9" + "f5" + "f6" + "fb3ff8000000000000" + "ff"
+				+ "6162" + "6471c3a90a" + "ff", hex(buffer));
+	}
+
+	@Test
+	public void testLeavesTheBufferAsItWasOnMalformedJson() {
+		ResultBuffer buffer = new ResultBuffer(16);
+		CborTranscoder cbor = new CborTranscoder();
+		cbor.transcode("[]", buffer);
+		try {
+			cbor.transcode("{\"a\":[1,", buffer);
+			Assert.fail("Malformed JSON transcoded");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("9fff", hex(buffer));
+		}
+	}
+
+	@Test
+	public void testNestedArraysAndObjects() {
+		ResultBuffer buffer = new ResultBuffer(16);
+		new CborTranscoder().transcode("{\"a\":{\"b\":[[],[{}],{\"c\":[1,[2,[3]]]}]}}", buffer);
+
+		Assert.assertEquals("bf" + "6161" + "bf" + "6162" + "9f" + "9fff" + "9fbfffff"
+				+ "bf" + "6163" + "9f" + "01" + "9f" + "02" + "9f03ff" + "ff" + "ff" + "ff"
+				+ "ff" + "ff" + "ff", hex(buffer));
+	}
+
+	@Test
+	public void testNonAsciiStringsAreUtf8() {
+		CborTranscoder cbor = new CborTranscoder();
+		ResultBuffer buffer = new ResultBuffer(16);
+		// Three byte characters, and a surrogate pair given as such or escaped
+		cbor.transcode("[\"\u65e5\u672c\", \"\ud83d\ude00\", \"\\ud83d\\ude00\", \"\\u00e9\u00e9\"]", buffer);
+		Assert.assertEquals("9f" + "66e697a5e69cac" + "64f09f9880" + "64f09f9880" + "64c3a9c3a9" + "ff", hex(buffer));
+
+		// The length counts bytes rather than characters, 48 of them taking a byte of their own
+		buffer = new ResultBuffer(16);
+		StringBuilder json = new StringBuilder("\"");
+		StringBuilder expected = new StringBuilder("7830");
+		for(int i = 0; i < 24; i++) {
+			json.append('\u00e9');
+			expected.append("c3a9");
+		}
+		cbor.transcode(json.append('"').toString(), buffer);
+		Assert.assertEquals(expected.toString(), hex(buffer));
+	}
+}
@@ -0,0 +1,96 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventLogTest {
+
+	private static String stream(EventLog events, ResultFormat format, long lastEventId) {
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), format);
+		events.attach(stream, lastEventId);
+		stream.drain();
+		return sw.toString();
+	}
+
+	@Test
+	public void testResumesAfterLastEventId() {
+		EventLog events = new EventLog("crawl", 16, 1000);
+		events.publishEvent(CrawlEvent.PAGE_STARTED, "{\"url\":\"a\"}");
+		events.publish("{\"a\":{\"level\":0,\"images\":[]}}");
+		events.publishEvent(CrawlEvent.CRAWL_DONE, "{}");
+		events.close();
+
+		Assert.assertEquals("id: 1\nevent: page-started\ndata: {\"url\":\"a\"}\n\n"
+				+ "id: 2\nevent: page-done\ndata: {\"a\":{\"level\":0,\"images\":[]}}\n\n"
+				+ "id: 3\nevent: crawl-done\ndata: {}\n\n", stream(events, ResultFormat.EVENT_STREAM, 0));
+		Assert.assertEquals("id: 3\nevent: crawl-done\ndata: {}\n\n", stream(events, ResultFormat.EVENT_STREAM, 2));
+		// Other clients get the pages' results alone
+		Assert.assertEquals("{\"a\":{\"level\":0,\"images\":[]}}\n", stream(events, ResultFormat.JSON_LINES, 0));
+	}
+
+	@Test
+	public void testKeepsLastEventsOnly() {
+		EventLog events = new EventLog("crawl", 2, 1000);
+		for(int i = 0; i < 3; i++) events.publish("{}");
+
+		Assert.assertFalse(events.isRetained(0));
+		Assert.assertTrue(events.isRetained(1));
+		Assert.assertTrue(events.isRetained(3));
+		Assert.assertFalse(events.isRetained(4));
+	}
+
+	@Test
+	public void testResumesAfterTheLogWasTrimmed() {
+		EventLog events = new EventLog("crawl", 4, 1000);
+		for(int i = 1; i <= 10; i++) events.publishEvent(CrawlEvent.PAGE_STARTED, "{\"n\":" + i + "}");
+		events.close();
+
+		// Events 7 to 10 are kept: a client that got 6 misses nothing, one that got 5 missed event 6
+		Assert.assertTrue(events.isRetained(6));
+		Assert.assertFalse(events.isRetained(5));
+		Assert.assertEquals(ids(7, 10), ids(stream(events, ResultFormat.EVENT_STREAM, 6)));
+		// Attached anyway, the events no longer kept are skipped
+		Assert.assertEquals(ids(7, 10), ids(stream(events, ResultFormat.EVENT_STREAM, 2)));
+		Assert.assertEquals("", stream(events, ResultFormat.EVENT_STREAM, 10));
+	}
+
+	@Test
+	public void testResumesAcrossGrowthAndWrapOfTheRing() {
+		EventLog events = new EventLog("crawl", 100, 1000);
+		for(int i = 1; i <= 150; i++) events.publish("{}");
+
+		Assert.assertFalse(events.isRetained(49));
+		Assert.assertTrue(events.isRetained(50));
+		Assert.assertFalse(events.isRetained(151));
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), ResultFormat.EVENT_STREAM);
+		events.attach(stream, 120);
+		// Events published after the client came back follow the ones it missed
+		for(int i = 151; i <= 160; i++) events.publish("{}");
+		events.close();
+		stream.drain();
+		Assert.assertEquals(ids(121, 160), ids(sw.toString()));
+		Assert.assertTrue(events.isIdle());
+	}
+
+	private static String ids(long from, long to) {
+		StringBuilder ids = new StringBuilder();
+		for(long id = from; id <= to; id++) ids.append(id).append(' ');
+		return ids.toString();
+	}
+
+	/**
+	 * @return IDs of the SSE messages of the stream, in order
+	 */
+	private static String ids(String eventStream) {
+		StringBuilder ids = new StringBuilder();
+		for(String line : eventStream.split("\n")) {
+			if(line.startsWith("id: ")) ids.append(line.substring(4)).append(' ');
+		}
+		return ids.toString();
+	}
+}
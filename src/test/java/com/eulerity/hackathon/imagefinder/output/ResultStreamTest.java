@@ -0,0 +1,132 @@
+package com.eulerity.hackathon.imagefinder.output;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+
+public class ResultStreamTest {
+
+	@Test
+	public void testCoalescesPagesIntoOneEvent() {
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), ResultFormat.EVENT_STREAM);
+		stream.publish("{\"a\":1}");
+		stream.publish("{\"b\":2}");
+		stream.close();
+		stream.drain();
+
+		Assert.assertEquals("data: {\"a\":1}\ndata: {\"b\":2}\n\n", sw.toString());
+	}
+
+	@Test
+	public void testBackedUpUntilDrained() {
+		StringWriter sw = new StringWriter();
+		ResultStream stream = new ResultStream(new PrintWriter(sw), ResultFormat.JSON_LINES);
+		int[] resumed = {0};
+		stream.setOnDrained(() -> resumed[0]++);
+		for(int i = 0; i < 64; i++) stream.publish("{}");
+		Assert.assertTrue(stream.isBackedUp());
+
+		stream.close();
+		stream.drain();
+		Assert.assertFalse(stream.isBackedUp());
+		Assert.assertEquals(1, resumed[0]);
+		Assert.assertEquals(64 * 3, sw.toString().length());
+	}
+
+	@Test
+	public void testSlowClientHoldsThePublisherBack() throws Exception {
+		int capacity = ConfigLoader.get("crawler.output.maxQueuedPages", 128);
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StringBuilder written = new StringBuilder();
+		// Client stuck reading the first batch until released
+		Writer slowClient = new Writer() {
+			@Override
+			public void write(char[] chars, int offset, int length) throws IOException {
+				writing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				synchronized (written) {
+					written.append(chars, offset, length);
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		ResultStream stream = new ResultStream(new PrintWriter(slowClient), ResultFormat.JSON_LINES);
+		AtomicInteger resumed = new AtomicInteger(0);
+		stream.setOnDrained(resumed::incrementAndGet);
+		Thread drain = new Thread(stream::drain);
+		drain.start();
+
+		stream.publish("{\"page\":0}");
+		Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+		for(int i = 1; i <= capacity; i++) {
+			stream.publish("{\"page\":" + i + "}");
+			Assert.assertEquals("Backed up after " + i + " pages", i >= capacity / 2, stream.isBackedUp());
+		}
+
+		// The queue is full, the next page waits for the client
+		Thread publisher = new Thread(() -> stream.publish("{\"page\":" + (capacity + 1) + "}"));
+		publisher.start();
+		publisher.join(300);
+		Assert.assertTrue(publisher.isAlive());
+		Assert.assertEquals(0, resumed.get());
+
+		release.countDown();
+		publisher.join(5000);
+		Assert.assertFalse(publisher.isAlive());
+		stream.close();
+		drain.join(5000);
+		Assert.assertFalse(drain.isAlive());
+
+		Assert.assertFalse(stream.isBackedUp());
+		Assert.assertEquals(1, resumed.get());
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i <= capacity + 1; i++) expected.append("{\"page\":").append(i).append("}\n");
+		Assert.assertEquals(expected.toString(), written.toString());
+	}
+
+	@Test
+	public void testClientGoneAwayReleasesThePublisher() {
+		StringWriter sw = new StringWriter();
+		PrintWriter failing = new PrintWriter(sw) {
+			@Override
+			public boolean checkError() {
+				return true;
+			}
+		};
+		ResultStream stream = new ResultStream(failing, ResultFormat.EVENT_STREAM);
+		int[] resumed = {0};
+		stream.setOnDrained(() -> resumed[0]++);
+		stream.publish("{\"a\":1}");
+		stream.close();
+		stream.drain();
+		Assert.assertTrue(stream.isAborted());
+		Assert.assertEquals(1, resumed[0]);
+
+		// Dropped at once rather than waiting on a queue nobody drains
+		for(int i = 0; i < 1000; i++) stream.publish("{}");
+		Assert.assertFalse(stream.isBackedUp());
+		Assert.assertEquals("data: {\"a\":1}\n\n", sw.toString());
+	}
+}
@@ -0,0 +1,64 @@
+package com.eulerity.hackathon.imagefinder.probe;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+
+public class ImageHeaderTest {
+
+	@Test
+	public void testParsesDimensionsFromHeaders() {
+		byte[] png = bytes(0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a, 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+				0, 0, 0x02, 0x80, 0, 0, 0x01, 0xe0);
+		assertHeader(ImageHeader.parse(png, 5000, "application/octet-stream"), "image/png", 640, 480, 5000L);
+
+		byte[] gif = bytes('G', 'I', 'F', '8', '9', 'a', 0x10, 0, 0x20, 0);
+		assertHeader(ImageHeader.parse(gif, -1, null), "image/gif", 16, 32, null);
+
+		// APP0 segment, then a baseline start of frame of 300x200
+		byte[] jpeg = bytes(0xff, 0xd8, 0xff, 0xe0, 0, 4, 0, 0, 0xff, 0xc0, 0, 17, 8, 0, 200, 0x01, 0x2c, 3);
+		assertHeader(ImageHeader.parse(jpeg, 12345, "image/jpeg"), "image/jpeg", 300, 200, 12345L);
+
+		// Extended WebP, canvas size stored minus one on 24 bits
+		byte[] webp = bytes('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'X', 10, 0, 0, 0,
+				0, 0, 0, 0, 0x1f, 0x03, 0, 0x57, 0x02, 0);
+		assertHeader(ImageHeader.parse(webp, -1, null), "image/webp", 800, 600, null);
+	}
+
+	@Test
+	public void testFallsBackToContentType() {
+		assertHeader(ImageHeader.parse(new byte[0], 42, "image/avif; q=1"), "image/avif", null, null, 42L);
+		Assert.assertNull(ImageHeader.parse(new byte[0], -1, "text/html"));
+	}
+
+	@Test
+	public void testClassifiesOnRealData() {
+		Image disguisedGif = Image.processImage("https://example.com/banner.png");
+		disguisedGif.applyHeader(new ImageHeader("image/gif", 468, 60, 2048L));
+		Assert.assertEquals(Image.Type.GIF, disguisedGif.getType());
+		Assert.assertEquals(Integer.valueOf(468), disguisedGif.getWidth());
+
+		Image icon = Image.processImage("https://example.com/static/apple-touch.png");
+		icon.applyHeader(new ImageHeader("image/png", 32, 32, 512L));
+		Assert.assertEquals(Image.Type.FAVICON, icon.getType());
+
+		Image photo = Image.processImage("https://example.com/photo.gif");
+		photo.applyHeader(new ImageHeader("image/jpeg", 1200, 800, null));
+		Assert.assertEquals(Image.Type.IMAGE, photo.getType());
+	}
+
+	private static void assertHeader(ImageHeader header, String mimeType, Integer width, Integer height, Long bytes) {
+		Assert.assertNotNull(header);
+		Assert.assertEquals(mimeType, header.getMimeType());
+		Assert.assertEquals(width, header.getWidth());
+		Assert.assertEquals(height, header.getHeight());
+		Assert.assertEquals(bytes, header.getBytes());
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] data = new byte[values.length];
+		for(int i = 0; i < values.length; i++) data[i] = (byte) values[i];
+		return data;
+	}
+}
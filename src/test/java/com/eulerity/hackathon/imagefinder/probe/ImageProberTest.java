@@ -0,0 +1,114 @@
+package com.eulerity.hackathon.imagefinder.probe;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.ratelimit.PolitenessScheduler;
+import com.eulerity.hackathon.imagefinder.result.ResultStore;
+
+public class ImageProberTest {
+
+	private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a, 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+			0, 0, 0x02, (byte) 0x80, 0, 0, 0x01, (byte) 0xe0};
+
+	@Test
+	public void testReadsSizeFromTheRangeOrTheWholeResponse() {
+		PolitenessScheduler scheduler = Mockito.mock(PolitenessScheduler.class);
+		// Range honoured, the size comes from Content-Range
+		stub(scheduler, "https://example.com/ranged.png", false, response(206, PNG, "image/png",
+				"Content-Range", "bytes 0-23/5000", "Content-Length", "24"));
+		// Range ignored, the body was cut at the probe size and the size comes from Content-Length
+		stub(scheduler, "https://example.com/whole.png", false, response(200, PNG, "image/png", "Content-Length", "7000"));
+		stub(scheduler, "https://example.com/missing.png", false, response(404, new byte[0], "text/html"));
+		Mockito.when(scheduler.probe("https://example.com/broken.png", false, 24))
+				.thenReturn(failed(new IOException("Connection reset")));
+
+		ResultStore results = results("https://example.com/ranged.png", "https://example.com/whole.png",
+				"https://example.com/missing.png", "https://example.com/broken.png");
+		AtomicInteger completed = new AtomicInteger();
+		new ImageProber(scheduler, false, 24, 8, 64).probe(results, new int[] {0, 1, 2, 3}, completed::incrementAndGet);
+
+		Assert.assertEquals(1, completed.get());
+		Assert.assertEquals(Long.valueOf(5000), applied(results, 0).getBytes());
+		Assert.assertEquals(Integer.valueOf(640), applied(results, 0).getWidth());
+		Assert.assertEquals(Long.valueOf(7000), applied(results, 1).getBytes());
+		Mockito.verify(results, Mockito.never()).applyHeader(Mockito.eq(2), Mockito.any());
+		Mockito.verify(results, Mockito.never()).applyHeader(Mockito.eq(3), Mockito.any());
+	}
+
+	@Test
+	public void testHeadFallsBackToContentType() {
+		PolitenessScheduler scheduler = Mockito.mock(PolitenessScheduler.class);
+		stub(scheduler, "https://example.com/photo", true, response(200, new byte[0], "image/avif", "Content-Length", "42"));
+
+		ResultStore results = results("https://example.com/photo");
+		AtomicInteger completed = new AtomicInteger();
+		new ImageProber(scheduler, true, 24, 8, 64).probe(results, new int[] {0}, completed::incrementAndGet);
+
+		Assert.assertEquals(1, completed.get());
+		Assert.assertEquals("image/avif", applied(results, 0).getMimeType());
+		Assert.assertEquals(Long.valueOf(42), applied(results, 0).getBytes());
+		Assert.assertNull(applied(results, 0).getWidth());
+	}
+
+	@Test
+	public void testCancelCompletesProbesNotStarted() {
+		PolitenessScheduler scheduler = Mockito.mock(PolitenessScheduler.class);
+		CompletableFuture<FetchResult> first = new CompletableFuture<>();
+		Mockito.when(scheduler.probe("https://example.com/0.png", false, 24)).thenReturn(first);
+
+		ResultStore results = results("https://example.com/0.png", "https://example.com/1.png", "https://example.com/2.png");
+		AtomicInteger completed = new AtomicInteger();
+		// A single probe in flight, the other two wait for its slot
+		ImageProber prober = new ImageProber(scheduler, false, 24, 1, 64);
+		prober.probe(results, new int[] {0, 1, 2}, completed::incrementAndGet);
+		Assert.assertEquals(0, completed.get());
+
+		prober.cancel();
+		Assert.assertEquals(0, completed.get());
+		first.complete(response(206, PNG, "image/png", "Content-Range", "bytes 0-23/5000"));
+
+		Assert.assertEquals(1, completed.get());
+		Mockito.verify(scheduler, Mockito.times(1)).probe(Mockito.anyString(), Mockito.anyBoolean(), Mockito.anyInt());
+		Mockito.verify(results).applyHeader(Mockito.eq(0), Mockito.any());
+		Mockito.verify(results, Mockito.never()).applyHeader(Mockito.eq(1), Mockito.any());
+		Mockito.verify(results, Mockito.never()).applyHeader(Mockito.eq(2), Mockito.any());
+	}
+
+	private static void stub(PolitenessScheduler scheduler, String url, boolean head, FetchResult result) {
+		Mockito.when(scheduler.probe(url, head, 24)).thenReturn(CompletableFuture.completedFuture(result));
+	}
+
+	private static CompletableFuture<FetchResult> failed(Throwable error) {
+		CompletableFuture<FetchResult> future = new CompletableFuture<>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
+	private static FetchResult response(int status, byte[] body, String contentType, String... headers) {
+		Map<String, String> headerMap = new HashMap<>();
+		for(int i = 0; i < headers.length; i += 2) headerMap.put(headers[i].toLowerCase(), headers[i + 1]);
+		return new FetchResult("https://example.com/", status, contentType, null, body, 1, headerMap);
+	}
+
+	private static ResultStore results(String... imageUrls) {
+		ResultStore results = Mockito.mock(ResultStore.class);
+		for(int i = 0; i < imageUrls.length; i++) Mockito.when(results.getImageUrl(i)).thenReturn(imageUrls[i]);
+		return results;
+	}
+
+	private static ImageHeader applied(ResultStore results, int image) {
+		ArgumentCaptor<ImageHeader> header = ArgumentCaptor.forClass(ImageHeader.class);
+		Mockito.verify(results).applyHeader(Mockito.eq(image), header.capture());
+		return header.getValue();
+	}
+}
@@ -0,0 +1,192 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import com.eulerity.hackathon.imagefinder.config.ConfigLoader;
+import com.eulerity.hackathon.imagefinder.exception.RobotsDisallowedException;
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.service.AsyncFetcher;
+
+public class PolitenessSchedulerTest {
+
+	private final long minDelay = ConfigLoader.get("crawler.rateLimit.delay.minimum", 50);
+	private final long baseRetryDelay = ConfigLoader.get("crawler.retry.baseDelay.millis", 1000);
+	private AsyncFetcher fetcher;
+	private PolitenessScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		fetcher = Mockito.mock(AsyncFetcher.class);
+		Mockito.when(fetcher.getUserAgent()).thenReturn("ImageFinder");
+		// No robots.txt anywhere
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong()))
+				.thenAnswer(invocation -> response(invocation.getArgument(0), 404));
+		scheduler = new PolitenessScheduler(fetcher);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.stop();
+	}
+
+	@Test
+	public void testDelayGrowsMultiplicativelyAndShrinksAdditively() {
+		HostState host = new HostState("example.com", 100, 1000, 25, 0.5);
+		host.onOverload();
+		host.onOverload();
+		Assert.assertEquals(400, host.getRequestDelay());
+
+		host.onResponse(100);
+		host.onResponse(100);
+		Assert.assertEquals(350, host.getRequestDelay());
+		// Twice the average response time, the host is slowing down
+		host.onResponse(300);
+		Assert.assertEquals(525, host.getRequestDelay());
+		for(int i = 0; i < 100; i++) host.onResponse(200);
+		Assert.assertEquals(100, host.getRequestDelay());
+
+		for(int i = 0; i < 10; i++) host.onOverload();
+		Assert.assertEquals(1000, host.getRequestDelay());
+		host.applyCrawlDelay(800);
+		for(int i = 0; i < 100; i++) host.onResponse(200);
+		Assert.assertEquals(800, host.getRequestDelay());
+	}
+
+	@Test
+	public void testNotFoundIsGivenUpWithoutSlowingDown() throws Exception {
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyMap()))
+				.thenAnswer(invocation -> {
+					String url = invocation.getArgument(0);
+					return response(url, url.endsWith("/gone") ? 410 : 404);
+				});
+
+		Assert.assertEquals(404, scheduler.fetch("https://example.com/missing").get(5, TimeUnit.SECONDS).getStatus());
+		Assert.assertEquals(410, scheduler.fetch("https://example.com/gone").get(5, TimeUnit.SECONDS).getStatus());
+		Mockito.verify(fetcher, Mockito.never()).schedule(ArgumentMatchers.any(), ArgumentMatchers.anyLong());
+		Assert.assertEquals(minDelay, host("example.com").getRequestDelay());
+	}
+
+	@Test
+	public void testPushBackSlowsTheHostDownAndRetriesWithBackoff() {
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyMap()))
+				.thenAnswer(invocation -> response(invocation.getArgument(0), 429));
+
+		scheduler.fetch("https://busy.example.com/");
+		ArgumentCaptor<Long> retryDelay = ArgumentCaptor.forClass(Long.class);
+		Mockito.verify(fetcher, Mockito.timeout(5000)).schedule(ArgumentMatchers.any(), retryDelay.capture());
+
+		Assert.assertTrue(retryDelay.getValue() >= baseRetryDelay / 2 && retryDelay.getValue() <= baseRetryDelay);
+		Assert.assertEquals(2 * minDelay, host("busy.example.com").getRequestDelay());
+	}
+
+	@Test
+	public void testRedirectsAreFetchedAsRequestsOfTheirOwn() throws Exception {
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyMap()))
+				.thenAnswer(invocation -> {
+					String url = invocation.getArgument(0);
+					if(url.equals("https://old.example.com/a")) return redirect(url, "https://new.example.com/b");
+					if(url.endsWith("/loop")) return redirect(url, "/loop");
+					return response(url, 200);
+				});
+
+		FetchResult moved = scheduler.fetch("https://old.example.com/a").get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(200, moved.getStatus());
+		Assert.assertEquals("https://new.example.com/b", moved.getUrl());
+		// The target went through its own host's robots.txt and politeness state
+		Mockito.verify(fetcher).fetch(ArgumentMatchers.eq("https://new.example.com/robots.txt"), ArgumentMatchers.anyLong());
+		host("new.example.com");
+
+		FetchResult loop = scheduler.fetch("https://example.com/loop").get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(302, loop.getStatus());
+		Mockito.verify(fetcher, Mockito.times(PolitenessScheduler.MAX_REDIRECTS + 1))
+				.fetch(ArgumentMatchers.eq("https://example.com/loop"), ArgumentMatchers.anyLong(), ArgumentMatchers.anyMap());
+	}
+
+	@Test
+	public void testRobotsGroupOfTheAgentSent() throws Exception {
+		String robots = "User-agent: *\nDisallow: /private/\n\nUser-agent: ImageFinder\nDisallow: /no-images/\n";
+		Mockito.when(fetcher.fetch(ArgumentMatchers.eq("https://rules.example.com/robots.txt"), ArgumentMatchers.anyLong()))
+				.thenReturn(CompletableFuture.completedFuture(new FetchResult("https://rules.example.com/robots.txt", 200,
+						"text/plain", "utf-8", robots.getBytes(StandardCharsets.UTF_8), 10, Collections.emptyMap())));
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyMap()))
+				.thenAnswer(invocation -> response(invocation.getArgument(0), 200));
+
+		Assert.assertEquals(200, scheduler.fetch("https://rules.example.com/private/a").get(5, TimeUnit.SECONDS).getStatus());
+		try {
+			scheduler.fetch("https://rules.example.com/no-images/a").get(5, TimeUnit.SECONDS);
+			Assert.fail("robots.txt should disallow the fetch for ImageFinder");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RobotsDisallowedException);
+		}
+	}
+
+	@Test
+	public void testUnparseableUrlIsRejected() throws Exception {
+		try {
+			scheduler.fetch("not a url").get(5, TimeUnit.SECONDS);
+			Assert.fail("Fetch of an unparseable URL should fail");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof MalformedURLException);
+		}
+		Assert.assertTrue(scheduler.getHosts().isEmpty());
+	}
+
+	@Test
+	public void testIdleHostsAreEvicted() throws Exception {
+		PolitenessScheduler evicting = new PolitenessScheduler(fetcher, 100);
+		try {
+			CompletableFuture<FetchResult> hanging = new CompletableFuture<>();
+			Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.anyMap()))
+					.thenAnswer(invocation -> {
+						String url = invocation.getArgument(0);
+						return url.startsWith("https://busy.example.com/") ? hanging : response(url, 200);
+					});
+
+			Assert.assertEquals(200, evicting.fetch("https://idle.example.com/a").get(5, TimeUnit.SECONDS).getStatus());
+			evicting.fetch("https://busy.example.com/a");
+			Assert.assertEquals(2, evicting.getHosts().size());
+
+			// The host with a fetch in flight stays
+			long deadline = System.currentTimeMillis() + 5000;
+			while(evicting.getHosts().size() > 1 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+			Assert.assertEquals(1, evicting.getHosts().size());
+			Assert.assertEquals("busy.example.com", evicting.getHosts().iterator().next().getHost());
+
+			// A host seen again gets a new state
+			Assert.assertEquals(200, evicting.fetch("https://idle.example.com/b").get(5, TimeUnit.SECONDS).getStatus());
+			Assert.assertEquals(2, evicting.getHosts().size());
+		} finally {
+			evicting.stop();
+		}
+	}
+
+	private HostState host(String name) {
+		for(HostState host : scheduler.getHosts()) {
+			if(host.getHost().equals(name)) return host;
+		}
+		throw new AssertionError("No politeness state for " + name);
+	}
+
+	private CompletableFuture<FetchResult> redirect(String url, String location) {
+		return CompletableFuture.completedFuture(new FetchResult(url, 302, "text/html", null, new byte[0], 10,
+				Collections.singletonMap("location", location)));
+	}
+
+	private CompletableFuture<FetchResult> response(String url, int status) {
+		return CompletableFuture.completedFuture(new FetchResult(url, status, "text/html", null, new byte[0], 10,
+				Collections.emptyMap()));
+	}
+}
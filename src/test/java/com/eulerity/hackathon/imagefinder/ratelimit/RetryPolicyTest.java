@@ -0,0 +1,71 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+
+public class RetryPolicyTest {
+
+	private final RetryPolicy retryPolicy = new RetryPolicy(5, 1000, 8000, 60000);
+
+	@Test
+	public void testRetryAfterInSecondsAndAsHttpDate() {
+		Assert.assertEquals(120000, RetryPolicy.getRetryAfter(result(503, " 120 ")));
+		Assert.assertEquals(-1, RetryPolicy.getRetryAfter(result(503, null)));
+		Assert.assertEquals(-1, RetryPolicy.getRetryAfter(result(503, "soon")));
+
+		String inThirtySeconds = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+		long retryAfter = RetryPolicy.getRetryAfter(result(429, inThirtySeconds));
+		Assert.assertTrue(String.valueOf(retryAfter), retryAfter > 25000 && retryAfter <= 30000);
+		String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusHours(1));
+		Assert.assertEquals(0, RetryPolicy.getRetryAfter(result(429, past)));
+
+		// Waited for as asked, unless longer than the crawler is willing to
+		Assert.assertEquals(2000, retryPolicy.retryDelay(result(503, "2"), null, 1));
+		Assert.assertEquals(RetryPolicy.NO_RETRY, retryPolicy.retryDelay(result(503, "600"), null, 1));
+	}
+
+	@Test
+	public void testClientErrorsArePermanent() {
+		for(int status : new int[] {400, 403, 404, 410}) {
+			Assert.assertTrue(RetryPolicy.isPermanent(status));
+			Assert.assertFalse(RetryPolicy.isPushBack(status));
+			Assert.assertEquals(RetryPolicy.NO_RETRY, retryPolicy.retryDelay(result(status, "1"), null, 1));
+		}
+		for(int status : new int[] {408, 429, 500, 503}) {
+			Assert.assertFalse(RetryPolicy.isPermanent(status));
+			Assert.assertTrue(RetryPolicy.isRetryable(status));
+		}
+		Assert.assertEquals(RetryPolicy.NO_RETRY, retryPolicy.retryDelay(null, new UnknownHostException("nowhere"), 1));
+	}
+
+	@Test
+	public void testBackoffIsJitteredWithinLimits() {
+		for(int i = 0; i < 200; i++) {
+			assertBetween(500, 1000, retryPolicy.retryDelay(result(429, null), null, 1));
+			assertBetween(1000, 2000, retryPolicy.retryDelay(result(502, null), null, 2));
+			assertBetween(2000, 4000, retryPolicy.retryDelay(null, new IOException("Connection reset"), 3));
+			// Capped at the maximum delay
+			assertBetween(4000, 8000, retryPolicy.retryDelay(result(503, null), null, 4));
+			assertBetween(4000, 8000, retryPolicy.backoff(30));
+		}
+		Assert.assertEquals(RetryPolicy.NO_RETRY, retryPolicy.retryDelay(result(503, null), null, 5));
+	}
+
+	private static void assertBetween(long min, long max, long delay) {
+		Assert.assertTrue(delay + " not within [" + min + ", " + max + "]", delay >= min && delay <= max);
+	}
+
+	private static FetchResult result(int status, String retryAfter) {
+		return new FetchResult("https://example.com/", status, null, null, new byte[0], 10,
+				(retryAfter == null) ? Collections.emptyMap() : Collections.singletonMap("retry-after", retryAfter));
+	}
+}
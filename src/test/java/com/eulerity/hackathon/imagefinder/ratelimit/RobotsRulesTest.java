@@ -0,0 +1,126 @@
+package com.eulerity.hackathon.imagefinder.ratelimit;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import com.eulerity.hackathon.imagefinder.object.FetchResult;
+import com.eulerity.hackathon.imagefinder.service.AsyncFetcher;
+
+public class RobotsRulesTest {
+
+	private static final String ROBOTS =
+			"# Example robots.txt\n" +
+			"User-agent: *\n" +
+			"Disallow: /private/\n" +
+			"Allow: /private/public\n" +
+			"Disallow: /*.pdf$\n" +
+			"Crawl-delay: 2.5\n" +
+			"\n" +
+			"User-agent: ImageFinder\n" +
+			"Disallow: /no-images/\n" +
+			"\n" +
+			"Sitemap: https://www.example.com/sitemap.xml\n";
+
+	@Test
+	public void testWildcardGroup() {
+		RobotsRules rules = RobotsRules.parse(ROBOTS, "OtherBot");
+		Assert.assertTrue(rules.isAllowed("/"));
+		Assert.assertFalse(rules.isAllowed("/private/page"));
+		Assert.assertTrue(rules.isAllowed("/private/public/page"));
+		Assert.assertFalse(rules.isAllowed("/docs/file.pdf"));
+		Assert.assertTrue(rules.isAllowed("/docs/file.pdf?download=1"));
+		Assert.assertEquals(2500, rules.getCrawlDelay());
+		Assert.assertEquals(Collections.singletonList("https://www.example.com/sitemap.xml"), rules.getSitemaps());
+	}
+
+	@Test
+	public void testSpecificAgentGroup() {
+		RobotsRules rules = RobotsRules.parse(ROBOTS, "ImageFinder");
+		Assert.assertFalse(rules.isAllowed("/no-images/a.png"));
+		Assert.assertTrue(rules.isAllowed("/private/page"));
+		Assert.assertEquals(-1, rules.getCrawlDelay());
+	}
+
+	@Test
+	public void testManyWildcardsMatchInPolynomialTime() {
+		RobotsRules rules = RobotsRules.parse("User-agent: *\nDisallow: /*a*a*a*a*a*a*b\nDisallow: /end*x$\n", "ImageFinder");
+		StringBuilder path = new StringBuilder("/");
+		for(int i = 0; i < 5000; i++) path.append('a');
+		// Backtracking over every split of the a's between the wildcards would not finish
+		Assert.assertTrue(rules.isAllowed(path.toString()));
+		Assert.assertFalse(rules.isAllowed(path + "b"));
+		Assert.assertFalse(rules.isAllowed(path + "b/after"));
+		Assert.assertFalse(rules.isAllowed("/end/x/x"));
+		Assert.assertTrue(rules.isAllowed("/end/x/y"));
+		Assert.assertTrue(RobotsRules.parse("User-agent: *\nDisallow: /a*$\n", "ImageFinder").isAllowed("/b"));
+	}
+
+	@Test
+	public void testServerErrorDisallowsUntilRetried() throws Exception {
+		AsyncFetcher fetcher = Mockito.mock(AsyncFetcher.class);
+		Mockito.when(fetcher.getUserAgent()).thenReturn("ImageFinder");
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong()))
+				.thenReturn(CompletableFuture.completedFuture(response(503, null)))
+				.thenReturn(CompletableFuture.completedFuture(response(404, null)));
+
+		RobotsCache cache = new RobotsCache(fetcher, TimeUnit.MINUTES.toMillis(60), 0, 100);
+		RobotsRules unavailable = cache.rulesFor("https://a.example.com/x").get(5, TimeUnit.SECONDS);
+		Assert.assertFalse(unavailable.isAllowed("/"));
+		Assert.assertFalse(unavailable.isAllowed("/x?y=1"));
+		// The server error is not kept for the robots.txt's whole lifetime
+		Assert.assertSame(RobotsRules.ALLOW_ALL, cache.rulesFor("https://a.example.com/x").get(5, TimeUnit.SECONDS));
+		Mockito.verify(fetcher, Mockito.times(2)).fetch("https://a.example.com/robots.txt", 0);
+	}
+
+	@Test
+	public void testRetryDecisions() {
+		RetryPolicy policy = new RetryPolicy(3, 1000, 30000, 120000);
+		Assert.assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(response(404, null), null, 1));
+		Assert.assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(response(410, null), null, 1));
+		Assert.assertEquals(7000, policy.retryDelay(response(429, "7"), null, 1));
+		Assert.assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(response(503, "3600"), null, 1));
+		Assert.assertEquals(RetryPolicy.NO_RETRY, policy.retryDelay(response(500, null), null, 3));
+
+		long backoff = policy.retryDelay(response(502, null), null, 2);
+		Assert.assertTrue(backoff >= 1000 && backoff <= 2000);
+	}
+
+	@Test
+	public void testCacheKeepsRecentOriginsOnly() throws Exception {
+		AsyncFetcher fetcher = Mockito.mock(AsyncFetcher.class);
+		Mockito.when(fetcher.getUserAgent()).thenReturn("ImageFinder");
+		Mockito.when(fetcher.fetch(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong()))
+				.thenReturn(CompletableFuture.completedFuture(response(404, null)));
+
+		RobotsCache cache = new RobotsCache(fetcher, TimeUnit.MINUTES.toMillis(60), 0, 2);
+		Assert.assertSame(RobotsRules.ALLOW_ALL, cache.rulesFor("https://a.example.com/x").get(5, TimeUnit.SECONDS));
+		cache.rulesFor("HTTPS://A.example.com/y");
+		cache.rulesFor("https://b.example.com:8443/");
+		cache.rulesFor("https://c.example.com/");
+		Assert.assertEquals(2, cache.size());
+		Mockito.verify(fetcher).fetch("https://a.example.com/robots.txt", 0);
+		Mockito.verify(fetcher).fetch("https://b.example.com:8443/robots.txt", 0);
+
+		// The least recently used origin was dropped, and is looked up again
+		cache.rulesFor("https://a.example.com/z");
+		Mockito.verify(fetcher, Mockito.times(2)).fetch("https://a.example.com/robots.txt", 0);
+
+		// Expired origins are dropped rather than kept until the limit is reached
+		RobotsCache expiring = new RobotsCache(fetcher, 0, 0, 100);
+		expiring.rulesFor("https://d.example.com/");
+		expiring.rulesFor("https://d.example.com/");
+		Assert.assertEquals(0, expiring.size());
+		Mockito.verify(fetcher, Mockito.times(2)).fetch("https://d.example.com/robots.txt", 0);
+	}
+
+	private static FetchResult response(int status, String retryAfter) {
+		return new FetchResult("https://www.example.com/", status, "text/html", null, new byte[0], 10,
+				(retryAfter == null) ? Collections.emptyMap() : Collections.singletonMap("retry-after", retryAfter));
+	}
+}
@@ -0,0 +1,87 @@
+package com.eulerity.hackathon.imagefinder.result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+import com.eulerity.hackathon.imagefinder.probe.ImageHeader;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+public class ResultStoreTest {
+
+	private static final Gson GSON = new GsonBuilder().create();
+
+	@Test
+	public void testInternsImagesAcrossPages() {
+		ResultStore results = new ResultStore();
+		ResultStore.Page home = results.openPage("https://example.com/", 0);
+		ResultStore.Page about = results.openPage("https://example.com/about", 1);
+
+		int logo = results.intern("https://example.com/logo.png", Image.Type.LOGO);
+		Assert.assertTrue(home.add(logo));
+		Assert.assertFalse(home.add(results.intern("https://example.com/logo.png", Image.Type.LOGO)));
+		Assert.assertTrue(about.add(results.intern("https://example.com/logo.png", Image.Type.LOGO)));
+		about.add(results.intern("https://example.com/team.jpg", Image.Type.IMAGE));
+
+		Assert.assertEquals(2, results.getImageCount());
+		Assert.assertArrayEquals(new int[] {logo}, home.getImages());
+		Assert.assertEquals(2, about.size());
+		Assert.assertSame(about, results.removePage("https://example.com/about"));
+		Assert.assertNull(results.getPage("https://example.com/about"));
+	}
+
+	@Test
+	public void testKeepsPagesAndImagesInOrderBeyondAChunk() {
+		ResultStore results = new ResultStore();
+		ResultStore.Page page = results.openPage("https://example.com/", 0);
+		for(int i = 0; i < 3000; i++) page.add(results.intern("https://example.com/" + i + ".png", Image.Type.IMAGE));
+		for(int i = 0; i < 3000; i += 7) page.add(results.intern("https://example.com/" + i + ".png", Image.Type.IMAGE));
+
+		Assert.assertEquals(3000, results.getImageCount());
+		int[] images = page.getImages();
+		Assert.assertEquals(3000, images.length);
+		for(int i = 0; i < images.length; i++) {
+			Assert.assertEquals("https://example.com/" + i + ".png", results.getImageUrl(images[i]));
+		}
+	}
+
+	@Test
+	public void testWritesTheJsonOfAnObjectPerImage() {
+		String url = "https://example.com/?q=<b>&lang='en'&t=\"\\\t\u0001\u2028\u00e9";
+		ResultStore results = new ResultStore();
+		ResultStore.Page page = results.openPage(url, 2);
+		List<Image> images = new ArrayList<>();
+
+		Image banner = Image.processImage("https://example.com/banner.png");
+		banner.applyHeader(new ImageHeader("image/gif", 468, 60, 2048L));
+		banner.setClusterId("00ff00ff00ff00ff");
+		int id = results.intern("https://example.com/banner.png", Image.Type.IMAGE);
+		results.applyHeader(id, new ImageHeader("image/gif", 468, 60, 2048L));
+		results.setClusterId(id, "00ff00ff00ff00ff");
+		page.add(id);
+		images.add(banner);
+
+		Image logo = Image.processImage("https://example.com/logo.svg?v=1&w=2");
+		page.add(results.intern(logo, true));
+		images.add(logo);
+
+		Image photo = Image.processImage("https://example.com/photo.jpg");
+		photo.applyHeader(new ImageHeader("image/jpeg", null, null, 512L));
+		page.add(results.intern(photo, true));
+		images.add(photo);
+
+		Map<String, Object> expected = new LinkedHashMap<>();
+		expected.put("level", 2);
+		expected.put("images", images);
+		Assert.assertEquals(GSON.toJson(Collections.singletonMap(url, expected)), PageResultWriter.toJson(results, url, page));
+		Assert.assertEquals(banner.toString(), results.toImage(id).toString());
+		Assert.assertEquals(GSON.toJson(Collections.singletonMap(url, null)), PageResultWriter.toJson(results, url, null));
+	}
+}
@@ -0,0 +1,107 @@
+package com.eulerity.hackathon.imagefinder.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+
+public class CrawlEngineTest {
+
+	@Test
+	public void testRejectsJobsOverTheLimits() {
+		CrawlEngine engine = new CrawlEngine(1, 1, 2, 1, 5);
+		try {
+			CrawlEngine.Job first = engine.admit("a");
+			Assert.assertEquals(429, rejection(engine, "a"));
+			engine.admit("b");
+			Assert.assertEquals(503, rejection(engine, "c"));
+
+			first.release();
+			engine.admit("a");
+			Assert.assertEquals(2, engine.getActiveJobCount());
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	public void testCapsTasksInFlightPerJob() throws InterruptedException {
+		CrawlEngine engine = new CrawlEngine(4, 2, 8, 8, 5);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(3);
+		try {
+			CrawlEngine.Job deep = engine.admit("a");
+			for(int i = 0; i < 4; i++) deep.submit(() -> block(started, release));
+			// A worker is still idle, the other job gets it while the first one is at its cap
+			engine.admit("b").submit(() -> block(started, release));
+
+			Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(3, engine.getBusyWorkers());
+			Assert.assertEquals(2, engine.getQueuedTaskCount());
+		} finally {
+			release.countDown();
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	public void testDispatchesRoundRobinAcrossJobs() throws InterruptedException {
+		CrawlEngine engine = new CrawlEngine(1, 8, 8, 8, 5);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(7);
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		try {
+			CrawlEngine.Job first = engine.admit("a");
+			CrawlEngine.Job second = engine.admit("b");
+			// Holds the only worker while both jobs queue their tasks
+			first.submit(() -> block(done, release));
+			for(int i = 1; i <= 3; i++) {
+				String task = "a" + i;
+				first.submit(() -> {
+					order.add(task);
+					done.countDown();
+				});
+			}
+			for(int i = 1; i <= 3; i++) {
+				String task = "b" + i;
+				second.submit(() -> {
+					order.add(task);
+					done.countDown();
+				});
+			}
+			release.countDown();
+
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3", "b3"), order);
+		} finally {
+			release.countDown();
+			engine.shutdown();
+		}
+	}
+
+	private static int rejection(CrawlEngine engine, String clientId) {
+		try {
+			engine.admit(clientId);
+		} catch (CrawlRejectedException e) {
+			return e.getStatusCode();
+		}
+		Assert.fail("Job of " + clientId + " should have been rejected");
+		return 0;
+	}
+
+	private static void block(CountDownLatch started, CountDownLatch release) {
+		started.countDown();
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.eulerity.hackathon.imagefinder.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TaskScopeTest {
+
+	@Test
+	public void testIdleOnlyOnceEveryTaskExited() {
+		int[] idle = {0};
+		TaskScope scope = new TaskScope(() -> idle[0]++);
+		try(TaskScope.Task ignored = scope.open()) {
+			scope.enter();
+			scope.enter();
+			scope.exit();
+		}
+		Assert.assertEquals(0, idle[0]);
+		Assert.assertFalse(scope.isIdle());
+
+		scope.exit();
+		Assert.assertEquals(1, idle[0]);
+		Assert.assertTrue(scope.isIdle());
+	}
+
+	@Test
+	public void testIdleAgainOnceReentered() {
+		int[] idle = {0};
+		TaskScope scope = new TaskScope(() -> idle[0]++);
+		TaskScope.Task task = scope.open();
+		task.close();
+		task.close();
+		scope.enter();
+		scope.exit();
+
+		Assert.assertEquals(2, idle[0]);
+	}
+
+	@Test
+	public void testFailingBlockStillExitsItsTask() {
+		int[] idle = {0};
+		TaskScope scope = new TaskScope(() -> idle[0]++);
+		try(TaskScope.Task ignored = scope.open()) {
+			scope.enter();
+			throw new IllegalStateException("Parse failed");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("Parse failed", e.getMessage());
+		}
+		// The failure reached the caller and closed the block, the task it started is still open
+		Assert.assertEquals(1, scope.getOpenTasks());
+		scope.exit();
+		Assert.assertEquals(1, idle[0]);
+
+		try {
+			scope.exit();
+			Assert.fail("Exiting a task never entered should fail");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals(1, idle[0]);
+		}
+	}
+
+	@Test
+	public void testCancelledTasksExitThroughTheirCallbacks() throws InterruptedException {
+		CountDownLatch idle = new CountDownLatch(1);
+		AtomicInteger idleCalls = new AtomicInteger(0);
+		TaskScope scope = new TaskScope(() -> {
+			idleCalls.incrementAndGet();
+			idle.countDown();
+		});
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CompletableFuture<?>[] fetches = new CompletableFuture<?>[1000];
+		try(TaskScope.Task ignored = scope.open()) {
+			for(int i = 0; i < fetches.length; i++) {
+				TaskScope.Task fetch = scope.open();
+				CompletableFuture<String> future = new CompletableFuture<>();
+				// Whether it completes, fails or is cancelled, the callback exits the task
+				future.whenComplete((result, error) -> fetch.close());
+				fetches[i] = future;
+				int index = i;
+				executor.submit(() -> {
+					if(index % 3 == 0) future.cancel(false);
+					else if(index % 3 == 1) future.completeExceptionally(new IllegalStateException("Connection reset"));
+					else future.complete("page");
+				});
+			}
+		}
+		executor.shutdown();
+
+		Assert.assertTrue(idle.await(10, TimeUnit.SECONDS));
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, idleCalls.get());
+		Assert.assertTrue(scope.isIdle());
+		Assert.assertTrue(fetches[0].isCancelled());
+		Assert.assertTrue(fetches[1].isCompletedExceptionally());
+	}
+}
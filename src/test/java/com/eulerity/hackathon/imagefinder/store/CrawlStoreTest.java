@@ -0,0 +1,53 @@
+package com.eulerity.hackathon.imagefinder.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.exception.CrawlRejectedException;
+
+public class CrawlStoreTest {
+
+	@Test
+	public void testReplaysInterruptedCrawl() throws IOException {
+		Path directory = Files.createTempDirectory("crawl-store");
+		CrawlStore store = new CrawlStore(true, directory, 64, 24);
+
+		CrawlLog crawlLog = store.create("https://example.com/", true, 2);
+		crawlLog.appendQueued("https://example.com/", 0);
+		crawlLog.appendQueued("https://example.com/a/", 1);
+		crawlLog.appendResult("https://example.com/", "{\"https://example.com/\":{}}");
+		try {
+			store.replay(crawlLog.getCrawlId());
+			Assert.fail("A running crawl must not be resumed");
+		} catch (CrawlRejectedException e) {
+			Assert.assertEquals(409, e.getStatusCode());
+		}
+		crawlLog.close();
+
+		CrawlLog.Replay replay = store.replay(crawlLog.getCrawlId());
+		Assert.assertEquals("https://example.com/", replay.getUrl());
+		Assert.assertTrue(replay.isRecursive());
+		Assert.assertEquals(2, replay.getDepth());
+		Assert.assertFalse(replay.isComplete());
+		Assert.assertEquals(2, replay.getQueued().size());
+		Assert.assertEquals("{\"https://example.com/\":{}}", replay.getResults().get("https://example.com/"));
+
+		CrawlLog resumed = store.reopen(crawlLog.getCrawlId(), replay);
+		resumed.appendResult("https://example.com/a/", "{}");
+		resumed.appendComplete();
+		resumed.close();
+
+		replay = store.replay(crawlLog.getCrawlId());
+		Assert.assertTrue(replay.isComplete());
+		Assert.assertEquals(2, replay.getResults().size());
+	}
+
+	@Test(expected = CrawlRejectedException.class)
+	public void testRejectsUnknownCrawl() throws IOException {
+		new CrawlStore(true, Files.createTempDirectory("crawl-store"), 64, 24).replay("../application");
+	}
+}
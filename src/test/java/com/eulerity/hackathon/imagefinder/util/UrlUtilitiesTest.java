@@ -0,0 +1,155 @@
+package com.eulerity.hackathon.imagefinder.util;
+
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.eulerity.hackathon.imagefinder.object.Image;
+
+public class UrlUtilitiesTest {
+
+	@Test
+	public void testCanonicalizeUrl() {
+		Assert.assertEquals("https://www.example.com/",
+				UrlUtilities.canonicalizeUrl("HTTPS://WWW.Example.COM:443"));
+		Assert.assertEquals("http://example.com:8080/a/c/?a=1&b=2",
+				UrlUtilities.canonicalizeUrl("http://example.com:8080/a/b/../c/./?b=2&a=1#section"));
+		Assert.assertEquals("http://example.com/Path/",
+				UrlUtilities.canonicalizeUrl("http://example.com:80/Path/#/"));
+		Assert.assertEquals(UrlUtilities.canonicalizeUrl("https://example.com/p?x=1&y=2"),
+				UrlUtilities.canonicalizeUrl("https://example.com/p?y=2&x=1&"));
+		Assert.assertNull(UrlUtilities.canonicalizeUrl("mailto:someone@example.com"));
+	}
+
+	// java.net.URL is deprecated for parsing, but remains the reference resolution is compared against
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testResolveMatchesJavaNetUrl() throws Exception {
+		String baseUrl = "http://a.example.com/b/c/d;p?q#f";
+		ParsedUrl base = ParsedUrl.parse(baseUrl);
+		String[] references = {"g", "./g", "g/", "/g", "//g.example.com/x", "g?y", "#s", "g#s", "g?y#s", ";x", "g;x",
+				".", "./", "..", "../", "../g", "../..", "../../", "../../g", "  g  ", "https://other.example.com/i.png"};
+		for(String reference : references) {
+			Assert.assertEquals(reference, new URL(new URL(baseUrl), reference).toString(), base.resolve(reference));
+		}
+		// Where java.net.URL still follows RFC 2396, references resolve the RFC 3986 way, as in browsers
+		Assert.assertEquals("http://a.example.com/b/c/d;p?y", base.resolve("?y"));
+		Assert.assertEquals("http://a.example.com/b/c/d;p?q", base.resolve(""));
+		Assert.assertEquals("http://a.example.com/g", base.resolve("/a/../g"));
+		Assert.assertEquals("http://a.example.com/g", ParsedUrl.parse("http://a.example.com").resolve("g"));
+		Assert.assertNull(base.resolve("mailto:someone@example.com"));
+		Assert.assertNull(base.resolve("javascript:void(0)"));
+	}
+
+	@Test
+	public void testResolveUrlKeepsSameDomain() throws Exception {
+		ParsedUrl base = ParsedUrl.parse("https://user@Example.com:8443/a/");
+		Assert.assertEquals("https://example.com/b", UrlUtilities.resolveUrl(base, "https://example.com/b", true));
+		Assert.assertEquals("https://EXAMPLE.com:443/b", UrlUtilities.resolveUrl(base, "https://EXAMPLE.com:443/b", true));
+		Assert.assertNull(UrlUtilities.resolveUrl(base, "https://cdn.example.com/b", true));
+		Assert.assertNull(UrlUtilities.resolveUrl(base, "//cdn.example.com/b", true));
+		Assert.assertEquals("https://cdn.example.com/b", UrlUtilities.resolveUrl(base, "//cdn.example.com/b", false));
+		Assert.assertEquals("https://user@Example.com:8443/a/c", UrlUtilities.resolveUrl(base, "c", true));
+	}
+
+	@Test
+	public void testPathAndQueryAsMatchedByRobots() {
+		Assert.assertEquals("/", ParsedUrl.parse("https://example.com").getPathAndQuery());
+		Assert.assertEquals("/?q=1", ParsedUrl.parse("https://example.com?q=1#top").getPathAndQuery());
+		Assert.assertEquals("/a/b?q=1", ParsedUrl.parse("https://user@example.com:8443/a/b?q=1#top").getPathAndQuery());
+		Assert.assertNull(ParsedUrl.parse("not a url"));
+	}
+
+	@Test
+	public void testValidatesUrls() throws Exception {
+		Assert.assertTrue(UrlUtilities.isValidURL("https://www.example.com"));
+		Assert.assertTrue(UrlUtilities.isValidURL("ftp://example.com/file"));
+		Assert.assertFalse(UrlUtilities.isValidURL("not-a-url"));
+		Assert.assertFalse(UrlUtilities.isValidURL("https://example.com/a b"));
+		Assert.assertFalse(UrlUtilities.isValidURL("unknown://example.com/"));
+		Assert.assertTrue(UrlUtilities.isAbsoluteUrl("mailto:someone@example.com"));
+		Assert.assertFalse(UrlUtilities.isAbsoluteUrl("/relative/path"));
+		Assert.assertTrue(UrlUtilities.isHttpOrHttps("HTTPS://example.com/"));
+		Assert.assertFalse(UrlUtilities.isHttpOrHttps("ftp://example.com/"));
+		Assert.assertTrue(UrlUtilities.isSameDomain("https://Example.com/a", "http://user@example.com:8080/b"));
+		Assert.assertFalse(UrlUtilities.isSameDomain("https://example.com/", "https://www.example.com/"));
+	}
+
+	@Test
+	public void testClassifiesByKeywords() {
+		Assert.assertTrue(UrlUtilities.isImageUrl("https://example.com/photo.jpeg?w=300"));
+		Assert.assertFalse(UrlUtilities.isImageUrl("https://example.com/page/"));
+		Assert.assertEquals(Image.Type.FAVICON, Image.processImage("https://example.com/FavIcon-32.png").getType());
+		Assert.assertEquals(Image.Type.FAVICON, Image.processImage("https://example.com/site.ICO").getType());
+		Assert.assertEquals(Image.Type.LOGO, Image.processImage("https://example.com/brand/Logo.gif").getType());
+		Assert.assertEquals(Image.Type.GIF, Image.processImage("https://example.com/anim.GIF").getType());
+		Assert.assertEquals(Image.Type.SVG, Image.processImage("https://example.com/icon.svg").getType());
+		Assert.assertEquals(Image.Type.IMAGE, Image.processImage("https://example.com/photo.png").getType());
+	}
+
+	@Test
+	public void testConcurrentLongSetAddsEachValueOnce() throws InterruptedException {
+		ConcurrentLongSet set = new ConcurrentLongSet(16);
+		AtomicInteger added = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for(int thread = 0; thread < 8; thread++) {
+			executor.submit(() -> {
+				for(long value = 0; value < 50000; value++) {
+					if(set.add(value)) added.incrementAndGet();
+				}
+			});
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+		Assert.assertEquals(50000, added.get());
+		Assert.assertEquals(50000, set.size());
+		for(long value = 0; value < 50000; value++) {
+			Assert.assertTrue(set.contains(value));
+		}
+		Assert.assertFalse(set.contains(50000));
+	}
+
+	@Test
+	public void testConcurrentLongSetFindsValuesWhileGrowing() throws InterruptedException {
+		ConcurrentLongSet set = new ConcurrentLongSet(16);
+		Assert.assertEquals(0, set.size());
+		Assert.assertFalse(set.contains(0));
+		Assert.assertFalse(set.contains(Long.MIN_VALUE));
+
+		// Readers look up values already added while the writer keeps moving them to grown tables
+		AtomicLong lastAdded = new AtomicLong(0);
+		AtomicBoolean missed = new AtomicBoolean(false);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		for(int thread = 0; thread < 3; thread++) {
+			executor.submit(() -> {
+				long last;
+				while((last = lastAdded.get()) < 200000) {
+					for(long value = Math.max(1, last - 100); value <= last; value++) {
+						if(!set.contains(value)) missed.set(true);
+					}
+				}
+			});
+		}
+		executor.submit(() -> {
+			for(long value = 1; value <= 200000; value++) {
+				set.add(value);
+				lastAdded.set(value);
+			}
+		});
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+		Assert.assertFalse(missed.get());
+		Assert.assertEquals(200000, set.size());
+		Assert.assertFalse(set.contains(0));
+		Assert.assertFalse(set.contains(200001));
+	}
+}